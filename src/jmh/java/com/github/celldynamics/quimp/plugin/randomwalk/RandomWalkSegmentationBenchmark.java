@@ -0,0 +1,168 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Benchmark of stages of {@link RandomWalkSegmentation} on {@link SyntheticCells} images.
+ * 
+ * <p>Each stage is measured separately on the same data prepared once for each combination of
+ * parameters. Throughput is reported in operations per second, allocation rate is reported if GC
+ * profiler is enabled (default in <tt>benchmark</tt> profile and in {@link #main(String[])}).
+ * 
+ * @author p.baniukiewicz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RandomWalkSegmentationBenchmark {
+
+  /**
+   * Width and height of image.
+   */
+  @Param({ "256", "512" })
+  public int size;
+
+  /**
+   * Number of cells in image.
+   */
+  @Param({ "1", "4", "16" })
+  public int cells;
+
+  /**
+   * Solver engine.
+   */
+  @Param({ "FLAT", "CG" })
+  public SolverEngine solverEngine;
+
+  /**
+   * Synthetic image.
+   */
+  private ImageProcessor image;
+  /**
+   * Seeds for image.
+   */
+  private Seeds seeds;
+  /**
+   * Options of segmentation.
+   */
+  private RandomWalkOptions options;
+  /**
+   * Segmentation object with pre-computed gradients.
+   */
+  private RandomWalkSegmentation obj;
+  /**
+   * Pre-computed gradients.
+   */
+  private RealMatrix[] gradients;
+  /**
+   * Probability maps for {@link #compare()}.
+   */
+  private ProbabilityMaps solved;
+
+  /**
+   * Generate image and pre-compute inputs of each stage.
+   * 
+   * @throws RandomWalkException on solver error
+   */
+  @Setup
+  public void setup() throws RandomWalkException {
+    SyntheticCells synthetic = new SyntheticCells(size, cells, 1L);
+    image = synthetic.getImage();
+    seeds = synthetic.getSeeds();
+    options = new RandomWalkOptions();
+    options.solverEngine = solverEngine;
+    obj = new RandomWalkSegmentation(image, options);
+    gradients = obj.precomputeGradients();
+    solved = obj.solver(seeds, gradients);
+  }
+
+  /**
+   * Whole segmentation including pre-computing.
+   * 
+   * @return segmented image
+   * @throws RandomWalkException on solver error
+   */
+  @Benchmark
+  public ImageProcessor run() throws RandomWalkException {
+    return new RandomWalkSegmentation(image, options).run(seeds);
+  }
+
+  /**
+   * Solving all objects.
+   * 
+   * @return probability maps
+   * @throws RandomWalkException on solver error
+   */
+  @Benchmark
+  public ProbabilityMaps solver() throws RandomWalkException {
+    return obj.solver(seeds, gradients);
+  }
+
+  /**
+   * Computing gradients.
+   * 
+   * @return gradients
+   */
+  @Benchmark
+  public RealMatrix[] precomputeGradients() {
+    return obj.precomputeGradients();
+  }
+
+  /**
+   * Computing local mean within rough mask.
+   * 
+   * @return local mean
+   */
+  @Benchmark
+  public RealMatrix getMeanSeedLocal() {
+    return obj.getMeanSeedLocal(seeds.get(SeedTypes.ROUGHMASK, 1), options.localMeanMaskSize);
+  }
+
+  /**
+   * Comparing probability maps.
+   * 
+   * @return segmented image
+   */
+  @Benchmark
+  public RealMatrix compare() {
+    return obj.compare(solved);
+  }
+
+  /**
+   * Run benchmark from IDE.
+   * 
+   * @param args unused
+   * @throws RunnerException on error
+   */
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder().include(RandomWalkSegmentationBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class).jvmArgsAppend("-Djava.awt.headless=true").build();
+    new Runner(opt).run();
+  }
+}
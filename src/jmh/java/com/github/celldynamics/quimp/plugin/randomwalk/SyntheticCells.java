@@ -0,0 +1,158 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.util.Random;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Generator of synthetic images of fluorescent cells and seeds for them.
+ * 
+ * <p>Cells are randomly rotated ellipses placed on regular grid with bright cortex and dimmer
+ * interior, blurred and corrupted by Gaussian noise. Foreground seed is a disc in centre of each
+ * cell, background seed covers pixels far from all cells and rough mask is slightly enlarged
+ * shape of cells. Images are repeatable for given parameters.
+ * 
+ * @author p.baniukiewicz
+ */
+public class SyntheticCells {
+
+  /**
+   * Intensity of background.
+   */
+  private static final double BACKGROUND = 20;
+  /**
+   * Intensity of cell interior above background.
+   */
+  private static final double INTERIOR = 40;
+  /**
+   * Peak intensity of cortex above background.
+   */
+  private static final double CORTEX = 150;
+  /**
+   * Width (sigma) of cortex in pixels.
+   */
+  private static final double CORTEX_WIDTH = 1.5;
+  /**
+   * Standard deviation of noise.
+   */
+  private static final double NOISE = 8;
+
+  /**
+   * Generated 8-bit image.
+   */
+  private final ImageProcessor image;
+  /**
+   * Seeds for generated image.
+   */
+  private final Seeds seeds;
+
+  /**
+   * Generate image.
+   * 
+   * @param size width and height of image
+   * @param cells number of cells
+   * @param seed seed of random generator
+   */
+  public SyntheticCells(int size, int cells, long seed) {
+    Random rnd = new Random(seed);
+    int grid = (int) Math.ceil(Math.sqrt(cells));
+    double step = (double) size / grid;
+    double radius = step / 2.5; // max semi-axis
+    // parameters of ellipses: centre x, centre y, semi-axes a, b, angle
+    double[][] ell = new double[cells][];
+    for (int c = 0; c < cells; c++) {
+      double x = (c % grid + 0.5) * step + (rnd.nextDouble() - 0.5) * 0.2 * step;
+      double y = (c / grid + 0.5) * step + (rnd.nextDouble() - 0.5) * 0.2 * step;
+      double a = radius * (0.8 + 0.2 * rnd.nextDouble());
+      double b = radius * (0.5 + 0.3 * rnd.nextDouble());
+      ell[c] = new double[] { x, y, a, b, rnd.nextDouble() * Math.PI };
+    }
+    FloatProcessor fp = new FloatProcessor(size, size);
+    ByteProcessor bg = new ByteProcessor(size, size);
+    ByteProcessor mask = new ByteProcessor(size, size);
+    ByteProcessor[] fg = new ByteProcessor[cells];
+    for (int c = 0; c < cells; c++) {
+      fg[c] = new ByteProcessor(size, size);
+    }
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        double val = BACKGROUND;
+        double dmin = Double.MAX_VALUE;
+        for (int c = 0; c < cells; c++) {
+          double d = distance(ell[c], x, y);
+          dmin = Math.min(dmin, d);
+          if (d < 1) {
+            val += INTERIOR;
+          }
+          double dc = (d - 1) * ell[c][3]; // approx distance to cortex in pixels
+          val += CORTEX * Math.exp(-dc * dc / (2 * CORTEX_WIDTH * CORTEX_WIDTH));
+          if (d < 0.3) {
+            fg[c].set(x, y, 255);
+          }
+        }
+        fp.setf(x, y, (float) val);
+        if (dmin > 1.5) {
+          bg.set(x, y, 255);
+        }
+        if (dmin < 1.1) {
+          mask.set(x, y, 255);
+        }
+      }
+    }
+    new GaussianBlur().blurGaussian(fp, 1.0, 1.0, 0.01);
+    float[] pix = (float[]) fp.getPixels();
+    for (int i = 0; i < pix.length; i++) {
+      pix[i] += (float) (rnd.nextGaussian() * NOISE);
+    }
+    fp.setMinAndMax(0, 255);
+    image = fp.convertToByte(true);
+    seeds = new Seeds(3);
+    for (int c = 0; c < cells; c++) {
+      seeds.put(SeedTypes.FOREGROUNDS, fg[c]);
+    }
+    seeds.put(SeedTypes.BACKGROUND, bg);
+    seeds.put(SeedTypes.ROUGHMASK, mask);
+  }
+
+  /**
+   * Normalised distance of point from centre of ellipse.
+   * 
+   * @param ell ellipse parameters
+   * @param x x coordinate of point
+   * @param y y coordinate of point
+   * @return 1 for points on ellipse, less than 1 inside
+   */
+  private static double distance(double[] ell, double x, double y) {
+    double dx = x - ell[0];
+    double dy = y - ell[1];
+    double cos = Math.cos(ell[4]);
+    double sin = Math.sin(ell[4]);
+    double u = (dx * cos + dy * sin) / ell[2];
+    double v = (-dx * sin + dy * cos) / ell[3];
+    return Math.sqrt(u * u + v * v);
+  }
+
+  /**
+   * Get generated image.
+   * 
+   * @return 8-bit image
+   */
+  public ImageProcessor getImage() {
+    return image;
+  }
+
+  /**
+   * Get seeds for generated image.
+   * 
+   * @return seeds with {@link SeedTypes#FOREGROUNDS} (one map for each cell),
+   *         {@link SeedTypes#BACKGROUND} and {@link SeedTypes#ROUGHMASK}
+   */
+  public Seeds getSeeds() {
+    return seeds;
+  }
+}
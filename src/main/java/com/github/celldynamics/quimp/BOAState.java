@@ -4,6 +4,8 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.function.BiPredicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,6 +16,7 @@ import com.github.celldynamics.quimp.plugin.ParamList;
 import com.github.celldynamics.quimp.plugin.binaryseg.BinarySegmentation_;
 import com.github.celldynamics.quimp.plugin.engine.PluginFactory;
 import com.github.celldynamics.quimp.utils.QuimpToolsCollection;
+import com.google.gson.annotations.SerializedName;
 
 import ij.ImagePlus;
 import ij.io.FileInfo;
@@ -100,14 +103,43 @@ public class BOAState implements IQuimpSerialize {
   ParamList binarySegmentationParam;
   /**
    * Keep snapshots of SegParam objects for every frame separately.
+   * 
+   * <p>Consecutive frames with the same parameters share one object, snapshots are never modified
+   * and new object is created only when parameters change, see {@link #store(int)}. Saved in
+   * run-length form in {@link #segParamRuns}.
    */
-  private ArrayList<SegParam> segParamSnapshots;
+  private transient ArrayList<SegParam> segParamSnapshots;
   /**
    * Keep snapshots of SnakePluginList objects for every frame separately.
    * 
-   * <p>Plugin configurations are stored as well (but without plugin references)
+   * <p>Plugin configurations are stored as well (but without plugin references). Consecutive
+   * frames with the same configuration share one object, it is copied on {@link #restore(int)}
+   * before it can be modified. Saved in run-length form in {@link #snakePluginListRuns}.
+   */
+  public transient ArrayList<SnakePluginList> snakePluginListSnapshots;
+  /**
+   * Run-length form of {@link #segParamSnapshots} saved in QCONF.
+   * 
+   * <p>Valid only after {@link #beforeSerialize()}.
+   */
+  private ArrayList<SnapshotRun<SegParam>> segParamRuns;
+  /**
+   * Run-length form of {@link #snakePluginListSnapshots} saved in QCONF.
+   * 
+   * <p>Valid only after {@link #beforeSerialize()}.
+   */
+  private ArrayList<SnapshotRun<SnakePluginList>> snakePluginListRuns;
+  /**
+   * Snapshots of SegParam for every frame as saved by previous versions. Used only for loading.
+   */
+  @SerializedName("segParamSnapshots")
+  private ArrayList<SegParam> oldSegParamSnapshots;
+  /**
+   * Snapshots of SnakePluginList for every frame as saved by previous versions. Used only for
+   * loading.
    */
-  public ArrayList<SnakePluginList> snakePluginListSnapshots;
+  @SerializedName("snakePluginListSnapshots")
+  private ArrayList<SnakePluginList> oldSnakePluginListSnapshots;
   /**
    * List of plugins selected in plugin stack and information if they are active or not. This field
    * is not serializable because snakePluginListSnapshots keeps configurations for
@@ -132,6 +164,42 @@ public class BOAState implements IQuimpSerialize {
    * any of Snakes was edited.
    */
   public ArrayList<Boolean> isFrameEdited;
+  /**
+   * Number of iterations of Active Contour used on each frame, summed over all snakes.
+   * 
+   * <p>Not stored in QCONF.
+   * 
+   * @see #getIterations(int)
+   */
+  private transient int[] iterations;
+
+  /**
+   * Snapshot shared by consecutive frames.
+   * 
+   * @author p.baniukiewicz
+   * @param <T> type of snapshot
+   */
+  static class SnapshotRun<T> {
+    /**
+     * Number of frames.
+     */
+    int count;
+    /**
+     * Snapshot of all frames.
+     */
+    T value;
+
+    /**
+     * Create run.
+     * 
+     * @param count number of frames
+     * @param value snapshot
+     */
+    SnapshotRun(int count, T value) {
+      this.count = count;
+      this.value = value;
+    }
+  }
 
   /**
    * Hold user parameters for segmentation algorithm.
@@ -755,6 +823,24 @@ public class BOAState implements IQuimpSerialize {
      */
     boolean isZoomFreeze = false;
 
+    /**
+     * Tighten snakes of one frame concurrently. (UI)
+     * 
+     * <p>Not stored in QCONF.
+     * 
+     * @see BOA_#runBoa(int, int)
+     */
+    transient boolean isParallelSegmentation = false;
+
+    /**
+     * Adapt time step of Active Contour to forces and stop on global convergence. (UI)
+     * 
+     * <p>Not stored in QCONF.
+     * 
+     * @see StepController
+     */
+    transient boolean isAdaptiveStep = false;
+
     /**
      * When any plugin fails this field defines how QuimP should behave.
      * 
@@ -995,6 +1081,7 @@ public class BOAState implements IQuimpSerialize {
     snakePluginListSnapshots = new ArrayList<SnakePluginList>(
             Collections.nCopies(numofframes, new SnakePluginList(BOA_.NUM_SNAKE_PLUGINS, pf, vu)));
     isFrameEdited = new ArrayList<Boolean>(Collections.nCopies(numofframes, false));
+    iterations = new int[numofframes];
     LOGGER.debug("Initialize storage of size: " + numofframes + " size of segParams: "
             + segParamSnapshots.size());
   }
@@ -1002,21 +1089,86 @@ public class BOAState implements IQuimpSerialize {
   /**
    * Make snapshot of current objects state.
    * 
+   * <p>Snapshot of previous frame is shared if state has not changed, so objects are copied only
+   * when parameters or plugins change.
+   * 
    * @param frame actual frame numbered from 1
    * @see com.github.celldynamics.quimp.SnakePluginList
    */
   public void store(int frame) {
     LOGGER.debug(
             "Data stored at frame:" + frame + " size of segParams is " + segParamSnapshots.size());
-    segParamSnapshots.set(frame - 1, new SegParam(segParam));
+    int i = frame - 1;
+    // share snapshot of previous frame if nothing changed, copy otherwise
+    SegParam previous = i > 0 ? segParamSnapshots.get(i - 1) : null;
+    if (segParam.equals(previous)) {
+      segParamSnapshots.set(i, previous);
+    } else if (!segParam.equals(segParamSnapshots.get(i))) {
+      segParamSnapshots.set(i, new SegParam(segParam));
+    }
     // download Plugin config as well
-    snakePluginListSnapshots.set(frame - 1, snakePluginList.getDeepCopy());
+    snakePluginList.downloadPluginsConfig();
+    // live list is modified in place so it can not be stored itself
+    SnakePluginList previousList = i > 0 ? snakePluginListSnapshots.get(i - 1) : null;
+    SnakePluginList currentList = snakePluginListSnapshots.get(i);
+    if (previousList != null && previousList != snakePluginList
+            && snakePluginList.isSameConfig(previousList)) {
+      snakePluginListSnapshots.set(i, previousList);
+    } else if (currentList == null || currentList == snakePluginList
+            || !snakePluginList.isSameConfig(currentList)) {
+      snakePluginListSnapshots.set(i, snakePluginList.getDeepCopy());
+    }
+  }
+
+  /**
+   * Get number of Active Contour iterations used for segmentation of frame.
+   * 
+   * <p>Iterations of all snakes of the frame are summed. Number is reset when frame is segmented
+   * again.
+   * 
+   * @param frame frame numbered from 1
+   * @return number of iterations or 0 if frame has not been segmented
+   * @see BOAState.BOAp#isAdaptiveStep
+   */
+  public synchronized int getIterations(int frame) {
+    if (iterations == null || frame < 1 || frame > iterations.length) {
+      return 0;
+    }
+    return iterations[frame - 1];
+  }
+
+  /**
+   * Add iterations of one snake to counter of frame.
+   * 
+   * @param frame frame numbered from 1
+   * @param count number of iterations
+   */
+  synchronized void addIterations(int frame, int count) {
+    if (iterations == null || iterations.length != boap.getFrames()) {
+      iterations = new int[boap.getFrames()]; // not restored from QCONF
+    }
+    if (frame >= 1 && frame <= iterations.length) {
+      iterations[frame - 1] += count;
+    }
+  }
+
+  /**
+   * Reset counter of iterations of frame.
+   * 
+   * @param frame frame numbered from 1
+   */
+  synchronized void resetIterations(int frame) {
+    if (iterations != null && frame >= 1 && frame <= iterations.length) {
+      iterations[frame - 1] = 0;
+    }
   }
 
   /**
    * Restore from snapshots data to current one.
    * 
-   * <p>Technically makes reference links between snapshots and fields keeping hot data.
+   * <p>Technically makes reference links between snapshots and fields keeping hot data. Snapshot
+   * of plugins shared with other frames is copied first so only current frame can be modified.
+   * SegParam is copied because its snapshots are never modified.
    * 
    * @param frame current frame
    * @see com.github.celldynamics.quimp.SnakePluginList
@@ -1025,9 +1177,17 @@ public class BOAState implements IQuimpSerialize {
     LOGGER.trace("Data restored from frame:" + frame);
     SegParam tmp = segParamSnapshots.get(frame - 1);
     if (tmp != null) {
-      segParam = tmp;
+      segParam = new SegParam(tmp);
+    }
+    int i = frame - 1;
+    SnakePluginList list = snakePluginListSnapshots.get(i);
+    if ((i > 0 && snakePluginListSnapshots.get(i - 1) == list)
+            || (i + 1 < snakePluginListSnapshots.size()
+                    && snakePluginListSnapshots.get(i + 1) == list)) {
+      list = list.getStoredCopy(); // shared snapshots form continuous runs
+      snakePluginListSnapshots.set(i, list);
     }
-    snakePluginList = snakePluginListSnapshots.get(frame - 1);
+    snakePluginList = list;
     snakePluginList.uploadPluginsConfig(); // same plugin across frames is represented by the same
     // instance, every time frame is restored plugin configuration must be updated to current
   }
@@ -1131,6 +1291,51 @@ public class BOAState implements IQuimpSerialize {
     }
 
     // snakePluginListSnapshots and segParamSnapshots do not need beforeSerialize()
+    segParamRuns = toRuns(segParamSnapshots, (a, b) -> a == b || (a != null && a.equals(b)));
+    snakePluginListRuns = toRuns(snakePluginListSnapshots,
+            (a, b) -> a == b || (a != null && b != null && a.isSameConfig(b)));
+  }
+
+  /**
+   * Compress snapshots to runs of equal objects.
+   * 
+   * @param snapshots snapshots for every frame, can be null
+   * @param same equality of snapshots
+   * @return runs or null if <tt>snapshots</tt> is null
+   */
+  static <T> ArrayList<SnapshotRun<T>> toRuns(final List<T> snapshots,
+          final BiPredicate<T, T> same) {
+    if (snapshots == null) {
+      return null;
+    }
+    ArrayList<SnapshotRun<T>> runs = new ArrayList<>();
+    SnapshotRun<T> last = null;
+    for (T s : snapshots) {
+      if (last != null && same.test(last.value, s)) {
+        last.count++;
+      } else {
+        last = new SnapshotRun<>(1, s);
+        runs.add(last);
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * Expand runs to snapshots for every frame. Frames of one run share one object.
+   * 
+   * @param runs runs, can be null
+   * @return snapshots or null if <tt>runs</tt> is null
+   */
+  static <T> ArrayList<T> fromRuns(final List<SnapshotRun<T>> runs) {
+    if (runs == null) {
+      return null;
+    }
+    ArrayList<T> snapshots = new ArrayList<>();
+    for (SnapshotRun<T> r : runs) {
+      snapshots.addAll(Collections.nCopies(r.count, r.value));
+    }
+    return snapshots;
   }
 
   /*
@@ -1149,8 +1354,22 @@ public class BOAState implements IQuimpSerialize {
     // program_path/stored_in_json_path
     boap.outputFileCore = new File(boap.outputFileCore.toString());
     boap.orgFile = new File(boap.orgFile.toString());
+    // expand snapshots, files saved by previous versions have one snapshot per frame
+    if (segParamRuns == null && oldSegParamSnapshots != null) {
+      segParamRuns = toRuns(oldSegParamSnapshots, (a, b) -> a != null && a.equals(b));
+    }
+    if (snakePluginListRuns == null && oldSnakePluginListSnapshots != null) {
+      snakePluginListRuns = toRuns(oldSnakePluginListSnapshots,
+              (a, b) -> a != null && b != null && a.isSameConfig(b));
+    }
+    segParamSnapshots = fromRuns(segParamRuns);
+    snakePluginListSnapshots = fromRuns(snakePluginListRuns);
+    segParamRuns = null;
+    snakePluginListRuns = null;
+    oldSegParamSnapshots = null;
+    oldSnakePluginListSnapshots = null;
     // restore local segParam to be first from segParamSnapshots
-    if (segParamSnapshots.size() > 0) {
+    if (segParamSnapshots != null && segParamSnapshots.size() > 0) {
       if (segParamSnapshots.get(0) != null) {
         segParam = new SegParam(segParamSnapshots.get(0));
         // otherwise segParam will be default owng to SegParam constructor
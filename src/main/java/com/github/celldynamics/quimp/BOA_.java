@@ -37,7 +37,11 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -705,6 +709,8 @@ public class BOA_ implements PlugIn {
 
     private MenuItem menuPopulatePlugin;
     private CheckboxMenuItem cbMenuZoomFreeze;
+    private CheckboxMenuItem cbMenuParallelSegmentation;
+    private CheckboxMenuItem cbMenuAdaptiveStep;
 
     /**
      * Default constructor.
@@ -901,6 +907,14 @@ public class BOA_ implements PlugIn {
       cbMenuZoomFreeze.setState(qState.boap.isZoomFreeze);
       cbMenuZoomFreeze.addItemListener(this);
       menuConfig.add(cbMenuZoomFreeze);
+      cbMenuParallelSegmentation = new CheckboxMenuItem("Parallel segmentation");
+      cbMenuParallelSegmentation.setState(qState.boap.isParallelSegmentation);
+      cbMenuParallelSegmentation.addItemListener(this);
+      menuConfig.add(cbMenuParallelSegmentation);
+      cbMenuAdaptiveStep = new CheckboxMenuItem("Adaptive time step");
+      cbMenuAdaptiveStep.setState(qState.boap.isAdaptiveStep);
+      cbMenuAdaptiveStep.addItemListener(this);
+      menuConfig.add(cbMenuAdaptiveStep);
 
       menuShowHistory = new MenuItem("Show history");
       menuShowHistory.addActionListener(this);
@@ -1337,6 +1351,8 @@ public class BOA_ implements PlugIn {
       cbMenuPlotOriginalSnakes.setState(qState.boap.isProcessedSnakePlotted);
       cbMenuPlotHead.setState(qState.boap.isHeadPlotted);
       cbMenuZoomFreeze.setState(qState.boap.isZoomFreeze);
+      cbMenuParallelSegmentation.setState(qState.boap.isParallelSegmentation);
+      cbMenuAdaptiveStep.setState(qState.boap.isAdaptiveStep);
     }
 
     /**
@@ -1799,8 +1815,12 @@ public class BOA_ implements PlugIn {
        */
       if (b == menuApplyPlugin) {
         // iterate over snapshots and try to restore plugins in snapshots
+        SnakePluginList last = null;
         for (SnakePluginList sp : qState.snakePluginListSnapshots) {
-          sp.afterSerialize();
+          if (sp != last) { // consecutive frames can share snapshot
+            sp.afterSerialize();
+          }
+          last = sp;
         }
         // copy snapshots for frame to current snakePluginList (and segParams)
         qState.restore(qState.boap.frame);
@@ -2127,6 +2147,12 @@ public class BOA_ implements PlugIn {
           cbMenuZoomFreeze.setState(false); // unselect
         }
       }
+      if (source == cbMenuParallelSegmentation) {
+        qState.boap.isParallelSegmentation = cbMenuParallelSegmentation.getState();
+      }
+      if (source == cbMenuAdaptiveStep) {
+        qState.boap.isAdaptiveStep = cbMenuAdaptiveStep.getState();
+      }
       // actions on Plugin selections
       if (source == chFirstPluginName) { // run in thread
         LOGGER.debug("Used firstPluginName, val: " + chFirstPluginName.getSelectedItem());
@@ -2434,6 +2460,9 @@ public class BOA_ implements PlugIn {
    * <p>This method is called for update only current view as well (<tt>startF</tt> ==
    * <tt>endF</tt>). It also go through plugin stack.
    * 
+   * <p>If {@link BOAState.BOAp#isParallelSegmentation} is set, snakes of one frame are tightened
+   * and filtered concurrently, see {@link #tightenSnakesParallel(ExecutorService, IntensityField)}.
+   * 
    * @param startF start frame
    * @param endF end frame
    * @throws BoaException on any error
@@ -2447,8 +2476,12 @@ public class BOA_ implements PlugIn {
       isSegRunning = false;
       return;
     }
+    ExecutorService executor = null;
     try {
       IJ.showProgress(0, endF - startF);
+      if (qState.boap.isParallelSegmentation) {
+        executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      }
 
       qState.nest.resetForFrame(startF);
       if (!qState.segParam.expandSnake) {
@@ -2471,6 +2504,8 @@ public class BOA_ implements PlugIn {
         // per frame
         imageGroup.setProcessor(qState.boap.frame);
         imageGroup.setIpSliceAll(qState.boap.frame);
+        // pixels of frame shared by all snakes
+        IntensityField field = new IntensityField(imageGroup.getOrgIp());
 
         try {
           if (qState.boap.frame != startF) { // expand snakes for next frame
@@ -2485,45 +2520,36 @@ public class BOA_ implements PlugIn {
             }
           }
 
-          for (s = 0; s < qState.nest.size(); s++) { // for each snake
-            snH = qState.nest.getHandler(s);
-            snake = snH.getLiveSnake();
-            try {
-              if (!snake.alive || qState.boap.frame < snH.getStartFrame()) {
-                continue;
-              }
-              // process all snakes even if frozen to control overlaps (computed for liveSnakes) but
-              // do not store any live snake from frozen snake
-              if (!snH.isSnakeHandlerFrozen()) {
-                imageGroup.drawPath(snake, qState.boap.frame); // pre tightned snake on path
-                tightenSnake(snake);
-                imageGroup.drawPath(snake, qState.boap.frame); // post tightned snake on path
-                snH.backupLiveSnake(qState.boap.frame);
-                Snake out = iterateOverSnakePlugins(snake);
-                snH.storeThisSnake(out, qState.boap.frame); // store resulting snake as final
-              } else {
-                // overlaps are tested for liveSnakes (loosen) so update liveSnake to result of
-                // segmentation for frozen snakehandler
-                snH.copyFromFinalToLive(qState.boap.frame);
-                LOGGER.debug("SnakeHandler " + snH.getID() + " is frozen");
-              }
-            } catch (QuimpPluginException qpe) {
-              // must be rewritten with whole runBOA #65 #67
-              qpe.setMessageSinkType(MessageSinkTypes.NONE);
-              BOA_.log(qpe.handleException(null, "Error in filter module"));
-              snH.storeLiveSnake(qState.boap.frame); // store segmented nonmodified
-            } catch (BoaException be) { // from tighten
-              imageGroup.drawPath(snake, qState.boap.frame); // failed position
-              snH.storeLiveSnake(qState.boap.frame);
-              snH.backupLiveSnake(qState.boap.frame);
-              qState.nest.kill(snH);
-              snake.unfreezeAll();
-              be.setMessageSinkType(MessageSinkTypes.NONE);
-              BOA_.log(be.handleException(null,
-                      "Snake " + snake.getSnakeID() + " died, frame " + qState.boap.frame));
-              isSegRunning = false;
-              if (qState.nest.allDead()) { // end of processing (see condition in catch)
-                throw new BoaException("All snakes dead: " + be.getMessage(), qState.boap.frame, 1);
+          qState.resetIterations(qState.boap.frame);
+          if (executor != null) {
+            tightenSnakesParallel(executor, field);
+          } else {
+            for (s = 0; s < qState.nest.size(); s++) { // for each snake
+              snH = qState.nest.getHandler(s);
+              snake = snH.getLiveSnake();
+              try {
+                if (!snake.alive || qState.boap.frame < snH.getStartFrame()) {
+                  continue;
+                }
+                // process all snakes even if frozen to control overlaps (computed for liveSnakes)
+                // but do not store any live snake from frozen snake
+                if (!snH.isSnakeHandlerFrozen()) {
+                  imageGroup.drawPath(snake, qState.boap.frame); // pre tightned snake on path
+                  tightenSnake(snake, field, true);
+                  imageGroup.drawPath(snake, qState.boap.frame); // post tightned snake on path
+                  snH.backupLiveSnake(qState.boap.frame);
+                  Snake out = iterateOverSnakePlugins(snake);
+                  snH.storeThisSnake(out, qState.boap.frame); // store resulting snake as final
+                } else {
+                  // overlaps are tested for liveSnakes (loosen) so update liveSnake to result of
+                  // segmentation for frozen snakehandler
+                  snH.copyFromFinalToLive(qState.boap.frame);
+                  LOGGER.debug("SnakeHandler " + snH.getID() + " is frozen");
+                }
+              } catch (QuimpPluginException qpe) {
+                storePluginFailure(snH, qpe);
+              } catch (BoaException be) { // from tighten
+                storeDeadSnake(snH, snake, be);
               }
             }
           }
@@ -2555,6 +2581,9 @@ public class BOA_ implements PlugIn {
       be.setFrame(qState.boap.frame);
       throw be;
     } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
       isSegRunning = false;
       imageGroup.updateOverlay(qState.boap.frame); // update on error
       IJ.showProgress(2.0); // >1 to erase progress bar
@@ -2562,6 +2591,105 @@ public class BOA_ implements PlugIn {
 
   }
 
+  /**
+   * Tighten and filter all live snakes of current frame concurrently.
+   * 
+   * <p>Each snake is processed by {@link #tightenSnake(Snake, IntensityField, boolean)} and
+   * {@link #iterateOverSnakePlugins(Snake)} in separate task. Snakes do not interact during
+   * tightening, overlaps are resolved before by {@link Constrictor#loosen(Nest, int)}. Results are
+   * stored in order of handlers after all tasks finished and paths are drawn then as well.
+   * Intermediate paths of tightening are not drawn.
+   * 
+   * @param executor worker pool
+   * @param field pixels of current frame
+   * @throws BoaException if all snakes died
+   * @throws InterruptedException if interrupted while waiting for tasks
+   * @throws ExecutionException on unexpected error in task
+   */
+  private void tightenSnakesParallel(final ExecutorService executor, final IntensityField field)
+          throws BoaException, InterruptedException, ExecutionException {
+    final int frame = qState.boap.frame;
+    List<SnakeHandler> handlers = new ArrayList<>();
+    List<Snake> initial = new ArrayList<>(); // pre tightened snakes for paths
+    List<Callable<Snake>> tasks = new ArrayList<>();
+    for (int s = 0; s < qState.nest.size(); s++) {
+      final SnakeHandler snH = qState.nest.getHandler(s);
+      final Snake snake = snH.getLiveSnake();
+      if (!snake.alive || frame < snH.getStartFrame()) {
+        continue;
+      }
+      if (snH.isSnakeHandlerFrozen()) { // see runBoa
+        snH.copyFromFinalToLive(frame);
+        LOGGER.debug("SnakeHandler " + snH.getID() + " is frozen");
+        continue;
+      }
+      handlers.add(snH);
+      initial.add(new Snake(snake));
+      tasks.add(() -> {
+        tightenSnake(snake, field, false);
+        snH.backupLiveSnake(frame);
+        return iterateOverSnakePlugins(snake);
+      });
+    }
+    List<Future<Snake>> results = executor.invokeAll(tasks); // wait for all
+    for (int i = 0; i < handlers.size(); i++) {
+      SnakeHandler snH = handlers.get(i);
+      Snake snake = snH.getLiveSnake();
+      imageGroup.drawPath(initial.get(i), frame); // pre tightned snake on path
+      try {
+        Snake out = results.get(i).get();
+        imageGroup.drawPath(snake, frame); // post tightned snake on path
+        snH.storeThisSnake(out, frame); // store resulting snake as final
+      } catch (ExecutionException ee) {
+        if (ee.getCause() instanceof QuimpPluginException) {
+          imageGroup.drawPath(snake, frame);
+          storePluginFailure(snH, (QuimpPluginException) ee.getCause());
+        } else if (ee.getCause() instanceof BoaException) {
+          storeDeadSnake(snH, snake, (BoaException) ee.getCause());
+        } else {
+          throw ee;
+        }
+      }
+    }
+  }
+
+  /**
+   * Store segmented snake not modified by plugins if any plugin failed.
+   * 
+   * @param snH handler of snake
+   * @param qpe exception from plugin
+   */
+  private void storePluginFailure(final SnakeHandler snH, final QuimpPluginException qpe) {
+    // must be rewritten with whole runBOA #65 #67
+    qpe.setMessageSinkType(MessageSinkTypes.NONE);
+    BOA_.log(qpe.handleException(null, "Error in filter module"));
+    snH.storeLiveSnake(qState.boap.frame); // store segmented nonmodified
+  }
+
+  /**
+   * Store snake in its failed position and kill it.
+   * 
+   * @param snH handler of snake
+   * @param snake live snake of handler
+   * @param be exception from tightening
+   * @throws BoaException if all snakes are dead
+   */
+  private void storeDeadSnake(final SnakeHandler snH, final Snake snake, final BoaException be)
+          throws BoaException {
+    imageGroup.drawPath(snake, qState.boap.frame); // failed position
+    snH.storeLiveSnake(qState.boap.frame);
+    snH.backupLiveSnake(qState.boap.frame);
+    qState.nest.kill(snH);
+    snake.unfreezeAll();
+    be.setMessageSinkType(MessageSinkTypes.NONE);
+    BOA_.log(be.handleException(null,
+            "Snake " + snake.getSnakeID() + " died, frame " + qState.boap.frame));
+    isSegRunning = false;
+    if (qState.nest.allDead()) { // end of processing (see condition in catch)
+      throw new BoaException("All snakes dead: " + be.getMessage(), qState.boap.frame, 1);
+    }
+  }
+
   /**
    * Perform AC segmentation. Tighten snake around object.
    * 
@@ -2569,17 +2697,26 @@ public class BOA_ implements PlugIn {
    * {@link Constrictor#loosen(Nest, int)} counteracting overlaps. If
    * {@link BOAState.SegParam#use_previous_snake} was not set, initial snake is produced from
    * original ROI by {@link Nest#resetForFrame(int)}. Then
-   * {@link Constrictor#constrict(Snake, ImageProcessor)} is called many times, each time liveSnake
-   * is moved slightly. Note that <b>liveSnake</b> is the same for each frame for given
-   * {@link SnakeHandler}, this is why it can be used for seeding next frame.
+   * {@link Constrictor#constrict(PackedSnake, IntensityField, double)} is called many times, each
+   * time liveSnake is moved slightly. Note that <b>liveSnake</b> is the same for each frame for
+   * given {@link SnakeHandler}, this is why it can be used for seeding next frame.
+   * 
+   * <p>Time step and stop condition are controlled by {@link StepController}. Number of iterations
+   * is added to {@link BOAState#getIterations(int)}.
    * 
    * @param snake snake to process
+   * @param field pixels of current frame, see {@link IntensityField}
+   * @param drawPaths if true, snake is drawn on paths image every few iterations
    * @throws BoaException if there is too less nodes left
    * @see SegParam#max_iterations
    */
-  private void tightenSnake(final Snake snake) throws BoaException {
+  private void tightenSnake(final Snake snake, final IntensityField field, boolean drawPaths)
+          throws BoaException {
 
     int i;
+    // snake is constricted in packed form, it is copied back before any change of nodes number
+    PackedSnake packed = new PackedSnake();
+    StepController control = new StepController(qState);
 
     for (i = 0; i < qState.segParam.max_iterations; i++) { // iter constrict snake
       // if snakes are expanded from cell inside, testing against overlapping shuld be done in
@@ -2587,16 +2724,24 @@ public class BOA_ implements PlugIn {
       // if (qState.segParam.contractingDirection == false) { // expand from inside
       // constrictor.freezeProxSnakes(qState.nest, qState.boap.frame);
       // }
-      if (i % qState.boap.cut_every == 0) {
-        snake.cutLoops(); // cut out loops every p.cut_every timesteps
-      }
-      if (i % 10 == 0 && i != 0) {
-        snake.correctDistance(true);
+      boolean cut = control.isCutDue();
+      boolean correct = control.isCorrectDue();
+      if (cut || correct) {
+        packed.store();
+        if (cut) {
+          snake.cutLoops(); // cut out loops every p.cut_every timesteps
+        }
+        if (correct) {
+          snake.correctDistance(true);
+        }
+        packed.load(snake);
       }
-      if (constrictor.constrict(snake, imageGroup.getOrgIp())) { // if all nodes frozen
+      boolean frozen = constrictor.constrict(packed, field, control.getStep());
+      if (control.update(packed) || frozen) { // if converged or all nodes frozen
         break;
       }
-      if (i % 4 == 0) {
+      if (drawPaths && i % 4 == 0) {
+        packed.store();
         imageGroup.drawPath(snake, qState.boap.frame); // draw current snake
       }
 
@@ -2605,6 +2750,8 @@ public class BOA_ implements PlugIn {
         if (qState.segParam.use_previous_snake) {
           // imageGroup.drawContour(snake, frame);
           // imageGroup.updateAndDraw();
+          packed.store();
+          qState.addIterations(qState.boap.frame, control.getIterations());
           throw new BoaException(
                   "Frame " + qState.boap.frame + "-max nodes reached " + snake.getNumPoints(),
                   qState.boap.frame, 1);
@@ -2614,6 +2761,8 @@ public class BOA_ implements PlugIn {
         }
       }
     }
+    packed.store();
+    qState.addIterations(qState.boap.frame, control.getIterations());
     snake.unfreezeAll(); // set freeze tag back to false
 
     if (!qState.segParam.expandSnake) { // shrink a bit to get final outline
@@ -2633,6 +2782,9 @@ public class BOA_ implements PlugIn {
    * <p>Processed Snake is returned as new Snake with the same ID. Input snake is not modified. For
    * empty plugin list it just return input snake
    *
+   * <p>Each plugin is locked for time of its use, so this method can be called for many snakes
+   * concurrently.
+   * 
    * <p>This method supports two interfaces:
    * {@link com.github.celldynamics.quimp.plugin.snakes.IQuimpBOAPoint2dFilter},
    * {@link com.github.celldynamics.quimp.plugin.snakes.IQuimpBOASnakeFilter}
@@ -2667,27 +2819,31 @@ public class BOA_ implements PlugIn {
         if (!qsP.isExecutable()) {
           continue; // no plugin on this slot or not active
         }
-        if (qsP.getRef() instanceof IQuimpPluginAttachImage) {
-          ((IQuimpPluginAttachImage) qsP.getRef()).attachImage(imageGroup.getOrgIp());
-        }
-        if (qsP.getRef() instanceof IQuimpBOAPoint2dFilter) { // check interface type
-          if (previousConversion == isnake) { // previous was IQuimpSnakeFilter
-            dataToProcess = snakeToProcess.asList(); // and data needs to be converted
+        // plugin instance is shared between snakes processed concurrently in runBoa
+        synchronized (qsP.getRef()) {
+          if (qsP.getRef() instanceof IQuimpPluginAttachImage) {
+            ((IQuimpPluginAttachImage) qsP.getRef()).attachImage(imageGroup.getOrgIp());
           }
-          IQuimpBOAPoint2dFilter qsPcast = (IQuimpBOAPoint2dFilter) qsP.getRef();
-          qsPcast.attachData(dataToProcess);
-          dataToProcess = qsPcast.runPlugin(); // store result in input variable
-          previousConversion = ipoint;
-        }
-        if (qsP.getRef() instanceof IQuimpBOASnakeFilter) { // check interface type
-          if (previousConversion == ipoint) { // previous was IQuimpPoint2dFilter
-            // and data must be converted to snake from dataToProcess
-            snakeToProcess = new QuimpDataConverter(dataToProcess).getSnake(snake.getSnakeID());
+          if (qsP.getRef() instanceof IQuimpBOAPoint2dFilter) { // check interface type
+            if (previousConversion == isnake) { // previous was IQuimpSnakeFilter
+              dataToProcess = snakeToProcess.asList(); // and data needs to be converted
+            }
+            IQuimpBOAPoint2dFilter qsPcast = (IQuimpBOAPoint2dFilter) qsP.getRef();
+            qsPcast.attachData(dataToProcess);
+            dataToProcess = qsPcast.runPlugin(); // store result in input variable
+            previousConversion = ipoint;
+          }
+          if (qsP.getRef() instanceof IQuimpBOASnakeFilter) { // check interface type
+            if (previousConversion == ipoint) { // previous was IQuimpPoint2dFilter
+              // and data must be converted to snake from dataToProcess
+              snakeToProcess =
+                      new QuimpDataConverter(dataToProcess).getSnake(snake.getSnakeID());
+            }
+            IQuimpBOASnakeFilter qsPcast = (IQuimpBOASnakeFilter) qsP.getRef();
+            qsPcast.attachData(snakeToProcess);
+            snakeToProcess = qsPcast.runPlugin(); // store result as snake for next plugin
+            previousConversion = isnake;
           }
-          IQuimpBOASnakeFilter qsPcast = (IQuimpBOASnakeFilter) qsP.getRef();
-          qsPcast.attachData(snakeToProcess);
-          snakeToProcess = qsPcast.runPlugin(); // store result as snake for next plugin
-          previousConversion = isnake;
         }
       }
       // after loop previousConversion points what plugin was last and actual data
@@ -2785,7 +2941,7 @@ public class BOA_ implements PlugIn {
    * 
    * @param r ROI object (IJ)
    * @param f number of current frame
-   * @see #tightenSnake(Snake)
+   * @see #tightenSnake(Snake, IntensityField, boolean)
    */
   // @SuppressWarnings("unchecked")
   void addCell(final Roi r, int f) {
@@ -2798,7 +2954,7 @@ public class BOA_ implements PlugIn {
     try {
       LOGGER.debug("Use options: " + qState.segParam.toString());
       imageGroup.drawPath(snake, f); // pre tightned snake on path
-      tightenSnake(snake);
+      tightenSnake(snake, new IntensityField(imageGroup.getOrgIp()), true);
       imageGroup.drawPath(snake, f); // post tightned snake on path
       snakeH.backupLiveSnake(f);
       Snake out = iterateOverSnakePlugins(snake); // process segmented snake by plugins
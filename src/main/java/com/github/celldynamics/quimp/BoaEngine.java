@@ -0,0 +1,268 @@
+package com.github.celldynamics.quimp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+
+/**
+ * Headless Active Contour segmentation of one image stack.
+ *
+ * <p>Engine works on its own {@link BOAState}, {@link Nest} and image and does not use global
+ * {@link BOA_#qState}. Therefore several engines can segment different stacks concurrently, each
+ * in its own thread. One engine must not be used by more than one thread at time.
+ *
+ * <p>Segmentation follows {@link BOA_#runBoa(int, int)} but it does not draw anything and it does
+ * not run snake plugins. Example of use:
+ *
+ * <pre>
+ * <code>
+ * ImagePlus image = IJ.openImage("stack.tif");
+ * BOAState state = new BOAState(image);
+ * BoaEngine engine = new BoaEngine(state, new Nest(), image);
+ * engine.addCell(new OvalRoi(100, 100, 50, 50), 1);
+ * engine.segment();
+ * </code>
+ * </pre>
+ *
+ * @author p.baniukiewicz
+ * @see Constrictor#Constrictor(BOAState)
+ */
+public class BoaEngine {
+
+  /**
+   * The Constant LOGGER.
+   */
+  static final Logger LOGGER = LoggerFactory.getLogger(BoaEngine.class.getName());
+
+  /**
+   * State of segmentation, parameters are read from here.
+   */
+  private final BOAState qState;
+  /**
+   * Snakes being segmented.
+   */
+  private final Nest nest;
+  /**
+   * Segmented image.
+   */
+  private final ImagePlus image;
+  /**
+   * Constrictor that uses {@link #qState}.
+   */
+  private final Constrictor constrictor;
+
+  /**
+   * Create engine.
+   *
+   * <p>Given <tt>nest</tt> is also set as {@link BOAState#nest} of <tt>qState</tt>.
+   *
+   * @param qState state of segmentation, should be created by {@link BOAState#BOAState(ImagePlus)}
+   *        for the same <tt>image</tt>
+   * @param nest snakes to segment, can be empty
+   * @param image image to segment
+   * @throws IllegalArgumentException if number of frames in <tt>qState</tt> does not match
+   *         <tt>image</tt>
+   */
+  public BoaEngine(final BOAState qState, final Nest nest, final ImagePlus image) {
+    if (qState.boap.getFrames() != image.getStackSize()) {
+      throw new IllegalArgumentException("State is set for " + qState.boap.getFrames()
+              + " frames but image has " + image.getStackSize());
+    }
+    this.qState = qState;
+    this.nest = nest;
+    this.image = image;
+    this.qState.nest = nest;
+    constrictor = new Constrictor(qState);
+  }
+
+  /**
+   * Add object to segment.
+   *
+   * @param r ROI with object
+   * @param frame frame where segmentation of this object starts, numbered from 1
+   * @return SnakeHandler added to nest or null if snake could not be created
+   */
+  public SnakeHandler addCell(final Roi r, int frame) {
+    return nest.addHandler(r, frame, qState);
+  }
+
+  /**
+   * Segment all frames of image.
+   *
+   * @throws BoaException if all snakes died
+   * @see #segment(int, int)
+   */
+  public void segment() throws BoaException {
+    segment(1, qState.boap.getFrames());
+  }
+
+  /**
+   * Segment range of frames.
+   *
+   * <p>Results are stored in {@link SnakeHandler} of {@link #getNest()}. Snakes that died are
+   * killed and not processed in next frames.
+   *
+   * @param startF start frame, numbered from 1
+   * @param endF end frame
+   * @throws BoaException if all snakes died and {@link BOAState.SegParam#use_previous_snake} is set
+   */
+  public void segment(int startF, int endF) throws BoaException {
+    if (nest.isVacant() || nest.allFrozen()) {
+      LOGGER.info("Nothing to segment!");
+      return;
+    }
+    try {
+      nest.resetForFrame(startF, qState.segParam);
+      if (!qState.segParam.expandSnake) {
+        constrictor.loosen(nest, startF);
+      } else {
+        constrictor.implode(nest, startF);
+      }
+      for (qState.boap.frame = startF; qState.boap.frame <= endF; qState.boap.frame++) {
+        int frame = qState.boap.frame;
+        // pixels of frame shared by all snakes
+        IntensityField field = new IntensityField(image.getStack().getProcessor(frame));
+        try {
+          if (frame != startF) { // expand snakes for next frame
+            if (!qState.segParam.use_previous_snake) {
+              nest.resetForFrame(frame, qState.segParam);
+            } else {
+              if (!qState.segParam.expandSnake) {
+                constrictor.loosen(nest, frame);
+              } else {
+                constrictor.implode(nest, frame);
+              }
+            }
+          }
+          segmentFrame(field, frame);
+        } catch (BoaException be) {
+          if (qState.segParam.use_previous_snake) {
+            throw be;
+          }
+        } finally {
+          qState.store(frame);
+        }
+      }
+      qState.boap.frame = endF;
+    } catch (BoaException be) {
+      if (be.getFrame() == 0) {
+        be.setFrame(qState.boap.frame);
+      }
+      throw be;
+    } catch (Exception e) {
+      BoaException be = new BoaException(e);
+      be.setFrame(qState.boap.frame);
+      throw be;
+    }
+  }
+
+  /**
+   * Segment all live snakes on one frame.
+   *
+   * @param field pixels of frame
+   * @param frame frame number
+   * @throws BoaException if all snakes died
+   */
+  private void segmentFrame(final IntensityField field, int frame) throws BoaException {
+    qState.resetIterations(frame);
+    for (int s = 0; s < nest.size(); s++) {
+      SnakeHandler snH = nest.getHandler(s);
+      Snake snake = snH.getLiveSnake();
+      if (!snake.alive || frame < snH.getStartFrame()) {
+        continue;
+      }
+      if (snH.isSnakeHandlerFrozen()) {
+        snH.copyFromFinalToLive(frame);
+        continue;
+      }
+      try {
+        tightenSnake(snake, field);
+        snH.backupLiveSnake(frame);
+        snH.storeThisSnake(snake, frame);
+      } catch (BoaException be) {
+        snH.storeLiveSnake(frame);
+        snH.backupLiveSnake(frame);
+        nest.kill(snH);
+        snake.unfreezeAll();
+        LOGGER.info("Snake " + snake.getSnakeID() + " died, frame " + frame + ": "
+                + be.getMessage());
+        if (nest.allDead()) {
+          throw new BoaException("All snakes dead: " + be.getMessage(), frame, 1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Tighten snake around object.
+   *
+   * <p>Number of iterations is added to {@link BOAState#getIterations(int)}.
+   *
+   * @param snake snake to process
+   * @param field pixels of current frame
+   * @throws BoaException if there is too less nodes left
+   * @see BOA_#runBoa(int, int)
+   */
+  private void tightenSnake(final Snake snake, final IntensityField field) throws BoaException {
+    PackedSnake packed = new PackedSnake();
+    StepController control = new StepController(qState);
+    for (int i = 0; i < qState.segParam.max_iterations; i++) {
+      boolean cut = control.isCutDue();
+      boolean correct = control.isCorrectDue();
+      if (cut || correct) { // nodes can be added or removed, update snake and pack it again
+        packed.store();
+        if (cut) {
+          snake.cutLoops(qState.segParam);
+        }
+        if (correct) {
+          snake.correctDistance(true, qState.segParam);
+        }
+        packed.load(snake);
+      }
+      boolean frozen = constrictor.constrict(packed, field, control.getStep());
+      if (control.update(packed) || frozen) { // if converged or all nodes frozen
+        break;
+      }
+      if ((snake.getNumPoints() / snake.startingNnodes) > qState.boap.NMAX) {
+        if (qState.segParam.use_previous_snake) {
+          packed.store();
+          qState.addIterations(qState.boap.frame, control.getIterations());
+          throw new BoaException(
+                  "Frame " + qState.boap.frame + "-max nodes reached " + snake.getNumPoints(),
+                  qState.boap.frame, 1);
+        } else {
+          LOGGER.info("Frame " + qState.boap.frame + "-max nodes reached..continue");
+          break;
+        }
+      }
+    }
+    packed.store();
+    qState.addIterations(qState.boap.frame, control.getIterations());
+    snake.unfreezeAll();
+    if (!qState.segParam.expandSnake) { // shrink a bit to get final outline
+      snake.scaleSnake(-qState.segParam.finalShrink, 0.5, false, qState.segParam);
+    }
+    snake.cutLoops(qState.segParam);
+    snake.cutIntersects(qState.segParam);
+  }
+
+  /**
+   * Get state of segmentation.
+   *
+   * @return the state used by this engine
+   */
+  public BOAState getState() {
+    return qState;
+  }
+
+  /**
+   * Get snakes.
+   *
+   * @return the nest with segmentation results
+   */
+  public Nest getNest() {
+    return nest;
+  }
+}
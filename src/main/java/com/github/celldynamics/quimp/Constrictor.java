@@ -2,8 +2,10 @@ package com.github.celldynamics.quimp;
 
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.util.Arrays;
 
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.geom.SegmentGrid;
 
 import ij.process.ImageProcessor;
 
@@ -17,9 +19,37 @@ import ij.process.ImageProcessor;
 public class Constrictor {
 
   /**
-   * Default constructor.
+   * State of segmentation used by this instance. If null, global {@link BOA_#qState} is used.
+   */
+  private final BOAState boaState;
+
+  /**
+   * Default constructor. Parameters are read from {@link BOA_#qState}.
    */
   public Constrictor() {
+    this(null);
+  }
+
+  /**
+   * Create constrictor that uses given BOA state instead of global one.
+   * 
+   * <p>Instances created with different states can be used concurrently.
+   * 
+   * @param boaState state of segmentation, its {@link BOAState#segParam} and {@link BOAState#boap}
+   *        are read on each call
+   * @see BoaEngine
+   */
+  public Constrictor(final BOAState boaState) {
+    this.boaState = boaState;
+  }
+
+  /**
+   * Get state of segmentation used by this instance.
+   * 
+   * @return state given in constructor or global {@link BOA_#qState}
+   */
+  BOAState getState() {
+    return boaState != null ? boaState : BOA_.qState;
   }
 
   /**
@@ -34,6 +64,7 @@ public class Constrictor {
    * @see BOA_#tightenSnake
    */
   public boolean constrict(final Snake snake, final ImageProcessor ip) {
+    final BOAState qState = getState();
 
     ExtendedVector2d tempF; // temp vectors for forces
     ExtendedVector2d tempV = new ExtendedVector2d();
@@ -44,34 +75,34 @@ public class Constrictor {
       if (!n.isFrozen()) {
 
         // compute F_central
-        tempV.setX(n.getNormal().getX() * BOA_.qState.segParam.f_central);
-        tempV.setY(n.getNormal().getY() * BOA_.qState.segParam.f_central);
+        tempV.setX(n.getNormal().getX() * qState.segParam.f_central);
+        tempV.setY(n.getNormal().getY() * qState.segParam.f_central);
         n.setF_total(tempV);
 
         // compute F_contract
         tempF = contractionForce(n);
-        tempV.setX(tempF.getX() * BOA_.qState.segParam.f_contract);
-        tempV.setY(tempF.getY() * BOA_.qState.segParam.f_contract);
+        tempV.setX(tempF.getX() * qState.segParam.f_contract);
+        tempV.setY(tempF.getY() * qState.segParam.f_contract);
         n.addF_total(tempV);
 
         // compute F_image and F_friction
         tempF = imageForce(n, ip);
-        tempV.setX(tempF.getX() * BOA_.qState.segParam.f_image);// - n.getVel().getX() *
+        tempV.setX(tempF.getX() * qState.segParam.f_image);// - n.getVel().getX() *
         // boap.f_friction);
-        tempV.setY(tempF.getY() * BOA_.qState.segParam.f_image);// - n.getVel().getY() *
+        tempV.setY(tempF.getY() * qState.segParam.f_image);// - n.getVel().getY() *
         // boap.f_friction);
         n.addF_total(tempV);
 
         // compute new velocities of the node
-        tempV.setX(BOA_.qState.boap.delta_t * n.getF_total().getX());
-        tempV.setY(BOA_.qState.boap.delta_t * n.getF_total().getY());
+        tempV.setX(qState.boap.delta_t * n.getF_total().getX());
+        tempV.setY(qState.boap.delta_t * n.getF_total().getY());
         n.addVel(tempV);
 
         // store the prelimanary point to move the node to
-        tempV.setX(BOA_.qState.boap.delta_t * n.getVel().getX());
-        tempV.setY(BOA_.qState.boap.delta_t * n.getVel().getY());
+        tempV.setX(qState.boap.delta_t * n.getVel().getX());
+        tempV.setY(qState.boap.delta_t * n.getVel().getY());
         n.setPrelim(tempV); // normal
-        // if (BOA_.qState.segParam.contractingDirection == true) {
+        // if (qState.segParam.contractingDirection == true) {
         // n.setPrelim(tempV); // normal
         // } else {
         // if (n.isFrozen()) {
@@ -82,10 +113,10 @@ public class Constrictor {
         // }
 
         // add some friction
-        n.getVel().multiply(BOA_.qState.boap.f_friction);
+        n.getVel().multiply(qState.boap.f_friction);
 
         // freeze node if vel is below velCrit
-        if (n.getVel().length() < BOA_.qState.segParam.vel_crit) {
+        if (n.getVel().length() < qState.segParam.vel_crit) {
           snake.freezeNode(n);
         }
       }
@@ -99,11 +130,194 @@ public class Constrictor {
       n = n.getNext();
     } while (!n.isHead());
 
-    snake.updateNormals(BOA_.qState.segParam.expandSnake);
+    snake.updateNormals(qState.segParam.expandSnake);
+
+    return snake.isFrozen(); // true if all nodes frozen
+  }
+
+  /**
+   * Compute force power and moves nodes by predefined step. Packed version.
+   * 
+   * <p>Gives the same results as {@link #constrict(Snake, ImageProcessor)} but works on arrays of
+   * {@link PackedSnake} and does not allocate any objects. Number of nodes does not change here,
+   * so the snake can be kept packed for all iterations between node insertions or removals.
+   * 
+   * <p>Pixels of <tt>ip</tt> are copied to {@link IntensityField} on each call, use
+   * {@link #constrict(PackedSnake, IntensityField, double)} with field built once per frame when
+   * iterating.
+   * 
+   * @param snake Processed snake
+   * @param ip Original image
+   * @return status of snake (true if it is frozen)
+   */
+  public boolean constrict(final PackedSnake snake, final ImageProcessor ip) {
+    return constrict(snake, new IntensityField(ip), getState().boap.delta_t);
+  }
+
+  /**
+   * Compute force power and moves nodes by given step. Packed version.
+   * 
+   * <p>Statistics of this step (shifts and changes of forces) are stored in <tt>snake</tt> for
+   * {@link StepController}.
+   * 
+   * @param snake Processed snake
+   * @param field pixels of original image, can be shared by all snakes of frame
+   * @param deltat time step, {@link BOAState.BOAp#delta_t} is used by
+   *        {@link #constrict(PackedSnake, ImageProcessor)}
+   * @return status of snake (true if it is frozen)
+   */
+  public boolean constrict(final PackedSnake snake, final IntensityField field, double deltat) {
+    final BOAState qState = getState();
+    final double fcentral = qState.segParam.f_central;
+    final double fcontract = qState.segParam.f_contract;
+    final double fimage = qState.segParam.f_image;
+    final double friction = qState.boap.f_friction;
+    final double velcrit = qState.segParam.vel_crit;
+    final int size = snake.size;
+    final double[] x = snake.x;
+    final double[] y = snake.y;
+    final double[] nx = snake.nx;
+    final double[] ny = snake.ny;
+    final double[] vx = snake.vx;
+    final double[] vy = snake.vy;
+    final double[] fx = snake.fx;
+    final double[] fy = snake.fy;
+    snake.shiftSum = 0;
+    snake.maxShift = 0;
+    snake.forceSum = 0;
+    snake.forceChange = 0;
+
+    for (int i = 0; i < size; i++) {
+      if (snake.frozen[i]) {
+        continue;
+      }
+      int l = i == 0 ? size - 1 : i - 1;
+      int r = i == size - 1 ? 0 : i + 1;
+      // compute F_central
+      double ftotx = nx[i] * fcentral;
+      double ftoty = ny[i] * fcentral;
+
+      // compute F_contract, combine unit vectors to left and right neighbours
+      double lx = x[l] - x[i];
+      double ly = y[l] - y[i];
+      double len = Math.sqrt(lx * lx + ly * ly);
+      if (len != 0) {
+        lx = lx / len;
+        ly = ly / len;
+      }
+      double rx = x[r] - x[i];
+      double ry = y[r] - y[i];
+      len = Math.sqrt(rx * rx + ry * ry);
+      if (len != 0) {
+        rx = rx / len;
+        ry = ry / len;
+      }
+      ftotx = ftotx + ((rx + lx) * 0.5) * fcontract;
+      ftoty = ftoty + ((ry + ly) * 0.5) * fcontract;
+
+      // compute F_image
+      double deltaI = imageContrast(snake, i, field, qState);
+      double imx = 0;
+      double imy = 0;
+      if (deltaI > 0.) {
+        imx = -Math.sqrt(deltaI) * nx[i];
+        imy = -Math.sqrt(deltaI) * ny[i];
+      }
+      ftotx = ftotx + imx * fimage;
+      ftoty = ftoty + imy * fimage;
+      double dfx = ftotx - fx[i];
+      double dfy = ftoty - fy[i];
+      snake.forceChange += Math.sqrt(dfx * dfx + dfy * dfy);
+      snake.forceSum += Math.sqrt(ftotx * ftotx + ftoty * ftoty);
+      fx[i] = ftotx;
+      fy[i] = ftoty;
+
+      // compute new velocities of the node and store the preliminary shift
+      vx[i] = vx[i] + deltat * ftotx;
+      vy[i] = vy[i] + deltat * ftoty;
+      snake.px[i] = deltat * vx[i];
+      snake.py[i] = deltat * vy[i];
+      double shift = Math.sqrt(snake.px[i] * snake.px[i] + snake.py[i] * snake.py[i]);
+      snake.shiftSum += shift;
+      snake.maxShift = Math.max(snake.maxShift, shift);
+
+      // add some friction
+      vx[i] = vx[i] * friction;
+      vy[i] = vy[i] * friction;
+
+      // freeze node if vel is below velCrit
+      if (Math.sqrt(vx[i] * vx[i] + vy[i] * vy[i]) < velcrit) {
+        snake.freeze(i);
+      }
+    }
+
+    snake.update(qState.segParam.expandSnake);
 
     return snake.isFrozen(); // true if all nodes frozen
   }
 
+  /**
+   * Intensity contrast across node of packed snake.
+   * 
+   * @param snake snake
+   * @param i index of node
+   * @param field pixels of image
+   * @param qState state of segmentation
+   * @return contrast between inside and outside of snake, see
+   *         {@link #imageForce(Node, ImageProcessor)}
+   */
+  private double imageContrast(final PackedSnake snake, int i, final IntensityField field,
+          final BOAState qState) {
+    final double a = 0.75; // subsampling factor
+    final double px = snake.x[i];
+    final double py = snake.y[i];
+    final double nx = snake.nx[i];
+    final double ny = snake.ny[i];
+    final double tx = snake.tx[i];
+    final double ty = snake.ty[i];
+    double x;
+    double y;
+    double xt;
+    double yt;
+    final int width = field.width;
+    final int height = field.height;
+    final int[] pixels = field.pixels;
+    int xi;
+    int yi;
+    int insideI = 0;
+    int outsideI = 0;
+    int inI = 0;
+    int outI = 0;
+    for (int k = 0; k <= 1. / a * qState.segParam.sample_tan; k++) {
+      // determine points on the tangent
+      xt = px + (a * k - qState.segParam.sample_tan / 2) * tx;
+      yt = py + (a * k - qState.segParam.sample_tan / 2) * ty;
+
+      for (int j = 0; j <= 1. / a * qState.segParam.sample_norm / 2; ++j) {
+        x = xt + a * j * nx;
+        y = yt + a * j * ny;
+
+        xi = (int) x;
+        yi = (int) y;
+        if (xi >= 0 && xi < width && yi >= 0 && yi < height) { // as ImageProcessor.getPixel
+          insideI += pixels[yi * width + xi];
+        }
+        inI++;
+
+        x = xt - a * j * nx;
+        y = yt - a * j * ny;
+
+        xi = (int) x;
+        yi = (int) y;
+        if (xi >= 0 && xi < width && yi >= 0 && yi < height) {
+          outsideI += pixels[yi * width + xi];
+        }
+        outI++;
+      }
+    }
+    return ((double) insideI / inI - (double) outsideI / outI) / 255.;
+  }
+
   /**
    * constrictWrite.
    * 
@@ -114,6 +328,7 @@ public class Constrictor {
    */
   public boolean constrictWrite(final Snake snake, final ImageProcessor ip) {
     // for writing forces at each frame
+    final BOAState qState = getState();
     try {
       PrintWriter pw = new PrintWriter(
               new FileWriter("/Users/rtyson/Documents/phd/tmp/test/forcesWrite/forces.txt"), true);
@@ -126,8 +341,8 @@ public class Constrictor {
         // if (!n.isFrozen()) {
 
         // compute F_central
-        tempV.setX(n.getNormal().getX() * BOA_.qState.segParam.f_central);
-        tempV.setY(n.getNormal().getY() * BOA_.qState.segParam.f_central);
+        tempV.setX(n.getNormal().getX() * qState.segParam.f_central);
+        tempV.setY(n.getNormal().getY() * qState.segParam.f_central);
         pw.print("\n" + n.getTrackNum() + "," + tempV.length() + ",");
         n.setF_total(tempV);
 
@@ -138,35 +353,35 @@ public class Constrictor {
         } else {
           pw.print((tempF.length() * -1) + ",");
         }
-        tempV.setX(tempF.getX() * BOA_.qState.segParam.f_contract);
-        tempV.setY(tempF.getY() * BOA_.qState.segParam.f_contract);
+        tempV.setX(tempF.getX() * qState.segParam.f_contract);
+        tempV.setY(tempF.getY() * qState.segParam.f_contract);
         n.addF_total(tempV);
 
         // compute F_image and F_friction
         tempF = imageForce(n, ip);
         pw.print((tempF.length() * -1) + ",");
-        tempV.setX(tempF.getX() * BOA_.qState.segParam.f_image);// - n.getVel().getX()*
+        tempV.setX(tempF.getX() * qState.segParam.f_image);// - n.getVel().getX()*
         // boap.f_friction);
-        tempV.setY(tempF.getY() * BOA_.qState.segParam.f_image);// - n.getVel().getY()*
+        tempV.setY(tempF.getY() * qState.segParam.f_image);// - n.getVel().getY()*
         // boap.f_friction);
         n.addF_total(tempV);
         pw.print(n.getF_total().length() + "");
 
         // compute new velocities of the node
-        tempV.setX(BOA_.qState.boap.delta_t * n.getF_total().getX());
-        tempV.setY(BOA_.qState.boap.delta_t * n.getF_total().getY());
+        tempV.setX(qState.boap.delta_t * n.getF_total().getX());
+        tempV.setY(qState.boap.delta_t * n.getF_total().getY());
         n.addVel(tempV);
 
         // add some friction
-        n.getVel().multiply(BOA_.qState.boap.f_friction);
+        n.getVel().multiply(qState.boap.f_friction);
 
         // store the prelimanary point to move the node to
-        tempV.setX(BOA_.qState.boap.delta_t * n.getVel().getX());
-        tempV.setY(BOA_.qState.boap.delta_t * n.getVel().getY());
+        tempV.setX(qState.boap.delta_t * n.getVel().getX());
+        tempV.setY(qState.boap.delta_t * n.getVel().getY());
         n.setPrelim(tempV);
 
         // freeze node if vel is below velCrit
-        if (n.getVel().length() < BOA_.qState.segParam.vel_crit) {
+        if (n.getVel().length() < qState.segParam.vel_crit) {
           snake.freezeNode(n);
         }
         // }
@@ -180,7 +395,7 @@ public class Constrictor {
         n = n.getNext();
       } while (!n.isHead());
 
-      snake.updateNormals(BOA_.qState.segParam.expandSnake);
+      snake.updateNormals(qState.segParam.expandSnake);
 
       pw.close();
       return snake.isFrozen(); // true if all nodes frozen
@@ -221,6 +436,7 @@ public class Constrictor {
    * @return image force at node
    */
   ExtendedVector2d imageForce(final Node n, final ImageProcessor ip) {
+    final BOAState qState = getState();
     ExtendedVector2d result = new ExtendedVector2d();
     ExtendedVector2d tan = n.getTangent(); // Tangent at node
     int i;
@@ -239,12 +455,12 @@ public class Constrictor {
 
     // determine num pixels and total intensity of neighbourhood: a rectangle with sampleTan x
     // sampleNorm
-    for (i = 0; i <= 1. / a * BOA_.qState.segParam.sample_tan; i++) {
+    for (i = 0; i <= 1. / a * qState.segParam.sample_tan; i++) {
       // determine points on the tangent
-      xt = n.getPoint().getX() + (a * i - BOA_.qState.segParam.sample_tan / 2) * tan.getX();
-      yt = n.getPoint().getY() + (a * i - BOA_.qState.segParam.sample_tan / 2) * tan.getY();
+      xt = n.getPoint().getX() + (a * i - qState.segParam.sample_tan / 2) * tan.getX();
+      yt = n.getPoint().getY() + (a * i - qState.segParam.sample_tan / 2) * tan.getY();
 
-      for (j = 0; j <= 1. / a * BOA_.qState.segParam.sample_norm / 2; ++j) {
+      for (j = 0; j <= 1. / a * qState.segParam.sample_norm / 2; ++j) {
         x = xt + a * j * n.getNormal().getX();
         y = yt + a * j * n.getNormal().getY();
 
@@ -287,14 +503,16 @@ public class Constrictor {
    * @throws BoaException on snake scale
    */
   public void loosen(final Nest nest, int frame) throws BoaException {
+    final BOAState qState = getState();
     int nestSize = nest.size();
     Snake snakeA;
     Snake snakeB;
 
-    double[][] prox = computeProxMatrix(nest);
+    int[][] prox = computeProxPairs(nest);
+    SnakeEdges[] edges = new SnakeEdges[nestSize];
     // will be negative if blowup is <0
-    double stepSize = 0.1 * Math.signum(BOA_.qState.segParam.blowup);
-    double steps = (double) BOA_.qState.segParam.blowup / stepSize; // always positive
+    double stepSize = 0.1 * Math.signum(qState.segParam.blowup);
+    double steps = (double) qState.segParam.blowup / stepSize; // always positive
 
     for (int i = 0; i < steps; i++) {
       // check for contacts, freeze nodes in contact.
@@ -307,17 +525,18 @@ public class Constrictor {
         if (!snakeA.alive || frame < nest.getHandler(si).getStartFrame()) {
           continue;
         }
-        for (int sj = si + 1; sj < nestSize; sj++) {
+        // proximity is computed for centroids, this is limit below we test for contact.
+        // if snake is big enough it can be not tested even if interact with other
+        for (int sj : prox[si]) { // only snakes close enough
           snakeB = nest.getHandler(sj).getLiveSnake();
           if (!snakeB.alive || frame < nest.getHandler(si).getStartFrame()) {
             continue;
           }
-          // proximity is computed for centroids, this is limit below we test for contact.
-          // if snake is big enough it can be not tested even if interact with other
-          if (prox[si][sj] > BOA_.qState.boap.proximity) {
-            continue; // snakes far away, assume no chance that they will interact
+          if (edges[sj] == null) {
+            edges[sj] = new SnakeEdges(qState);
           }
-          freezeProx(snakeA, snakeB);
+          edges[sj].index(snakeB, i);
+          freezeProx(snakeA, snakeB, edges[sj]);
         }
 
       }
@@ -330,7 +549,7 @@ public class Constrictor {
         // }
         snakeA = nest.getHandler(s).getLiveSnake();
         if (snakeA.alive && frame > nest.getHandler(s).getStartFrame()) {
-          snakeA.scaleSnake(stepSize, Math.abs(stepSize), true);
+          snakeA.scaleSnake(stepSize, Math.abs(stepSize), true, qState.segParam);
         }
       }
 
@@ -345,11 +564,13 @@ public class Constrictor {
    * @throws BoaException on error
    */
   public void freezeProxSnakes(final Nest nest, int frame) throws BoaException {
+    final BOAState qState = getState();
     int nestSize = nest.size();
     Snake snakeA;
     Snake snakeB;
 
-    double[][] prox = computeProxMatrix(nest);
+    int[][] prox = computeProxPairs(nest);
+    SnakeEdges[] edges = new SnakeEdges[nestSize];
 
     // check for contacts, freeze nodes in contact.
     // Ignore snakes that begin after 'frame'
@@ -358,91 +579,211 @@ public class Constrictor {
       if (!snakeA.alive || frame < nest.getHandler(si).getStartFrame()) {
         continue;
       }
-      for (int sj = si + 1; sj < nestSize; sj++) {
+      // proximity is computed for centroids, this is limit below we test for contact.
+      // if snake is big enough it can be not tested even if interact with other
+      for (int sj : prox[si]) { // only snakes close enough
         snakeB = nest.getHandler(sj).getLiveSnake();
         if (!snakeB.alive || frame < nest.getHandler(si).getStartFrame()) {
           continue;
         }
-        // proximity is computed for centroids, this is limit below we test for contact.
-        // if snake is big enough it can be not tested even if interact with other
-        if (prox[si][sj] > BOA_.qState.boap.proximity) {
-          continue; // snakes far away, assume no chance that they will interact
+        if (edges[sj] == null) {
+          edges[sj] = new SnakeEdges(qState);
         }
-        freezeProx(snakeA, snakeB);
+        edges[sj].index(snakeB, 0);
+        freezeProx(snakeA, snakeB, edges[sj]);
       }
 
     }
   }
 
   /**
-   * Compute distance between centroids of all snakes in nest.
+   * Find pairs of snakes whose centroids are not further than {@link BOAState.BOAp#proximity}.
+   * 
+   * <p>Centroids are stored in {@link SegmentGrid} so only snakes in neighbouring cells are
+   * compared.
    * 
    * @param nest nest to process
-   * @return triangular matrix of centroids distances
+   * @return for each snake <tt>si</tt> indexes <tt>sj&gt;si</tt> of close snakes, in ascending
+   *         order
    */
-  private double[][] computeProxMatrix(final Nest nest) {
+  private int[][] computeProxPairs(final Nest nest) {
+    final BOAState qState = getState();
     int nestSize = nest.size();
-    Snake snakeA;
-    Snake snakeB;
-    // dist between snake centroids, triangular
-    double[][] prox = new double[nestSize][nestSize];
+    double proximity = qState.boap.proximity;
+    double[] cx = new double[nestSize];
+    double[] cy = new double[nestSize];
+    ExtendedVector2d[] centroids = new ExtendedVector2d[nestSize];
+    for (int s = 0; s < nestSize; s++) {
+      Snake snake = nest.getHandler(s).getLiveSnake();
+      snake.calcCentroid();
+      centroids[s] = snake.getCentroid();
+      cx[s] = centroids[s].getX();
+      cy[s] = centroids[s].getY();
+    }
+    SegmentGrid grid = new SegmentGrid(proximity > 0 ? proximity : 1.0);
+    grid.build(cx, cy, cx, cy, nestSize, Math.max(proximity, 0));
+    int[][] pairs = new int[nestSize][];
     for (int si = 0; si < nestSize; si++) {
-      snakeA = nest.getHandler(si).getLiveSnake();
-      snakeA.calcCentroid();
-      for (int sj = si + 1; sj < nestSize; sj++) {
-        snakeB = nest.getHandler(sj).getLiveSnake();
-        snakeB.calcCentroid();
-        prox[si][sj] = ExtendedVector2d.lengthP2P(snakeA.getCentroid(), snakeB.getCentroid());
+      int found = grid.query(cx[si], cy[si], cx[si], cy[si]);
+      int[] candidates = grid.getCandidates();
+      int count = 0;
+      int[] close = new int[found];
+      for (int k = 0; k < found; k++) {
+        int sj = candidates[k];
+        if (sj <= si
+                || ExtendedVector2d.lengthP2P(centroids[si], centroids[sj]) > proximity) {
+          continue; // snakes far away, assume no chance that they will interact
+        }
+        close[count++] = sj;
       }
+      pairs[si] = Arrays.copyOf(close, count);
     }
-    return prox;
+    return pairs;
   }
 
   /**
    * Freeze nodes that are close to each other in two snakes.
    * 
    * <p>This method is called for two snakes whose centroids are closer than
-   * {@link BOAState.BOAp#proximity}
+   * {@link BOAState.BOAp#proximity}. Nodes of <tt>a</tt> are tested only against edges of
+   * <tt>b</tt> found in index <tt>edgesB</tt>. Edges are tested in the same order as they follow
+   * in snake, so result is the same as testing all of them.
    * 
    * @param a snake
    * @param b snake
+   * @param edgesB index of edges of <tt>b</tt>, must be up to date
    * @see #loosen(Nest, int)
    */
-  private void freezeProx(final Snake a, final Snake b) {
+  private void freezeProx(final Snake a, final Snake b, final SnakeEdges edgesB) {
+    final BOAState qState = getState();
+    double proxFreeze = qState.boap.proxFreeze;
+    if (!(proxFreeze > 0)) {
+      return; // distance can not be smaller
+    }
 
     Node bn;
     Node an = a.getHead();
     double prox;
 
     do {
-      bn = b.getHead();
-      do {
+      int found = edgesB.grid.query(an.getX(), an.getY(), an.getX(), an.getY());
+      int[] candidates = edgesB.grid.getCandidates();
+      for (int k = 0; k < found; k++) {
+        bn = edgesB.nodes[candidates[k]];
         if (an.isFrozen() && bn.isFrozen()) {
-          // an = an.getNext();
-          bn = bn.getNext();
           continue;
         }
         // test proximity and freeze
         prox = ExtendedVector2d.distPointToSegment(an.getPoint(), bn.getPoint(),
                 bn.getNext().getPoint());
-        if (prox < BOA_.qState.boap.proxFreeze) {
+        if (prox < proxFreeze) {
           a.freezeNode(an);
           b.freezeNode(bn);
           b.freezeNode(bn.getNext());
-          // an.freeze();
-          // bn.freeze(); // FIXME using this will exclude Snake.FREEZE from updating. Use from
-          // Snake
-          // bn.getNext().freeze();
+          // FIXME using Node.freeze() will exclude Snake.FREEZE from updating. Use from Snake
           break;
         }
-        bn = bn.getNext();
-      } while (!bn.isHead());
+      }
 
       an = an.getNext();
     } while (!an.isHead());
 
   }
 
+  /**
+   * Edges of snake stored in {@link SegmentGrid} for proximity tests.
+   * 
+   * <p>Edge <tt>k</tt> spans from node <tt>nodes[k]</tt> to its next node. Bounding boxes of edges
+   * are expanded by {@link BOAState.BOAp#proxFreeze} so all edges closer than that to any point
+   * are returned by query for this point.
+   * 
+   * @author p.baniukiewicz
+   * @see Constrictor#freezeProx(Snake, Snake, SnakeEdges)
+   */
+  private static class SnakeEdges {
+
+    /**
+     * Index of edges.
+     */
+    final SegmentGrid grid;
+    /**
+     * First nodes of edges, in order of snake starting from head.
+     */
+    Node[] nodes = new Node[0];
+    /**
+     * Coordinates of edges.
+     */
+    private double[] x0 = new double[0];
+    /**
+     * Coordinates of edges.
+     */
+    private double[] y0 = new double[0];
+    /**
+     * Coordinates of edges.
+     */
+    private double[] x1 = new double[0];
+    /**
+     * Coordinates of edges.
+     */
+    private double[] y1 = new double[0];
+    /**
+     * Snake indexed last time.
+     */
+    private Snake snake = null;
+    /**
+     * Key of last indexing.
+     */
+    private int key;
+    /**
+     * Margin added to edges.
+     */
+    private final double margin;
+
+    /**
+     * Create empty index.
+     * 
+     * @param qState state to read {@link BOAState.BOAp#proxFreeze} and
+     *        {@link BOAState.SegParam#getNodeRes()} from
+     */
+    SnakeEdges(final BOAState qState) {
+      margin = Math.max(qState.boap.proxFreeze, 0);
+      grid = new SegmentGrid(Math.max(Math.max(margin, qState.segParam.getNodeRes()), 1.0));
+    }
+
+    /**
+     * Index edges of snake unless the same snake has been already indexed with the same key.
+     * 
+     * @param snake snake to index
+     * @param key any number that changes when nodes of snake are moved
+     */
+    void index(final Snake snake, int key) {
+      if (snake == this.snake && key == this.key) {
+        return;
+      }
+      this.snake = snake;
+      this.key = key;
+      int n = snake.getNumPoints();
+      if (nodes.length < n) {
+        nodes = new Node[n];
+        x0 = new double[n];
+        y0 = new double[n];
+        x1 = new double[n];
+        y1 = new double[n];
+      }
+      Node node = snake.getHead();
+      for (int k = 0; k < n; k++) {
+        Node next = node.getNext();
+        nodes[k] = node;
+        x0[k] = node.getX();
+        y0[k] = node.getY();
+        x1[k] = next.getX();
+        y1[k] = next.getY();
+        node = next;
+      }
+      grid.build(x0, y0, x1, y1, n, margin);
+    }
+  }
+
   /**
    * Implode nest.
    * 
@@ -452,6 +793,7 @@ public class Constrictor {
    * @see BOAState.SegParam#expandSnake
    */
   public void implode(final Nest nest, int f) throws BoaException {
+    final BOAState qState = getState();
     // System.out.println("imploding snake");
     SnakeHandler snakeH;
     Snake snake;
@@ -462,7 +804,7 @@ public class Constrictor {
       }
       snake = snakeH.getLiveSnake();
       if (snake.alive && f > snakeH.getStartFrame()) {
-        snake.implode();
+        snake.implode(qState.segParam);
       }
     }
   }
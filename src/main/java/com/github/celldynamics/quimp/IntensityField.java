@@ -0,0 +1,97 @@
+package com.github.celldynamics.quimp;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Pixel values of one frame sampled by image force of
+ * {@link Constrictor#constrict(PackedSnake, IntensityField, double)}.
+ *
+ * <p>Values are copied once per frame to flat array and read directly, without virtual calls of
+ * {@link ImageProcessor#getPixel(int, int)} for each sample of each node in each iteration. Lookup
+ * follows {@link ImageProcessor#getPixel(int, int)}: coordinates are truncated to integer and
+ * pixels outside image are 0, so forces are the same as computed on {@link ImageProcessor}.
+ *
+ * <p>Field is immutable and can be shared by all snakes of frame processed concurrently.
+ *
+ * @author p.baniukiewicz
+ */
+public final class IntensityField {
+
+  /**
+   * Width of image.
+   */
+  final int width;
+  /**
+   * Height of image.
+   */
+  final int height;
+  /**
+   * Pixel values in rows.
+   */
+  final int[] pixels;
+
+  /**
+   * Copy pixels of image.
+   *
+   * @param ip image of frame
+   */
+  public IntensityField(final ImageProcessor ip) {
+    width = ip.getWidth();
+    height = ip.getHeight();
+    pixels = new int[width * height];
+    if (ip instanceof ByteProcessor) {
+      byte[] p = (byte[]) ip.getPixels();
+      for (int i = 0; i < pixels.length; i++) {
+        pixels[i] = p[i] & 0xff;
+      }
+    } else if (ip instanceof ShortProcessor) {
+      short[] p = (short[]) ip.getPixels();
+      for (int i = 0; i < pixels.length; i++) {
+        pixels[i] = p[i] & 0xffff;
+      }
+    } else {
+      for (int y = 0; y < height; y++) {
+        for (int x = 0; x < width; x++) {
+          pixels[y * width + x] = ip.getPixel(x, y);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get value of pixel.
+   *
+   * @param x x coordinate, truncated to integer
+   * @param y y coordinate, truncated to integer
+   * @return value of pixel or 0 if outside image
+   * @see ImageProcessor#getPixel(int, int)
+   */
+  public int get(double x, double y) {
+    int xi = (int) x;
+    int yi = (int) y;
+    if (xi < 0 || xi >= width || yi < 0 || yi >= height) {
+      return 0;
+    }
+    return pixels[yi * width + xi];
+  }
+
+  /**
+   * Get width of image.
+   *
+   * @return width
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Get height of image.
+   *
+   * @return height
+   */
+  public int getHeight() {
+    return height;
+  }
+}
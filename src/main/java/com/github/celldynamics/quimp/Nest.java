@@ -119,9 +119,22 @@ public class Nest implements IQuimpSerialize {
    * @return SnakeHandler object that is also stored in Nest
    */
   public SnakeHandler addHandler(final Roi r, int startFrame) {
+    return addHandler(r, startFrame, BOA_.qState);
+  }
+
+  /**
+   * Add roi to Nest using given BOA state.
+   * 
+   * @param r ROI object that contain image object to be segmented
+   * @param startFrame Current frame
+   * @param qState state of segmentation used for creating Snake
+   * @return SnakeHandler object that is also stored in Nest
+   * @see #addHandler(Roi, int)
+   */
+  public SnakeHandler addHandler(final Roi r, int startFrame, final BOAState qState) {
     SnakeHandler sh;
     try {
-      sh = new SnakeHandler(r, startFrame, nextID);
+      sh = new SnakeHandler(r, startFrame, nextID, qState);
       sHs.add(sh);
       nextID++;
       NSNAKES++;
@@ -369,6 +382,17 @@ public class Nest implements IQuimpSerialize {
    * @param f current frame under segmentation
    */
   void resetForFrame(int f) {
+    resetForFrame(f, BOA_.qState.segParam);
+  }
+
+  /**
+   * Prepare for segmentation from frame f using given segmentation parameters.
+   * 
+   * @param f current frame under segmentation
+   * @param segParam segmentation parameters
+   * @see #resetForFrame(int)
+   */
+  void resetForFrame(int f, final BOAState.SegParam segParam) {
     reviveNest();
     Iterator<SnakeHandler> shitr = sHs.iterator();
     ArrayList<SnakeHandler> toRemove = new ArrayList<>(); // will keep handler to remove
@@ -380,10 +404,10 @@ public class Nest implements IQuimpSerialize {
       try {
         if (f <= sh.getStartFrame()) {
           // BOA_.log("Reset snake " + sH.getID() + " as Roi");
-          sh.reset();
+          sh.reset(segParam);
         } else {
           // BOA_.log("Reset snake " + sH.getID() + " as prev snake");
-          sh.resetForFrame(f);
+          sh.resetForFrame(f, segParam);
         }
       } catch (Exception e) {
         LOGGER.debug("Could not reset snake " + e.getMessage(), e);
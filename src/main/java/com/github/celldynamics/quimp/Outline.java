@@ -8,6 +8,7 @@ import org.slf4j.LoggerFactory;
 
 import com.github.celldynamics.quimp.filesystem.IQuimpSerialize;
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.geom.SelfIntersectionFinder;
 
 import ij.IJ;
 import ij.gui.Roi;
@@ -660,7 +661,7 @@ public class Outline extends Shape<Vert> implements Cloneable, IQuimpSerialize {
   public boolean cutSelfIntersects() {
     boolean icut = false;
     int interval;
-    int state;
+    int offset;
 
     Vert na;
     Vert nb;
@@ -669,49 +670,45 @@ public class Outline extends Shape<Vert> implements Cloneable, IQuimpSerialize {
 
     boolean cutHead;
 
+    SelfIntersectionFinder finder = new SelfIntersectionFinder();
+    List<Vert> verts = indexEdges(finder);
+    int a = 0; // slot of na in finder
     na = head;
     do {
-      cutHead = (na.getNext().isHead()) ? true : false;
-      nb = na.getNext().getNext(); // don't check the next one along! they touch, not overlap
       interval = (POINTS > 6) ? POINTS / 2 : 2; // always leave 3 nodes, at least. Check half way
-      for (int i = 2; i < interval; i++) {
-        if (nb.isHead()) {
-          cutHead = true;
+      // don't check the next one along! they touch, not overlap
+      offset = finder.findFirst(a, 2, interval, intersect);
+      if (offset > 0) {
+        int b = finder.ahead(a, offset);
+        nb = verts.get(b);
+        cutHead = b < a; // head is between na and nb
+        icut = true;
+        newN = this.insertInterpolatedVert(na);
+        newN.setX(intersect[0]);
+        newN.setY(intersect[1]);
+
+        newN.setNext(nb.getNext());
+        nb.getNext().setPrev(newN);
+
+        newN.updateNormale(true);
+        nb.getNext().updateNormale(true);
+
+        if (cutHead) {
+          // System.out.println("cut the head");
+          newN.setHead(true); // put a new head in
+          head = newN;
         }
-        intersect = new double[2];
-        state = ExtendedVector2d.segmentIntersection(na.getX(), na.getY(), na.getNext().getX(),
-                na.getNext().getY(), nb.getX(), nb.getY(), nb.getNext().getX(), nb.getNext().getY(),
-                intersect);
-
-        if (state == 1) {
-          icut = true;
-          newN = this.insertInterpolatedVert(na);
-          newN.setX(intersect[0]);
-          newN.setY(intersect[1]);
-
-          newN.setNext(nb.getNext());
-          nb.getNext().setPrev(newN);
-
-          newN.updateNormale(true);
-          nb.getNext().updateNormale(true);
-
-          if (cutHead) {
-            // System.out.println("cut the head");
-            newN.setHead(true); // put a new head in
-            head = newN;
-          }
 
-          // newN.print("inserted node: ");
-          // System.out.println("C - VERTS : " + VERTS);
-          if (POINTS - (i) < 3) {
-            LOGGER.warn("OUTLINE 594_VERTS WILL BE than 3. i = " + i + ", VERT=" + POINTS);
-          }
-          POINTS -= (i);
-          break;
+        // newN.print("inserted node: ");
+        // System.out.println("C - VERTS : " + VERTS);
+        if (POINTS - (offset) < 3) {
+          LOGGER.warn("OUTLINE 594_VERTS WILL BE than 3. i = " + offset + ", VERT=" + POINTS);
         }
-        nb = nb.getNext();
+        POINTS -= (offset);
+        verts.set(finder.cut(a, offset, intersect[0], intersect[1]), newN);
       }
       na = na.getNext();
+      a = finder.next(a);
     } while (!na.isHead());
 
     return icut;
@@ -0,0 +1,293 @@
+package com.github.celldynamics.quimp;
+
+import java.util.Arrays;
+
+import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+
+/**
+ * Snake stored in parallel arrays for
+ * {@link Constrictor#constrict(PackedSnake, ij.process.ImageProcessor)}.
+ *
+ * <p>Nodes are stored in order of {@link Node#getNext()} starting from head, so neighbours of node
+ * <tt>i</tt> are at <tt>i-1</tt> and <tt>i+1</tt> (modulo size). Packed snake is loaded from
+ * {@link Snake} by {@link #load(Snake)} and results are copied back by {@link #store()}. Number of
+ * nodes can not change in between, so snake must be stored before any method that adds or removes
+ * nodes, e.g. {@link Snake#cutLoops()} or {@link Snake#correctDistance(boolean)}, and loaded
+ * again after.
+ *
+ * <p>Arrays are reused between loads if they are big enough.
+ *
+ * @author p.baniukiewicz
+ * @see Constrictor#constrict(PackedSnake, ij.process.ImageProcessor)
+ */
+public class PackedSnake {
+
+  /**
+   * Snake this object was loaded from, null if not loaded.
+   */
+  private Snake snake = null;
+  /**
+   * Nodes of {@link #snake} in order of packing.
+   */
+  private Node[] nodes = new Node[0];
+  /**
+   * Number of nodes.
+   */
+  int size = 0;
+  /**
+   * Number of frozen nodes.
+   */
+  int frozenCount = 0;
+  /**
+   * Coordinates of nodes.
+   */
+  double[] x = new double[0];
+  /**
+   * Coordinates of nodes.
+   */
+  double[] y = new double[0];
+  /**
+   * Normals of nodes.
+   */
+  double[] nx = new double[0];
+  /**
+   * Normals of nodes.
+   */
+  double[] ny = new double[0];
+  /**
+   * Tangents of nodes.
+   */
+  double[] tx = new double[0];
+  /**
+   * Tangents of nodes.
+   */
+  double[] ty = new double[0];
+  /**
+   * Velocities of nodes.
+   */
+  double[] vx = new double[0];
+  /**
+   * Velocities of nodes.
+   */
+  double[] vy = new double[0];
+  /**
+   * Total forces of nodes.
+   */
+  double[] fx = new double[0];
+  /**
+   * Total forces of nodes.
+   */
+  double[] fy = new double[0];
+  /**
+   * Preliminary shifts of nodes, zero outside of constrict step.
+   */
+  double[] px = new double[0];
+  /**
+   * Preliminary shifts of nodes, zero outside of constrict step.
+   */
+  double[] py = new double[0];
+  /**
+   * Frozen status of nodes.
+   */
+  boolean[] frozen = new boolean[0];
+  /**
+   * Sum of lengths of node shifts in last constrict step.
+   */
+  double shiftSum = 0;
+  /**
+   * Maximal length of node shift in last constrict step.
+   */
+  double maxShift = 0;
+  /**
+   * Sum of lengths of total forces of moved nodes in last constrict step.
+   */
+  double forceSum = 0;
+  /**
+   * Sum of lengths of changes of total forces of moved nodes in last constrict step.
+   */
+  double forceChange = 0;
+
+  /**
+   * Create empty object. Use {@link #load(Snake)} to fill it.
+   */
+  public PackedSnake() {
+  }
+
+  /**
+   * Create packed copy of snake.
+   *
+   * @param snake snake to pack
+   */
+  public PackedSnake(final Snake snake) {
+    load(snake);
+  }
+
+  /**
+   * Copy nodes of snake to arrays.
+   *
+   * @param snake snake to pack
+   */
+  public void load(final Snake snake) {
+    this.snake = snake;
+    size = snake.getNumPoints();
+    ensureCapacity(size);
+    frozenCount = 0;
+    Node n = snake.getHead();
+    for (int i = 0; i < size; i++) {
+      nodes[i] = n;
+      x[i] = n.getX();
+      y[i] = n.getY();
+      nx[i] = n.getNormal().getX();
+      ny[i] = n.getNormal().getY();
+      ExtendedVector2d tan = n.getTangent();
+      tx[i] = tan == null ? 0 : tan.getX();
+      ty[i] = tan == null ? 0 : tan.getY();
+      vx[i] = n.getVel().getX();
+      vy[i] = n.getVel().getY();
+      fx[i] = n.getF_total().getX();
+      fy[i] = n.getF_total().getY();
+      frozen[i] = n.isFrozen();
+      if (frozen[i]) {
+        frozenCount++;
+      }
+      n = n.getNext();
+    }
+    Arrays.fill(px, 0, size, 0);
+    Arrays.fill(py, 0, size, 0);
+  }
+
+  /**
+   * Copy arrays back to nodes of snake given in {@link #load(Snake)}.
+   *
+   * <p>Does nothing if nothing has been loaded. Nodes frozen in packed snake are frozen by
+   * {@link Snake#freezeNode(Node)}.
+   */
+  public void store() {
+    if (snake == null) {
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      Node n = nodes[i];
+      n.setX(x[i]);
+      n.setY(y[i]);
+      n.setNormal(nx[i], ny[i]);
+      if (n.getTangent() != null) {
+        n.getTangent().setX(tx[i]);
+        n.getTangent().setY(ty[i]);
+      }
+      n.getVel().setX(vx[i]);
+      n.getVel().setY(vy[i]);
+      n.getF_total().setX(fx[i]);
+      n.getF_total().setY(fy[i]);
+      if (frozen[i]) {
+        snake.freezeNode(n);
+      }
+    }
+  }
+
+  /**
+   * Get number of nodes.
+   *
+   * @return number of packed nodes
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Check if all nodes are frozen.
+   *
+   * @return true if all nodes are frozen
+   */
+  public boolean isFrozen() {
+    return frozenCount == size;
+  }
+
+  /**
+   * Freeze node.
+   *
+   * @param i index of node
+   */
+  void freeze(int i) {
+    if (!frozen[i]) {
+      frozen[i] = true;
+      frozenCount++;
+    }
+  }
+
+  /**
+   * Move nodes by preliminary shifts and update normals.
+   *
+   * <p>Equivalent of {@link Node#update()} followed by {@link Snake#updateNormals(boolean)}.
+   *
+   * @param inner direction of normals, see {@link BOAState.SegParam#expandSnake}
+   */
+  void update(boolean inner) {
+    for (int i = 0; i < size; i++) {
+      x[i] = x[i] + px[i];
+      y[i] = y[i] + py[i];
+      px[i] = 0;
+      py[i] = 0;
+    }
+    for (int i = 0; i < size; i++) {
+      int l = i == 0 ? size - 1 : i - 1;
+      int r = i == size - 1 ? 0 : i + 1;
+      // unit vectors to neighbours, see PointsList.calcTan()
+      double ulx = x[l] - x[i];
+      double uly = y[l] - y[i];
+      double len = Math.sqrt(ulx * ulx + uly * uly);
+      if (len != 0) {
+        ulx = ulx / len;
+        uly = uly / len;
+      }
+      double urx = x[r] - x[i];
+      double ury = y[r] - y[i];
+      len = Math.sqrt(urx * urx + ury * ury);
+      if (len != 0) {
+        urx = urx / len;
+        ury = ury / len;
+      }
+      double tanx = (x[i] + urx) - (x[i] + ulx);
+      double tany = (y[i] + ury) - (y[i] + uly);
+      len = Math.sqrt(tanx * tanx + tany * tany);
+      if (len != 0) {
+        tanx = tanx / len;
+        tany = tany / len;
+      }
+      tx[i] = tanx;
+      ty[i] = tany;
+      if (!inner) { // switch around if expanding snake
+        nx[i] = -tany;
+        ny[i] = tanx;
+      } else {
+        nx[i] = tany;
+        ny[i] = -tanx;
+      }
+    }
+  }
+
+  /**
+   * Grow arrays if needed.
+   *
+   * @param n required number of nodes
+   */
+  private void ensureCapacity(int n) {
+    if (x.length >= n) {
+      return;
+    }
+    nodes = new Node[n];
+    x = new double[n];
+    y = new double[n];
+    nx = new double[n];
+    ny = new double[n];
+    tx = new double[n];
+    ty = new double[n];
+    vx = new double[n];
+    vy = new double[n];
+    fx = new double[n];
+    fy = new double[n];
+    px = new double[n];
+    py = new double[n];
+    frozen = new boolean[n];
+  }
+}
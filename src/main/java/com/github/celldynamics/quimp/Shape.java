@@ -16,6 +16,7 @@ import org.slf4j.LoggerFactory;
 
 import com.github.celldynamics.quimp.filesystem.IQuimpSerialize;
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.geom.SelfIntersectionFinder;
 
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
@@ -772,6 +773,32 @@ public abstract class Shape<T extends PointsList<T>> implements IQuimpSerialize,
     // n = null;
   }
 
+  /**
+   * Store edges of Shape in finder of self intersections.
+   * 
+   * <p>Must be called again after any change of points.
+   * 
+   * @param finder finder to fill
+   * @return points in order from head, edge <tt>k</tt> of finder starts at point <tt>k</tt>
+   * @see SelfIntersectionFinder#findFirst(int, int, int, double[])
+   */
+  protected List<T> indexEdges(final SelfIntersectionFinder finder) {
+    List<T> points = new ArrayList<>(POINTS);
+    T n = head;
+    do {
+      points.add(n);
+      n = n.getNext();
+    } while (!n.isHead());
+    double[] x = new double[points.size()];
+    double[] y = new double[points.size()];
+    for (int i = 0; i < x.length; i++) {
+      x[i] = points.get(i).getX();
+      y[i] = points.get(i).getY();
+    }
+    finder.build(x, y, x.length);
+    return points;
+  }
+
   /**
    * Get number of points in Shape.
    * 
@@ -929,7 +956,6 @@ public abstract class Shape<T extends PointsList<T>> implements IQuimpSerialize,
    * @see PointsList#updateNormale(boolean)
    * @see #calcCentroid()
    * @see #setPositions()
-   * @see PointsList#setClockwise(boolean)
    */
   public void scale(double stepSize) {
     T n;
@@ -10,6 +10,7 @@ import org.slf4j.LoggerFactory;
 
 import com.github.celldynamics.quimp.filesystem.IQuimpSerialize;
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.geom.SelfIntersectionFinder;
 
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
@@ -115,13 +116,28 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @throws BoaException on wrong number of polygon points
    */
   public Snake(final Roi r, int id, boolean direct) throws BoaException {
+    this(r, id, direct, BOA_.qState.segParam);
+  }
+
+  /**
+   * Create snake from ROI using given segmentation parameters.
+   * 
+   * @param r ROI with object to be segmented
+   * @param id Unique ID of snake related to object being segmented.
+   * @param direct direct
+   * @param segParam segmentation parameters, node resolution and direction of normals are used
+   * @throws BoaException on wrong number of polygon points
+   * @see #Snake(Roi, int, boolean)
+   */
+  Snake(final Roi r, int id, boolean direct, final BOAState.SegParam segParam)
+          throws BoaException {
     // place nodes in a circle
     snakeID = id;
     if (r.getType() == Roi.RECTANGLE || r.getType() == Roi.POLYGON) {
       if (direct) {
-        intializePolygonDirect(r.getFloatPolygon());
+        intializePolygonDirect(r.getFloatPolygon(), segParam.expandSnake);
       } else {
-        intializePolygon(r.getFloatPolygon());
+        intializePolygon(r.getFloatPolygon(), segParam);
       }
     } else {
       Rectangle rect = r.getBounds();
@@ -130,7 +146,7 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       int rx = rect.width / 2;
       int ry = rect.height / 2;
 
-      intializeOval(0, xc, yc, rx, ry, BOA_.qState.segParam.getNodeRes() / 2);
+      intializeOval(0, xc, yc, rx, ry, segParam.getNodeRes() / 2, segParam.expandSnake);
     }
     startingNnodes = POINTS / 100.; // as 1%. limit to X%
     alive = true;
@@ -149,8 +165,21 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @throws BoaException on wrong number of polygon points
    */
   public Snake(final PolygonRoi r, int id) throws BoaException {
+    this(r, id, BOA_.qState.segParam);
+  }
+
+  /**
+   * Initialises snake from PolygonRoi using given segmentation parameters.
+   * 
+   * @param r polygon to initialise Snake
+   * @param id id of Snake
+   * @param segParam segmentation parameters, direction of normals is used
+   * @throws BoaException on wrong number of polygon points
+   * @see #Snake(PolygonRoi, int)
+   */
+  Snake(final PolygonRoi r, int id, final BOAState.SegParam segParam) throws BoaException {
     snakeID = id;
-    intializeFloat(r.getFloatPolygon());
+    intializeFloat(r.getFloatPolygon(), segParam.expandSnake);
     startingNnodes = POINTS / 100.; // as 1%. limit to X%
     alive = true;
     // colour = QColor.lightColor();
@@ -298,10 +327,12 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @param rx ellipse diameter
    * @param ry ellipse diameter
    * @param s number of nodes
+   * @param expandSnake direction of normals, see {@link BOAState.SegParam#expandSnake}
    * 
    * @throws BoaException Exception if polygon contains too little nodes.
    */
-  private void intializeOval(int t, int xc, int yc, int rx, int ry, double s) throws BoaException {
+  private void intializeOval(int t, int xc, int yc, int rx, int ry, double s,
+          boolean expandSnake) throws BoaException {
     head = new Node(t); // make a dummy head node for list initialization
     POINTS = 1;
     FROZEN = 0;
@@ -320,9 +351,9 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       node.getPoint().setY((int) (yc + ry * Math.sin(a)));
       addPoint(node);
     }
-    removeNode(head); // remove dummy head node
+    removeNode(head, expandSnake); // remove dummy head node
     this.makeAntiClockwise();
-    updateNormals(BOA_.qState.segParam.expandSnake);
+    updateNormals(expandSnake);
   }
 
   /**
@@ -330,9 +361,11 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * {@link BOAState.SegParam#getNodeRes()}
    * 
    * @param p Polygon extracted from IJ ROI
+   * @param segParam segmentation parameters
    * @throws BoaException if polygon contains too little nodes.
    */
-  private void intializePolygon(final FloatPolygon p) throws BoaException {
+  private void intializePolygon(final FloatPolygon p, final BOAState.SegParam segParam)
+          throws BoaException {
     // System.out.println("poly with node distance");
     head = new Node(0); // make a dummy head node for list initialization
     POINTS = 1;
@@ -355,7 +388,7 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       a = new ExtendedVector2d(p.xpoints[i], p.ypoints[i]);// vectors ab define edge
       b = new ExtendedVector2d(p.xpoints[j], p.ypoints[j]);
 
-      nn = (int) Math.ceil(ExtendedVector2d.lengthP2P(a, b) / BOA_.qState.segParam.getNodeRes());
+      nn = (int) Math.ceil(ExtendedVector2d.lengthP2P(a, b) / segParam.getNodeRes());
       spacing = ExtendedVector2d.lengthP2P(a, b) / (double) nn;
       u = ExtendedVector2d.unitVector(a, b);
       u.multiply(spacing); // required distance between points
@@ -370,10 +403,10 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
         addPoint(node);
       }
     }
-    removeNode(head); // remove dummy head node new head will be set
+    removeNode(head, segParam.expandSnake); // remove dummy head node new head will be set
     setPositions();
     this.makeAntiClockwise();
-    updateNormals(BOA_.qState.segParam.expandSnake);
+    updateNormals(segParam.expandSnake);
   }
 
   /**
@@ -381,10 +414,12 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * polygon.
    * 
    * @param p Polygon extracted from IJ ROI
+   * @param expandSnake direction of normals, see {@link BOAState.SegParam#expandSnake}
    * @throws BoaException if polygon contains too little nodes.
-   * @see #intializePolygon(FloatPolygon)
+   * @see #intializePolygon(FloatPolygon, BOAState.SegParam)
    */
-  private void intializePolygonDirect(final FloatPolygon p) throws BoaException {
+  private void intializePolygonDirect(final FloatPolygon p, boolean expandSnake)
+          throws BoaException {
     // System.out.println("poly direct");
     head = new Node(0); // make a dummy head node for list initialization
     POINTS = 1;
@@ -399,20 +434,21 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       addPoint(node);
     }
 
-    removeNode(head); // remove dummy head node
+    removeNode(head, expandSnake); // remove dummy head node
     setPositions();
     this.makeAntiClockwise();
-    updateNormals(BOA_.qState.segParam.expandSnake);
+    updateNormals(expandSnake);
   }
 
   /**
    * Create Snake from polygon.
    * 
    * @param p polygon to initialise snake from
-   * @see #intializePolygonDirect(FloatPolygon)
+   * @param expandSnake direction of normals, see {@link BOAState.SegParam#expandSnake}
+   * @see #intializePolygonDirect(FloatPolygon, boolean)
    * @throws BoaException if polygon contains too little nodes.
    */
-  private void intializeFloat(final FloatPolygon p) throws BoaException {
+  private void intializeFloat(final FloatPolygon p, boolean expandSnake) throws BoaException {
     // FIXME This method is the same as intializePolygonDirect(FloatPolygon)
     head = new Node(0); // make a dummy head node
     POINTS = 1;
@@ -427,10 +463,10 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       addPoint(node);
     }
 
-    removeNode(head); // remove dummy head node
+    removeNode(head, expandSnake); // remove dummy head node
     setPositions();
     this.makeAntiClockwise();
-    updateNormals(BOA_.qState.segParam.expandSnake);
+    updateNormals(expandSnake);
   }
 
   /**
@@ -524,6 +560,18 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @throws BoaException on insufficient number of nodes
    */
   public final void removeNode(Node n) throws BoaException {
+    removeNode(n, BOA_.qState.segParam.expandSnake);
+  }
+
+  /**
+   * Remove selected node from list.
+   * 
+   * @param n Node to remove
+   * @param expandSnake direction of normals, see {@link BOAState.SegParam#expandSnake}
+   * @throws BoaException on insufficient number of nodes
+   * @see #removeNode(Node)
+   */
+  private void removeNode(Node n, boolean expandSnake) throws BoaException {
     if (POINTS <= 3) {
       throw new BoaException("removeNode: Did not remove node. " + POINTS + " nodes remaining.", 0,
               2);
@@ -531,7 +579,7 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
     if (n.isFrozen()) {
       FROZEN--;
     }
-    super.removePoint(n, BOA_.qState.segParam.expandSnake);
+    super.removePoint(n, expandSnake);
   }
 
   /**
@@ -540,6 +588,17 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @throws BoaException if oval could not be initialized.
    */
   public void implode() throws BoaException {
+    implode(BOA_.qState.segParam);
+  }
+
+  /**
+   * Implode using given segmentation parameters.
+   *
+   * @param segParam segmentation parameters
+   * @throws BoaException if oval could not be initialized.
+   * @see #implode()
+   */
+  void implode(final BOAState.SegParam segParam) throws BoaException {
     // calculate centroid
     double cx;
     double cy;
@@ -554,7 +613,7 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
     cx = cx / POINTS;
     cy = cy / POINTS;
 
-    intializeOval(nextTrackNumber, (int) cx, (int) cy, 4, 4, 1);
+    intializeOval(nextTrackNumber, (int) cx, (int) cy, 4, 4, 1, segParam.expandSnake);
   }
 
   /**
@@ -580,11 +639,24 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @see Outline#scaleOutline(double, double, double, double)
    */
   public void scaleSnake(double amount, double stepRes, boolean correct) throws BoaException {
+    scaleSnake(amount, stepRes, correct, BOA_.qState.segParam);
+  }
+
+  /**
+   * Scale current Snake by amount in increments of stepSize using given segmentation parameters.
+   * 
+   * @param amount scale
+   * @param stepRes increment
+   * @param correct if true it corrects the node distance
+   * @param segParam segmentation parameters
+   * @throws BoaException if node distance correction failed
+   * @see #scaleSnake(double, double, boolean)
+   */
+  void scaleSnake(double amount, double stepRes, boolean correct,
+          final BOAState.SegParam segParam) throws BoaException {
     if (amount == 0) {
       return;
     }
-    // make sure snake access is clockwise
-    Node.setClockwise(true);
     // scale the snake by 'amount', in increments of 'stepsize'
     if (amount > 0) {
       stepRes *= -1; // scale down if amount negative
@@ -595,10 +667,10 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
     for (j = 0; j < steps; j++) {
       super.scale(stepRes);
       if (correct) {
-        correctDistance(false);
+        correctDistance(false, segParam);
       }
-      cutLoops();
-      updateNormals(BOA_.qState.segParam.expandSnake);
+      cutLoops(segParam);
+      updateNormals(segParam.expandSnake);
     }
     calcCentroid();
     setPositions();
@@ -608,9 +680,19 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * Cut out a loop Insert a new node at cut point.
    */
   public void cutLoops() {
+    cutLoops(BOA_.qState.segParam);
+  }
+
+  /**
+   * Cut out a loop using given segmentation parameters.
+   * 
+   * @param segParam segmentation parameters
+   * @see #cutLoops()
+   */
+  void cutLoops(final BOAState.SegParam segParam) {
     final int maxInterval = 12; // how far ahead do you check for a loop
     int interval;
-    int state;
+    int offset;
 
     Node nodeA;
     Node nodeB;
@@ -619,51 +701,48 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
 
     boolean cutHead;
 
+    SelfIntersectionFinder finder = new SelfIntersectionFinder();
+    List<Node> nodes = indexEdges(finder);
+    int a = 0; // slot of nodeA in finder
     nodeA = head;
     do {
-      cutHead = (nodeA.getNext().isHead()) ? true : false;
-      nodeB = nodeA.getNext().getNext(); // don't check next edge as they can't cross, but do touch
-
       // always leave 3 nodes, at least
       interval = (POINTS > maxInterval + 3) ? maxInterval : (POINTS - 3);
 
-      for (int i = 0; i < interval; i++) {
-        if (nodeB.isHead()) {
-          cutHead = true;
+      // don't check next edge as they can't cross, but do touch
+      offset = finder.findFirst(a, 2, interval + 2, intersect);
+      if (offset > 0) {
+        int b = finder.ahead(a, offset);
+        nodeB = nodes.get(b);
+        cutHead = b < a; // head is between nodeA and nodeB
+        // System.out.println("CutLoops: cut out a loop");
+        newN = this.insertNode(nodeA);
+        newN.setX(intersect[0]);
+        newN.setY(intersect[1]);
+
+        newN.setNext(nodeB.getNext());
+        nodeB.getNext().setPrev(newN);
+
+        newN.updateNormale(segParam.expandSnake);
+        nodeB.getNext().updateNormale(segParam.expandSnake);
+
+        // set velocity
+        newN.setVel(nodeB.getVel());
+        if (newN.getVel().length() < segParam.vel_crit) {
+          newN.getVel().makeUnit();
+          newN.getVel().multiply(segParam.vel_crit * 1.5);
         }
-        state = ExtendedVector2d.segmentIntersection(nodeA.getX(), nodeA.getY(),
-                nodeA.getNext().getX(), nodeA.getNext().getY(), nodeB.getX(), nodeB.getY(),
-                nodeB.getNext().getX(), nodeB.getNext().getY(), intersect);
-        if (state == 1) {
-          // System.out.println("CutLoops: cut out a loop");
-          newN = this.insertNode(nodeA);
-          newN.setX(intersect[0]);
-          newN.setY(intersect[1]);
-
-          newN.setNext(nodeB.getNext());
-          nodeB.getNext().setPrev(newN);
-
-          newN.updateNormale(BOA_.qState.segParam.expandSnake);
-          nodeB.getNext().updateNormale(BOA_.qState.segParam.expandSnake);
-
-          // set velocity
-          newN.setVel(nodeB.getVel());
-          if (newN.getVel().length() < BOA_.qState.segParam.vel_crit) {
-            newN.getVel().makeUnit();
-            newN.getVel().multiply(BOA_.qState.segParam.vel_crit * 1.5);
-          }
 
-          if (cutHead) {
-            newN.setHead(true); // put a new head in
-            head = newN;
-          }
-
-          POINTS -= (i + 2); // the one skipped and the current one
-          break;
+        if (cutHead) {
+          newN.setHead(true); // put a new head in
+          head = newN;
         }
-        nodeB = nodeB.getNext();
+
+        POINTS -= offset; // the one skipped and the current one
+        nodes.set(finder.cut(a, offset, intersect[0], intersect[1]), newN);
       }
       nodeA = nodeA.getNext();
+      a = finder.next(a);
     } while (!nodeA.isHead());
   }
 
@@ -676,9 +755,19 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @see com.github.celldynamics.quimp.Outline#cutSelfIntersects()
    */
   public void cutIntersects() {
+    cutIntersects(BOA_.qState.segParam);
+  }
+
+  /**
+   * Cut out intersects using given segmentation parameters.
+   * 
+   * @param segParam segmentation parameters
+   * @see #cutIntersects()
+   */
+  void cutIntersects(final BOAState.SegParam segParam) {
 
     int interval;
-    int state;
+    int offset;
 
     Node nodeA;
     Node nodeB;
@@ -687,44 +776,40 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
 
     boolean cutHead;
 
+    SelfIntersectionFinder finder = new SelfIntersectionFinder();
+    List<Node> nodes = indexEdges(finder);
+    int a = 0; // slot of nodeA in finder
     nodeA = head;
     do {
-      cutHead = (nodeA.getNext().isHead()) ? true : false;
-      nodeB = nodeA.getNext().getNext();// don't check next edge as they can't cross, but do touch
       interval = (POINTS > 6) ? POINTS / 2 : 2; // always leave 3 nodes, at least
 
-      for (int i = 2; i < interval; i++) {
-        if (nodeB.isHead()) {
-          cutHead = true;
+      // don't check next edge as they can't cross, but do touch
+      offset = finder.findFirst(a, 2, interval, intersect);
+      if (offset > 0) {
+        int b = finder.ahead(a, offset);
+        nodeB = nodes.get(b);
+        cutHead = b < a; // head is between nodeA and nodeB
+        newN = this.insertNode(nodeA);
+        newN.setX(intersect[0]);
+        newN.setY(intersect[1]);
+
+        newN.setNext(nodeB.getNext());
+        nodeB.getNext().setPrev(newN);
+
+        newN.updateNormale(segParam.expandSnake);
+        nodeB.getNext().updateNormale(segParam.expandSnake);
+
+        if (cutHead) {
+          newN.setHead(true); // put a new head in
+          head = newN;
         }
 
-        state = ExtendedVector2d.segmentIntersection(nodeA.getX(), nodeA.getY(),
-                nodeA.getNext().getX(), nodeA.getNext().getY(), nodeB.getX(), nodeB.getY(),
-                nodeB.getNext().getX(), nodeB.getNext().getY(), intersect);
-
-        if (state == 1) {
-          newN = this.insertNode(nodeA);
-          newN.setX(intersect[0]);
-          newN.setY(intersect[1]);
-
-          newN.setNext(nodeB.getNext());
-          nodeB.getNext().setPrev(newN);
-
-          newN.updateNormale(BOA_.qState.segParam.expandSnake);
-          nodeB.getNext().updateNormale(BOA_.qState.segParam.expandSnake);
-
-          if (cutHead) {
-            newN.setHead(true); // put a new head in
-            head = newN;
-          }
-
-          POINTS -= (i);
-          break;
-        }
-        nodeB = nodeB.getNext();
+        POINTS -= (offset);
+        nodes.set(finder.cut(a, offset, intersect[0], intersect[1]), newN);
       }
 
       nodeA = nodeA.getNext();
+      a = finder.next(a);
     } while (!nodeA.isHead());
   }
 
@@ -735,7 +820,21 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
    * @throws BoaException when number of nodes is less than 3 after removal
    */
   public void correctDistance(boolean shiftNewNode) throws BoaException {
-    Node.randDirection(); // choose a random direction to process the chain
+    correctDistance(shiftNewNode, BOA_.qState.segParam);
+  }
+
+  /**
+   * Ensure nodes are between maxDist and minDist apart using given segmentation parameters.
+   * 
+   * @param shiftNewNode shiftNewNode
+   * @param segParam segmentation parameters
+   * @throws BoaException when number of nodes is less than 3 after removal
+   * @see #correctDistance(boolean)
+   */
+  void correctDistance(boolean shiftNewNode, final BOAState.SegParam segParam)
+          throws BoaException {
+    // choose a random direction to process the chain
+    final boolean clockwise = Math.random() < 0.5;
 
     ExtendedVector2d tanL;
     ExtendedVector2d tanR;
@@ -752,8 +851,8 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
 
     do {
 
-      nl = nc.getPrev(); // left neighbour
-      nr = nc.getNext(); // left neighbour
+      nl = clockwise ? nc.getPrev() : nc.getNext(); // left neighbour
+      nr = clockwise ? nc.getNext() : nc.getPrev(); // right neighbour
 
       // compute tangent
       tanL = ExtendedVector2d.vecP2P(nl.getPoint(), nc.getPoint());
@@ -763,9 +862,9 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
       dr = tanR.length();
       dlr = tanLR.length();
 
-      if (dl < BOA_.qState.segParam.getMin_dist() || dr < BOA_.qState.segParam.getMin_dist()) {
+      if (dl < segParam.getMin_dist() || dr < segParam.getMin_dist()) {
         // nC is to close to a neigbour
-        if (dlr > 2 * BOA_.qState.segParam.getMin_dist()) {
+        if (dlr > 2 * segParam.getMin_dist()) {
 
           // move nC to middle
           npos = new ExtendedVector2d(tanLR.getX(), tanLR.getY());
@@ -785,34 +884,34 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
           nc.getNormal().multiply(-tmp);
           nc.getPoint().addVec(nc.getNormal());
 
-          nc.updateNormale(BOA_.qState.segParam.expandSnake);
-          nl.updateNormale(BOA_.qState.segParam.expandSnake);
-          nr.updateNormale(BOA_.qState.segParam.expandSnake);
+          nc.updateNormale(segParam.expandSnake);
+          nl.updateNormale(segParam.expandSnake);
+          nr.updateNormale(segParam.expandSnake);
           this.unfreezeNode(nc);
 
         } else {
           // delete nC
           // System.out.println("delete node");
-          removeNode(nc);
-          nl.updateNormale(BOA_.qState.segParam.expandSnake);
-          nr.updateNormale(BOA_.qState.segParam.expandSnake);
+          removeNode(nc, segParam.expandSnake);
+          nl.updateNormale(segParam.expandSnake);
+          nr.updateNormale(segParam.expandSnake);
           if (nr.isHead()) {
             break;
           }
-          nc = nr.getNext();
+          nc = clockwise ? nr.getNext() : nr.getPrev();
           continue;
         }
       }
-      if (dl > BOA_.qState.segParam.getMax_dist()) {
+      if (dl > segParam.getMax_dist()) {
 
         // System.out.println("1357-insert node");
-        Node nins = insertNode(nl);
+        Node nins = insertNode(clockwise ? nl : nc); // between nl and nc
         nins.setVel(nl.getVel());
         nins.getVel().addVec(nc.getVel());
         nins.getVel().multiply(0.5);
-        if (nins.getVel().length() < BOA_.qState.segParam.vel_crit) {
+        if (nins.getVel().length() < segParam.vel_crit) {
           nins.getVel().makeUnit();
-          nins.getVel().multiply(BOA_.qState.segParam.vel_crit * 1.5);
+          nins.getVel().multiply(segParam.vel_crit * 1.5);
         }
 
         npos = new ExtendedVector2d(tanL.getX(), tanL.getY());
@@ -821,22 +920,20 @@ public class Snake extends Shape<Node> implements IQuimpSerialize {
 
         nins.setX(npos.getX());
         nins.setY(npos.getY());
-        nins.updateNormale(BOA_.qState.segParam.expandSnake);
+        nins.updateNormale(segParam.expandSnake);
         if (shiftNewNode) {
           nins.getNormal().multiply(-2); // move out a bit
           nins.getPoint().addVec(nins.getNormal());
-          nins.updateNormale(BOA_.qState.segParam.expandSnake);
+          nins.updateNormale(segParam.expandSnake);
         }
-        nl.updateNormale(BOA_.qState.segParam.expandSnake);
-        nr.updateNormale(BOA_.qState.segParam.expandSnake);
-        nc.updateNormale(BOA_.qState.segParam.expandSnake);
+        nl.updateNormale(segParam.expandSnake);
+        nr.updateNormale(segParam.expandSnake);
+        nc.updateNormale(segParam.expandSnake);
 
       }
 
-      nc = nc.getNext();
+      nc = clockwise ? nc.getNext() : nc.getPrev();
     } while (!nc.isHead());
-
-    Node.setClockwise(true); // reset to clockwise (although shouldnt effect things??)
   }
 
   /**
@@ -88,16 +88,30 @@ public class SnakeHandler extends ShapeHandler<Snake> implements IQuimpSerialize
    * @throws BoaException on problem with Snake creation
    */
   public SnakeHandler(final Roi r, int frame, int id) throws BoaException {
+    this(r, frame, id, BOA_.qState);
+  }
+
+  /**
+   * Constructor of SnakeHandler for given BOA state.
+   * 
+   * @param r ROI with selected object
+   * @param frame Current frame for which the ROI is taken
+   * @param id Unique Snake ID controlled by Nest object
+   * @param qState state of segmentation, number of frames and segmentation parameters are used
+   * @throws BoaException on problem with Snake creation
+   * @see #SnakeHandler(Roi, int, int)
+   */
+  SnakeHandler(final Roi r, int frame, int id, final BOAState qState) throws BoaException {
     this();
     startFrame = frame;
-    endFrame = BOA_.qState.boap.getFrames();
+    endFrame = qState.boap.getFrames();
     roi = r;
     // snakes array keeps snakes across frames from current to end. Current
     // is that one for which cell has been added
-    finalSnakes = new Snake[BOA_.qState.boap.getFrames() - startFrame + 1]; // stored snakes
-    segSnakes = new Snake[BOA_.qState.boap.getFrames() - startFrame + 1]; // stored snakes
+    finalSnakes = new Snake[qState.boap.getFrames() - startFrame + 1]; // stored snakes
+    segSnakes = new Snake[qState.boap.getFrames() - startFrame + 1]; // stored snakes
     ID = id;
-    liveSnake = new Snake(r, ID, false);
+    liveSnake = new Snake(r, ID, false, qState.segParam);
     backupLiveSnake(frame);
   }
 
@@ -501,7 +515,18 @@ public class SnakeHandler extends ShapeHandler<Snake> implements IQuimpSerialize
    * @throws BoaException on snake creation problem
    */
   public void reset() throws BoaException {
-    liveSnake = new Snake(roi, ID, false);
+    reset(BOA_.qState.segParam);
+  }
+
+  /**
+   * Prepare all snakes for segmentation using given segmentation parameters.
+   * 
+   * @param segParam segmentation parameters
+   * @throws BoaException on problem with Snake creation
+   * @see #reset()
+   */
+  void reset(final BOAState.SegParam segParam) throws BoaException {
+    liveSnake = new Snake(roi, ID, false, segParam);
   }
 
   /**
@@ -557,12 +582,23 @@ public class SnakeHandler extends ShapeHandler<Snake> implements IQuimpSerialize
    * @param f Current segmented frame
    */
   void resetForFrame(int f) {
+    resetForFrame(f, BOA_.qState.segParam);
+  }
+
+  /**
+   * Prepare current frame for segmentation using given segmentation parameters.
+   * 
+   * @param f Current segmented frame
+   * @param segParam segmentation parameters
+   * @see #resetForFrame(int)
+   */
+  void resetForFrame(int f, final BOAState.SegParam segParam) {
     try {
-      if (BOA_.qState.segParam.use_previous_snake) {
+      if (segParam.use_previous_snake) {
         // set to last segmentation ready for blowup
-        liveSnake = new Snake((PolygonRoi) this.getStoredSnake(f - 1).asFloatRoi(), ID);
+        liveSnake = new Snake((PolygonRoi) this.getStoredSnake(f - 1).asFloatRoi(), ID, segParam);
       } else {
-        liveSnake = new Snake(roi, ID, false);
+        liveSnake = new Snake(roi, ID, false, segParam);
       }
     } catch (Exception e) {
       BOA_.log("Could not reset live snake form frame" + f);
@@ -4,6 +4,7 @@ import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -550,6 +551,50 @@ public class SnakePluginList implements IQuimpSerialize {
     return ret;
   }
 
+  /**
+   * Copy method.
+   * 
+   * <p>Returns copy of current object like {@link #getDeepCopy()} but configuration is not
+   * downloaded from plugins. Plugin instances are shared between frames, so their current
+   * configuration can belong to other frame than this list.
+   * 
+   * @return Copy of current object
+   * @see BOAState#restore(int)
+   */
+  SnakePluginList getStoredCopy() {
+    SnakePluginList ret = new SnakePluginList();
+    ret.updateRefs(pluginFactory, viewUpdater); // assign current external data
+    for (Plugin p : this.sPluginList) {
+      ret.sPluginList.add(p.getDeepCopy());
+    }
+    return ret;
+  }
+
+  /**
+   * Compare stored state of plugins of two lists.
+   * 
+   * <p>Names, activity, versions and configurations are compared, plugin instances are not. Both
+   * lists should have configuration downloaded, see {@link #downloadPluginsConfig()}.
+   * 
+   * @param other list to compare with
+   * @return true if both lists keep the same plugins with the same configuration
+   * @see BOAState#store(int)
+   */
+  boolean isSameConfig(final SnakePluginList other) {
+    if (sPluginList.size() != other.sPluginList.size()) {
+      return false;
+    }
+    for (int i = 0; i < sPluginList.size(); i++) {
+      Plugin p = sPluginList.get(i);
+      Plugin o = other.sPluginList.get(i);
+      if (p.isActive != o.isActive || !Objects.equals(p.name, o.name)
+              || !Objects.equals(p.ver, o.ver) || !Objects.equals(p.config, o.config)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   /**
    * Updates references of external object connected in constructor.
    * 
@@ -0,0 +1,200 @@
+package com.github.celldynamics.quimp;
+
+/**
+ * Control time step and stop condition of Active Contour iterations of one snake.
+ *
+ * <p>If {@link BOAState.BOAp#isAdaptiveStep} is not set, controller gives classic behaviour: fixed
+ * step {@link BOAState.BOAp#delta_t}, loops are cut every {@link BOAState.BOAp#cut_every}
+ * iterations, distances between nodes are corrected every 10 iterations and iterations stop only
+ * when all nodes are frozen.
+ *
+ * <p>In adaptive mode step is increased up to {@value #MAX_FACTOR} times
+ * {@link BOAState.BOAp#delta_t} while total forces of nodes change slowly. It goes back towards
+ * {@link BOAState.BOAp#delta_t} when forces change rapidly, what happens when nodes reach edges of
+ * object, or when any node would move by more than {@value #MAX_SHIFT} pixel. Loops are cut and
+ * distances corrected after the same time (sum of steps) as in classic mode. Iterations stop when
+ * mean shift of nodes is below {@link BOAState.SegParam#vel_crit} (scaled by
+ * {@link BOAState.BOAp#delta_t}) for {@value #CONVERGED_STEPS} steps.
+ *
+ * <p>Typical use:
+ *
+ * <pre>
+ * <code>
+ * StepController control = new StepController(qState);
+ * for (int i = 0; i &lt; qState.segParam.max_iterations; i++) {
+ *   if (control.isCutDue()) {
+ *     // cut loops
+ *   }
+ *   boolean frozen = constrictor.constrict(packed, ip, control.getStep());
+ *   if (control.update(packed) || frozen) {
+ *     break;
+ *   }
+ * }
+ * </code>
+ * </pre>
+ *
+ * @author p.baniukiewicz
+ * @see BOAState#getIterations(int)
+ */
+class StepController {
+
+  /**
+   * Maximal step relative to {@link BOAState.BOAp#delta_t}.
+   */
+  static final double MAX_FACTOR = 3;
+  /**
+   * Factor of step increase.
+   */
+  static final double INCREASE = 1.25;
+  /**
+   * Factor of step decrease.
+   */
+  static final double DECREASE = 0.5;
+  /**
+   * Relative change of forces below which step is increased.
+   */
+  static final double STABLE = 0.05;
+  /**
+   * Relative change of forces above which step is decreased.
+   */
+  static final double UNSTABLE = 0.2;
+  /**
+   * Maximal shift of node in one step [pixel].
+   */
+  static final double MAX_SHIFT = 1.0;
+  /**
+   * Number of steps that must meet convergence criterion.
+   */
+  static final int CONVERGED_STEPS = 3;
+  /**
+   * Every how many iterations distances between nodes are corrected in classic mode.
+   */
+  private static final int CORRECT_EVERY = 10;
+
+  /**
+   * Adaptive mode.
+   */
+  private final boolean adaptive;
+  /**
+   * Base step.
+   */
+  private final double baseStep;
+  /**
+   * Cut loops after this time.
+   */
+  private final int cutEvery;
+  /**
+   * Mean shift below which snake is converged.
+   */
+  private final double minShift;
+  /**
+   * Current step.
+   */
+  private double step;
+  /**
+   * Number of finished iterations.
+   */
+  private int iterations = 0;
+  /**
+   * Time of the next iteration (sum of steps so far) in units of base step.
+   */
+  private double time = 0;
+  /**
+   * Time of next cutting loops in adaptive mode.
+   */
+  private double nextCut = 0;
+  /**
+   * Time of next correction of distances in adaptive mode.
+   */
+  private double nextCorrect = CORRECT_EVERY;
+  /**
+   * Number of consecutive steps that met convergence criterion.
+   */
+  private int converged = 0;
+
+  /**
+   * Create controller for one snake.
+   *
+   * @param qState state of segmentation, parameters are copied
+   */
+  StepController(final BOAState qState) {
+    baseStep = qState.boap.delta_t;
+    adaptive = qState.boap.isAdaptiveStep && baseStep > 0;
+    cutEvery = qState.boap.cut_every;
+    minShift = qState.segParam.vel_crit * baseStep;
+    step = baseStep;
+  }
+
+  /**
+   * Get time step for the next iteration.
+   *
+   * @return time step
+   */
+  double getStep() {
+    return step;
+  }
+
+  /**
+   * Get number of finished iterations.
+   *
+   * @return number of calls of {@link #update(PackedSnake)}
+   */
+  int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Check if loops should be cut before the next iteration.
+   *
+   * @return true if loops should be cut
+   */
+  boolean isCutDue() {
+    if (!adaptive) {
+      return iterations % cutEvery == 0;
+    }
+    return time >= nextCut;
+  }
+
+  /**
+   * Check if distances between nodes should be corrected before the next iteration.
+   *
+   * @return true if distances should be corrected
+   */
+  boolean isCorrectDue() {
+    if (!adaptive) {
+      return iterations % CORRECT_EVERY == 0 && iterations != 0;
+    }
+    return time >= nextCorrect;
+  }
+
+  /**
+   * Finish iteration and adapt step to statistics of snake.
+   *
+   * @param snake snake after {@link Constrictor#constrict(PackedSnake, IntensityField, double)}
+   * @return true if snake converged and iterations should stop, always false in classic mode
+   */
+  boolean update(final PackedSnake snake) {
+    iterations++;
+    if (!adaptive) {
+      return false;
+    }
+    while (nextCut <= time) {
+      nextCut += cutEvery;
+    }
+    while (nextCorrect <= time) {
+      nextCorrect += CORRECT_EVERY;
+    }
+    time += step / baseStep;
+
+    double meanShift = snake.size() > 0 ? snake.shiftSum / snake.size() : 0;
+    converged = meanShift < minShift ? converged + 1 : 0;
+
+    double change = snake.forceSum > 0 ? snake.forceChange / snake.forceSum : 0;
+    if (snake.maxShift > MAX_SHIFT || change > UNSTABLE) {
+      step = Math.max(baseStep, step * DECREASE);
+    } else if (change < STABLE) {
+      step = Math.min(baseStep * MAX_FACTOR, step * INCREASE);
+    }
+    return converged >= CONVERGED_STEPS;
+  }
+}
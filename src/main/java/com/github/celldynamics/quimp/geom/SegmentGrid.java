@@ -0,0 +1,283 @@
+package com.github.celldynamics.quimp.geom;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid of line segments for fast search of segments close to given point or area.
+ *
+ * <p>Each segment is identified by its index in arrays given to
+ * {@link #build(double[], double[], double[], double[], int, double)} and it is registered in
+ * every cell overlapped by its bounding box expanded by <tt>margin</tt>. Query returns indexes of
+ * all segments registered in cells overlapped by query area, in ascending order. Returned set is
+ * superset of segments that are closer than <tt>margin</tt> to query area, so exact test must be
+ * done by caller.
+ *
+ * <p>Grid can be built many times, internal arrays are reused if they are big enough. Object is
+ * not thread safe.
+ *
+ * @author p.baniukiewicz
+ */
+public class SegmentGrid {
+
+  /**
+   * Safety margin added to expanded bounding boxes to cover rounding errors of exact tests.
+   */
+  private static final double EPS = 1e-9;
+  /**
+   * Requested size of cell.
+   */
+  private final double cellSize;
+  /**
+   * Size of cell used for current grid, can be bigger than {@link #cellSize} for sparse data.
+   */
+  private double cell;
+  /**
+   * Origin of grid.
+   */
+  private double minX;
+  /**
+   * Origin of grid.
+   */
+  private double minY;
+  /**
+   * Number of columns.
+   */
+  private int cols;
+  /**
+   * Number of rows.
+   */
+  private int rows;
+  /**
+   * Number of segments in grid.
+   */
+  private int size;
+  /**
+   * Index of first entry of cell in {@link #entries}, cell <tt>c</tt> spans
+   * <tt>start[c]..start[c+1]-1</tt>.
+   */
+  private int[] start = new int[1];
+  /**
+   * Indexes of segments stored cell by cell.
+   */
+  private int[] entries = new int[0];
+  /**
+   * Bounding boxes of expanded segments: minx, miny, maxx, maxy.
+   */
+  private double[] boxes = new double[0];
+  /**
+   * Stamp of last query that returned segment, used to remove duplicates.
+   */
+  private int[] stamps = new int[0];
+  /**
+   * Stamp of current query.
+   */
+  private int stamp = 0;
+  /**
+   * Result of last query.
+   */
+  private int[] candidates = new int[0];
+
+  /**
+   * Create empty grid.
+   *
+   * @param cellSize size of cell, should be comparable with length of segments or with distance
+   *        tested by caller. Must be positive.
+   * @throws IllegalArgumentException if cell size is not positive
+   */
+  public SegmentGrid(double cellSize) {
+    if (!(cellSize > 0)) {
+      throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+    }
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * Fill grid with segments.
+   *
+   * <p>Segment <tt>i</tt> spans from <tt>(x0[i],y0[i])</tt> to <tt>(x1[i],y1[i])</tt>. Points can
+   * be stored as segments of zero length.
+   *
+   * @param x0 x coordinates of first ends
+   * @param y0 y coordinates of first ends
+   * @param x1 x coordinates of second ends
+   * @param y1 y coordinates of second ends
+   * @param n number of segments, only first <tt>n</tt> entries of arrays are used
+   * @param margin distance added to bounding box of each segment
+   */
+  public void build(double[] x0, double[] y0, double[] x1, double[] y1, int n, double margin) {
+    size = n;
+    if (boxes.length < 4 * n) {
+      boxes = new double[4 * n];
+      stamps = new int[n];
+      candidates = new int[n];
+    } else {
+      Arrays.fill(stamps, 0, n, 0);
+    }
+    stamp = 0;
+    double m = margin + EPS;
+    double bminX = Double.POSITIVE_INFINITY;
+    double bminY = Double.POSITIVE_INFINITY;
+    double bmaxX = Double.NEGATIVE_INFINITY;
+    double bmaxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      int b = 4 * i;
+      boxes[b] = Math.min(x0[i], x1[i]) - m;
+      boxes[b + 1] = Math.min(y0[i], y1[i]) - m;
+      boxes[b + 2] = Math.max(x0[i], x1[i]) + m;
+      boxes[b + 3] = Math.max(y0[i], y1[i]) + m;
+      bminX = Math.min(bminX, boxes[b]);
+      bminY = Math.min(bminY, boxes[b + 1]);
+      bmaxX = Math.max(bmaxX, boxes[b + 2]);
+      bmaxY = Math.max(bmaxY, boxes[b + 3]);
+    }
+    if (n == 0) {
+      bminX = bminY = bmaxX = bmaxY = 0;
+    }
+    minX = bminX;
+    minY = bminY;
+    cell = cellSize;
+    // limit number of cells for sparse data
+    double width = bmaxX - bminX;
+    double height = bmaxY - bminY;
+    double maxCells = 4.0 * n + 16;
+    double cells = (width / cell + 1) * (height / cell + 1);
+    if (cells > maxCells) {
+      cell = cell * Math.sqrt(cells / maxCells);
+    }
+    cols = (int) (width / cell) + 1;
+    rows = (int) (height / cell) + 1;
+    int numCells = cols * rows;
+    if (start.length < numCells + 1) {
+      start = new int[numCells + 1];
+    } else {
+      Arrays.fill(start, 0, numCells + 1, 0);
+    }
+    // count entries in cells
+    int total = 0;
+    for (int i = 0; i < n; i++) {
+      int b = 4 * i;
+      int c0 = col(boxes[b]);
+      int c1 = col(boxes[b + 2]);
+      int r0 = row(boxes[b + 1]);
+      int r1 = row(boxes[b + 3]);
+      for (int r = r0; r <= r1; r++) {
+        for (int c = c0; c <= c1; c++) {
+          start[r * cols + c + 1]++;
+        }
+      }
+      total += (c1 - c0 + 1) * (r1 - r0 + 1);
+    }
+    for (int c = 0; c < numCells; c++) {
+      start[c + 1] += start[c];
+    }
+    if (entries.length < total) {
+      entries = new int[total];
+    }
+    // fill cells, segments are added in ascending order
+    int[] pos = Arrays.copyOf(start, numCells);
+    for (int i = 0; i < n; i++) {
+      int b = 4 * i;
+      int c0 = col(boxes[b]);
+      int c1 = col(boxes[b + 2]);
+      int r0 = row(boxes[b + 1]);
+      int r1 = row(boxes[b + 3]);
+      for (int r = r0; r <= r1; r++) {
+        for (int c = c0; c <= c1; c++) {
+          entries[pos[r * cols + c]++] = i;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find segments registered in cells overlapped by given rectangle.
+   *
+   * <p>Segments whose expanded bounding box does not overlap rectangle are rejected. Point can be
+   * queried as rectangle of zero size.
+   *
+   * @param qminX left edge of rectangle
+   * @param qminY top edge of rectangle
+   * @param qmaxX right edge of rectangle
+   * @param qmaxY bottom edge of rectangle
+   * @return number of found segments, their indexes are in first entries of
+   *         {@link #getCandidates()} in ascending order
+   */
+  public int query(double qminX, double qminY, double qmaxX, double qmaxY) {
+    if (size == 0) {
+      return 0;
+    }
+    if (++stamp == 0) { // overflow, reset stamps
+      Arrays.fill(stamps, 0, size, 0);
+      stamp = 1;
+    }
+    int c0 = col(qminX);
+    int c1 = col(qmaxX);
+    int r0 = row(qminY);
+    int r1 = row(qmaxY);
+    int found = 0;
+    for (int r = r0; r <= r1; r++) {
+      for (int c = c0; c <= c1; c++) {
+        int cellIndex = r * cols + c;
+        for (int e = start[cellIndex]; e < start[cellIndex + 1]; e++) {
+          int i = entries[e];
+          if (stamps[i] == stamp) {
+            continue;
+          }
+          stamps[i] = stamp;
+          int b = 4 * i;
+          if (boxes[b] > qmaxX || boxes[b + 2] < qminX || boxes[b + 1] > qmaxY
+                  || boxes[b + 3] < qminY) {
+            continue;
+          }
+          candidates[found++] = i;
+        }
+      }
+    }
+    if (r1 > r0 || c1 > c0) {
+      Arrays.sort(candidates, 0, found);
+    }
+    return found;
+  }
+
+  /**
+   * Get result of last {@link #query(double, double, double, double)}.
+   *
+   * <p>Array is reused by next query and only its first entries are valid.
+   *
+   * @return indexes of found segments
+   */
+  public int[] getCandidates() {
+    return candidates;
+  }
+
+  /**
+   * Get number of segments in grid.
+   *
+   * @return number of segments
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Column of grid for coordinate, clamped to grid.
+   *
+   * @param x coordinate
+   * @return column
+   */
+  private int col(double x) {
+    int c = (int) Math.floor((x - minX) / cell);
+    return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+  }
+
+  /**
+   * Row of grid for coordinate, clamped to grid.
+   *
+   * @param y coordinate
+   * @return row
+   */
+  private int row(double y) {
+    int r = (int) Math.floor((y - minY) / cell);
+    return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+  }
+}
@@ -0,0 +1,302 @@
+package com.github.celldynamics.quimp.geom;
+
+import java.util.Arrays;
+
+/**
+ * Find and cut self intersections of closed polygon.
+ *
+ * <p>Polygon is given as list of vertices, edge <tt>k</tt> spans from vertex <tt>k</tt> to the next
+ * vertex. Edges are stored in {@link SegmentGrid} so each edge is tested only against edges that
+ * lie close to it, instead of all edges of polygon. Intersections are detected by
+ * {@link ExtendedVector2d#segmentIntersection} thus results are the same as for exhaustive search.
+ *
+ * <p>Vertices are identified by slots, which are their indexes in arrays given to
+ * {@link #build(double[], double[], int)}. Loops are cut by {@link #cut(int, int, double, double)}
+ * that removes vertices and reuses slot of the first removed one for new vertex, so slots of other
+ * vertices do not change and grid is rebuilt only after many cuts. Distances along polygon are
+ * counted in live vertices only.
+ *
+ * @author p.baniukiewicz
+ * @see com.github.celldynamics.quimp.Snake#cutIntersects()
+ * @see com.github.celldynamics.quimp.Outline#cutSelfIntersects()
+ */
+public class SelfIntersectionFinder {
+
+  /**
+   * Distance added to bounding boxes of edges. Must be bigger than tolerance of
+   * {@link ExtendedVector2d#segmentIntersection}.
+   */
+  public static final double TOLERANCE = 1e-3;
+  /**
+   * Number of edges created by {@link #cut(int, int, double, double)} (apart from square root of
+   * number of vertices) that are kept out of grid.
+   */
+  private static final int MAX_ADDED = 16;
+  /**
+   * Index of edges in shape they had when it was built.
+   */
+  private SegmentGrid grid;
+  /**
+   * Coordinates of vertices.
+   */
+  private double[] x = new double[0];
+  /**
+   * Coordinates of vertices.
+   */
+  private double[] y = new double[0];
+  /**
+   * Live status of slots.
+   */
+  private boolean[] alive = new boolean[0];
+  /**
+   * Fenwick tree of live slots, used to count vertices between slots.
+   */
+  private int[] tree = new int[1];
+  /**
+   * Number of slots.
+   */
+  private int n = 0;
+  /**
+   * Number of live vertices.
+   */
+  private int live = 0;
+  /**
+   * Slots of edges created by {@link #cut(int, int, double, double)}, they are not in
+   * {@link #grid}.
+   */
+  private int[] added = new int[0];
+  /**
+   * Number of entries in {@link #added}.
+   */
+  private int addedCount = 0;
+  /**
+   * Offsets of candidates of current query.
+   */
+  private int[] offsets = new int[0];
+
+  /**
+   * Create empty finder.
+   */
+  public SelfIntersectionFinder() {
+  }
+
+  /**
+   * Store polygon.
+   *
+   * @param x x coordinates of vertices
+   * @param y y coordinates of vertices
+   * @param n number of vertices, only first <tt>n</tt> entries of arrays are used
+   */
+  public void build(double[] x, double[] y, int n) {
+    this.n = n;
+    this.x = Arrays.copyOf(x, n);
+    this.y = Arrays.copyOf(y, n);
+    alive = new boolean[n];
+    Arrays.fill(alive, true);
+    live = n;
+    tree = new int[n + 1];
+    for (int i = 1; i <= n; i++) { // linear construction of Fenwick tree of ones
+      tree[i] += 1;
+      int parent = i + (i & -i);
+      if (parent <= n) {
+        tree[parent] += tree[i];
+      }
+    }
+    added = new int[n]; // each cut removes at least one vertex
+    addedCount = 0;
+    offsets = new int[2 * n];
+    double length = 0;
+    for (int k = 0; k < n; k++) {
+      int next = k + 1 < n ? k + 1 : 0;
+      length += Math.abs(x[next] - x[k]) + Math.abs(y[next] - y[k]);
+    }
+    // cells of size of typical edge
+    double cellSize = n > 0 ? length / n : 0;
+    grid = new SegmentGrid(cellSize > TOLERANCE ? cellSize : 1.0);
+    reindex();
+  }
+
+  /**
+   * Store current edges of live vertices in grid.
+   */
+  private void reindex() {
+    double[] x1 = new double[n];
+    double[] y1 = new double[n];
+    for (int k = 0; k < n; k++) {
+      int next = alive[k] ? next(k) : k; // dead slots are never returned
+      x1[k] = x[next];
+      y1[k] = y[next];
+    }
+    grid.build(x, y, x1, y1, n, TOLERANCE);
+    addedCount = 0;
+  }
+
+  /**
+   * Get number of live vertices.
+   *
+   * @return number of vertices
+   */
+  public int size() {
+    return live;
+  }
+
+  /**
+   * Find edge closest along polygon that intersects given edge.
+   *
+   * <p>Edges <tt>minOffset</tt> to <tt>maxOffset-1</tt> vertices ahead of <tt>a</tt> are tested in
+   * this order and the first one that intersects edge <tt>a</tt> is returned.
+   *
+   * @param a slot of tested edge
+   * @param minOffset first offset of edge to test, relative to <tt>a</tt>
+   * @param maxOffset last offset of edge to test (excluded), should not be bigger than number of
+   *        vertices
+   * @param intersect preallocated array of size 2, coordinates of intersection are set here if
+   *        intersection has been found
+   * @return offset of intersecting edge relative to <tt>a</tt> or -1 if there is no intersection
+   * @see #ahead(int, int)
+   */
+  public int findFirst(int a, int minOffset, int maxOffset, double[] intersect) {
+    if (maxOffset <= minOffset || live == 0) {
+      return -1;
+    }
+    int an = next(a);
+    double minX = Math.min(x[a], x[an]);
+    double minY = Math.min(y[a], y[an]);
+    double maxX = Math.max(x[a], x[an]);
+    double maxY = Math.max(y[a], y[an]);
+    int rankA = rank(a);
+    int count = 0;
+    // edges in grid keep their shape or are shorter, edges created by cut are tested here
+    int found = grid.query(minX, minY, maxX, maxY);
+    int[] candidates = grid.getCandidates();
+    for (int k = 0; k < found + addedCount; k++) {
+      int b = k < found ? candidates[k] : added[k - found];
+      if (!alive[b] || b == a) {
+        continue;
+      }
+      if (k >= found) {
+        int bn = next(b);
+        if (Math.min(x[b], x[bn]) - TOLERANCE > maxX || Math.max(x[b], x[bn]) + TOLERANCE < minX
+                || Math.min(y[b], y[bn]) - TOLERANCE > maxY
+                || Math.max(y[b], y[bn]) + TOLERANCE < minY) {
+          continue;
+        }
+      }
+      int offset = rank(b) - rankA;
+      if (offset < 0) {
+        offset += live;
+      }
+      if (offset >= minOffset && offset < maxOffset) {
+        offsets[count++] = offset;
+      }
+    }
+    Arrays.sort(offsets, 0, count);
+    for (int k = 0; k < count; k++) {
+      if (k > 0 && offsets[k] == offsets[k - 1]) {
+        continue; // edge found in grid and among added
+      }
+      int b = ahead(a, offsets[k]);
+      int bn = next(b);
+      int state = ExtendedVector2d.segmentIntersection(x[a], y[a], x[an], y[an], x[b], y[b], x[bn],
+              y[bn], intersect);
+      if (state == 1) {
+        return offsets[k];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Cut out loop.
+   *
+   * <p>Removes <tt>offset</tt> vertices following <tt>a</tt> and inserts new vertex after
+   * <tt>a</tt>. New edge of <tt>a</tt> must be part of its old edge, what is true if new vertex is
+   * the intersection found by {@link #findFirst(int, int, int, double[])}.
+   *
+   * @param a slot of vertex before loop
+   * @param offset number of vertices to remove, as returned by
+   *        {@link #findFirst(int, int, int, double[])}
+   * @param newX x coordinate of new vertex
+   * @param newY y coordinate of new vertex
+   * @return slot of new vertex
+   */
+  public int cut(int a, int offset, double newX, double newY) {
+    int first = next(a);
+    int s = first;
+    for (int k = 0; k < offset; k++) {
+      int following = next(s);
+      setAlive(s, false);
+      s = following;
+    }
+    setAlive(first, true);
+    x[first] = newX;
+    y[first] = newY;
+    added[addedCount++] = first;
+    if (addedCount > MAX_ADDED + Math.sqrt(n)) {
+      reindex(); // too many edges to scan in each query
+    }
+    return first;
+  }
+
+  /**
+   * Get slot of the next live vertex.
+   *
+   * @param a slot of vertex
+   * @return slot of the next vertex
+   */
+  public int next(int a) {
+    return ahead(a, 1);
+  }
+
+  /**
+   * Get slot of live vertex given number of vertices ahead.
+   *
+   * @param a slot of vertex
+   * @param offset number of vertices
+   * @return slot of vertex
+   */
+  public int ahead(int a, int offset) {
+    int r = (rank(a) + offset) % live;
+    // find slot with r live slots before it
+    int pos = 0;
+    for (int step = Integer.highestOneBit(Math.max(n, 1)); step > 0; step >>= 1) {
+      if (pos + step <= n && tree[pos + step] <= r) {
+        pos += step;
+        r -= tree[pos];
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Count live slots before slot.
+   *
+   * @param a slot
+   * @return number of live slots in <tt>0..a-1</tt>
+   */
+  private int rank(int a) {
+    int r = 0;
+    for (int i = a; i > 0; i -= i & -i) {
+      r += tree[i];
+    }
+    return r;
+  }
+
+  /**
+   * Change status of slot.
+   *
+   * @param s slot
+   * @param status new status
+   */
+  private void setAlive(int s, boolean status) {
+    if (alive[s] == status) {
+      return;
+    }
+    alive[s] = status;
+    int d = status ? 1 : -1;
+    live += d;
+    for (int i = s + 1; i <= n; i += i & -i) {
+      tree[i] += d;
+    }
+  }
+}
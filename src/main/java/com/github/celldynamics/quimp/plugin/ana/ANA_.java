@@ -31,7 +31,6 @@ import com.github.celldynamics.quimp.geom.ExtendedVector2d;
 import com.github.celldynamics.quimp.plugin.AbstractPluginQconf;
 import com.github.celldynamics.quimp.plugin.QuimpPluginException;
 import com.github.celldynamics.quimp.plugin.ecmm.ECMM_Mapping;
-import com.github.celldynamics.quimp.plugin.ecmm.ECMp;
 import com.github.celldynamics.quimp.plugin.ecmm.ODEsolver;
 import com.github.celldynamics.quimp.utils.QuimPArrayUtils;
 import com.github.celldynamics.quimp.utils.QuimpToolsCollection;
@@ -100,7 +99,6 @@ public class ANA_ extends AbstractPluginQconf implements DialogListener {
     storedOuterROI = new ArrayList<>();
     storedInnerROI = new ArrayList<>();
     anap = new ANAp();
-    ECMp.plot = false;
     ecmMapping = new ECMM_Mapping(1);
   }
 
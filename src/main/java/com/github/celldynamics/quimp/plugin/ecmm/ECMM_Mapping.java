@@ -3,8 +3,15 @@ package com.github.celldynamics.quimp.plugin.ecmm;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 // import java.util.Vector;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,7 +72,11 @@ import ij.process.ImageProcessor;
 /**
  * Main ECMM implementation class.
  * 
- * <p>To disable plotting hide {@link ECMplot#imPlus} by accessing {@link #plot}.
+ * <p>To disable plotting set {@link EcmmOptions#plot} or hide {@link ECMplot#imPlus} by accessing
+ * {@link #plot}.
+ * 
+ * <p>Cells of QCONF file are mapped concurrently, each with its own {@link ECMp}, see
+ * {@link #runBatch(OutlinesCollection, QParams)}.
  * 
  * @author Richard Tyson. 23/09/2009. ECM Mapping Systems Biology DTC, Warwick University.
  * @author p.baniukiewicz
@@ -80,14 +91,11 @@ public class ECMM_Mapping extends AbstractPluginQconf {
    * The Constant LOGGER.
    */
   static final Logger LOGGER = LoggerFactory.getLogger(ECMM_Mapping.class.getName());
-  private OutlineHandler oh;
-  private OutlineHandler outputH;
-  private OutlinesCollection outputOutlineHandlers; // output for new data file
 
   /**
-   * The plot.
+   * The plot of the last cell, null if cells were not plotted.
    */
-  public static ECMplot plot;
+  public ECMplot plot;
 
   /**
    * Default constructor called on plugin run from IJ GUI.
@@ -102,10 +110,7 @@ public class ECMM_Mapping extends AbstractPluginQconf {
    * @param frames frame
    */
   public ECMM_Mapping(int frames) { // work around. b is nothing
-    this();
-    if (ECMp.plot) {
-      plot = new ECMplot(frames);
-    }
+    this(); // ANA never plots, see runByANA
   }
 
   /**
@@ -173,7 +178,9 @@ public class ECMM_Mapping extends AbstractPluginQconf {
           ArrayList<String> skipped = new ArrayList<String>(otherPaFiles.length);
 
           for (int j = 0; j < otherPaFiles.length; j++) {
-            plot.close();
+            if (plot != null) {
+              plot.close();
+            }
             qconfLoader = new QconfLoader(otherPaFiles[j]); // load file
             if (qconfLoader == null || qconfLoader.getQp() == null) {
               return; // failed to load exit
@@ -245,58 +252,160 @@ public class ECMM_Mapping extends AbstractPluginQconf {
    * @return Processed outline
    */
   public OutlineHandler runByANA(OutlineHandler m, ImageProcessor ipr, double d) {
-    oh = m;
-    ECMp.image = ipr;
-    ECMp.setParams(oh.maxLength);
-    ECMp.startFrame = oh.getStartFrame();
-    ECMp.endFrame = oh.getEndFrame();
-    ECMp.plot = false;
-    ECMp.ANA = true;
-    ECMp.anaMigDist = d;
-    ECMp.migQ = 1.5E-5; //
-    ECMp.tarQ = -1.5E-5; // use same charge
-
-    if (ECMp.plot) {
-      plot = new ECMplot(oh.getSize() - 1);
+    ECMp params = new ECMp();
+    params.image = ipr;
+    params.setParams(m.maxLength);
+    params.fieldAccuracy = ((EcmmOptions) options).fieldAccuracy;
+    params.adaptiveStep = ((EcmmOptions) options).adaptiveStep;
+    params.startFrame = m.getStartFrame();
+    params.endFrame = m.getEndFrame();
+    params.plot = false;
+    params.ANA = true;
+    params.anaMigDist = d;
+    params.migQ = 1.5E-5; //
+    params.tarQ = -1.5E-5; // use same charge
+
+    if (params.plot) {
+      plot = new ECMplot(m.getSize() - 1, params);
+      params.plotter = plot;
     }
 
-    // ECMp.setParams(m.indexGetOutline(0));
+    // params.setParams(m.indexGetOutline(0));
 
     // *******adjust params for ana***********
-    ECMp.h = 0.9;
-    ECMp.chargeDensity = 4;
-    ECMp.d = 0.4;
-    ECMp.maxVertF = 0.7;
+    params.h = 0.9;
+    params.chargeDensity = 4;
+    params.d = 0.4;
+    params.maxVertF = 0.7;
     // *************************
-    runPlugin();
     // IJ.log("ECM Mapping FINISHED");
-    return outputH;
+    return runPlugin(m, params);
+  }
+
+  /**
+   * Create parameters of ECMM for one cell.
+   * 
+   * <p>Creates also plot of cell if {@link ECMp#plot} is set. Each call returns new instance, so
+   * cells mapped concurrently do not share parameters and statistics.
+   * 
+   * @param qp parameters of experiment
+   * @param oh outlines of cell
+   * @param cell index of cell
+   * @param single true if only this cell is mapped. Otherwise cell is not plotted and its vertices
+   *        are migrated sequentially, because cells are mapped concurrently
+   * @return parameters of run
+   */
+  ECMp createParams(QParams qp, OutlineHandler oh, int cell, boolean single) {
+    ECMp params = new ECMp();
+    params.setup(qp);
+    params.setParams(oh.maxLength); // base params on outline in middle of sequence
+    params.fieldAccuracy = ((EcmmOptions) options).fieldAccuracy;
+    params.adaptiveStep = ((EcmmOptions) options).adaptiveStep;
+    params.plot = params.plot && single && ((EcmmOptions) options).plot;
+    params.parallelMigration = single;
+    params.cell = cell;
+    params.startFrame = oh.getStartFrame(); // same as in qp for its active handler
+    params.endFrame = oh.getEndFrame();
+    if (params.plot) {
+      plot = new ECMplot(oh.getSize() - 1, params);
+      params.plotter = plot;
+    }
+    return params;
+  }
+
+  /**
+   * Map outlines of many cells concurrently.
+   * 
+   * <p>Each cell is mapped with its own {@link ECMp} on pool of threads, thus time of processing
+   * is close to time of mapping the longest cell instead of the sum for all cells. Vertices of
+   * one cell are migrated concurrently only if there is one cell. Progress is reported as number
+   * of mapped cells. Cells are plotted only if there is one cell.
+   * 
+   * @param cells outlines of cells, e.g. converted from segmentation
+   * @param qp parameters of experiment
+   * @return mapped outlines in order of cells
+   * @throws QuimpException if mapping of any cell failed
+   */
+  public OutlinesCollection runBatch(OutlinesCollection cells, QParams qp) throws QuimpException {
+    final int size = cells.oHs.size();
+    List<ECMp> params = new ArrayList<>();
+    for (int i = 0; i < size; i++) { // sequentially, plot is created here
+      params.add(createParams(qp, cells.oHs.get(i), i, size == 1));
+    }
+    return runBatch(cells, params);
+  }
+
+  /**
+   * Map outlines of many cells concurrently with given parameters.
+   * 
+   * @param cells outlines of cells
+   * @param params parameters of each cell, see
+   *        {@link #createParams(QParams, OutlineHandler, int, boolean)}
+   * @return mapped outlines in order of cells
+   * @throws QuimpException if mapping of any cell failed
+   * @see #runBatch(OutlinesCollection, QParams)
+   */
+  OutlinesCollection runBatch(OutlinesCollection cells, List<ECMp> params) throws QuimpException {
+    final int size = cells.oHs.size();
+    AtomicInteger done = new AtomicInteger();
+    List<Callable<OutlineHandler>> tasks = new ArrayList<>();
+    for (int i = 0; i < size; i++) {
+      OutlineHandler oh = cells.oHs.get(i);
+      ECMp cellParams = params.get(i);
+      tasks.add(() -> {
+        OutlineHandler ret = runPlugin(oh, cellParams);
+        IJ.showProgress(done.incrementAndGet(), size);
+        return ret;
+      });
+    }
+    IJ.showStatus("Running ECMM");
+    OutlinesCollection ret = new OutlinesCollection(cells.oHs.size());
+    ExecutorService executor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+    try {
+      for (Future<OutlineHandler> result : executor.invokeAll(tasks)) {
+        ret.oHs.add(result.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new QuimpPluginException(e);
+    } catch (ExecutionException e) {
+      throw new QuimpPluginException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+    IJ.showStatus("ECMM finished");
+    return ret;
   }
 
   /**
    * Main executive for ECMM plugin.
    * 
+   * @param oh outlines of cell
+   * @param params parameters of run
+   * @return mapped outlines
    * @see #runFromQconf()
    * @see #runFromPaqp()
    */
-  private void runPlugin() {
+  private OutlineHandler runPlugin(OutlineHandler oh, ECMp params) {
     long time = System.currentTimeMillis();
-    if (!ECMp.ANA) {
-      IJ.log("ECMM resolution: " + ECMp.markerRes + "(av. spacing)\n");
+    final String cell = "Cell " + params.cell + ": ";
+    if (!params.ANA) {
+      IJ.log(cell + "ECMM resolution: " + params.markerRes + "(av. spacing)\n");
     }
 
-    outputH = new OutlineHandler(oh);
-    ECMp.unSnapped = 0;
+    OutlineHandler outputH = new OutlineHandler(oh);
+    params.unSnapped = 0;
     // int skippedFrames = 0; // if a frame is skipped need to divide next
     // time point migration by 2, etc...
 
     Mapping map1;
-    int f = ECMp.startFrame; // now in frames
+    int f = params.startFrame; // now in frames
     Outline o1 = oh.getStoredOutline(f);
     // resolution is always as in segmentation - not now
-    if (!ECMp.ANA) {
-      if (Math.abs(ECMp.markerRes) > 0) {
-        o1.setResolution(Math.abs(ECMp.markerRes));
+    if (!params.ANA) {
+      if (Math.abs(params.markerRes) > 0) {
+        o1.setResolution(Math.abs(params.markerRes));
       }
     }
     // LOGGER.trace("Outline o1:head =[" + o1.getHead().getX() + "," + o1.getHead().getY() +
@@ -312,7 +421,7 @@ public class ECMM_Mapping extends AbstractPluginQconf {
 
     for (; f <= oh.getEndFrame() - 1; f++) {
       if (f == stopAt) {
-        ECMp.plot = true;
+        params.plot = true;
       }
       if (o1.checkCoordErrors()) {
         IJ.error("There was an error in tracking due to a bug (frame " + (f) + ")"
@@ -320,43 +429,41 @@ public class ECMM_Mapping extends AbstractPluginQconf {
         break;
       }
 
-      if (!ECMp.ANA) {
-        IJ.showStatus("Running ECMM");
-        IJ.showProgress(f, oh.getEndFrame());
-        IJ.log("Mapping " + f + " to " + (f + 1));
+      if (!params.ANA) {
+        IJ.log(cell + "mapping " + f + " to " + (f + 1));
       }
 
       o2 = oh.getStoredOutline(f + 1);
       // o2 left as seen in the segmentation - i.e. marker res unchanged
-      if (!ECMp.ANA && ECMp.markerRes > 0) {
-        o2.setResolution(ECMp.markerRes); // must be done b4 intersects are calculated
+      if (!params.ANA && params.markerRes > 0) {
+        o2.setResolution(params.markerRes); // must be done b4 intersects are calculated
       }
       o2.resetAllCoords();
       o2.clearFluores();
 
-      if (!ECMp.ANA) {
+      if (!params.ANA) {
         this.nudgeOverlaps(o1, o2); // ensure no points/edges lie directly on each other (to 1e-4)/
       }
 
-      if (ECMp.plot) {
-        plot.setDrawingFrame(f);
+      if (params.plot) {
+        params.plotter.setDrawingFrame(f);
         o1.calcCentroid(); // calc it again as it is broken in loop by migrate() where Outline is
         // initialzied from one vertex
-        plot.centre = o1.getCentroid();
-
-        if (ECMp.drawInitialOutlines) {
-          plot.setColor(0d, 0d, 1d);
-          plot.drawOutline(o1);
-          plot.setColor(0d, 1d, 0d);
-          plot.drawOutline(o2);
-          plot.setSlice(f);
+        params.plotter.centre = o1.getCentroid();
+
+        if (params.drawInitialOutlines) {
+          params.plotter.setColor(0d, 0d, 1d);
+          params.plotter.drawOutline(o1);
+          params.plotter.setColor(0d, 1d, 0d);
+          params.plotter.drawOutline(o2);
+          params.plotter.setSlice(f);
         }
       }
 
       // OutlineHandler.writeSingle("o2.snQP", o2);
       // OutlineHandler.writeSingle("o1.snQP", o1);
 
-      map1 = new Mapping(o1, o2);
+      map1 = new Mapping(o1, o2, params);
 
       /*
        * if (map1.invalid) { //Use no sectors IJ.log(" invalid outline intersection,
@@ -365,36 +472,40 @@ public class ECMM_Mapping extends AbstractPluginQconf {
        */
 
       o1 = map1.migrate();
+      if (!params.ANA) {
+        IJ.log(cell + "    steps: " + map1.steps + ", field evaluations: " + map1.fieldEvals
+                + ", rejected: " + map1.rejected + ", failed: " + map1.failures);
+      }
       // System.out.println("num nodes: "+o1.getVerts());
 
-      if (!ECMp.ANA) {
+      if (!params.ANA) {
         // System.out.println("\n check final intersects");
-        if (!ECMp.disableDensityCorrections) {
+        if (!params.disableDensityCorrections) {
           if (o1.removeNanoEdges()) {
             // IJ.log(" result had some v.small edges- removed");
           }
           if (o1.cutSelfIntersects()) {
-            IJ.log("    result self intersected - fixed");
-            if (ECMp.plot) {
-              plot.writeText("Fixed self intersection");
+            IJ.log(cell + "    result self intersected - fixed");
+            if (params.plot) {
+              params.plotter.writeText("Fixed self intersection");
             }
           }
 
-          if (ECMp.markerRes == 0) {
+          if (params.markerRes == 0) {
             o1.correctDensity(2 * 1.6, 2 / 1.6);
           } else {
-            o1.correctDensity(ECMp.markerRes * 1.6, ECMp.markerRes / 1.6);
+            o1.correctDensity(params.markerRes * 1.6, params.markerRes / 1.6);
           }
         }
-        if (ECMp.plot && ECMp.drawSolutionOutlines) {
-          plot.setColor(1d, 0d, 0d);
-          plot.drawOutline(o1);
+        if (params.plot && params.drawSolutionOutlines) {
+          params.plotter.setColor(1d, 0d, 0d);
+          params.plotter.drawOutline(o1);
         }
       }
 
-      if (ECMp.ANA && ECMp.plot) {
-        plot.setColor(0d, 0.7d, 0.7d);
-        plot.drawOutline(o1);
+      if (params.ANA && params.plot) {
+        params.plotter.setColor(0d, 0.7d, 0.7d);
+        params.plotter.drawOutline(o1);
       }
 
       // OutlineHandler.writeSingle("o2.snQP", o2);
@@ -409,16 +520,15 @@ public class ECMM_Mapping extends AbstractPluginQconf {
     }
 
     // IJ.log("Total iterations = " + ECMp.its);
-    if (ECMp.plot) {
-      plot.repaint();
+    if (params.plot) {
+      params.plotter.repaint();
     }
 
-    if (!ECMp.ANA) {
+    if (!params.ANA) {
       double timeSec = (System.currentTimeMillis() - time) / 1000d;
-      IJ.showStatus("ECMM finished");
-      IJ.log("ECMM finished in " + timeSec + " seconds.");
+      IJ.log(cell + "ECMM finished in " + timeSec + " seconds.");
     }
-    return;
+    return outputH;
   }
 
   private void nudgeOverlaps(Outline o1, Outline o2) {
@@ -477,7 +587,7 @@ public class ECMM_Mapping extends AbstractPluginQconf {
   protected void runFromQconf() throws QuimpException {
     LOGGER.debug("Processing from new file format");
     Nest nest = ((QParamsQconf) qconfLoader.getQp()).getNest();
-    outputOutlineHandlers = new OutlinesCollection(nest.size());
+    OutlinesCollection cells = new OutlinesCollection(nest.size());
     for (int i = 0; i < nest.size(); i++) { // go over all snakes
       // For compatibility, all methods have the same syntax (assumes that there is only one
       // handler)
@@ -486,16 +596,10 @@ public class ECMM_Mapping extends AbstractPluginQconf {
       if (sh == null) {
         continue;
       }
-      oh = new OutlineHandler(sh); // convert to outline, oh is global var
-      ECMp.setup(qconfLoader.getQp());
-      ECMp.setParams(oh.maxLength); // base params on outline in middle of
-      // sequence
-      if (ECMp.plot) {
-        plot = new ECMplot(oh.getSize() - 1);
-      }
-      runPlugin(); // fills outputH
-      outputOutlineHandlers.oHs.add(i, new OutlineHandler(outputH)); // store actual result
+      cells.oHs.add(new OutlineHandler(sh)); // convert to outline
     }
+    // output for new data file
+    OutlinesCollection outputOutlineHandlers = runBatch(cells, qconfLoader.getQp());
 
     DataContainer dc = ((QParamsQconf) qconfLoader.getQp()).getLoadedDataContainer();
     dc.ECMMState = outputOutlineHandlers; // assign ECMM container to global output
@@ -519,30 +623,28 @@ public class ECMM_Mapping extends AbstractPluginQconf {
    */
   @Override
   protected void runFromPaqp() throws QuimpException {
-    oh = new OutlineHandler(qconfLoader.getQp());
+    OutlineHandler oh = new OutlineHandler(qconfLoader.getQp());
     if (!oh.readSuccess) {
       throw new QuimpException("Could not read OutlineHandler");
     }
 
-    ECMp.setup(qconfLoader.getQp());
-    // System.out.println("sf " + ECMp.startFrame + ", ef " +
-    // ECMp.endFrame);
-    // System.out.println("outfile " + ECMp.OUTFILE.getAbsolutePath());
-    ECMp.setParams(oh.maxLength); // base params on outline in middle of sequence
-    if (ECMp.plot) {
-      plot = new ECMplot(oh.getSize() - 1);
-    }
-    runPlugin();
+    ECMp params = createParams(qconfLoader.getQp(), oh, 0, true);
+    // System.out.println("sf " + params.startFrame + ", ef " +
+    // params.endFrame);
+    // System.out.println("outfile " + params.OUTFILE.getAbsolutePath());
+    IJ.showStatus("Running ECMM");
+    OutlineHandler outputH = runPlugin(oh, params);
+    IJ.showStatus("ECMM finished");
 
-    if (ECMp.saveTemp) {
+    if (params.saveTemp) {
       // ------ save a temporary version instead as to not over write the
       // old version
-      File tempFile = new File(ECMp.OUTFILE.getAbsolutePath() + ".temp.txt");
+      File tempFile = new File(params.OUTFILE.getAbsolutePath() + ".temp.txt");
       outputH.writeOutlines(tempFile, true);
       IJ.log("ECMM:137, saving to a temp file instead");
     } else {
-      ECMp.INFILE.delete();
-      outputH.writeOutlines(ECMp.OUTFILE, true);
+      params.INFILE.delete();
+      outputH.writeOutlines(params.OUTFILE, true);
     }
 
   }
@@ -1,6 +1,8 @@
 package com.github.celldynamics.quimp.plugin.ecmm;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.github.celldynamics.quimp.QParams;
 
@@ -9,155 +11,198 @@ import ij.process.ImageProcessor;
 /**
  * Container class holding parameters related to ECMM analysis.
  * 
+ * <p>Each run of ECMM on one cell owns its instance that is passed through {@link Mapping},
+ * {@link Sector} and {@link ODEsolver}. Parameters are set by {@link #setup(QParams)} and
+ * {@link #setParams(double)} before mapping and are only read afterwards, apart from statistics
+ * {@link #its}, {@link #fieldEvals}, {@link #rejected} and {@link #unSnapped}. Thus many cells can
+ * be mapped concurrently, each with its own instance.
+ * 
  * @author rtyson
  *
  */
 public class ECMp {
 
   /** The infile. snQP file */
-  public static File INFILE; // snQP file
+  public File INFILE; // snQP file
 
   /** The outfile. */
-  public static File OUTFILE;
+  public File OUTFILE;
 
   /** The scale. */
-  public static double scale;
+  public double scale;
 
   /** The frame interval. */
-  public static double frameInterval;
+  public double frameInterval;
 
   /** The start frame. */
-  public static int startFrame;
+  public int startFrame;
 
   /** The end frame. */
-  public static int endFrame;
+  public int endFrame;
 
   /** The image. */
-  public static ImageProcessor image;
-
-  /** The num INTS. */
-  public static int numINTS;
+  public ImageProcessor image;
 
   /** The ana. */
-  public static boolean ANA;
+  public boolean ANA;
+
+  /** The plot. Drawn only if ImageJ is not headless, see {@link #setup(QParams)}. */
+  public boolean plot;
 
-  /** The plot. */
-  public static boolean plot;
+  /** Index of mapped cell, used in messages. */
+  public int cell;
+
+  /**
+   * Migrate vertices of outline concurrently in {@link Mapping#migrate()}. Switched off if cells
+   * are mapped concurrently, so parallel tasks are not nested.
+   */
+  public boolean parallelMigration;
 
   /** The line charges. */
-  public static boolean lineCharges;
+  public boolean lineCharges;
   /**
    * resolution of outlines.
    */
-  public static double markerRes;
+  public double markerRes;
   /**
    * field complexity (set to -1 to leave as marker density).
    */
-  public static double chargeDensity;
+  public double chargeDensity;
   /**
    * max force allowed on a marker (0.06).
    */
-  public static double maxVertF;
+  public double maxVertF;
 
   /** The mig power. */
-  public static double migPower;
+  public double migPower;
 
   /** The tar power. */
-  public static double tarPower;
+  public double tarPower;
 
   /** The mig Q. */
-  public static double migQ; // was 0.4E-6
+  public double migQ; // was 0.4E-6
 
   /** The tar Q. */
-  public static double tarQ;
+  public double tarQ;
 
   /** The mobile Q. */
-  public static double mobileQ;
+  public double mobileQ;
   /**
    * threshold distance to stop.
    */
-  public static double d;
+  public double d;
   /**
    * size of displacment of mig edge charges.
    */
-  public static double w;
+  public double w;
   /**
    * Euler time step, was 0.6.
    */
-  public static double h;
+  public double h;
 
   /** The max iter. */
-  public static int maxIter;
+  public int maxIter;
+  /**
+   * Use adaptive Dormand-Prince solver instead of Euler with fixed step {@link #h}.
+   * 
+   * @see EcmmOptions#adaptiveStep
+   * @see ODEsolver
+   */
+  public boolean adaptiveStep;
+  /**
+   * Allowed error of position of node in one step of adaptive solver [pixel].
+   */
+  public double tolerance;
+  /**
+   * Opening angle of Barnes-Hut approximation of field, 0 for exact field.
+   * 
+   * @see EcmmOptions#fieldAccuracy
+   * @see FieldTree
+   */
+  public double fieldAccuracy;
 
   /** The k. */
-  public static double k;
+  public double k;
 
   /** The ana mig dist. */
-  public static double anaMigDist;
+  public double anaMigDist;
 
   /** The force no sectors. */
-  public static boolean forceNoSectors;
+  public boolean forceNoSectors;
 
   /** The force forward mapping. */
-  public static boolean forceForwardMapping;
+  public boolean forceForwardMapping;
 
   /** The force backward mapping. */
-  public static boolean forceBackwardMapping;
+  public boolean forceBackwardMapping;
 
   /** The disable density corrections. */
-  public static boolean disableDensityCorrections;
+  public boolean disableDensityCorrections;
+
+  /** total euler iterations, updated concurrently by {@link ODEsolver}. */
+  public final AtomicInteger its = new AtomicInteger();
+
+  /** total evaluations of field, updated concurrently by {@link ODEsolver}. */
+  public final AtomicInteger fieldEvals = new AtomicInteger();
 
-  /** total euler iterations. */
-  public static int its;
+  /** total rejected steps of adaptive solver, updated concurrently by {@link ODEsolver}. */
+  public final AtomicInteger rejected = new AtomicInteger();
 
-  /** number of nodes that failed to snap. */
-  public static int unSnapped;
+  /**
+   * number of nodes that failed to snap. Updated by {@link Mapping#migrate()} in calling thread.
+   */
+  public int unSnapped;
 
   /** The visual res. */
-  public static int visualRes;
+  public int visualRes;
 
   /** The max cell size. */
-  public static double maxCellSize;
+  public double maxCellSize;
 
   /**
    * The draw intersects.
    */
-  static boolean drawIntersects;
+  boolean drawIntersects;
 
   /**
    * The draw initial outlines.
    */
-  static boolean drawInitialOutlines;
+  boolean drawInitialOutlines;
 
   /**
    * The draw solution outlines.
    */
-  static boolean drawSolutionOutlines;
+  boolean drawSolutionOutlines;
 
   /**
    * The draw paths.
    */
-  static boolean drawPaths;
+  boolean drawPaths;
 
   /**
    * The draw fails.
    */
-  static boolean drawFails;
+  boolean drawFails;
 
   /**
    * The save temp.
    */
-  static boolean saveTemp;
+  boolean saveTemp;
 
   /**
    * The inspect sectors.
    */
-  static boolean inspectSectors;
+  boolean inspectSectors;
 
   /**
    * The preserve heads.
    */
-  static boolean preserveHeads = false; // true if original head should be preserved
+  boolean preserveHeads = false; // true if original head should be preserved
+
+  /**
+   * Plot of this run, used if {@link #plot} is set.
+   */
+  ECMplot plotter;
 
   /**
    * Default constructor.
@@ -170,7 +215,7 @@ public class ECMp {
    * 
    * @param maxCellLength Maximal length of cell
    */
-  public static void setParams(double maxCellLength) {
+  public void setParams(double maxCellLength) {
     maxCellSize = maxCellLength / Math.PI; // guess cell diameter
 
     lineCharges = true;
@@ -188,6 +233,10 @@ public class ECMp {
     w = 0.01; // size of displacment of mig edge charges (0.01)
     h = 0.3; // Euler time step, was 0.6
     maxIter = 4000;
+    adaptiveStep = false; // fixed step Euler
+    parallelMigration = true;
+    tolerance = 1e-3;
+    fieldAccuracy = 0; // exact field
     k = 8.987E9;
     // static public boolean plot = true;
     inspectSectors = true;
@@ -195,7 +244,9 @@ public class ECMp {
     forceForwardMapping = false;
     forceBackwardMapping = false; // takes priority
     disableDensityCorrections = false;
-    its = 0; // total euler iterations
+    its.set(0); // total euler iterations
+    fieldEvals.set(0);
+    rejected.set(0);
     unSnapped = 0; // number of nodes that failed to snap
     visualRes = 300; // set to 200! $
 
@@ -213,15 +264,15 @@ public class ECMp {
    * 
    * @param qp Master configuration file
    */
-  static void setup(QParams qp) {
+  void setup(QParams qp) {
     INFILE = qp.getSnakeQP();
-    OUTFILE = new File(ECMp.INFILE.getAbsolutePath()); // output file (.snQP) file
+    OUTFILE = new File(INFILE.getAbsolutePath()); // output file (.snQP) file
     scale = qp.getImageScale();
     frameInterval = qp.getFrameInterval();
     // markerRes = qp.nodeRes;
     startFrame = qp.getStartFrame();
     endFrame = qp.getEndFrame();
-    ECMp.ANA = false;
-    ECMp.plot = true;
+    ANA = false;
+    plot = !GraphicsEnvironment.isHeadless();
   }
 }
\ No newline at end of file
@@ -31,18 +31,20 @@ class ECMplot {
   public int width;
   public int height;
   public int frame;
+  private int startFrame;
   // private int percentScreen = 65; //make visual output x% of screen height
 
-  ECMplot(int ff) {
+  ECMplot(int ff, ECMp params) {
 
     // Dimension screen = IJ.getScreenSize();
     // ECMp.visualRes = (int) Math.round((screen.height / 100d) *
     // percentScreen);
-    double fitTo = ECMp.visualRes * 0.7;
-    scale = fitTo / ECMp.maxCellSize;
+    double fitTo = params.visualRes * 0.7;
+    scale = fitTo / params.maxCellSize;
 
-    width = ECMp.visualRes;
-    height = ECMp.visualRes;
+    width = params.visualRes;
+    height = params.visualRes;
+    startFrame = params.startFrame;
 
     frame = ff;
     centre = new ExtendedVector2d(0, 0);
@@ -55,7 +57,7 @@ class ECMplot {
   }
 
   public void setDrawingFrame(int d) {
-    drawFrame = d - ECMp.startFrame + 1;
+    drawFrame = d - startFrame + 1;
     textPos = 25;
     imProc = imStack.getProcessor(drawFrame);
     this.writeText("Frame map " + d + " to " + (d + 1));
@@ -127,7 +129,7 @@ class ECMplot {
     // move a point to the centre
     p.addVec(new ExtendedVector2d(-centre.getX(), -centre.getY()));
     p.multiply(scale);
-    p.addVec(new ExtendedVector2d(ECMp.visualRes / 2, ECMp.visualRes / 2));
+    p.addVec(new ExtendedVector2d(width / 2, height / 2));
 
   }
 
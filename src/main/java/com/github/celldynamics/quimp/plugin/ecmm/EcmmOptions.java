@@ -14,6 +14,36 @@ import com.github.celldynamics.quimp.plugin.AbstractPluginOptions;
  */
 public class EcmmOptions extends AbstractPluginOptions {
 
+  /**
+   * Accuracy of field of charges.
+   * 
+   * <p>Opening angle of Barnes-Hut approximation, groups of charges whose size divided by distance
+   * is below this value are replaced by one charge. Values about 0.5 give field direction within
+   * few percent and are much faster for dense outlines. 0 computes exact field.
+   * 
+   * @see ECMp#fieldAccuracy
+   */
+  public double fieldAccuracy = 0;
+
+  /**
+   * Solver of trajectories of nodes.
+   * 
+   * <p>If set, nodes are migrated by adaptive Dormand-Prince solver that takes long steps far from
+   * target outline and needs less evaluations of field. Default is Euler solver with fixed step.
+   * 
+   * @see ECMp#adaptiveStep
+   */
+  public boolean adaptiveStep = false;
+
+  /**
+   * Plot mappings of outlines.
+   * 
+   * <p>Plot is shown only if one cell is mapped and ImageJ is not headless.
+   * 
+   * @see ECMp#plot
+   */
+  public boolean plot = true;
+
   /**
    * Allow to add file name to options.
    * 
@@ -41,6 +71,9 @@ public class EcmmOptions extends AbstractPluginOptions {
   public Object clone() throws CloneNotSupportedException {
     EcmmOptions cp = new EcmmOptions();
     cp.paramFile = this.paramFile;
+    cp.fieldAccuracy = this.fieldAccuracy;
+    cp.adaptiveStep = this.adaptiveStep;
+    cp.plot = this.plot;
     return cp;
   }
 }
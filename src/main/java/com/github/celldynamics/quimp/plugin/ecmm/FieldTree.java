@@ -0,0 +1,424 @@
+package com.github.celldynamics.quimp.plugin.ecmm;
+
+import com.github.celldynamics.quimp.Outline;
+import com.github.celldynamics.quimp.Vert;
+
+import ij.IJ;
+
+/**
+ * Barnes-Hut approximation of field of one set of charges of {@link Sector}.
+ *
+ * <p>Charges are kept in binary tree of boxes split along longer side. Each box keeps total charge
+ * and its centre. Box that is seen from evaluated point under small angle, i.e. its size divided
+ * by distance to its centre is below {@link ECMp#fieldAccuracy}, is replaced by single point
+ * charge. Other boxes are opened and charges in leaves are summed exactly. Field of line charge
+ * decays as field of point charge of the same total charge located in its middle, with power 2.
+ *
+ * <p>Tree is built once per {@link Sector} because charges do not move during migration. It is
+ * immutable and can be evaluated concurrently.
+ *
+ * @author p.baniukiewicz
+ * @see ODEsolver
+ */
+final class FieldTree {
+
+  /**
+   * Maximal number of charges in leaf.
+   */
+  private static final int LEAF_SIZE = 8;
+  /**
+   * Line or point charges.
+   */
+  private final boolean lines;
+  /**
+   * Charge of one element (for lines per unit of length).
+   */
+  private final double q;
+  /**
+   * Coulomb constant, {@link ECMp#k}.
+   */
+  private final double k;
+  /**
+   * Power of distance for point charges.
+   */
+  private final double power;
+  /**
+   * Square of opening angle.
+   */
+  private final double theta2;
+  /**
+   * Coordinates of charges, start of segment for lines.
+   */
+  private final double[] x1;
+  /**
+   * Coordinates of charges, start of segment for lines.
+   */
+  private final double[] y1;
+  /**
+   * Ends of segments for lines, not used for points.
+   */
+  private final double[] x2;
+  /**
+   * Ends of segments for lines, not used for points.
+   */
+  private final double[] y2;
+  /**
+   * First charge in node.
+   */
+  private int[] from;
+  /**
+   * Last charge in node (excluded).
+   */
+  private int[] to;
+  /**
+   * Index of left child or -1 for leaf. Right child is <tt>left + 1</tt>.
+   */
+  private int[] left;
+  /**
+   * Centre of charge of node.
+   */
+  private double[] cx;
+  /**
+   * Centre of charge of node.
+   */
+  private double[] cy;
+  /**
+   * Total weight of node (length of segments or number of points).
+   */
+  private double[] weight;
+  /**
+   * Square of the longer side of bounding box of node.
+   */
+  private double[] size2;
+  /**
+   * Number of nodes.
+   */
+  private int nodes = 0;
+
+  /**
+   * Build tree of line charges.
+   *
+   * <p>Segments are taken from charges in the same way as in field computed by
+   * {@link ODEsolver} for line charges: from head to the next intersection point.
+   *
+   * @param charges migrating or target charges of sector
+   * @param q charge, {@link ECMp#migQ} or {@link ECMp#tarQ}
+   * @param params parameters of run, opening angle is {@link ECMp#fieldAccuracy}
+   * @return tree
+   */
+  static FieldTree ofLines(Outline charges, double q, ECMp params) {
+    int n = 0;
+    Vert v = charges.getHead();
+    do {
+      n++;
+      v = v.getNext();
+    } while (!v.isIntPoint() || v.isHead());
+    double[] x1 = new double[n];
+    double[] y1 = new double[n];
+    double[] x2 = new double[n];
+    double[] y2 = new double[n];
+    v = charges.getHead();
+    for (int i = 0; i < n; i++) {
+      x1[i] = v.getX();
+      y1[i] = v.getY();
+      x2[i] = v.getNext().getX();
+      y2[i] = v.getNext().getY();
+      v = v.getNext();
+    }
+    return new FieldTree(true, x1, y1, x2, y2, q, params.k, 2, params.fieldAccuracy);
+  }
+
+  /**
+   * Build tree of point charges.
+   *
+   * <p>Points are taken from charges in the same way as in field computed by {@link ODEsolver}
+   * for point charges: from head to the next intersection point inclusive.
+   *
+   * @param charges migrating or target charges of sector
+   * @param q charge, {@link ECMp#migQ} or {@link ECMp#tarQ}
+   * @param power power of distance, {@link ECMp#migPower} or {@link ECMp#tarPower}
+   * @param params parameters of run, opening angle is {@link ECMp#fieldAccuracy}
+   * @return tree
+   */
+  static FieldTree ofPoints(Outline charges, double q, double power, ECMp params) {
+    int n = 0;
+    Vert v = charges.getHead();
+    do {
+      n++;
+      v = v.getNext();
+    } while (!v.getPrev().isIntPoint() || v.getPrev().isHead());
+    double[] x1 = new double[n];
+    double[] y1 = new double[n];
+    v = charges.getHead();
+    for (int i = 0; i < n; i++) {
+      x1[i] = v.getX();
+      y1[i] = v.getY();
+      v = v.getNext();
+    }
+    return new FieldTree(false, x1, y1, null, null, q, params.k, power, params.fieldAccuracy);
+  }
+
+  /**
+   * Build tree.
+   *
+   * @param lines true for line charges
+   * @param x1 coordinates of charges or starts of segments
+   * @param y1 coordinates of charges or starts of segments
+   * @param x2 ends of segments, null for points
+   * @param y2 ends of segments, null for points
+   * @param q charge
+   * @param k Coulomb constant
+   * @param power power of distance for point charges
+   * @param theta opening angle
+   */
+  private FieldTree(boolean lines, double[] x1, double[] y1, double[] x2, double[] y2, double q,
+          double k, double power, double theta) {
+    this.lines = lines;
+    this.x1 = x1;
+    this.y1 = y1;
+    this.x2 = x2;
+    this.y2 = y2;
+    this.q = q;
+    this.k = k;
+    this.power = power;
+    this.theta2 = theta * theta;
+    int n = x1.length;
+    int capacity = 2 * (n / (LEAF_SIZE / 2) + 1); // leaves keep at least half of LEAF_SIZE
+    from = new int[capacity];
+    to = new int[capacity];
+    left = new int[capacity];
+    cx = new double[capacity];
+    cy = new double[capacity];
+    weight = new double[capacity];
+    size2 = new double[capacity];
+    // centres of charges used for splitting
+    double[] mx = new double[n];
+    double[] my = new double[n];
+    double[] w = new double[n];
+    for (int i = 0; i < n; i++) {
+      if (lines) {
+        mx[i] = 0.5 * (x1[i] + x2[i]);
+        my[i] = 0.5 * (y1[i] + y2[i]);
+        w[i] = Math.sqrt((x2[i] - x1[i]) * (x2[i] - x1[i]) + (y2[i] - y1[i]) * (y2[i] - y1[i]));
+      } else {
+        mx[i] = x1[i];
+        my[i] = y1[i];
+        w[i] = 1;
+      }
+    }
+    nodes = 1;
+    build(0, 0, n, mx, my, w);
+  }
+
+  /**
+   * Fill node and its children. Charges of node are reordered in place.
+   *
+   * @param node index of node
+   * @param start first charge
+   * @param end last charge (excluded)
+   * @param mx centres of charges
+   * @param my centres of charges
+   * @param w weights of charges
+   */
+  private void build(int node, int start, int end, double[] mx, double[] my, double[] w) {
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    double sw = 0;
+    double sx = 0;
+    double sy = 0;
+    for (int i = start; i < end; i++) {
+      minX = Math.min(minX, lines ? Math.min(x1[i], x2[i]) : x1[i]);
+      minY = Math.min(minY, lines ? Math.min(y1[i], y2[i]) : y1[i]);
+      maxX = Math.max(maxX, lines ? Math.max(x1[i], x2[i]) : x1[i]);
+      maxY = Math.max(maxY, lines ? Math.max(y1[i], y2[i]) : y1[i]);
+      sw += w[i];
+      sx += w[i] * mx[i];
+      sy += w[i] * my[i];
+    }
+    from[node] = start;
+    to[node] = end;
+    weight[node] = sw;
+    if (sw > 0) {
+      cx[node] = sx / sw;
+      cy[node] = sy / sw;
+    } else { // degenerated segments
+      cx[node] = 0.5 * (minX + maxX);
+      cy[node] = 0.5 * (minY + maxY);
+    }
+    double size = Math.max(maxX - minX, maxY - minY);
+    size2[node] = size * size;
+    if (end - start <= LEAF_SIZE) {
+      left[node] = -1;
+      return;
+    }
+    // split at median along longer side
+    boolean alongX = maxX - minX >= maxY - minY;
+    int mid = (start + end) >>> 1;
+    select(start, end - 1, mid, alongX ? mx : my, mx, my, w);
+    int child = nodes;
+    nodes += 2;
+    left[node] = child;
+    build(child, start, mid, mx, my, w);
+    build(child + 1, mid, end, mx, my, w);
+  }
+
+  /**
+   * Partially sort charges so <tt>nth</tt> one is on its place.
+   *
+   * @param lo first index
+   * @param hi last index (included)
+   * @param nth index to select
+   * @param key sorting key
+   * @param mx centres of charges, reordered with charges
+   * @param my centres of charges, reordered with charges
+   * @param w weights, reordered with charges
+   */
+  private void select(int lo, int hi, int nth, double[] key, double[] mx, double[] my, double[] w) {
+    while (hi > lo) {
+      double pivot = key[(lo + hi) >>> 1];
+      int i = lo;
+      int j = hi;
+      while (i <= j) {
+        while (key[i] < pivot) {
+          i++;
+        }
+        while (key[j] > pivot) {
+          j--;
+        }
+        if (i <= j) {
+          swap(i, j, mx, my, w);
+          i++;
+          j--;
+        }
+      }
+      if (nth <= j) {
+        hi = j;
+      } else if (nth >= i) {
+        lo = i;
+      } else {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Swap two charges.
+   *
+   * @param i charge
+   * @param j charge
+   * @param mx centres of charges
+   * @param my centres of charges
+   * @param w weights
+   */
+  private void swap(int i, int j, double[] mx, double[] my, double[] w) {
+    swap(x1, i, j);
+    swap(y1, i, j);
+    if (lines) {
+      swap(x2, i, j);
+      swap(y2, i, j);
+    }
+    swap(mx, i, j);
+    swap(my, i, j);
+    swap(w, i, j);
+  }
+
+  /**
+   * Swap two elements of array.
+   *
+   * @param a array
+   * @param i index
+   * @param j index
+   */
+  private static void swap(double[] a, int i, int j) {
+    double t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+
+  /**
+   * Add field of charges at point.
+   *
+   * <p>Field is not multiplied by orientation of line charges.
+   *
+   * @param px x coordinate of point
+   * @param py y coordinate of point
+   * @param field field at point, result is added to two first elements
+   */
+  void addField(double px, double py, double[] field) {
+    double fx = 0;
+    double fy = 0;
+    int[] stack = new int[64]; // deeper than tree of any int number of charges
+    int top = 0;
+    stack[top++] = 0;
+    while (top > 0) {
+      int node = stack[--top];
+      double dx = px - cx[node];
+      double dy = py - cy[node];
+      double r2 = dx * dx + dy * dy;
+      if (left[node] < 0) {
+        for (int i = from[node]; i < to[node]; i++) {
+          if (lines) {
+            // as ODEsolver.forceLpolar
+            double lx = x2[i] - x1[i];
+            double ly = y2[i] - y1[i];
+            double l = Math.sqrt(lx * lx + ly * ly);
+            double rx = px - x2[i];
+            double ry = py - y2[i];
+            double r = Math.sqrt(rx * rx + ry * ry);
+            double rpx = px - x1[i];
+            double rpy = py - y1[i];
+            double rp = Math.sqrt(rpx * rpx + rpy * rpy);
+            double d = ((rp + r) * (rp + r) - l * l) / (2 * l);
+            double m = k * q / d;
+            if (r != 0) {
+              fx += rx / r * m;
+              fy += ry / r * m;
+            }
+            if (rp != 0) {
+              fx += rpx / rp * m;
+              fy += rpy / rp * m;
+            }
+          } else { // as ODEsolver.forceP
+            double ex = px - x1[i];
+            double ey = py - y1[i];
+            double r = Math.sqrt(ex * ex + ey * ey);
+            if (r == 0) {
+              fx += 250;
+              fy += 250;
+              IJ.log("!WARNING-FORCE INFINITE");
+              continue;
+            }
+            double m = k * q / (r * distPower(r, power));
+            fx += ex * m;
+            fy += ey * m;
+          }
+        }
+      } else if (size2[node] < theta2 * r2) { // far enough, node is one charge at its centre
+        double r = Math.sqrt(r2);
+        double m = k * q * weight[node] / (r * (lines ? r2 : distPower(r, power)));
+        fx += dx * m;
+        fy += dy * m;
+      } else {
+        stack[top++] = left[node];
+        stack[top++] = left[node] + 1;
+      }
+    }
+    field[0] += fx;
+    field[1] += fy;
+  }
+
+  /**
+   * Distance to power of point charges.
+   *
+   * <p>Used also by exact field computation in {@link ODEsolver}.
+   *
+   * @param r distance
+   * @param power power of distance, see {@link ECMp#migPower}
+   * @return <tt>r^power</tt>
+   */
+  static double distPower(double r, double power) {
+    return power == 2 ? r * r : Math.abs(Math.pow(r, power));
+  }
+}
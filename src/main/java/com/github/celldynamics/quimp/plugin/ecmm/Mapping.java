@@ -1,8 +1,14 @@
 package com.github.celldynamics.quimp.plugin.ecmm;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
 import com.github.celldynamics.quimp.Outline;
 import com.github.celldynamics.quimp.Vert;
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.geom.SegmentGrid;
+import com.github.celldynamics.quimp.geom.SelfIntersectionFinder;
 
 import ij.IJ;
 
@@ -17,13 +23,45 @@ class Mapping {
   Outline o1;
   Outline o2;
   Sector[] sectors;
+  /**
+   * Parameters of run.
+   */
+  final ECMp params;
+  /**
+   * Number of intersections of outlines.
+   */
+  int numINTS;
+  /**
+   * Number of accepted steps of solver made by all nodes in {@link #migrate()}.
+   */
+  int steps;
+  /**
+   * Number of evaluations of field made by all nodes in {@link #migrate()}.
+   */
+  int fieldEvals;
+  /**
+   * Number of steps rejected by adaptive solver in {@link #migrate()}.
+   */
+  int rejected;
+  /**
+   * Number of nodes that failed to snap in {@link #migrate()}.
+   */
+  int failures;
 
-  public Mapping(Outline oo1, Outline oo2) {
+  /**
+   * Create mapping and form sectors.
+   * 
+   * @param oo1 outline to migrate
+   * @param oo2 target outline
+   * @param params parameters of run
+   */
+  public Mapping(Outline oo1, Outline oo2, ECMp params) {
     o1 = oo1;
     o2 = oo2;
-    ECMp.numINTS = 0;
+    this.params = params;
+    numINTS = 0;
 
-    if (ECMp.ANA || ECMp.forceNoSectors) { // for ANA force no intersection points
+    if (params.ANA || params.forceNoSectors) { // for ANA force no intersection points
       insertFake();
       o1.updateNormals(true);
       o2.updateNormals(true);
@@ -32,26 +70,26 @@ class Mapping {
     }
 
     // shift them slightly
-    ECMp.numINTS = calcIntersects(); // temp intersect points are inserted
+    numINTS = calcIntersects(o1, o2); // temp intersect points are inserted
 
-    if (ECMp.numINTS == 0) {
+    if (numINTS == 0) {
       System.out.println("No intersects found");
       insertFake();
       o1.updateNormals(true);
       o2.updateNormals(true);
       formSectors();
     } else {
-      if (ECMp.inspectSectors) {
+      if (params.inspectSectors) {
         if (!inspectInts()) {
           IJ.log("    invalid outline intersections. Intersects corrected");
-          if (ECMp.plot && ECMp.drawFails) {
-            ECMM_Mapping.plot.writeText("Intersects corrected");
+          if (params.plot && params.drawFails) {
+            params.plotter.writeText("Intersects corrected");
           }
           rebuildInts();
 
         }
       }
-      if (ECMp.plot && ECMp.drawIntersects) {
+      if (params.plot && params.drawIntersects) {
         drawIntersects();
       }
       // System.out.println("Num intersects: " + INTS);
@@ -66,7 +104,20 @@ class Mapping {
     sectors[i].print();
   }
 
-  private int calcIntersects() {
+  /**
+   * Find intersections of outlines and insert them as intersect points into both outlines.
+   *
+   * <p>Each edge of <tt>o1</tt> is tested only with edges of <tt>o2</tt> found in
+   * {@link SegmentGrid} around it, instead of with all edges of <tt>o2</tt>. Edges of <tt>o2</tt>
+   * are indexed as they are before any intersect point is inserted, an edge split by inserted
+   * points is tested piece by piece. Candidates are visited in order along <tt>o2</tt>, so
+   * intersect points are inserted and numbered as if all pairs of edges were tested.
+   *
+   * @param o1 first outline
+   * @param o2 second outline
+   * @return number of inserted intersect points
+   */
+  static int calcIntersects(Outline o1, Outline o2) {
     // inserts intersect point (intPoints) into both outlines
     int ints = 0;
 
@@ -76,33 +127,64 @@ class Mapping {
     double[] intersect = new double[2];
     int state;
 
+    // original edges of o2
+    int n = o2.getNumPoints();
+    Vert[] starts = new Vert[n];
+    double[] x0 = new double[n];
+    double[] y0 = new double[n];
+    double[] x1 = new double[n];
+    double[] y1 = new double[n];
+    double length = 0;
+    nb = o2.getHead();
+    for (int e = 0; e < n; e++) {
+      starts[e] = nb;
+      x0[e] = nb.getX();
+      y0[e] = nb.getY();
+      x1[e] = nb.getNext().getX();
+      y1[e] = nb.getNext().getY();
+      length += ExtendedVector2d.lengthP2P(nb.getPoint(), nb.getNext().getPoint());
+      nb = nb.getNext();
+    }
+    double cellSize = n > 0 ? length / n : 0;
+    SegmentGrid grid =
+            new SegmentGrid(cellSize > SelfIntersectionFinder.TOLERANCE ? cellSize : 1.0);
+    grid.build(x0, y0, x1, y1, n, SelfIntersectionFinder.TOLERANCE);
+
     na = o1.getHead();
     do {
       // a different outline so no problem with adjacent edges being flagged as crossing
-      nb = o2.getHead();
-      // edgeBcount = 1;
-      do {
-        state = ExtendedVector2d.segmentIntersection(na.getX(), na.getY(), na.getNext().getX(),
-                na.getNext().getY(), nb.getX(), nb.getY(), nb.getNext().getX(), nb.getNext().getY(),
-                intersect);
-
-        if (state == 1) {
-          // result.print("intersect at : ");
-          ints++;
-          temp = o1.insertVert(na);
-          temp.setX(intersect[0]);
-          temp.setY(intersect[1]);
-          temp.setIntPoint(true, ints);
-          na = na.getNext();
-
-          temp = o2.insertVert(nb);
-          temp.setX(intersect[0]);
-          temp.setY(intersect[1]);
-          temp.setIntPoint(true, ints);
+      // edge of o1 can only be shortened by inserted points so candidates are found once
+      int found = grid.query(Math.min(na.getX(), na.getNext().getX()),
+              Math.min(na.getY(), na.getNext().getY()), Math.max(na.getX(), na.getNext().getX()),
+              Math.max(na.getY(), na.getNext().getY()));
+      int[] candidates = grid.getCandidates();
+      for (int k = 0; k < found; k++) {
+        int e = candidates[k];
+        nb = starts[e];
+        Vert end = starts[e + 1 < n ? e + 1 : 0];
+        do {
+          state = ExtendedVector2d.segmentIntersection(na.getX(), na.getY(),
+                  na.getNext().getX(), na.getNext().getY(), nb.getX(), nb.getY(),
+                  nb.getNext().getX(), nb.getNext().getY(), intersect);
+
+          if (state == 1) {
+            // result.print("intersect at : ");
+            ints++;
+            temp = o1.insertVert(na);
+            temp.setX(intersect[0]);
+            temp.setY(intersect[1]);
+            temp.setIntPoint(true, ints);
+            na = na.getNext();
+
+            temp = o2.insertVert(nb);
+            temp.setX(intersect[0]);
+            temp.setY(intersect[1]);
+            temp.setIntPoint(true, ints);
+            nb = nb.getNext();
+          }
           nb = nb.getNext();
-        }
-        nb = nb.getNext();
-      } while (!nb.isHead());
+        } while (nb != end);
+      }
       na = na.getNext();
     } while (!na.isHead());
 
@@ -129,7 +211,7 @@ class Mapping {
     temp.setX(pos.getX());
     temp.setY(pos.getY());
     temp.setIntPoint(true, 1);
-    ECMp.numINTS++;
+    numINTS++;
   }
 
   private boolean inspectInts() {
@@ -145,7 +227,7 @@ class Mapping {
     Vert v2p;
     Vert v2m;
 
-    for (int j = 0; j < ECMp.numINTS; j++) {
+    for (int j = 0; j < numINTS; j++) {
       do {
         v1 = v1.getNext();
       } while (!v1.isIntPoint()); // find next int point
@@ -271,8 +353,8 @@ class Mapping {
     int d3;
     int d4;
 
-    if (ECMp.plot && ECMp.drawFails) {
-      ECMM_Mapping.plot.setColor(0, 0.8, 0); // deleted colour
+    if (params.plot && params.drawFails) {
+      params.plotter.setColor(0, 0.8, 0); // deleted colour
     }
 
     do {
@@ -316,8 +398,8 @@ class Mapping {
               // also delete in o1
               o2.removeVert(Outline.findIntersect(o2.getHead(), v1.intsectID));
               // System.out.println("removed o2 intersects");
-              if (ECMp.plot && ECMp.drawFails) {
-                ECMM_Mapping.plot.drawCross(v1.getPoint(), 5);
+              if (params.plot && params.drawFails) {
+                params.plotter.drawCross(v1.getPoint(), 5);
               }
             }
           } while (true);
@@ -336,8 +418,8 @@ class Mapping {
               // also delete in o2
               o1.removeVert(Outline.findIntersect(o1.getHead(), v2.intsectID));
               // System.out.println("removed o1 intersects");
-              if (ECMp.plot && ECMp.drawFails) {
-                ECMM_Mapping.plot.drawCross(v2.getPoint(), 5);
+              if (params.plot && params.drawFails) {
+                params.plotter.drawCross(v2.getPoint(), 5);
               }
             }
           } while (true);
@@ -356,43 +438,69 @@ class Mapping {
       v1 = v1.getNext();
     } while (!v1.isHead());
 
-    ECMp.numINTS = intersects;
-    System.out.println("finished rebuilding. INTS:" + ECMp.numINTS);
+    numINTS = intersects;
+    System.out.println("finished rebuilding. INTS:" + numINTS);
   }
 
   private void drawIntersects() {
-    if (!ECMp.plot) {
+    if (!params.plot) {
       return;
     }
 
-    ECMM_Mapping.plot.setColor(0, 0.8, 0);
+    params.plotter.setColor(0, 0.8, 0);
     Vert v1 = o1.getHead();
     do {
       if (v1.isIntPoint()) {
-        ECMM_Mapping.plot.drawCross(v1.getPoint(), 6);
-        ECMM_Mapping.plot.drawCircle(v1.getPoint(), 12);
+        params.plotter.drawCross(v1.getPoint(), 6);
+        params.plotter.drawCircle(v1.getPoint(), 12);
       }
       v1 = v1.getNext();
     } while (!v1.isHead());
 
   }
 
+  /**
+   * Draw trajectories of vertices and mark start points of vertices that failed to snap.
+   * 
+   * @param verts migrated vertices
+   * @param paths trajectories of vertices, null elements if paths are not drawn
+   */
+  private void drawPaths(List<Vert> verts, List<List<ExtendedVector2d>> paths) {
+    if (!params.plot) {
+      return;
+    }
+    params.plotter.setColor(0, 0, 0);
+    for (List<ExtendedVector2d> path : paths) {
+      if (path != null) {
+        params.plotter.drawPath(path.toArray(new ExtendedVector2d[0]));
+      }
+    }
+    if (params.drawFails) {
+      params.plotter.setColor(1, 0, 0);
+      for (Vert v : verts) {
+        if (!v.snapped) {
+          params.plotter.drawCircle(v.getPoint(), 5);
+        }
+      }
+    }
+  }
+
   /**
    * Forms sectors based on the intPoints inserted by 'calcIntersects'. A sector is simply a
    * pointer to the sectors starting intPoint checkValid();
    */
   private void formSectors() {
 
-    if (ECMp.numINTS == 0) {
+    if (numINTS == 0) {
       // IJ.error("NO INTERSECTS");
       System.out.println("No Intersects"); // should never happen. fake ones insterted
     }
-    sectors = new Sector[ECMp.numINTS];
+    sectors = new Sector[numINTS];
 
     Vert vo1 = o1.getHead();
     Vert vo2 = o2.getHead();
 
-    for (int i = 0; i < ECMp.numINTS; i++) {
+    for (int i = 0; i < numINTS; i++) {
       do {
         vo1 = vo1.getNext();
       } while (!vo1.isIntPoint());
@@ -405,31 +513,31 @@ class Mapping {
         }
       } while (true);
 
-      if (ECMp.numINTS == 1) { // no intersects present, forced or otherwise
-        sectors[0] = new Sector(0);
+      if (numINTS == 1) { // no intersects present, forced or otherwise
+        sectors[0] = new Sector(0, params);
         sectors[0].setStarts(vo1, vo2);
         break;
       } else {
         if (i == 0) {
-          sectors[i] = new Sector(i);
+          sectors[i] = new Sector(i, params);
           sectors[i].setStarts(vo1, vo2);
-          sectors[ECMp.numINTS - 1] = new Sector(ECMp.numINTS - 1); // set as ends for last sector
+          sectors[numINTS - 1] = new Sector(numINTS - 1, params); // set as ends for last sector
           // sectors[INTS - 1].setEnds(vo1, vo2);
-        } else if (i == ECMp.numINTS - 1) {
+        } else if (i == numINTS - 1) {
           sectors[i].setStarts(vo1, vo2);
           // sectors[i - 1].setEnds(vo1, vo2);
         } else {
-          sectors[i] = new Sector(i);
+          sectors[i] = new Sector(i, params);
           sectors[i].setStarts(vo1, vo2);
           // sectors[i - 1].setEnds(vo1, vo2);
         }
       }
     }
 
-    if (ECMp.numINTS == 1) { // no intersects present, forced or otherwise
+    if (numINTS == 1) { // no intersects present, forced or otherwise
       sectors[0].constructWhole(o1.calcArea(), o2.calcArea());
     } else {
-      for (int i = 0; i < ECMp.numINTS; i++) {
+      for (int i = 0; i < numINTS; i++) {
         sectors[i].construct(); // calc lengths, determin exp or contr, make charges
         // sectors[i].showPlot();
       }
@@ -439,6 +547,14 @@ class Mapping {
   /**
    * Migrate outlines.
    * 
+   * <p>Vertices of all sectors are migrated concurrently, unless {@link ECMp#parallelMigration} is
+   * off, and mapped outline is assembled in order of vertices afterwards. If {@link ECMp#plot} is
+   * set, trajectories are recorded by solver and drawn after migration, also in order of vertices.
+   * Nodes are migrated by {@link ODEsolver#dormandPrince(Vert, Sector, List)} if
+   * {@link ECMp#adaptiveStep} is set or by {@link ODEsolver#euler(Vert, Sector, List)} otherwise.
+   * Statistics of solver are stored in {@link #steps}, {@link #fieldEvals}, {@link #rejected} and
+   * {@link #failures}.
+   * 
    * @return mapped outline. Compute also intensities in {@link Vert#fluores}
    */
   public Outline migrate() {
@@ -446,66 +562,87 @@ class Mapping {
     ExtendedVector2d newPos;
     Sector s;
 
-    Vert mapHead = new Vert(-1);
-    Outline mappedOutline = new Outline(mapHead);
-    Vert currentMapVert = mapHead;
+    // collect vertices of all sectors in order of mapped outline
+    ArrayList<Vert> verts = new ArrayList<>();
+    ArrayList<Sector> vertSectors = new ArrayList<>();
     for (int i = 0; i < sectors.length; i++) {
       s = sectors[i];
       Vert v = s.getMigStart().getNext(); // starting vert, don't migrate the intpoint
-
       do {
-        // if (ECMp.chargeDensity != -1) { //nar. polar charges sort
-        // this out
-        // tempVert = s.addTempCharge(v);
-        // }
-        // IJ.log("migrating x:" + v.getX() + ", y:" + v.getY());
-        // //debug
-        newPos = ODEsolver.euler(v, s);
-        if (!v.snapped) {
-          ECMp.unSnapped++;
-          IJ.log("    node failed to map (" + ECMp.unSnapped + ") - removed");
-          if (!ECMp.ANA && ECMp.plot && ECMp.drawFails) {
-            ECMM_Mapping.plot.writeText("FN(" + ECMp.unSnapped + ")");
-          }
-          v = v.getNext();
-
-          // System.out.println("sector expand: " +s.expanding+",
-          // trueExpand: "+s.trueExpand + ", outDirection: " +
-          // s.outerDirection);
-          // s.tarCharges.print();
-          // s.migCharges.print();
-          continue;
-        }
+        verts.add(v);
+        vertSectors.add(s);
+        v = v.getNext();
+      } while (!v.isIntPoint());
+    }
+    // each trajectory depends only on its vertex and charges of its sector
+    ExtendedVector2d[] positions = new ExtendedVector2d[verts.size()];
+    List<List<ExtendedVector2d>> paths = new ArrayList<>();
+    for (int j = 0; j < positions.length; j++) {
+      paths.add(params.plot && params.drawPaths ? new ArrayList<>() : null);
+    }
+    IntStream range = IntStream.range(0, positions.length);
+    if (params.parallelMigration) {
+      range = range.parallel();
+    }
+    int its = params.its.get();
+    int evals = params.fieldEvals.get();
+    int rejects = params.rejected.get();
+    if (params.adaptiveStep) {
+      range.forEach(j -> positions[j] =
+              ODEsolver.dormandPrince(verts.get(j), vertSectors.get(j), paths.get(j)));
+    } else {
+      range.forEach(j -> positions[j] =
+              ODEsolver.euler(verts.get(j), vertSectors.get(j), paths.get(j)));
+    }
+    steps = params.its.get() - its;
+    fieldEvals = params.fieldEvals.get() - evals;
+    rejected = params.rejected.get() - rejects;
 
-        newVert = mappedOutline.insertVert(currentMapVert);
-        newVert.tarLandingCoord = v.fLandCoord; // so we always have a reference to where we landed
-        if (s.expansion) { // expanding or retracting based on area change (not length of sector)
-          newVert.distance = -v.distance; // ?????????????? why neg
-        } else {
-          newVert.distance = v.distance;
-        }
+    drawPaths(verts, paths);
 
-        if (!s.forwardMap) {
-          newVert.setX(v.getX());
-          newVert.setY(v.getY());
-          newVert.gCoord = v.gLandCoord;// + 1;
-          newVert.fCoord = v.fLandCoord;// + 1;
-        } else {
-          newVert.setX(newPos.getX());
-          newVert.setY(newPos.getY());
-          newVert.gCoord = v.gCoord;
-          newVert.fCoord = v.coord;
+    Vert mapHead = new Vert(-1);
+    Outline mappedOutline = new Outline(mapHead);
+    Vert currentMapVert = mapHead;
+    for (int j = 0; j < positions.length; j++) {
+      Vert v = verts.get(j);
+      s = vertSectors.get(j);
+      newPos = positions[j];
+      if (!v.snapped) {
+        failures++;
+        params.unSnapped++;
+        IJ.log("    node failed to map (" + params.unSnapped + ") - removed");
+        if (!params.ANA && params.plot && params.drawFails) {
+          params.plotter.writeText("FN(" + params.unSnapped + ")");
         }
+        continue;
+      }
 
-        if (ECMp.ANA) {
-          // newVert.fluores = v.cloneFluo();
-          newVert.setFluores(v.fluores);
-          newVert.setTrackNum(v.getTrackNum());
-        }
-        currentMapVert = newVert;
-        v = v.getNext();
-      } while (!v.isIntPoint());
+      newVert = mappedOutline.insertVert(currentMapVert);
+      newVert.tarLandingCoord = v.fLandCoord; // so we always have a reference to where we landed
+      if (s.expansion) { // expanding or retracting based on area change (not length of sector)
+        newVert.distance = -v.distance; // ?????????????? why neg
+      } else {
+        newVert.distance = v.distance;
+      }
 
+      if (!s.forwardMap) {
+        newVert.setX(v.getX());
+        newVert.setY(v.getY());
+        newVert.gCoord = v.gLandCoord;// + 1;
+        newVert.fCoord = v.fLandCoord;// + 1;
+      } else {
+        newVert.setX(newPos.getX());
+        newVert.setY(newPos.getY());
+        newVert.gCoord = v.gCoord;
+        newVert.fCoord = v.coord;
+      }
+
+      if (params.ANA) {
+        // newVert.fluores = v.cloneFluo();
+        newVert.setFluores(v.fluores);
+        newVert.setTrackNum(v.getTrackNum());
+      }
+      currentMapVert = newVert;
     }
     mappedOutline.removeVert(mapHead);
 
@@ -513,7 +650,7 @@ class Mapping {
   }
 
   public Sector getSector(int i) {
-    if (i < 0 || i > ECMp.numINTS) {
+    if (i < 0 || i > numINTS) {
       IJ.error("sectors out of bounds - 250");
     }
     return sectors[i];
@@ -1,5 +1,7 @@
 package com.github.celldynamics.quimp.plugin.ecmm;
 
+import java.util.List;
+
 import com.github.celldynamics.quimp.Vert;
 import com.github.celldynamics.quimp.geom.ExtendedVector2d;
 import com.github.celldynamics.quimp.utils.QuimpToolsCollection;
@@ -15,7 +17,30 @@ import ij.process.ImageProcessor;
  */
 public class ODEsolver {
 
-  private static boolean inside;
+  /**
+   * Coefficients of stages of Dormand-Prince method, last row gives solution of 5th order.
+   */
+  private static final double[][] DP_A = { {}, { 1.0 / 5 }, { 3.0 / 40, 9.0 / 40 },
+      { 44.0 / 45, -56.0 / 15, 32.0 / 9 },
+      { 19372.0 / 6561, -25360.0 / 2187, 64448.0 / 6561, -212.0 / 729 },
+      { 9017.0 / 3168, -355.0 / 33, 46732.0 / 5247, 49.0 / 176, -5103.0 / 18656 },
+      { 35.0 / 384, 0, 500.0 / 1113, 125.0 / 192, -2187.0 / 6784, 11.0 / 84 } };
+
+  /**
+   * Difference between weights of solutions of 5th and 4th order of Dormand-Prince method.
+   */
+  private static final double[] DP_E = { 71.0 / 57600, 0, -71.0 / 16695, 71.0 / 1920,
+      -17253.0 / 339200, 22.0 / 525, -1.0 / 40 };
+
+  /**
+   * Shortest step of Dormand-Prince method in Euler steps, it needs six evaluations of field.
+   */
+  private static final double DP_MIN_STEPS = 8;
+
+  /**
+   * Maximal number of rejected attempts of one step of Dormand-Prince method.
+   */
+  private static final int DP_MAX_REJECTS = 8;
 
   /**
    * Default constructor.
@@ -26,42 +51,32 @@ public class ODEsolver {
   /**
    * Euler solver.
    * 
+   * <p>Trajectory depends only on vertex and charges of sector, thus different vertices can be
+   * migrated concurrently. Solver does not draw, trajectory is recorded in <tt>path</tt> and
+   * plotted by caller.
+   * 
    * @param v vertex
    * @param s sector
+   * @param path positions of vertex along trajectory are added here, can be null
    * @return ?
    */
-  public static ExtendedVector2d euler(Vert v, Sector s) {
+  public static ExtendedVector2d euler(Vert v, Sector s, List<ExtendedVector2d> path) {
+    ECMp params = s.params;
     // Vect2d[] history = new Vect2d[ECMp.maxIter];
-    int x;
-    int y;
-    int lastSampleX = -1;
-    int lastSampleY = -1; // store where last sample was
+    int[] lastSample = new int[2]; // store where last sample was
     double dist = 0; // distance migrated
-    double tempFlu;
-    Vert edge;
     ExtendedVector2d p;
     ExtendedVector2d pp;
 
     v.snapped = false;
 
-    if (ECMp.ANA) { // sample at boundary
-      p = v.getPoint();
-      x = (int) Math.round(p.getX());
-      y = (int) Math.round(p.getY());
-      lastSampleX = x;
-      lastSampleY = y;
-      tempFlu = ODEsolver.sampleFluo(ECMp.image, x, y);
-      v.fluores[0].intensity = tempFlu;
-      v.fluores[0].x = x; // store in first slot
-      v.fluores[0].y = y;
-    }
-
-    if (ECMp.plot) {
-      ECMM_Mapping.plot.setColor(0, 0, 0);
+    if (params.ANA) { // sample at boundary
+      sampleStart(v, lastSample, params);
     }
 
     p = new ExtendedVector2d(v.getX(), v.getY());
     pp = new ExtendedVector2d(v.getX(), v.getY()); // previouse position
+    record(path, p);
 
     // history[0] = new Vect2d(p.getX(), p.getY());
 
@@ -69,36 +84,17 @@ public class ODEsolver {
     int i = 1;
     ExtendedVector2d k;
 
-    for (; i < ECMp.maxIter - 1; i++) {
+    for (; i < params.maxIter - 1; i++) {
       // IJ.log("\tIt " + i); //debug
-      if (ODEsolver.proximity(p, s) || (ECMp.ANA && dist >= (ECMp.anaMigDist)) || maxHit) {
+      if (ODEsolver.proximity(p, s) || (params.ANA && dist >= (params.anaMigDist)) || maxHit) {
         // stop when within d of the target segment or
         // if migrated more than the ana set cortex width (in pixels)
-        pp.setX(p.getX());
-        pp.setY(p.getY());
-
-        // if(!ECMp.ANA) { // no need to snap ana result. landing coord
-        // not needed
-        edge = ODEsolver.snap(p, s);
-        dist += ExtendedVector2d.lengthP2P(pp, p);
-        v.distance = QuimpToolsCollection.speedToScale(dist, ECMp.scale, ECMp.frameInterval);
-        // if (s.expanding && !ECMp.ANA) {
-        v.setLandingCoord(p, edge);
-        // }
-        // }
-
-        if (ECMp.plot && ECMp.drawPaths) {
-          ECMM_Mapping.plot.setColor(0, 0, 0);
-          ECMM_Mapping.plot.drawLine(pp, p);
-        }
-
-        v.snapped = true;
-        // System.out.println("iterations: " + i);
+        land(v, p, s, dist);
         break;
       }
 
       k = ODEsolver.dydt(p, s);
-      k.multiply(ECMp.h);
+      k.multiply(params.h);
 
       pp.setX(p.getX());
       pp.setY(p.getY());
@@ -106,43 +102,255 @@ public class ODEsolver {
       p.setY(p.getY() + k.getY());
       dist += ExtendedVector2d.lengthP2P(pp, p);
 
-      if (ECMp.plot && ECMp.drawPaths) {
-        // ECMM_Mapping.plot.setColor(1, 0, 0);
-        ECMM_Mapping.plot.drawLine(pp, p);
-      }
+      record(path, p);
       // history[i] = new Vect2d(p.getX(), p.getY());
 
-      if (ECMp.ANA) { // sample
-        x = (int) Math.round(p.getX());
-        y = (int) Math.round(p.getY());
-        if (!(x == lastSampleX && y == lastSampleY)) { // on sample new locations
-          lastSampleX = x;
-          lastSampleY = y;
-          tempFlu = ODEsolver.sampleFluo(ECMp.image, x, y);
-
-          if (tempFlu > v.fluores[0].intensity) { // store first one
-            // if((tempFlu / v.fluores[0].intensity)<1.1){
-            // maxHit = true;
-            // }
-            v.fluores[0].intensity = tempFlu;
-            v.fluores[0].x = x;
-            v.fluores[0].y = y;
+      if (params.ANA) { // sample
+        sample(v, p, lastSample, params);
+      }
+
+    }
+    params.its.addAndGet(i - 1);
+    params.fieldEvals.addAndGet(i - 1);
+
+    return p;
+  }
 
+  /**
+   * Adaptive Dormand-Prince solver.
+   * 
+   * <p>Alternative to {@link #euler(Vert, Sector, List)} selected by {@link ECMp#adaptiveStep}.
+   * Far from target, steps are made with embedded Runge-Kutta 5(4) pair and their length is
+   * adapted so the difference between both solutions is below {@link ECMp#tolerance} and
+   * displacement is below distance to target minus half of {@link ECMp#d}. Such step needs six
+   * evaluations of field, so it is used only if it is at least {@value #DP_MIN_STEPS} times longer
+   * than Euler step {@link ECMp#h}. Otherwise, e.g. close to target or where field bends too much,
+   * Euler step is made. After step rejected by error control, Euler steps are made for a while,
+   * longer after each consecutive rejection, before Dormand-Prince step is tried again. In ANA
+   * mode trajectory is sampled in every pixel and whole trajectory is solved by Euler solver.
+   * 
+   * <p>Node fails to snap after {@link ECMp#maxIter} steps of any kind, what corresponds to
+   * trajectory not shorter than allowed by {@link #euler(Vert, Sector, List)}. Steps, field
+   * evaluations and rejected steps are added to {@link ECMp#its}, {@link ECMp#fieldEvals} and
+   * {@link ECMp#rejected}.
+   * 
+   * @param v vertex
+   * @param s sector
+   * @param path positions of vertex along trajectory are added here, can be null
+   * @return last position of vertex, landing point on target outline if vertex snapped
+   * @see <a href="https://doi.org/10.1016/0771-050X(80)90013-3">Dormand, Prince, A family of
+   *      embedded Runge-Kutta formulae</a>
+   */
+  public static ExtendedVector2d dormandPrince(Vert v, Sector s, List<ExtendedVector2d> path) {
+    ECMp params = s.params;
+    if (params.ANA) { // steps below one pixel are not cheaper than Euler steps
+      return euler(v, s, path);
+    }
+    double dist = 0; // distance migrated
+    double minStep = DP_MIN_STEPS * params.h; // shorter steps are made by Euler
+    double step = minStep;
+    int eulerSteps = 0; // Euler steps left before next Dormand-Prince step
+    int backoff = 0; // Euler steps after last rejection
+    int evals = 0;
+    int rejects = 0;
+    double[] px = new double[7]; // positions of stages
+    double[] py = new double[7];
+    double[] kx = new double[7]; // slopes of stages
+    double[] ky = new double[7];
+
+    v.snapped = false;
+
+    ExtendedVector2d p = new ExtendedVector2d(v.getX(), v.getY());
+    ExtendedVector2d pp = new ExtendedVector2d(v.getX(), v.getY()); // previous position
+    record(path, p);
+    px[0] = p.getX();
+    py[0] = p.getY();
+    slope(px, py, kx, ky, 0, s);
+    evals++;
+
+    int i = 1;
+    for (; i < params.maxIter - 1; i++) {
+      double toTarget = targetDistance(p, s);
+      if (toTarget <= params.d) {
+        land(v, p, s, dist);
+        break;
+      }
+      double maxShift = toTarget - 0.5 * params.d;
+      boolean tried = false;
+      boolean accepted = false;
+      for (int r = 0; r < DP_MAX_REJECTS && eulerSteps == 0; r++) {
+        double h = Math.min(step, maxShift / params.maxVertF);
+        if (!(h >= minStep)) { // Euler is cheaper, also if step is not a number
+          break;
+        }
+        tried = true;
+        for (int st = 1; st < 7; st++) {
+          double sx = 0;
+          double sy = 0;
+          for (int j = 0; j < st; j++) {
+            sx += DP_A[st][j] * kx[j];
+            sy += DP_A[st][j] * ky[j];
           }
+          px[st] = px[0] + h * sx;
+          py[st] = py[0] + h * sy;
+          slope(px, py, kx, ky, st, s);
+        }
+        evals += 6;
+        double ex = 0;
+        double ey = 0;
+        for (int st = 0; st < 7; st++) {
+          ex += DP_E[st] * kx[st];
+          ey += DP_E[st] * ky[st];
+        }
+        double err = h * Math.hypot(ex, ey);
+        double shift = Math.hypot(px[6] - px[0], py[6] - py[0]); // last stage is 5th order
+        // new step from error estimate, safety factor 0.9, limited change
+        double factor = err > 0 ? 0.9 * Math.pow(params.tolerance / err, 0.2) : 5;
+        step = h * Math.min(5, Math.max(0.2, factor));
+        if (shift > maxShift) {
+          step = Math.min(step, 0.5 * h * maxShift / shift);
+          rejects++;
+          continue;
+        }
+        if (err > params.tolerance) {
+          rejects++;
+          continue;
         }
+        accepted = true;
+        break;
       }
 
-      ECMp.its++;
+      pp.setX(p.getX());
+      pp.setY(p.getY());
+      if (accepted) { // first same as last
+        backoff = 0;
+        px[0] = px[6];
+        py[0] = py[6];
+        kx[0] = kx[6];
+        ky[0] = ky[6];
+      } else { // Euler step with slope at current position
+        if (eulerSteps > 0) {
+          eulerSteps--;
+        } else if (tried) { // rejected, wait longer after each rejection
+          backoff = Math.max((int) DP_MIN_STEPS, 2 * backoff);
+          eulerSteps = backoff;
+        }
+        step = Math.max(step, minStep);
+        px[0] += params.h * kx[0];
+        py[0] += params.h * ky[0];
+        slope(px, py, kx, ky, 0, s);
+        evals++;
+      }
+      p.setX(px[0]);
+      p.setY(py[0]);
+      dist += ExtendedVector2d.lengthP2P(pp, p);
+      record(path, p);
     }
+    params.its.addAndGet(i - 1);
+    params.fieldEvals.addAndGet(evals);
+    params.rejected.addAndGet(rejects);
 
-    if (ECMp.plot && !v.snapped && ECMp.drawFails) { // mark the start point of failed nodes
-      ECMM_Mapping.plot.setColor(1, 0, 0);
-      // p.print(v.getTrackNum() + "p: ");
-      // pp.print(v.getTrackNum() + "pp: ");
-      ECMM_Mapping.plot.drawCircle(v.getPoint(), 5);
+    return p;
+  }
+
+  /**
+   * Add copy of position to trajectory.
+   * 
+   * @param path trajectory, can be null
+   * @param p position
+   */
+  private static void record(List<ExtendedVector2d> path, ExtendedVector2d p) {
+    if (path != null) {
+      path.add(new ExtendedVector2d(p.getX(), p.getY()));
     }
+  }
 
-    return p;
+  /**
+   * Compute slope of stage.
+   * 
+   * @param px x coordinates of stages
+   * @param py y coordinates of stages
+   * @param kx x components of slopes, set for stage <tt>st</tt>
+   * @param ky y components of slopes, set for stage <tt>st</tt>
+   * @param st stage
+   * @param s sector
+   */
+  private static void slope(double[] px, double[] py, double[] kx, double[] ky, int st,
+          Sector s) {
+    ExtendedVector2d k = dydt(new ExtendedVector2d(px[st], py[st]), s);
+    kx[st] = k.getX();
+    ky[st] = k.getY();
+  }
+
+  /**
+   * Snap vertex to target outline and store its landing coordinates and migrated distance.
+   * 
+   * @param v vertex
+   * @param p final position of vertex
+   * @param s sector
+   * @param dist distance migrated
+   */
+  private static void land(Vert v, ExtendedVector2d p, Sector s, double dist) {
+    ECMp params = s.params;
+    ExtendedVector2d pp = new ExtendedVector2d(p.getX(), p.getY());
+    // if(!ECMp.ANA) { // no need to snap ana result. landing coord
+    // not needed
+    Vert edge = ODEsolver.snap(p, s);
+    dist += ExtendedVector2d.lengthP2P(pp, p);
+    v.distance = QuimpToolsCollection.speedToScale(dist, params.scale, params.frameInterval);
+    // if (s.expanding && !ECMp.ANA) {
+    v.setLandingCoord(p, edge);
+    // }
+    // }
+
+    v.snapped = true;
+  }
+
+  /**
+   * Sample intensity at starting position of vertex in ANA mode.
+   * 
+   * @param v vertex, sample is stored in its first {@link Vert#fluores}
+   * @param lastSample coordinates of sample, set here
+   * @param params parameters of run
+   */
+  private static void sampleStart(Vert v, int[] lastSample, ECMp params) {
+    ExtendedVector2d p = v.getPoint();
+    int x = (int) Math.round(p.getX());
+    int y = (int) Math.round(p.getY());
+    lastSample[0] = x;
+    lastSample[1] = y;
+    double tempFlu = ODEsolver.sampleFluo(params.image, x, y);
+    v.fluores[0].intensity = tempFlu;
+    v.fluores[0].x = x; // store in first slot
+    v.fluores[0].y = y;
+  }
+
+  /**
+   * Sample intensity at new position of vertex in ANA mode and keep the brightest sample.
+   * 
+   * @param v vertex, brightest sample is stored in its first {@link Vert#fluores}
+   * @param p position of vertex
+   * @param lastSample coordinates of last sample, updated if pixel has changed
+   * @param params parameters of run
+   */
+  private static void sample(Vert v, ExtendedVector2d p, int[] lastSample, ECMp params) {
+    int x = (int) Math.round(p.getX());
+    int y = (int) Math.round(p.getY());
+    if (!(x == lastSample[0] && y == lastSample[1])) { // on sample new locations
+      lastSample[0] = x;
+      lastSample[1] = y;
+      double tempFlu = ODEsolver.sampleFluo(params.image, x, y);
+
+      if (tempFlu > v.fluores[0].intensity) { // store first one
+        // if((tempFlu / v.fluores[0].intensity)<1.1){
+        // maxHit = true;
+        // }
+        v.fluores[0].intensity = tempFlu;
+        v.fluores[0].x = x;
+        v.fluores[0].y = y;
+
+      }
+    }
   }
 
   /**
@@ -154,13 +362,13 @@ public class ODEsolver {
    */
   public static ExtendedVector2d dydt(ExtendedVector2d p, Sector s) {
     ExtendedVector2d result = fieldAt(p, s);
-    result.multiply(ECMp.mobileQ);
+    result.multiply(s.params.mobileQ);
 
-    if (true) { // Math.abs(result.length()) > ECMp.maxVertF) {
+    if (true) { // Math.abs(result.length()) > s.params.maxVertF) {
       // IJ.log("!WARNING-max force exceeded: " +
       // Math.abs(result.length()));
       result.makeUnit();
-      result.multiply(ECMp.maxVertF);
+      result.multiply(s.params.maxVertF);
     }
     return result;
   }
@@ -182,7 +390,7 @@ public class ODEsolver {
     do {
       double d = ExtendedVector2d.distPointToSegment(p, v.getPoint(), v.getNext().getPoint());
       // IJ.log("\t\tprox to: " + d); //debug
-      if (d <= ECMp.d) {
+      if (d <= s.params.d) {
         return true;
       }
       v = v.getNext();
@@ -190,6 +398,25 @@ public class ODEsolver {
     return false;
   }
 
+  /**
+   * Distance to the closest segment of target contour of sector.
+   * 
+   * @param p point
+   * @param s sector
+   * @return distance to target
+   * @see #proximity(ExtendedVector2d, Sector)
+   */
+  private static double targetDistance(ExtendedVector2d p, Sector s) {
+    double distance = Double.MAX_VALUE;
+    Vert v = s.getTarStart();
+    do {
+      distance = Math.min(distance,
+              ExtendedVector2d.distPointToSegment(p, v.getPoint(), v.getNext().getPoint()));
+      v = v.getNext();
+    } while (!v.isIntPoint());
+    return distance;
+  }
+
   private static Vert snap(ExtendedVector2d p, Sector s) {
     // snap p to the closest segment of target contour
     ExtendedVector2d current;
@@ -220,16 +447,39 @@ public class ODEsolver {
 
   private static ExtendedVector2d fieldAt(ExtendedVector2d p, Sector s) {
 
+    if (s.migField != null) { // approximated, see s.params.fieldAccuracy
+      return fieldAtTree(p, s);
+    }
     // Use line charges or point charges. remove if for speed
     // return fieldAtLines(p, s);
-    if (ECMp.lineCharges) {
+    if (s.params.lineCharges) {
       return fieldAtLines(p, s);
     } else {
       return fieldAtPoints(p, s);
     }
   }
 
+  /**
+   * Approximated field of charges of sector.
+   * 
+   * @param p point
+   * @param s sector with trees of charges
+   * @return field at point
+   * @see FieldTree
+   */
+  private static ExtendedVector2d fieldAtTree(ExtendedVector2d p, Sector s) {
+    double[] field = new double[2];
+    s.migField.addField(p.getX(), p.getY(), field);
+    s.tarField.addField(p.getX(), p.getY(), field);
+    if (s.params.lineCharges && !s.insideCharges(p)) { // polar lines, see fieldAtLines
+      field[0] = -field[0];
+      field[1] = -field[1];
+    }
+    return new ExtendedVector2d(field[0], field[1]);
+  }
+
   private static ExtendedVector2d fieldAtPoints(ExtendedVector2d p, Sector s) {
+    ECMp params = s.params;
     // calc the field size at p according to to migrating and target charges
     ExtendedVector2d field = new ExtendedVector2d(0, 0);
     ExtendedVector2d totalF = new ExtendedVector2d(0, 0);
@@ -237,7 +487,7 @@ public class ODEsolver {
     Vert v = s.migCharges.getHead();
     do {
 
-      forceP(field, p, v.getPoint(), ECMp.migQ, ECMp.migPower);
+      forceP(field, p, v.getPoint(), params.migQ, params.migPower, params.k);
       totalF.addVec(field);
       // totalF.print("\ttotlaF = ");
       v = v.getNext();
@@ -245,7 +495,7 @@ public class ODEsolver {
 
     v = s.tarCharges.getHead();
     do {
-      forceP(field, p, v.getPoint(), ECMp.tarQ, ECMp.tarPower);
+      forceP(field, p, v.getPoint(), params.tarQ, params.tarPower, params.k);
       totalF.addVec(field);
       v = v.getNext();
     } while (!v.getPrev().isIntPoint() || v.getPrev().isHead());
@@ -254,8 +504,10 @@ public class ODEsolver {
   }
 
   private static void forceP(ExtendedVector2d force, ExtendedVector2d p, ExtendedVector2d pq,
-          double q, double power) {
-    double r = ExtendedVector2d.lengthP2P(pq, p);
+          double q, double power, double k) {
+    double ex = p.getX() - pq.getX();
+    double ey = p.getY() - pq.getY();
+    double r = Math.sqrt(ex * ex + ey * ey);
     // System.out.println("\t r = " + r);
     if (r == 0) {
       force.setX(250);
@@ -263,21 +515,21 @@ public class ODEsolver {
       IJ.log("!WARNING-FORCE INFINITE");
       return;
     }
-    r = Math.abs(Math.pow(r, power));
-    ExtendedVector2d unitV = ExtendedVector2d.unitVector(pq, p);
-    double multiplier = (ECMp.k * (q / r));
-    force.setX(unitV.getX() * multiplier);
-    force.setY(unitV.getY() * multiplier);
+    // (ex, ey) / r is unit vector from pq to p, as in FieldTree
+    double multiplier = k * q / (r * FieldTree.distPower(r, power));
+    force.setX(ex * multiplier);
+    force.setY(ey * multiplier);
   }
 
   private static ExtendedVector2d fieldAtLines(ExtendedVector2d p, Sector s) {
+    ECMp params = s.params;
     // calc the field size at p according to to migrating and target charges
     ExtendedVector2d field = new ExtendedVector2d(0, 0);
     ExtendedVector2d totalF = new ExtendedVector2d(0, 0);
     double polarDir;
 
     // inside or outside sector?
-    inside = s.insideCharges(p);
+    boolean inside = s.insideCharges(p);
 
     if (!inside) {
       polarDir = -1;
@@ -299,8 +551,8 @@ public class ODEsolver {
        *
        */
 
-      forceLpolar(field, p, v.getPoint(), v.getNext().getPoint(), ECMp.migQ, ECMp.migPower,
-              polarDir);
+      forceLpolar(field, p, v.getPoint(), v.getNext().getPoint(), params.migQ, params.migPower,
+              polarDir, params.k);
 
       totalF.addVec(field);
       v = v.getNext();
@@ -318,8 +570,8 @@ public class ODEsolver {
        *
        */
 
-      forceLpolar(field, p, v.getPoint(), v.getNext().getPoint(), ECMp.tarQ, ECMp.tarPower,
-              polarDir);
+      forceLpolar(field, p, v.getPoint(), v.getNext().getPoint(), params.tarQ, params.tarPower,
+              polarDir, params.k);
 
       totalF.addVec(field);
       v = v.getNext();
@@ -329,20 +581,35 @@ public class ODEsolver {
   }
 
   private static void forceLpolar(ExtendedVector2d force, ExtendedVector2d p, ExtendedVector2d s1,
-          ExtendedVector2d s2, double q, double power, double orientation) {
-    double l = ExtendedVector2d.lengthP2P(s1, s2);
-    ExtendedVector2d ru = ExtendedVector2d.unitVector(s2, p);
-    double r = ExtendedVector2d.lengthP2P(s2, p);
-    ExtendedVector2d rpU = ExtendedVector2d.unitVector(s1, p);
-    double rp = ExtendedVector2d.lengthP2P(s1, p);
+          ExtendedVector2d s2, double q, double power, double orientation, double k) {
+    // same arithmetic as FieldTree, without temporary vectors
+    double lx = s2.getX() - s1.getX();
+    double ly = s2.getY() - s1.getY();
+    double l = Math.sqrt(lx * lx + ly * ly);
+    double rx = p.getX() - s2.getX();
+    double ry = p.getY() - s2.getY();
+    double r = Math.sqrt(rx * rx + ry * ry);
+    double rpx = p.getX() - s1.getX();
+    double rpy = p.getY() - s1.getY();
+    double rp = Math.sqrt(rpx * rpx + rpy * rpy);
 
     double d = (((rp + r) * (rp + r)) - (l * l)) / (2 * l);
     // double d = ( Math.pow((rp + r), power) - (L * L)) / (2 * L);
-    double multiplier = ((ECMp.k * q) / d);
-    rpU.addVec(ru);
+    double multiplier = ((k * q) / d);
+    // sum of unit vectors from s1 and s2 towards p
+    double ux = 0;
+    double uy = 0;
+    if (rp != 0) {
+      ux += rpx / rp;
+      uy += rpy / rp;
+    }
+    if (r != 0) {
+      ux += rx / r;
+      uy += ry / r;
+    }
 
-    force.setX(rpU.getX() * multiplier * orientation);
-    force.setY(rpU.getY() * multiplier * orientation);
+    force.setX(ux * multiplier * orientation);
+    force.setY(uy * multiplier * orientation);
   }
 
   /**
@@ -18,6 +18,10 @@ import ij.process.FloatPolygon;
 class Sector {
 
   private int id;
+  /**
+   * Parameters of run.
+   */
+  final ECMp params;
   private Vert startO1;
   private Vert startO2;
   public Outline migCharges;
@@ -38,14 +42,28 @@ class Sector {
    * the other direction of the normals of migration charges.
    */
   public double outerNormal;
+  /**
+   * Approximated field of migrating charges, null if field is computed exactly.
+   * 
+   * @see ECMp#fieldAccuracy
+   */
+  FieldTree migField;
+  /**
+   * Approximated field of target charges, null if field is computed exactly.
+   * 
+   * @see ECMp#fieldAccuracy
+   */
+  FieldTree tarField;
 
   /**
    * Constructor of sector.
    * 
    * @param i id
+   * @param params parameters of run
    */
-  public Sector(int i) {
+  public Sector(int i, ECMp params) {
     id = i;
+    this.params = params;
   }
 
   /**
@@ -70,7 +88,7 @@ class Sector {
     double sectorTriArea = ExtendedVector2d.triangleArea(startO1.getPoint(),
             startO1.getNext().getPoint(), startO2.getNext().getPoint());
 
-    if ((lengthO1 > lengthO2) || ECMp.forceForwardMapping) {
+    if ((lengthO1 > lengthO2) || params.forceForwardMapping) {
       forwardMap = true;
       migCharges = formCharges(startO1);
       tarCharges = formCharges(startO2);
@@ -99,19 +117,19 @@ class Sector {
     ExtendedVector2d normal;
     do {
       normal = new ExtendedVector2d(v.getNormal().getX(), v.getNormal().getY());
-      normal.multiply(outerNormal * ECMp.w);
+      normal.multiply(outerNormal * params.w);
       v.getPoint().addVec(normal);
       v = v.getNext();
     } while (!v.isHead());
 
-    if (ECMp.chargeDensity != -1) {
-      migCharges.setResolution(ECMp.chargeDensity);
-      tarCharges.setResolution(ECMp.chargeDensity);
+    if (params.chargeDensity != -1) {
+      migCharges.setResolution(params.chargeDensity);
+      tarCharges.setResolution(params.chargeDensity);
     }
 
     // create polygon off all charges for cal point inside/outside sector
     chargesPolygon();
-
+    buildFields();
   }
 
   /**
@@ -126,8 +144,8 @@ class Sector {
 
     calcLengths();
 
-    if (((lengthO1 > lengthO2) || ECMp.forceForwardMapping || ECMp.ANA)
-            && !ECMp.forceBackwardMapping) {
+    if (((lengthO1 > lengthO2) || params.forceForwardMapping || params.ANA)
+            && !params.forceBackwardMapping) {
       forwardMap = true;
       migCharges = formCharges(startO1);
       tarCharges = formCharges(startO2);
@@ -163,19 +181,37 @@ class Sector {
     ExtendedVector2d normal;
     do {
       normal = new ExtendedVector2d(v.getNormal().getX(), v.getNormal().getY());
-      normal.multiply(outerNormal * ECMp.w);
+      normal.multiply(outerNormal * params.w);
       v.getPoint().addVec(normal);
       v = v.getNext();
     } while (!v.isHead());
 
-    if (ECMp.chargeDensity != -1) {
-      migCharges.setResolution(ECMp.chargeDensity);
-      tarCharges.setResolution(ECMp.chargeDensity);
+    if (params.chargeDensity != -1) {
+      migCharges.setResolution(params.chargeDensity);
+      tarCharges.setResolution(params.chargeDensity);
     }
 
     outerPoly = ioPolygons(outerCharges);
     innerPoly = ioPolygons(innerCharges);
+    buildFields();
+  }
 
+  /**
+   * Build trees of charges if field is approximated. Charges must not change after this call.
+   * 
+   * @see ECMp#fieldAccuracy
+   */
+  private void buildFields() {
+    if (params.fieldAccuracy <= 0) {
+      migField = null;
+      tarField = null;
+    } else if (params.lineCharges) {
+      migField = FieldTree.ofLines(migCharges, params.migQ, params);
+      tarField = FieldTree.ofLines(tarCharges, params.tarQ, params);
+    } else {
+      migField = FieldTree.ofPoints(migCharges, params.migQ, params.migPower, params);
+      tarField = FieldTree.ofPoints(tarCharges, params.tarQ, params.tarPower, params);
+    }
   }
 
   public void setStarts(Vert a, Vert b) {
@@ -271,7 +307,7 @@ class Sector {
     newVert.setX(tv.getX());
     newVert.setY(tv.getY());
     ExtendedVector2d normal = new ExtendedVector2d(tv.getNormal().getX(), tv.getNormal().getY());
-    normal.multiply(outerNormal * ECMp.w);
+    normal.multiply(outerNormal * params.w);
     newVert.getPoint().addVec(normal);
     newVert.updateNormale(true);
     return newVert;
@@ -337,7 +373,7 @@ class Sector {
   }
 
   public boolean insideCharges(ExtendedVector2d p) {
-    if (ECMp.numINTS > 1) {
+    if (chargesPoly != null) { // built by construct() if there are intersections
       return chargesPoly.contains((float) p.getX(), (float) p.getY());
     } else {
       if (outerPoly.contains((float) p.getX(), (float) p.getY())) {
@@ -1,5 +1,7 @@
 package com.github.celldynamics.quimp.plugin.randomwalk;
 
+import java.util.stream.IntStream;
+
 import ij.IJ;
 import ij.ImagePlus;
 import ij.process.BinaryProcessor;
@@ -203,4 +205,95 @@ public abstract class BinaryFilters {
     return result;
   }
 
+
+  /**
+   * Value of squared distance for pixels that have no source pixel in line.
+   */
+  private static final double EDT_INF = 1e20;
+
+  /**
+   * Exact squared Euclidean distance transform.
+   * 
+   * <p>For each pixel find squared distance to the nearest source pixel. Separable algorithm of
+   * Felzenszwalb and Huttenlocher is used, first on columns and then on rows of the image, both
+   * passes are run in parallel. Image border is not treated as source.
+   * 
+   * @param source <tt>true</tt> for source pixels, row-major image of size <tt>rows*cols</tt>
+   * @param rows number of rows
+   * @param cols number of columns
+   * @return squared distance to the nearest source pixel for each pixel, row-major. If there is no
+   *         source pixel in image the returned values are larger than squared size of image
+   */
+  public static double[] squaredDistanceTransform(boolean[] source, int rows, int cols) {
+    double[] ret = new double[rows * cols];
+    IntStream.range(0, cols).parallel().forEach(c -> {
+      double[] f = new double[rows];
+      for (int r = 0; r < rows; r++) {
+        f[r] = source[r * cols + c] ? 0 : EDT_INF;
+      }
+      double[] d = distanceTransform1d(f);
+      for (int r = 0; r < rows; r++) {
+        ret[r * cols + c] = d[r];
+      }
+    });
+    IntStream.range(0, rows).parallel().forEach(r -> {
+      double[] f = new double[cols];
+      System.arraycopy(ret, r * cols, f, 0, cols);
+      double[] d = distanceTransform1d(f);
+      System.arraycopy(d, 0, ret, r * cols, cols);
+    });
+    return ret;
+  }
+
+  /**
+   * One dimensional squared distance transform of sampled function.
+   * 
+   * <p>Compute <tt>d(q) = min_p((q-p)^2 + f(p))</tt> using lower envelope of parabolas.
+   * 
+   * @param f sampled function
+   * @return transformed function
+   */
+  private static double[] distanceTransform1d(double[] f) {
+    final int n = f.length;
+    double[] d = new double[n];
+    int[] v = new int[n]; // locations of parabolas in lower envelope
+    double[] z = new double[n + 1]; // boundaries between parabolas
+    int k = 0;
+    v[0] = 0;
+    z[0] = Double.NEGATIVE_INFINITY;
+    z[1] = Double.POSITIVE_INFINITY;
+    for (int q = 1; q < n; q++) {
+      double s = intersection(f, q, v[k]);
+      while (s <= z[k]) { // z[0] is -inf so k never drops below 0
+        k--;
+        s = intersection(f, q, v[k]);
+      }
+      k++;
+      v[k] = q;
+      z[k] = s;
+      z[k + 1] = Double.POSITIVE_INFINITY;
+    }
+    k = 0;
+    for (int q = 0; q < n; q++) {
+      while (z[k + 1] < q) {
+        k++;
+      }
+      double dq = q - v[k];
+      d[q] = dq * dq + f[v[k]];
+    }
+    return d;
+  }
+
+  /**
+   * Intersection of parabolas rooted at <tt>(q,f(q))</tt> and <tt>(p,f(p))</tt>.
+   * 
+   * @param f sampled function
+   * @param q location of first parabola
+   * @param p location of second parabola
+   * @return coordinate of intersection
+   */
+  private static double intersection(double[] f, int q, int p) {
+    return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+  }
+
 }
@@ -0,0 +1,655 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.StoppedBy;
+
+/**
+ * Allocation-free diffusion kernel used by {@link RandomWalkSegmentation} for
+ * {@link SolverEngine#FLAT}.
+ *
+ * <p>All maps are stored as flat row-major arrays. Neighbours of pixels are addressed by index
+ * arithmetic with circular boundary conditions, the same as produced by
+ * {@link RandomWalkSegmentation#circshift(RealMatrix, int)}. Two buffers are swapped between
+ * iterations instead of creating shifted copies of probability map. Order of floating point
+ * operations follows {@link SolverEngine#MATRIX} thus both engines return the same results.
+ *
+ * <p>Diffusion can be initialised from coarser grids, see {@link #solve(int, int, int, double)}.
+ * Weights and seeds are downsampled by factor of 2 for each level, diffusion is solved on the
+ * coarsest grid first and its result upsampled to the next level as starting state.
+ *
+ * <p>Updates can be limited to regions that have not converged yet, see
+ * {@link #setActivityThreshold(double)}. Map is then divided into square tiles of size
+ * {@link #TILE} and only active tiles are updated and used for computing relative error. Tile
+ * stays active if mean relative change of its pixels in last iteration exceeded threshold or if
+ * any of its neighbours did. Before stopping by {@link StoppedBy#RELERR} all tiles are updated in
+ * one iteration and relative error of whole map is verified.
+ *
+ * <p>Note that stack of probability maps over iterations is not saved in
+ * {@link com.github.celldynamics.quimp.QuimP#SUPER_DEBUG} mode.
+ *
+ * @author p.baniukiewicz
+ * @see RandomWalkSegmentation#solver(Seeds, RealMatrix[])
+ */
+class FlatDiffusionSolver {
+
+  /**
+   * Minimal size of coarse grid in any direction.
+   */
+  static final int MIN_COARSE_SIZE = 8;
+  /**
+   * Size of square tiles used for tracking active regions.
+   */
+  static final int TILE = 32;
+
+  /**
+   * Number of rows of processed image.
+   */
+  final int rows;
+  /**
+   * Number of columns of processed image.
+   */
+  final int cols;
+  /**
+   * Weights for diffusion in four directions (flat).
+   */
+  private final double[] wr;
+  private final double[] wl;
+  private final double[] wt;
+  private final double[] wb;
+  /**
+   * Diffusion constant.
+   */
+  private final double diffusion;
+  /**
+   * Time step.
+   */
+  private final double dt;
+  /**
+   * Current solution.
+   */
+  private double[] cur;
+  /**
+   * Buffer for next solution, swapped with {@link #cur} after each iteration.
+   */
+  private double[] next;
+  /**
+   * Solution from previous iteration, filled only when relative error is evaluated.
+   */
+  private double[] last;
+  /**
+   * Indexes of pixels set to 1 in each iteration.
+   */
+  private int[] fgSeeds = new int[0];
+  /**
+   * Indexes of pixels set to 0 in each iteration.
+   */
+  private int[] bgSeeds = new int[0];
+  /**
+   * Number of iterations performed by last {@link #solve(int, int, double)}.
+   */
+  private int iterations = 0;
+  /**
+   * Number of iterations on each level, index 0 is full resolution.
+   */
+  private int[] levelIterations = new int[0];
+  /**
+   * Reason of stopping on each level, index 0 is full resolution.
+   */
+  private StoppedBy[] levelStoppedBy = new StoppedBy[0];
+  /**
+   * Threshold of mean relative change of tile, 0 if all pixels are updated.
+   */
+  private double activityThreshold = 0;
+  /**
+   * Mean fraction of tiles updated in one iteration by last {@link #solve(int, int, double)}.
+   */
+  private double activeFraction = 1;
+  /**
+   * Flag set by parallel update if NaN or Inf is found in solution.
+   */
+  private final AtomicInteger numericStatus = new AtomicInteger();
+
+  /**
+   * Create kernel for given weights.
+   *
+   * <p>Weights are copied.
+   *
+   * @param wr weights for diffusion in right direction
+   * @param wl weights for diffusion in left direction
+   * @param wt weights for diffusion in top direction
+   * @param wb weights for diffusion in bottom direction
+   * @param diffusion diffusion constant
+   * @param dt time step
+   */
+  FlatDiffusionSolver(double[][] wr, double[][] wl, double[][] wt, double[][] wb,
+          double diffusion, double dt) {
+    this(wr.length, wr[0].length, flatten(wr), flatten(wl), flatten(wt), flatten(wb), diffusion,
+            dt);
+  }
+
+  /**
+   * Create kernel for given flat weights. Weights are not copied.
+   *
+   * @param rows number of rows
+   * @param cols number of columns
+   * @param wr weights for diffusion in right direction
+   * @param wl weights for diffusion in left direction
+   * @param wt weights for diffusion in top direction
+   * @param wb weights for diffusion in bottom direction
+   * @param diffusion diffusion constant
+   * @param dt time step
+   */
+  private FlatDiffusionSolver(int rows, int cols, double[] wr, double[] wl, double[] wt,
+          double[] wb, double diffusion, double dt) {
+    this.rows = rows;
+    this.cols = cols;
+    this.wr = wr;
+    this.wl = wl;
+    this.wt = wt;
+    this.wb = wb;
+    this.diffusion = diffusion;
+    this.dt = dt;
+    cur = new double[rows * cols];
+    next = new double[rows * cols];
+    last = new double[rows * cols];
+  }
+
+  /**
+   * Set seeds for diffusion.
+   *
+   * <p>Background seeds are set first, therefore foreground wins if they overlap.
+   *
+   * @param fgSeeds linear indexes of pixels with probability 1
+   * @param bgSeeds linear indexes of pixels with probability 0
+   * @see Seeds#convertToIndexes(RandomWalkSegmentation.SeedTypes)
+   */
+  void setSeeds(int[] fgSeeds, int[] bgSeeds) {
+    this.fgSeeds = fgSeeds;
+    this.bgSeeds = bgSeeds;
+  }
+
+  /**
+   * Limit updates to tiles that have not converged.
+   *
+   * <p>Applies to all levels of {@link #solve(int, int, int, double)}.
+   *
+   * @param activityThreshold threshold of mean relative change of tile in one iteration, 0 for
+   *        updating whole map in each iteration
+   * @see RandomWalkOptions#activityThreshold
+   */
+  void setActivityThreshold(double activityThreshold) {
+    this.activityThreshold = activityThreshold;
+  }
+
+  /**
+   * Run diffusion initialised from coarser grids.
+   *
+   * <p>Each level has half resolution of previous one. Levels are created until
+   * {@link #MIN_COARSE_SIZE} is reached, thus fewer levels than requested can be solved. Every
+   * level uses the same stop criteria. Solution of level that stopped by {@link StoppedBy#NANS} or
+   * {@link StoppedBy#INFS} is not used for initialisation.
+   *
+   * @param levels number of coarse levels, 0 for solving only at full resolution
+   * @param iter maximal number of iterations on each level
+   * @param relErrStep how often relative error is computed
+   * @param relim relative error limit
+   * @return reason of stopping at full resolution
+   * @see #getLevelIterations()
+   * @see #getLevelStoppedBy()
+   */
+  StoppedBy solve(int levels, int iter, int relErrStep, double relim) {
+    int[] coarseIterations = new int[0];
+    StoppedBy[] coarseStoppedBy = new StoppedBy[0];
+    if (levels > 0 && rows >= 2 * MIN_COARSE_SIZE && cols >= 2 * MIN_COARSE_SIZE) {
+      FlatDiffusionSolver coarse = coarsen();
+      coarse.setSeeds(coarsen(fgSeeds), coarsen(bgSeeds));
+      coarse.setActivityThreshold(activityThreshold);
+      StoppedBy coarseStopped = coarse.solve(levels - 1, iter, relErrStep, relim);
+      if (coarseStopped != StoppedBy.NANS && coarseStopped != StoppedBy.INFS) {
+        setInitial(coarse);
+      }
+      coarseIterations = coarse.levelIterations;
+      coarseStoppedBy = coarse.levelStoppedBy;
+    }
+    StoppedBy stoppedReason = solve(iter, relErrStep, relim);
+    levelIterations = new int[coarseIterations.length + 1];
+    levelStoppedBy = new StoppedBy[coarseStoppedBy.length + 1];
+    levelIterations[0] = iterations;
+    levelStoppedBy[0] = stoppedReason;
+    System.arraycopy(coarseIterations, 0, levelIterations, 1, coarseIterations.length);
+    System.arraycopy(coarseStoppedBy, 0, levelStoppedBy, 1, coarseStoppedBy.length);
+    return stoppedReason;
+  }
+
+  /**
+   * Run diffusion.
+   *
+   * @param iter maximal number of iterations
+   * @param relErrStep how often relative error is computed
+   * @param relim relative error limit
+   * @return reason of stopping
+   * @see #setActivityThreshold(double)
+   */
+  StoppedBy solve(int iter, int relErrStep, double relim) {
+    if (activityThreshold > 0) {
+      return solveActive(iter, relErrStep, relim);
+    }
+    activeFraction = 1;
+    StoppedBy stoppedReason = StoppedBy.ITERATIONS;
+    int i;
+    for (i = 0; i < iter; i++) {
+      boolean checkErr = (i + 1) % relErrStep == 0;
+      if (checkErr) { // remember solution from previous iteration (before seeding)
+        System.arraycopy(cur, 0, last, 0, cur.length);
+      }
+      // fill seed pixels explicitly with probability 0 for BG and 1 for FG
+      for (int s : bgSeeds) {
+        cur[s] = 0;
+      }
+      for (int s : fgSeeds) {
+        cur[s] = 1;
+      }
+      int status = step();
+      double[] tmp = cur;
+      cur = next;
+      next = tmp;
+      if (status == StoppedBy.NANS.getValue()) {
+        stoppedReason = StoppedBy.NANS;
+        break;
+      }
+      if (status == StoppedBy.INFS.getValue()) {
+        stoppedReason = StoppedBy.INFS;
+        break;
+      }
+      if (checkErr) {
+        double rele = computeRelErr(last, cur);
+        RandomWalkSegmentation.LOGGER.trace("Iter: " + i + " relative error = " + rele);
+        if (rele < relim) {
+          stoppedReason = StoppedBy.RELERR;
+          break;
+        }
+      }
+    }
+    iterations = i;
+    return stoppedReason;
+  }
+
+  /**
+   * Run diffusion updating only active tiles.
+   *
+   * @param iter maximal number of iterations
+   * @param relErrStep how often relative error is computed
+   * @param relim relative error limit
+   * @return reason of stopping
+   */
+  private StoppedBy solveActive(int iter, int relErrStep, double relim) {
+    final int trows = (rows + TILE - 1) / TILE;
+    final int tcols = (cols + TILE - 1) / TILE;
+    final int[] all = IntStream.range(0, trows * tcols).toArray();
+    boolean[] active = new boolean[all.length];
+    double[] change = new double[all.length]; // mean relative change of tile in last iteration
+    boolean[] seed = new boolean[rows * cols]; // seeds are excluded from change
+    for (int s : bgSeeds) {
+      seed[s] = true;
+    }
+    for (int s : fgSeeds) {
+      seed[s] = true;
+    }
+    int[] tiles = all;
+    boolean fullPass = false; // update whole map and verify error
+    StoppedBy stoppedReason = StoppedBy.ITERATIONS;
+    long updates = 0; // number of updated tiles
+    int i;
+    for (i = 0; i < iter; i++) {
+      if (tiles.length == 0) { // everything seems converged, verify it
+        tiles = all;
+        fullPass = true;
+      }
+      boolean checkErr = fullPass || (i + 1) % relErrStep == 0;
+      if (checkErr) { // remember solution from previous iteration (before seeding)
+        copyTiles(cur, last, tiles);
+      }
+      // fill seed pixels explicitly with probability 0 for BG and 1 for FG
+      for (int s : bgSeeds) {
+        cur[s] = 0;
+      }
+      for (int s : fgSeeds) {
+        cur[s] = 1;
+      }
+      int status = step(tiles, change, seed);
+      updates += tiles.length;
+      double[] tmp = cur;
+      cur = next;
+      next = tmp;
+      if (status == StoppedBy.NANS.getValue()) {
+        stoppedReason = StoppedBy.NANS;
+        break;
+      }
+      if (status == StoppedBy.INFS.getValue()) {
+        stoppedReason = StoppedBy.INFS;
+        break;
+      }
+      if (checkErr) {
+        // pixels out of active tiles did not change thus error is for whole map
+        double rele = computeRelErr(tiles);
+        RandomWalkSegmentation.LOGGER.trace("Iter: " + i + " relative error = " + rele
+                + " for " + tiles.length + " tiles of " + all.length);
+        if (rele < relim) {
+          if (fullPass) {
+            stoppedReason = StoppedBy.RELERR;
+            break;
+          }
+          // frozen tiles were not updated, verify error after updating them in next iteration
+          tiles = all;
+          fullPass = true;
+          continue;
+        }
+      }
+      fullPass = false;
+      // tiles that changed and their neighbours (circular) are active in next iteration
+      Arrays.fill(active, false);
+      for (int t : tiles) {
+        if (change[t] > activityThreshold) {
+          int tr = t / tcols;
+          int tc = t % tcols;
+          for (int dr = -1; dr <= 1; dr++) {
+            for (int dc = -1; dc <= 1; dc++) {
+              active[((tr + dr + trows) % trows) * tcols + (tc + dc + tcols) % tcols] = true;
+            }
+          }
+        }
+      }
+      // freeze tiles by making both buffers equal
+      int[] frozen = Arrays.stream(tiles).filter(t -> !active[t]).toArray();
+      copyTiles(cur, next, frozen);
+      tiles = Arrays.stream(all).filter(t -> active[t]).toArray();
+    }
+    iterations = i;
+    activeFraction = updates == 0 ? 1 : (double) updates / all.length / Math.min(i + 1, iter);
+    return stoppedReason;
+  }
+
+  /**
+   * Compute one Euler step from {@link #cur} to {@link #next}.
+   *
+   * @return {@link StoppedBy#ITERATIONS} value if solution is valid or {@link StoppedBy#NANS},
+   *         {@link StoppedBy#INFS} value.
+   */
+  private int step() {
+    numericStatus.set(StoppedBy.ITERATIONS.getValue());
+    IntStream.range(0, rows).parallel().forEach(r -> update(r, r + 1, 0, cols, null));
+    return numericStatus.get();
+  }
+
+  /**
+   * Compute one Euler step from {@link #cur} to {@link #next} for specified tiles.
+   *
+   * @param tiles indexes of tiles to update
+   * @param change output array, mean relative change of each updated tile
+   * @param seed mask of seed pixels excluded from change
+   * @return {@link StoppedBy#ITERATIONS} value if solution is valid or {@link StoppedBy#NANS},
+   *         {@link StoppedBy#INFS} value.
+   */
+  private int step(int[] tiles, double[] change, boolean[] seed) {
+    final int tcols = (cols + TILE - 1) / TILE;
+    numericStatus.set(StoppedBy.ITERATIONS.getValue());
+    IntStream.of(tiles).parallel().forEach(t -> {
+      int r0 = (t / tcols) * TILE;
+      int c0 = (t % tcols) * TILE;
+      int r1 = Math.min(r0 + TILE, rows);
+      int c1 = Math.min(c0 + TILE, cols);
+      change[t] = update(r0, r1, c0, c1, seed) / ((r1 - r0) * (c1 - c0));
+    });
+    return numericStatus.get();
+  }
+
+  /**
+   * Compute one Euler step from {@link #cur} to {@link #next} for block of pixels.
+   *
+   * <p>Sets {@link #numericStatus} if NaN or Inf is found.
+   *
+   * @param r0 first row
+   * @param r1 row after last one
+   * @param c0 first column
+   * @param c1 column after last one
+   * @param seed mask of seed pixels excluded from change, null if change is not needed
+   * @return sum of relative changes of pixels, 0 if seed is null
+   */
+  private double update(int r0, int r1, int c0, int c1, boolean[] seed) {
+    final double[] f = cur;
+    final double[] o = next;
+    double change = 0;
+    for (int r = r0; r < r1; r++) {
+      int row = r * cols;
+      int rowR = (r + 1 == rows ? 0 : r + 1) * cols; // circshift RIGHT
+      int rowL = (r == 0 ? rows - 1 : r - 1) * cols; // circshift LEFT
+      for (int c = c0; c < c1; c++) {
+        int ii = row + c;
+        int ct = c + 1 == cols ? 0 : c + 1; // circshift TOP
+        int cb = c == 0 ? cols - 1 : c - 1; // circshift BOTTOM
+        double fc = f[ii];
+        double v = fc + dt * (diffusion * (((f[rowR + c] - fc) / wr[ii]
+                - (fc - f[rowL + c]) / wl[ii])
+                + ((f[row + ct] - fc) / wt[ii] - (fc - f[row + cb]) / wb[ii])));
+        o[ii] = v;
+        if (Double.isNaN(v)) {
+          numericStatus.set(StoppedBy.NANS.getValue());
+        } else if (Double.isInfinite(v)) {
+          numericStatus.set(StoppedBy.INFS.getValue());
+        }
+        if (seed != null && !seed[ii] && v + fc != 0.0) {
+          change += 2 * Math.abs(v - fc) / (v + fc);
+        }
+      }
+    }
+    return change;
+  }
+
+  /**
+   * Copy tiles between maps.
+   *
+   * @param src source map
+   * @param dst destination map
+   * @param tiles indexes of tiles to copy
+   */
+  private void copyTiles(double[] src, double[] dst, int[] tiles) {
+    final int tcols = (cols + TILE - 1) / TILE;
+    for (int t : tiles) {
+      int r0 = (t / tcols) * TILE;
+      int c0 = (t % tcols) * TILE;
+      int len = Math.min(c0 + TILE, cols) - c0;
+      for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+        System.arraycopy(src, r * cols + c0, dst, r * cols + c0, len);
+      }
+    }
+  }
+
+  /**
+   * Compute relative error between {@link #last} and {@link #cur} within tiles.
+   *
+   * @param tiles indexes of tiles
+   * @return sum of relative errors of pixels in tiles divided by number of pixels in whole map
+   * @see #computeRelErr(double[], double[])
+   */
+  private double computeRelErr(int[] tiles) {
+    final int tcols = (cols + TILE - 1) / TILE;
+    double rel = 0;
+    for (int t : tiles) {
+      int r0 = (t / tcols) * TILE;
+      int c0 = (t % tcols) * TILE;
+      for (int r = r0; r < Math.min(r0 + TILE, rows); r++) {
+        for (int ii = r * cols + c0; ii < r * cols + Math.min(c0 + TILE, cols); ii++) {
+          double denominator = cur[ii] + last[ii];
+          if (denominator != 0.0) {
+            rel += 2 * Math.abs(cur[ii] - last[ii]) / denominator;
+          }
+        }
+      }
+    }
+    return rel / cur.length;
+  }
+
+  /**
+   * Compute relative error between two flat maps.
+   *
+   * @param fglast map from previous iteration
+   * @param fg current map
+   * @return relative mean error sum[2* |fg - fglast|/(fg + fglast)]/numofel
+   * @see RandomWalkSegmentation#computeRelErr(double[][], double[][])
+   */
+  static double computeRelErr(double[] fglast, double[] fg) {
+    double rel = 0;
+    double tmp;
+    for (int i = 0; i < fg.length; i++) {
+      double denominator = fg[i] + fglast[i];
+      if (denominator == 0.0) {
+        tmp = 0.0;
+      } else {
+        tmp = 2 * Math.abs(fg[i] - fglast[i]) / denominator;
+      }
+      rel += tmp;
+    }
+    return rel / fg.length;
+  }
+
+  /**
+   * Create kernel for grid of half resolution.
+   *
+   * <p>Weights are averaged over 2x2 blocks. Seeds are not set.
+   *
+   * @return kernel with the same diffusion constant and time step
+   */
+  FlatDiffusionSolver coarsen() {
+    int crows = (rows + 1) / 2;
+    int ccols = (cols + 1) / 2;
+    return new FlatDiffusionSolver(crows, ccols, coarsen(wr, crows, ccols),
+            coarsen(wl, crows, ccols), coarsen(wt, crows, ccols), coarsen(wb, crows, ccols),
+            diffusion, dt);
+  }
+
+  /**
+   * Average flat map over 2x2 blocks.
+   *
+   * @param in map of size {@link #rows}x{@link #cols}
+   * @param crows number of rows of output
+   * @param ccols number of columns of output
+   * @return averaged map
+   */
+  private double[] coarsen(double[] in, int crows, int ccols) {
+    double[] out = new double[crows * ccols];
+    for (int r = 0; r < crows; r++) {
+      for (int c = 0; c < ccols; c++) {
+        double sum = 0;
+        int n = 0;
+        for (int fr = 2 * r; fr < Math.min(2 * r + 2, rows); fr++) {
+          for (int fc = 2 * c; fc < Math.min(2 * c + 2, cols); fc++) {
+            sum += in[fr * cols + fc];
+            n++;
+          }
+        }
+        out[r * ccols + c] = sum / n;
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Map linear indexes of seeds to grid of half resolution.
+   *
+   * @param seeds linear indexes in this grid
+   * @return unique linear indexes in grid returned by {@link #coarsen()}
+   */
+  int[] coarsen(int[] seeds) {
+    int ccols = (cols + 1) / 2;
+    return Arrays.stream(seeds).map(i -> (i / cols / 2) * ccols + (i % cols) / 2).distinct()
+            .toArray();
+  }
+
+  /**
+   * Initialise solution by nearest neighbour upsampling of coarser solution.
+   *
+   * @param coarse kernel returned by {@link #coarsen()} after solving
+   */
+  void setInitial(FlatDiffusionSolver coarse) {
+    for (int r = 0; r < rows; r++) {
+      int crow = (r / 2) * coarse.cols;
+      for (int c = 0; c < cols; c++) {
+        cur[r * cols + c] = coarse.cur[crow + c / 2];
+      }
+    }
+  }
+
+  /**
+   * Get number of iterations performed on each level by last call of
+   * {@link #solve(int, int, int, double)}.
+   *
+   * @return number of iterations, index 0 is full resolution, then coarser levels
+   */
+  int[] getLevelIterations() {
+    return levelIterations;
+  }
+
+  /**
+   * Get reasons of stopping on each level by last call of {@link #solve(int, int, int, double)}.
+   *
+   * @return reasons of stopping, index 0 is full resolution, then coarser levels
+   */
+  StoppedBy[] getLevelStoppedBy() {
+    return levelStoppedBy;
+  }
+
+  /**
+   * Get mean fraction of tiles updated in one iteration by last call of
+   * {@link #solve(int, int, double)}.
+   *
+   * @return fraction of updated tiles, 1 if activity is not tracked
+   * @see #setActivityThreshold(double)
+   */
+  double getActiveFraction() {
+    return activeFraction;
+  }
+
+  /**
+   * Get number of iterations performed by last call of {@link #solve(int, int, double)}.
+   *
+   * @return number of iterations
+   */
+  int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Return copy of current solution.
+   *
+   * @return probability map
+   */
+  Array2DRowRealMatrix getSolution() {
+    double[][] out = new double[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      System.arraycopy(cur, r * cols, out[r], 0, cols);
+    }
+    return new Array2DRowRealMatrix(out, false);
+  }
+
+  /**
+   * Convert 2D array to flat row-major array.
+   *
+   * @param in array to convert
+   * @return flat copy of array
+   */
+  static double[] flatten(double[][] in) {
+    int cols = in[0].length;
+    double[] out = new double[in.length * cols];
+    for (int r = 0; r < in.length; r++) {
+      System.arraycopy(in[r], 0, out, r * cols, cols);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,289 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.util.List;
+
+import org.apache.commons.math3.linear.AbstractRealMatrix;
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.MatrixUtils;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+
+/**
+ * Stack of probability maps of the same size stored as float planes in one contiguous buffer.
+ *
+ * <p>Element (r,c) of plane z is stored at index <tt>z*rows*cols + r*cols + c</tt>, so linear
+ * indexes of pixels are the same as those returned by {@link Seeds#convertToIndexes(SeedTypes)}.
+ * Single precision halves memory used by maps in comparison to <tt>double[][]</tt> and is enough
+ * for comparing probabilities.
+ *
+ * @author p.baniukiewicz
+ * @see ProbabilityMaps#put(SeedTypes, FloatPlanes)
+ * @see ProbabilityMaps#getPlanes(Object)
+ */
+public class FloatPlanes {
+
+  /**
+   * Number of rows of each plane.
+   */
+  private final int rows;
+  /**
+   * Number of columns of each plane.
+   */
+  private final int cols;
+  /**
+   * Number of planes.
+   */
+  private final int depth;
+  /**
+   * All planes, one after another.
+   */
+  private final float[] data;
+
+  /**
+   * Create stack of planes filled with 0.
+   *
+   * @param depth number of planes
+   * @param rows number of rows of each plane
+   * @param cols number of columns of each plane
+   */
+  public FloatPlanes(int depth, int rows, int cols) {
+    this.depth = depth;
+    this.rows = rows;
+    this.cols = cols;
+    data = new float[depth * rows * cols];
+  }
+
+  /**
+   * Copy list of matrices of the same size to planes.
+   *
+   * @param maps matrices to copy, can not be empty
+   * @return planes in order of maps
+   * @throws IllegalArgumentException if size of maps is not equal
+   */
+  public static FloatPlanes of(List<RealMatrix> maps) {
+    int rows = maps.get(0).getRowDimension();
+    int cols = maps.get(0).getColumnDimension();
+    FloatPlanes ret = new FloatPlanes(maps.size(), rows, cols);
+    for (int z = 0; z < maps.size(); z++) {
+      RealMatrix m = maps.get(z);
+      if (m.getRowDimension() != rows || m.getColumnDimension() != cols) {
+        throw new IllegalArgumentException("All maps must have the same resoultion");
+      }
+      int off = z * rows * cols;
+      for (int r = 0; r < rows; r++) {
+        for (int c = 0; c < cols; c++) {
+          ret.data[off++] = (float) m.getEntry(r, c);
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Get number of rows of each plane.
+   *
+   * @return number of rows
+   */
+  public int getRows() {
+    return rows;
+  }
+
+  /**
+   * Get number of columns of each plane.
+   *
+   * @return number of columns
+   */
+  public int getCols() {
+    return cols;
+  }
+
+  /**
+   * Get number of planes.
+   *
+   * @return number of planes
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Get reference to underlying buffer.
+   *
+   * @return all planes, one after another
+   */
+  public float[] getDataRef() {
+    return data;
+  }
+
+  /**
+   * Get element of plane.
+   *
+   * @param plane index of plane
+   * @param row row
+   * @param col column
+   * @return value of element
+   */
+  public float get(int plane, int row, int col) {
+    return data[(plane * rows + row) * cols + col];
+  }
+
+  /**
+   * Set element of plane.
+   *
+   * @param plane index of plane
+   * @param row row
+   * @param col column
+   * @param val value to set
+   */
+  public void set(int plane, int row, int col, float val) {
+    data[(plane * rows + row) * cols + col] = val;
+  }
+
+  /**
+   * Copy block of values to plane.
+   *
+   * <p>Different planes can be filled concurrently.
+   *
+   * @param plane index of plane
+   * @param block values to copy, rectangular array
+   * @param row row of plane where first row of block is copied
+   * @param col column of plane where first column of block is copied
+   */
+  public void setBlock(int plane, double[][] block, int row, int col) {
+    for (int r = 0; r < block.length; r++) {
+      int off = (plane * rows + row + r) * cols + col;
+      for (int c = 0; c < block[r].length; c++) {
+        data[off + c] = (float) block[r][c];
+      }
+    }
+  }
+
+  /**
+   * Compare values along planes for each pixel and return index of max value.
+   *
+   * @return linear array of indexes (0-based) of planes with maximal value for each pixel. First
+   *         plane wins if there are equal values
+   */
+  public int[] argMax() {
+    int n = rows * cols;
+    int[] ret = new int[n];
+    for (int z = 1; z < depth; z++) {
+      int off = z * n;
+      for (int i = 0; i < n; i++) {
+        if (data[off + i] > data[ret[i] * n + i]) {
+          ret[i] = z;
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Compute maximal value along planes for each pixel.
+   *
+   * @return linear array of maximal values for each pixel
+   */
+  public float[] max() {
+    int n = rows * cols;
+    float[] ret = new float[n];
+    System.arraycopy(data, 0, ret, 0, n);
+    for (int z = 1; z < depth; z++) {
+      int off = z * n;
+      for (int i = 0; i < n; i++) {
+        if (data[off + i] > ret[i]) {
+          ret[i] = data[off + i];
+        }
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Get plane as matrix.
+   *
+   * @param plane index of plane
+   * @return view of plane, changes are reflected in this object
+   */
+  public RealMatrix getPlane(int plane) {
+    return new PlaneMatrix(plane);
+  }
+
+  /**
+   * Matrix backed by one plane of {@link FloatPlanes}.
+   *
+   * @author p.baniukiewicz
+   */
+  class PlaneMatrix extends AbstractRealMatrix {
+    /**
+     * Index of first element of plane in buffer.
+     */
+    private final int offset;
+    /**
+     * Index of plane.
+     */
+    final int plane;
+
+    /**
+     * Create view of plane.
+     *
+     * @param plane index of plane
+     */
+    PlaneMatrix(int plane) {
+      this.plane = plane;
+      offset = plane * rows * cols;
+    }
+
+    /**
+     * Get planes this matrix is view of.
+     *
+     * @return planes
+     */
+    FloatPlanes getPlanes() {
+      return FloatPlanes.this;
+    }
+
+    @Override
+    public int getRowDimension() {
+      return rows;
+    }
+
+    @Override
+    public int getColumnDimension() {
+      return cols;
+    }
+
+    @Override
+    public RealMatrix createMatrix(int rowDimension, int columnDimension) {
+      return new Array2DRowRealMatrix(rowDimension, columnDimension);
+    }
+
+    @Override
+    public RealMatrix copy() {
+      return new Array2DRowRealMatrix(getData(), false);
+    }
+
+    @Override
+    public double getEntry(int row, int column) {
+      checkIndex(row, column);
+      return data[offset + row * cols + column];
+    }
+
+    @Override
+    public void setEntry(int row, int column, double value) {
+      checkIndex(row, column);
+      data[offset + row * cols + column] = (float) value;
+    }
+
+    /**
+     * Verify indexes.
+     *
+     * @param row row
+     * @param column column
+     * @throws org.apache.commons.math3.exception.OutOfRangeException if indexes are out of plane
+     */
+    private void checkIndex(int row, int column) {
+      MatrixUtils.checkMatrixIndex(this, row, column);
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package com.github.celldynamics.quimp.plugin.randomwalk;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -17,6 +18,9 @@ import ij.process.ImageProcessor;
  * <p>Allow to keep many maps for FG and BG, e.g. when there are more than one object that should be
  * handled separately. For given {@link SeedTypes} key maps are stored in ArrayList.
  * 
+ * <p>Maps produced by {@link RandomWalkSegmentation} are stored in {@link FloatPlanes} and list
+ * contains views of its planes, see {@link #put(SeedTypes, FloatPlanes)}.
+ * 
  * @author p.baniukiewicz
  * @see Seeds
  */
@@ -30,6 +34,58 @@ public class ProbabilityMaps extends ListMap<RealMatrix> {
     super();
   }
 
+  /**
+   * Store all planes under specified key.
+   * 
+   * <p>Maps are added to list as views of planes, see {@link FloatPlanes#getPlane(int)}.
+   * 
+   * @param key key to store maps under, will be created if necessary
+   * @param planes maps to store
+   * @return List of maps where planes have been stored
+   */
+  public List<RealMatrix> put(SeedTypes key, FloatPlanes planes) {
+    List<RealMatrix> loc = get(key);
+    if (loc == null) {
+      put(key, new ArrayList<>(planes.getDepth()));
+      loc = get(key);
+    }
+    for (int z = 0; z < planes.getDepth(); z++) {
+      loc.add(planes.getPlane(z));
+    }
+    return loc;
+  }
+
+  /**
+   * Get maps under specified key as float planes.
+   * 
+   * <p>If maps were stored by {@link #put(SeedTypes, FloatPlanes)} (and nothing else was stored
+   * under this key) the original planes are returned without copying.
+   * 
+   * @param key which map to convert
+   * @return planes or null if there is no maps under specified key
+   * @throws IllegalArgumentException if size of maps is not equal
+   */
+  public FloatPlanes getPlanes(Object key) {
+    List<RealMatrix> maps = get(key);
+    // Can be null if points not found
+    if (maps == null || maps.isEmpty()) {
+      return null;
+    }
+    if (maps.get(0) instanceof FloatPlanes.PlaneMatrix) {
+      FloatPlanes planes = ((FloatPlanes.PlaneMatrix) maps.get(0)).getPlanes();
+      boolean views = planes.getDepth() == maps.size();
+      for (int z = 0; z < maps.size() && views; z++) {
+        views = maps.get(z) instanceof FloatPlanes.PlaneMatrix
+                && ((FloatPlanes.PlaneMatrix) maps.get(z)).getPlanes() == planes
+                && ((FloatPlanes.PlaneMatrix) maps.get(z)).plane == z;
+      }
+      if (views) {
+        return planes;
+      }
+    }
+    return FloatPlanes.of(maps);
+  }
+
   /**
    * Convert list of maps under specified key to 3d array of doubles.
    * 
@@ -1,13 +1,16 @@
 package com.github.celldynamics.quimp.plugin.randomwalk;
 
 import java.awt.Color;
+import java.io.Closeable;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.stream.IntStream;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.slf4j.Logger;
@@ -34,13 +37,14 @@ import ij.process.ImageProcessor;
 /**
  * Generate new seeds for n+1 frame in stack using previous results of segmentation.
  * 
- * <p>This class supports two methods:
+ * <p>This class supports three methods:
  * <ol>
  * <li>Based on morphological operations
  * <li>Based on contour shrinking (part of QuimP Outline framework)
+ * <li>Based on Euclidean distance transform
  * </ol>
  * 
- * <p>In both cases the aim is to shrink the object (which is white) to prevent overlapping
+ * <p>In all cases the aim is to shrink the object (which is white) to prevent overlapping
  * foreground
  * and background in next frame (assuming that objects are moving). The same is for background.
  * Finally, the new seed should have set foreground pixels to area inside the object and background
@@ -48,7 +52,7 @@ import ij.process.ImageProcessor;
  * 
  * @author p.baniukiewicz
  */
-public abstract class PropagateSeeds {
+public abstract class PropagateSeeds implements Closeable {
 
   /** The Constant LOGGER. */
   static final Logger LOGGER = LoggerFactory.getLogger(PropagateSeeds.class.getName());
@@ -75,7 +79,13 @@ public abstract class PropagateSeeds {
      * 
      * @see Morphological
      */
-    MORPHOLOGICAL
+    MORPHOLOGICAL,
+    /**
+     * Use Euclidean distance transform.
+     * 
+     * @see Distance
+     */
+    DISTANCE
 
   }
 
@@ -108,7 +118,7 @@ public abstract class PropagateSeeds {
   public PropagateSeeds(boolean storeSeeds, AutoThresholder.Method trueBackground) {
     this.storeSeeds = storeSeeds;
     if (storeSeeds) {
-      this.seeds = new ArrayList<>();
+      this.seeds = new SeedHistory();
     }
     thresholdMethod = trueBackground;
   }
@@ -126,13 +136,12 @@ public abstract class PropagateSeeds {
   /**
    * Container for FG and BG seeds pixels used for seed visualisation.
    * 
-   * <p>Every imageProcessor in pair contains important bits set to WHITE. For example BG pixels are
-   * white here as well as FG pixels.
+   * <p>Only last {@link SeedHistory#DEFAULT_IN_MEMORY} frames are kept on heap.
    * 
    * @see #getCompositeSeed(ImagePlus, int)
    * @see PropagateSeeds#storeSeeds
    */
-  protected List<Seeds> seeds;
+  protected SeedHistory seeds;
   /**
    * Scale color values in composite preview.
    * 
@@ -160,6 +169,8 @@ public abstract class PropagateSeeds {
         return new PropagateSeeds.Contour(storeseeds, trueBackground);
       case MORPHOLOGICAL:
         return new PropagateSeeds.Morphological(storeseeds, trueBackground);
+      case DISTANCE:
+        return new PropagateSeeds.Distance(storeseeds, trueBackground);
       default:
         throw new IllegalArgumentException("Unknown propagator");
     }
@@ -228,6 +239,16 @@ public abstract class PropagateSeeds {
       return binary.getCompositeSeed(org, offset);
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.github.celldynamics.quimp.plugin.randomwalk.PropagateSeeds#close()
+     */
+    @Override
+    public void close() throws IOException {
+      binary.close();
+    }
+
   }
 
   /**
@@ -651,9 +672,7 @@ public abstract class PropagateSeeds {
       big.invert();
       // store seeds if option ticked
       ret.put(SeedTypes.BACKGROUND, getTrueBackground(big, org));
-      if (storeSeeds) {
-        seeds.add(ret);
-      }
+      addToHistory(ret);
 
       return ret;
 
@@ -787,9 +806,7 @@ public abstract class PropagateSeeds {
 
         big.invert(); // invert to have BG pixels white in seed. (required by convertToList)
         ret.put(SeedTypes.BACKGROUND, getTrueBackground(big, org));
-        if (storeSeeds) {
-          seeds.add(ret);
-        }
+        addToHistory(ret);
       } catch (RandomWalkException e) { // from decodeseeds - no FG seeds
         // this is handled to console only as return is still valid (no FG seeds in output)
         LOGGER.debug("Empty seeds. " + e.getMessage());
@@ -799,6 +816,145 @@ public abstract class PropagateSeeds {
 
   }
 
+  /**
+   * Contain methods for propagating seeds to next frame using Euclidean distance transform.
+   * 
+   * <p>Shrunk objects and expanded background are thresholded distances to object borders, which
+   * are computed once for all objects by
+   * {@link BinaryFilters#squaredDistanceTransform(boolean[], int, int)}. Result is similar to
+   * {@link Morphological} but with isotropic structuring element of radius <tt>shrinkPower</tt>
+   * and <tt>expandPower</tt> and cost does not depend on these parameters nor on number of objects.
+   * 
+   * @author p.baniukiewicz
+   *
+   */
+  public static class Distance extends PropagateSeeds {
+
+    /**
+     * Default constructor without storing seed history.
+     */
+    public Distance() {
+      this(false, null);
+    }
+
+    /**
+     * Allow to store seed history that can be later presented in form of composite image.
+     * 
+     * @param storeSeeds <tt>true</tt> to store seeds.
+     * @param trueBackground if not null, selected method will be used for estimating true
+     *        background - excluding bright objects from it
+     * @see #getCompositeSeed(ImagePlus, int)
+     */
+    public Distance(boolean storeSeeds, AutoThresholder.Method trueBackground) {
+      super(storeSeeds, trueBackground);
+    }
+
+    /**
+     * Generate new seeds using segmented image.
+     * 
+     * <p>Pixel of object stays in its foreground seed if its distance to background or to other
+     * object is larger than <tt>shrinkPower</tt>. Pixels on border between touching objects are
+     * always removed from seeds. Background seed contains pixels that are further than
+     * <tt>expandPower</tt> from any object. Setting <tt>shrinkPower</tt> or <tt>expandPower</tt>
+     * to zero prevents modifications.
+     * 
+     * <p>Each grayscale level of <tt>previous</tt> produces one {@link SeedTypes#FOREGROUNDS} map,
+     * in ascending order of levels, like
+     * {@link SeedProcessor#decodeSeedsfromGrayscaleImage(ImageProcessor)}.
+     * 
+     * @param previous segmented image, background on zero
+     * @param org original image that new seeds are computed for. Usually it is current image
+     * @param shrinkPower distance in pixels objects are shrunk by
+     * @param expandPower distance in pixels objects are expanded by before computing background
+     * @return Map containing list of coordinates that belong to foreground and background. Map is
+     *         addressed by two enums: <tt>FOREGROUND</tt> and <tt>BACKGROUND</tt>
+     * @see #getTrueBackground(ImageProcessor, ImageProcessor)
+     * @see #setTrueBackgroundProcessing(ij.process.AutoThresholder.Method)
+     */
+    @Override
+    public Seeds propagateSeed(ImageProcessor previous, ImageProcessor org, double shrinkPower,
+            double expandPower) {
+      final int rows = previous.getHeight();
+      final int cols = previous.getWidth();
+      Seeds ret = new Seeds(2);
+      int[] labels = new int[rows * cols];
+      int max = 0;
+      for (int i = 0; i < labels.length; i++) {
+        labels[i] = (int) previous.getf(i);
+        max = Math.max(max, labels[i]);
+      }
+      // index of foreground map for each grayscale level, maps are not created for gaps
+      int[] map = new int[max + 1];
+      Arrays.fill(map, -1);
+      for (int l : labels) {
+        if (l > 0) {
+          map[l] = 0;
+        }
+      }
+      int numMaps = 0;
+      for (int l = 1; l <= max; l++) {
+        if (map[l] == 0) {
+          map[l] = numMaps++;
+        }
+      }
+      if (numMaps == 0) {
+        // this is handled to console only as return is still valid (no FG seeds in output)
+        LOGGER.debug("Empty seeds. no FG maps");
+        return ret;
+      }
+      // sources of distance for shrinking - background and borders between different objects,
+      // sources for expanding - all objects
+      boolean[] inner = new boolean[labels.length];
+      boolean[] outer = new boolean[labels.length];
+      IntStream.range(0, rows).parallel().forEach(r -> {
+        for (int c = 0; c < cols; c++) {
+          int i = r * cols + c;
+          int l = labels[i];
+          outer[i] = l > 0;
+          inner[i] = l == 0 || (r > 0 && isOther(l, labels[i - cols]))
+                  || (r < rows - 1 && isOther(l, labels[i + cols]))
+                  || (c > 0 && isOther(l, labels[i - 1]))
+                  || (c < cols - 1 && isOther(l, labels[i + 1]));
+        }
+      });
+      double[] din = BinaryFilters.squaredDistanceTransform(inner, rows, cols);
+      double[] dout = BinaryFilters.squaredDistanceTransform(outer, rows, cols);
+      // fill all maps at once, rows are independent
+      byte[][] small = new byte[numMaps][rows * cols];
+      byte[] big = new byte[rows * cols];
+      final double shrink2 = shrinkPower * shrinkPower;
+      final double expand2 = expandPower * expandPower;
+      IntStream.range(0, rows).parallel().forEach(r -> {
+        for (int i = r * cols; i < (r + 1) * cols; i++) {
+          if (labels[i] > 0 && din[i] > shrink2) {
+            small[map[labels[i]]][i] = (byte) 255;
+          }
+          if (dout[i] > expand2) {
+            big[i] = (byte) 255; // BG pixels white in seed
+          }
+        }
+      });
+      for (byte[] s : small) {
+        ret.put(SeedTypes.FOREGROUNDS, new ByteProcessor(cols, rows, s));
+      }
+      ret.put(SeedTypes.BACKGROUND, getTrueBackground(new ByteProcessor(cols, rows, big), org));
+      addToHistory(ret);
+      return ret;
+    }
+
+    /**
+     * Check if neighbour pixel belongs to other object.
+     * 
+     * @param label label of pixel
+     * @param neighbour label of its neighbour
+     * @return true if neighbour is object with different label
+     */
+    private static boolean isOther(int label, int neighbour) {
+      return neighbour != 0 && neighbour != label;
+    }
+
+  }
+
   /**
    * Produce composite image containing seeds generated during segmentation of particular frames.
    * 
@@ -811,33 +967,17 @@ public abstract class PropagateSeeds {
    * @throws RandomWalkException When seeds were not collected.
    */
   public ImagePlus getCompositeSeed(ImagePlus org, int offset) throws RandomWalkException {
+    final String msg = "Problem with showing seeds. Seeds were not stored. "
+            + "You need at least two time frames to collect one seed or "
+            + "segmentation returned empty image.";
+    if (seeds == null || seeds.size() == 0 || !seeds.isComplete()) {
+      throw new RandomWalkException(msg);
+    }
     ImagePlus ret = null;
     try {
-      ImageStack smallstack =
-              new ImageStack(seeds.get(0).get(SeedTypes.FOREGROUNDS).get(0).getWidth(),
-                      seeds.get(0).get(SeedTypes.FOREGROUNDS).get(0).getHeight());
-      ImageStack bigstack =
-              new ImageStack(seeds.get(0).get(SeedTypes.FOREGROUNDS).get(0).getWidth(),
-                      seeds.get(0).get(SeedTypes.FOREGROUNDS).get(0).getHeight());
-
-      for (Seeds p : seeds) {
-        // just in case convert to byte
-        ImageProcessor fg = SeedProcessor.flatten(p, SeedTypes.FOREGROUNDS, 1).convertToByte(true);
-        fg.threshold(0); // need 255 not real value of map
-        // why duplicate here? without returned map is at 128???????????????? Seems that
-        // converToByte returns duplicate only if input is not 8-bit
-        // (PropagateSeedsTest.testGetCompositeSeed_Morphological()
-        ImageProcessor bg = p.get(SeedTypes.BACKGROUND, 1).duplicate().convertToByte(true);
-        bg.threshold(0); // need 255 not real value of map
-        // make colors transparent
-        bg.multiply(colorScaling);
-        fg.multiply(colorScaling);
-        // set gray lut just in case
-        fg.setLut(IJTools.getGrayLut());
-        bg.setLut(IJTools.getGrayLut());
-        smallstack.addSlice((ImageProcessor) fg);
-        bigstack.addSlice((ImageProcessor) bg);
-      }
+      // slices are read from history when composite is created
+      ImageStack smallstack = seeds.getStack(SeedTypes.FOREGROUNDS, colorScaling);
+      ImageStack bigstack = seeds.getStack(SeedTypes.BACKGROUND, colorScaling);
       // check if stack or not. getComposite requires the same type
       if (org.getStack().getSize() == 1) { // single image
         ret = IJTools.getComposite(org.duplicate(), new ImagePlus("", smallstack.getProcessor(1)),
@@ -852,14 +992,47 @@ public abstract class PropagateSeeds {
                   new ImagePlus("", bigstack));
         }
       }
-    } catch (NullPointerException | IndexOutOfBoundsException e) {
-      throw new RandomWalkException("Problem with showing seeds. Seeds were not stored. "
-              + "You need at least two time frames to collect one seed or "
-              + "segmentation returned empty image.");
+    } catch (NullPointerException | IndexOutOfBoundsException | IllegalStateException e) {
+      throw new RandomWalkException(msg);
     }
     return ret;
   }
 
+  /**
+   * Release seed history and remove its temporary file.
+   * 
+   * <p>Should be called when history is not needed anymore, composite returned by
+   * {@link #getCompositeSeed(ImagePlus, int)} holds its own copy of seeds.
+   * 
+   * @see SeedHistory#close()
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public void close() throws IOException {
+    if (seeds != null) {
+      seeds.close();
+    }
+  }
+
+  /**
+   * Add seeds to history if storing seeds is enabled.
+   * 
+   * <p>Allow to collect history of seeds produced by other propagators, e.g. when frames are
+   * processed concurrently, each with its own propagator.
+   * 
+   * @param seed seeds to add
+   * @see #getCompositeSeed(ImagePlus, int)
+   */
+  public void addToHistory(Seeds seed) {
+    if (storeSeeds) {
+      try {
+        seeds.add(seed);
+      } catch (IOException e) {
+        LOGGER.warn("Seeds can not be stored: " + e.getMessage());
+      }
+    }
+  }
+
   /**
    * Propagate seed.
    * 
@@ -440,6 +440,17 @@ public class RandomWalkModel extends AbstractPluginOptions {
    * true for showing probability maps.
    */
   public boolean showProbMaps;
+  /**
+   * Number of frames processed concurrently.
+   * 
+   * <p>Values greater than 1 enable pipelined processing of stack. If seeds are given as stack
+   * ({@link SeedSource#QconfFile} or {@link SeedSource#MaskImage}) frames are segmented in
+   * parallel and assembled in order. If seeds are propagated from previous frame, gradients of
+   * frame n+1 are computed while frame n is segmented. Values 1 or less mean sequential processing.
+   * 
+   * @see RandomWalkOptions#numThreads
+   */
+  public int numFrameThreads;
 
   /**
    * Default constructor setting default parameters.
@@ -463,6 +474,7 @@ public class RandomWalkModel extends AbstractPluginOptions {
     showSeeds = false;
     showPreview = false;
     showProbMaps = false;
+    numFrameThreads = 1;
   }
 
   /*
@@ -481,6 +493,7 @@ public class RandomWalkModel extends AbstractPluginOptions {
             + ", hatFilter=" + hatFilter + ", alev=" + alev + ", num=" + num + ", window=" + window
             + ", selectedFilteringPostMethod=" + selectedFilteringPostMethod + ", showSeeds="
             + showSeeds + ", showPreview=" + showPreview + ", showPprobMaps=" + showProbMaps
+            + ", numFrameThreads=" + numFrameThreads
             + ", getShrinkMethods()=" + Arrays.toString(getShrinkMethods())
             + ", getFilteringMethods()=" + Arrays.toString(getFilteringMethods())
             + ", getselectedShrinkMethod()=" + getselectedShrinkMethod()
@@ -504,6 +517,7 @@ public class RandomWalkModel extends AbstractPluginOptions {
     result = prime * result + (int) (temp ^ (temp >>> 32));
     result = prime * result + (hatFilter ? 1231 : 1237);
     result = prime * result + num;
+    result = prime * result + numFrameThreads;
     result = prime * result + ((originalImage == null) ? 0 : originalImage.getTitle().hashCode());
     result = prime * result + ((algOptions == null) ? 0 : algOptions.hashCode());
     result = prime * result + ((qconfFile == null) ? 0 : qconfFile.hashCode());
@@ -555,6 +569,9 @@ public class RandomWalkModel extends AbstractPluginOptions {
     if (num != other.num) {
       return false;
     }
+    if (numFrameThreads != other.numFrameThreads) {
+      return false;
+    }
     if (originalImage == null) {
       if (other.originalImage != null) {
         return false;
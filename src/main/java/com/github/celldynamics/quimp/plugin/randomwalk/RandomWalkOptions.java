@@ -5,6 +5,7 @@ import java.util.Arrays;
 import org.apache.commons.lang3.ArrayUtils;
 
 import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
 
 /**
  * Hold algorithm parameters.
@@ -80,6 +81,70 @@ public class RandomWalkOptions {
    */
   public boolean maskLimit;
 
+  /**
+   * Implementation of diffusion process used by solver.
+   * 
+   * @see SolverEngine
+   */
+  public SolverEngine solverEngine;
+
+  /**
+   * Number of threads used for solving objects concurrently.
+   * 
+   * <p>Value 1 or less switches off concurrent solving, objects are processed one after another.
+   * 
+   * @see RandomWalkSegmentation#solver(Seeds, org.apache.commons.math3.linear.RealMatrix[])
+   */
+  public int numThreads;
+
+  /**
+   * Number of coarse levels used for initialising diffusion.
+   * 
+   * <p>Each level halves image resolution. Diffusion is solved on the coarsest level first and
+   * its result initialises the next finer level, up to full resolution. Value 0 switches this
+   * feature off. Used only by {@link SolverEngine#FLAT}.
+   * 
+   * @see FlatDiffusionSolver#solve(int, int, int, double)
+   */
+  public int multigridLevels;
+
+  /**
+   * Tolerance of relative residual for {@link SolverEngine#CG}.
+   * 
+   * @see SparseLaplacianSolver#solve(int, double)
+   */
+  public double cgTolerance;
+
+  /**
+   * Padding of region where foreground object is solved.
+   * 
+   * <p>If not negative, each foreground object is solved only within bounding box of its seeds and
+   * connected parts of {@link RandomWalkSegmentation.SeedTypes#ROUGHMASK}, enlarged by this number
+   * of pixels. Probability outside this region is 0. Negative value switches this feature off.
+   *
+   * <p>Result only approximates solution on whole image. Background seeds outside region are not
+   * used and diffusion wraps circularly at borders of region instead of at borders of image, so
+   * probabilities differ near borders of region, less for larger padding. Segmentation is close to
+   * uncropped one if {@link #maskLimit} is set, otherwise pixels far from rough mask can be
+   * classified differently.
+   *
+   * @see RandomWalkSegmentation#getCropBox(int[], ij.process.ImageProcessor, int)
+   */
+  public int cropPadding;
+
+  /**
+   * Relative change below which regions of probability map are considered converged.
+   * 
+   * <p>If positive, map is divided into tiles and only tiles where mean relative change of
+   * probability in last iteration exceeded this value (and their neighbours) are updated. Relative
+   * error is computed only for those tiles and it is verified on whole map before stopping. Should
+   * be lower than {@link #relim}. Value 0 switches this feature off. Used only by
+   * {@link SolverEngine#FLAT}.
+   * 
+   * @see FlatDiffusionSolver#setActivityThreshold(double)
+   */
+  public double activityThreshold;
+
   /**
    * Set default values.
    */
@@ -97,6 +162,12 @@ public class RandomWalkOptions {
     useLocalMean = false;
     localMeanMaskSize = 25;
     maskLimit = false;
+    solverEngine = SolverEngine.FLAT;
+    numThreads = 1;
+    multigridLevels = 0;
+    cgTolerance = 1e-4;
+    cropPadding = -1;
+    activityThreshold = 0;
   }
 
   /**
@@ -156,7 +227,9 @@ public class RandomWalkOptions {
             + Arrays.toString(gamma) + ", iter=" + iter + ", dt=" + dt + ", relim="
             + Arrays.toString(relim) + ", useLocalMean=" + useLocalMean + ", localMeanMaskSize="
             + localMeanMaskSize + ", intermediateFilter=" + intermediateFilter + ", finalFilter="
-            + finalFilter + "]";
+            + finalFilter + ", solverEngine=" + solverEngine + ", numThreads=" + numThreads
+            + ", multigridLevels=" + multigridLevels + ", cgTolerance=" + cgTolerance
+            + ", cropPadding=" + cropPadding + ", activityThreshold=" + activityThreshold + "]";
   }
 
   /*
@@ -185,6 +258,14 @@ public class RandomWalkOptions {
     result = prime * result + localMeanMaskSize;
     result = prime * result + Arrays.hashCode(relim);
     result = prime * result + (useLocalMean ? 1231 : 1237);
+    result = prime * result + ((solverEngine == null) ? 0 : solverEngine.hashCode());
+    result = prime * result + numThreads;
+    result = prime * result + multigridLevels;
+    temp = Double.doubleToLongBits(cgTolerance);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
+    result = prime * result + cropPadding;
+    temp = Double.doubleToLongBits(activityThreshold);
+    result = prime * result + (int) (temp ^ (temp >>> 32));
     return result;
   }
 
@@ -234,6 +315,25 @@ public class RandomWalkOptions {
     if (useLocalMean != other.useLocalMean) {
       return false;
     }
+    if (solverEngine != other.solverEngine) {
+      return false;
+    }
+    if (numThreads != other.numThreads) {
+      return false;
+    }
+    if (multigridLevels != other.multigridLevels) {
+      return false;
+    }
+    if (Double.doubleToLongBits(cgTolerance) != Double.doubleToLongBits(other.cgTolerance)) {
+      return false;
+    }
+    if (cropPadding != other.cropPadding) {
+      return false;
+    }
+    if (Double.doubleToLongBits(activityThreshold) != Double
+            .doubleToLongBits(other.activityThreshold)) {
+      return false;
+    }
     return true;
   }
 
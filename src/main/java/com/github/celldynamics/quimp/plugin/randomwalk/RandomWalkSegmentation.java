@@ -1,20 +1,27 @@
 package com.github.celldynamics.quimp.plugin.randomwalk;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.InvalidParameterException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.OptionalInt;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.IntStream;
 
 import org.apache.commons.math3.linear.Array2DRowRealMatrix;
 import org.apache.commons.math3.linear.ArrayRealVector;
 import org.apache.commons.math3.linear.MatrixDimensionMismatchException;
-import org.apache.commons.math3.linear.MatrixUtils;
 import org.apache.commons.math3.linear.RealMatrix;
 import org.apache.commons.math3.linear.RealMatrixChangingVisitor;
 import org.apache.commons.math3.stat.StatUtils;
@@ -30,6 +37,7 @@ import ij.ImageStack;
 import ij.plugin.ImageCalculator;
 import ij.process.BinaryProcessor;
 import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
 
 /*
@@ -295,7 +303,7 @@ public class RandomWalkSegmentation {
    * @author p.baniukiewicz
    *
    */
-  private enum StoppedBy {
+  enum StoppedBy {
     /**
      * Maximum number of iterations reached.
      */
@@ -324,6 +332,40 @@ public class RandomWalkSegmentation {
     }
   }
 
+  /**
+   * Available implementations of diffusion process run by {@link #solver(Seeds, RealMatrix[])}.
+   * 
+   * <p>{@link #MATRIX} and {@link #FLAT} give the same probability maps. {@link #CG} solves for
+   * steady state of diffusion thus its results differ.
+   * 
+   * @author p.baniukiewicz
+   * @see RandomWalkOptions#solverEngine
+   */
+  public enum SolverEngine {
+    /**
+     * Reference implementation ported from Matlab. Uses {@link RealMatrix} and
+     * {@link RandomWalkSegmentation#circshift(RealMatrix, int)} for accessing neighbours, so it
+     * allocates four copies of the probability map in each iteration.
+     */
+    MATRIX,
+    /**
+     * Allocation-free implementation working on flat arrays.
+     * 
+     * @see FlatDiffusionSolver
+     */
+    FLAT,
+    /**
+     * Solve Dirichlet problem on graph Laplacian by preconditioned conjugate gradient.
+     * 
+     * <p>Number of iterations is limited by {@link RandomWalkOptions#iter} and convergence is
+     * controlled by {@link RandomWalkOptions#cgTolerance}. Number of iterations for background is
+     * not limited by foreground objects.
+     * 
+     * @see SparseLaplacianSolver
+     */
+    CG
+  }
+
   /**
    * Define foreground and background indexes enums with numerical indexes.
    * 
@@ -416,6 +458,23 @@ public class RandomWalkSegmentation {
    * Probability map obtained in {@link #run(Seeds)}.
    */
   private ProbabilityMaps solved = null;
+  /**
+   * Gradients computed by {@link #precompute()}, null if not computed yet.
+   */
+  private RealMatrix[] gradients = null;
+  /**
+   * Local mean intensity computed by {@link #getMeanSeedLocalCached(ImageProcessor, int)}, null if
+   * not computed yet.
+   */
+  private RealMatrix localMean = null;
+  /**
+   * Copy of pixels of mask used for computing {@link #localMean}.
+   */
+  private Object localMeanMask = null;
+  /**
+   * Size of kernel used for computing {@link #localMean}.
+   */
+  private int localMeanSize = 0;
 
   /**
    * Construct segmentation object from ImageProcessor.
@@ -473,7 +532,7 @@ public class RandomWalkSegmentation {
     if (seeds.get(SeedTypes.FOREGROUNDS) == null) {
       return null; // no FG maps - no segmentation
     }
-    RealMatrix[] precomputed = precomputeGradients(); // precompute gradients
+    RealMatrix[] precomputed = precompute().gradients; // precompute gradients if not ready
     solved = solver(seeds, precomputed);
     if (params.intermediateFilter != null && params.gamma[1] != 0) { // do second sweep
       LOGGER.debug("Running next sweep: " + params.intermediateFilter.getClass().getName());
@@ -504,6 +563,23 @@ public class RandomWalkSegmentation {
 
   }
 
+  /**
+   * Pre-compute data that do not depend on seeds.
+   * 
+   * <p>This method is called by {@link #run(Seeds)} but it can be also called in advance, e.g. from
+   * other thread when previous frame of stack is segmented. Local mean intensity is not computed
+   * here as it depends on {@link SeedTypes#ROUGHMASK}.
+   * 
+   * @return this object
+   * @see #precomputeGradients()
+   */
+  public RandomWalkSegmentation precompute() {
+    if (gradients == null) {
+      gradients = precomputeGradients();
+    }
+    return this;
+  }
+
   /**
    * Prepare seeds from results of previous solver.
    * 
@@ -514,18 +590,23 @@ public class RandomWalkSegmentation {
   private Seeds rollNextSweep(ProbabilityMaps solved) throws RandomWalkException {
     final double weight = 1e20;
     Seeds ret = new Seeds(2);
-    RealMatrix solvedWeighted;
-    // make copy of input results to weight them
-    for (int m = 0; m < solved.get(SeedTypes.FOREGROUNDS).size(); m++) {
-      solvedWeighted = solved.get(SeedTypes.FOREGROUNDS).get(m).copy();
-
+    FloatPlanes fgPlanes = solved.getPlanes(SeedTypes.FOREGROUNDS);
+    FloatPlanes bgPlanes = solved.getPlanes(SeedTypes.BACKGROUND);
+    int rows = fgPlanes.getRows();
+    int cols = fgPlanes.getCols();
+    int n = rows * cols;
+    float[] fg = fgPlanes.getDataRef();
+    float[] bg = bgPlanes.getDataRef(); // first plane is background
+    float[] solvedWeighted;
+    for (int m = 0; m < fgPlanes.getDepth(); m++) {
+      solvedWeighted = new float[n];
+      int off = m * n;
       // seed_fg = FGl>1e20*BGl
-      solvedWeighted.walkInOptimizedOrder(
-              new MatrixCompareWeighted(solved.get(SeedTypes.BACKGROUND).get(0), weight));
-
+      for (int i = 0; i < n; i++) {
+        solvedWeighted[i] = fg[off + i] > bg[i] * weight ? 1 : 0;
+      }
       // convert weighted results to images
-      ImageProcessor fg1 =
-              QuimPArrayUtils.realMatrix2ImageProcessor(solvedWeighted).convertToByte(true);
+      ImageProcessor fg1 = new FloatProcessor(cols, rows, solvedWeighted).convertToByte(true);
 
       if (QuimP.SUPER_DEBUG) { // save intermediate results
         LOGGER.debug("Saving intermediate results");
@@ -538,14 +619,14 @@ public class RandomWalkSegmentation {
     }
     // increment sweep pointer to point correct parameters (if they are different for next sweep)
     currentSweep++;
-    solvedWeighted = solved.get(SeedTypes.BACKGROUND).get(0).copy();
     // flatten foregrounds to weight background
-    double[][] fl = flatten(solved, SeedTypes.FOREGROUNDS);
+    float[] fl = fgPlanes.max();
+    solvedWeighted = new float[n];
     // seed_bg = BGl>1e20*FGl;
-    solvedWeighted.walkInOptimizedOrder(
-            new MatrixCompareWeighted(MatrixUtils.createRealMatrix(fl), weight));
-    ImageProcessor bg1 =
-            QuimPArrayUtils.realMatrix2ImageProcessor(solvedWeighted).convertToByte(true);
+    for (int i = 0; i < n; i++) {
+      solvedWeighted[i] = bg[i] > fl[i] * weight ? 1 : 0;
+    }
+    ImageProcessor bg1 = new FloatProcessor(cols, rows, solvedWeighted).convertToByte(true);
     if (QuimP.SUPER_DEBUG) { // save intermediate results
       String tmpdir = System.getProperty("java.io.tmpdir") + File.separator;
       IJ.saveAsTiff(new ImagePlus("", bg1), tmpdir + "bg1_\"+m+\"_QuimP.tif");
@@ -558,6 +639,7 @@ public class RandomWalkSegmentation {
     return ret;
   }
 
+
   /**
    * Compare probabilities from and create segmentation matrix depending on winner.
    * 
@@ -568,71 +650,47 @@ public class RandomWalkSegmentation {
    */
   RealMatrix compare(ProbabilityMaps solved) {
     double backgroundColorValue = 0.0; // value for fill background
-    double[][][] fgmaps3d = solved.convertTo3dMatrix(SeedTypes.FOREGROUNDS);
-    double[][][] bgmaps3d = solved.convertTo3dMatrix(SeedTypes.BACKGROUND);
+    FloatPlanes fgPlanes = solved.getPlanes(SeedTypes.FOREGROUNDS);
+    FloatPlanes bgPlanes = solved.getPlanes(SeedTypes.BACKGROUND);
 
-    if (fgmaps3d == null) {
+    if (fgPlanes == null) {
       return null;
     }
-    int rows = fgmaps3d[0].length;
-    int cols = fgmaps3d[0][0].length;
+    int rows = fgPlanes.getRows();
+    int cols = fgPlanes.getCols();
     // assume probability of 0 for BG. If there are only FG objects and probability of being FG1 is
     // 0 as well as for FG2, this will impose background
-    if (bgmaps3d == null) {
-      bgmaps3d = new double[1][rows][cols];
+    if (bgPlanes == null) {
+      bgPlanes = new FloatPlanes(1, rows, cols);
     }
-    if (rows == 0 || cols == 0 || rows != bgmaps3d[0].length || cols != bgmaps3d[0][0].length) {
+    if (rows == 0 || cols == 0 || rows != bgPlanes.getRows() || cols != bgPlanes.getCols()) {
       return null;
     }
 
-    RealMatrix ret = MatrixUtils.createRealMatrix(rows, cols);
+    double[][] ret = new double[rows][cols];
 
-    int[][] fgMaxMap = flattenInd(fgmaps3d);
-    int[][] bgMaxMap = flattenInd(bgmaps3d);
+    int[] fgMaxMap = fgPlanes.argMax();
+    int[] bgMaxMap = bgPlanes.argMax();
+    float[] fg = fgPlanes.getDataRef();
+    float[] bg = bgPlanes.getDataRef();
+    int n = rows * cols;
 
     for (int r = 0; r < rows; r++) {
       for (int c = 0; c < cols; c++) {
-        int fi = fgMaxMap[r][c]; // z-index of max element in FG
-        int bi = bgMaxMap[r][c]; // z-index of max element in bg
-        if (fgmaps3d[fi][r][c] > bgmaps3d[bi][r][c]) { // FG>BG - object
-          ret.setEntry(r, c, fi + 1); // set object coded at index z+1 (1-based)
+        int i = r * cols + c;
+        int fi = fgMaxMap[i]; // z-index of max element in FG
+        int bi = bgMaxMap[i]; // z-index of max element in bg
+        if (fg[fi * n + i] > bg[bi * n + i]) { // FG>BG - object
+          ret[r][c] = fi + 1; // set object coded at index z+1 (1-based)
         } else {
-          ret.setEntry(r, c, backgroundColorValue); // background
+          ret[r][c] = backgroundColorValue; // background
         }
       }
     }
-    return ret;
+    return new Array2DRowRealMatrix(ret, false);
 
   }
 
-  /**
-   * Compare values along z dimension for each x,y and return index of max value.
-   * 
-   * @param in matrix to flatten
-   * @return 2d matrix of indexes (0-based) of maximal values for each x,y along z
-   */
-  private int[][] flattenInd(double[][][] in) {
-    int rows = in[0].length;
-    int cols = in[0][0].length;
-    int[][] ret = new int[rows][cols];
-
-    if (in.length == 1) {
-      return ret; // just return 0 indexes
-    }
-    for (int r = 0; r < rows; r++) {
-      for (int c = 0; c < cols; c++) {
-        double max = in[0][r][c];
-        for (int z = 0; z < in.length; z++) {
-          if (in[z][r][c] > max) {
-            max = in[z][r][c];
-            ret[r][c] = z;
-          }
-        }
-      }
-    }
-    return ret;
-  }
-
   /**
    * Produce 2d matrix of max values taken along z.
    * 
@@ -640,33 +698,26 @@ public class RandomWalkSegmentation {
    * @param key seed key
    * 
    * @return 2d matrix of max values (0-based) of maximal values for each x,y along z
+   * @see FloatPlanes#max()
    */
   double[][] flatten(ProbabilityMaps maps, SeedTypes key) {
-    double[][][] in = maps.convertTo3dMatrix(key);
-    if (in == null) {
+    FloatPlanes planes = maps.getPlanes(key);
+    if (planes == null) {
       return null;
     }
-    int rows = in[0].length;
-    int cols = in[0][0].length;
+    int rows = planes.getRows();
+    int cols = planes.getCols();
+    float[] max = planes.max();
     double[][] ret = new double[rows][cols];
-
-    if (in.length == 1) {
-      return in[0]; // just return input
-    }
     for (int r = 0; r < rows; r++) {
       for (int c = 0; c < cols; c++) {
-        double max = in[0][r][c];
-        for (int z = 0; z < in.length; z++) {
-          if (in[z][r][c] > max) {
-            max = in[z][r][c];
-          }
-          ret[r][c] = max;
-        }
+        ret[r][c] = max[r * cols + c];
       }
     }
     return ret;
   }
 
+
   /**
    * Shift image in given direction with step of one and circular boundary conditions.
    *
@@ -753,7 +804,7 @@ public class RandomWalkSegmentation {
    * @return Array of precomputed data in the following order: [0] - gRight2 [1] - gTop2 [2] -
    *         gLeft2 [3] - gBottom2
    */
-  private RealMatrix[] precomputeGradients() {
+  RealMatrix[] precomputeGradients() {
     // setup shifted images assuming shift of one pixel and periodic boundary conditions.
     RealMatrix right = circshift(image, RIGHT);
     RealMatrix top = circshift(image, TOP);
@@ -790,12 +841,17 @@ public class RandomWalkSegmentation {
   /**
    * Compute mean value from image only seeded pixels.
    * 
-   * @param seeds coordinates of points used to calculate their mean intensity
+   * @param seeds linear indexes of points used to calculate their mean intensity
    * @return mean value for points
-   * @see Seeds#convertToList(SeedTypes)
+   * @see Seeds#convertToIndexes(SeedTypes)
    */
-  protected double getMeanSeedGlobal(List<Point> seeds) {
-    return StatUtils.mean(getValues(image, seeds).getDataRef());
+  protected double getMeanSeedGlobal(int[] seeds) {
+    int cols = image.getColumnDimension();
+    double[] values = new double[seeds.length];
+    for (int l = 0; l < seeds.length; l++) {
+      values[l] = image.getEntry(seeds[l] / cols, seeds[l] % cols);
+    }
+    return StatUtils.mean(values);
   }
 
   /**
@@ -808,20 +864,21 @@ public class RandomWalkSegmentation {
    * 
    * <p>This method works similarly to the convolution with the difference that the kernel is
    * normalised for each position of the window to the number of masked pixels (within it). If for
-   * any position of the window there are no masked pixels inside, value 0.0 is set as result.
+   * any position of the window there are no masked pixels inside, value 0.0 is set as result. Edge
+   * pixels are repeated outside the image, like in {@link ImageProcessor#convolve(float[], int,
+   * int)}.
+   * 
+   * <p>Sums of masked intensities and numbers of masked pixels within window are taken from
+   * summed-area tables, so cost does not depend on size of window.
    * 
    * @param mask Binary mask of segmented image. Mask must contain only pixels with intensity 0 or
    *        255 (according to definition of binary image in IJ)
    * @param localMeanMaskSize Odd size of kernel
    * @return Averaged image. Average is computed for every location of the kernel for its center
    *         utlising only masked pixels. For not masked pixels the mean is set to 0.0
+   * @see #getMeanSeedLocalCached(ImageProcessor, int)
    */
   protected RealMatrix getMeanSeedLocal(ImageProcessor mask, int localMeanMaskSize) {
-    // IJ convolution is utilised. Computations are done twice, first time only on mask to get the
-    // number of masked pixels covered by it for each image pixel
-    // second time for segmented image to get sum of intensities within the kernel.
-    // in both cases kernels are normalised (default behaviour of ImageProcessor.convolve) but then
-    // "denormalised" by multiplying by their size. Kernels are 1-filled.
     if (localMeanMaskSize % 2 == 0) {
       throw new IllegalArgumentException("Kernel sie must be odd");
     }
@@ -832,73 +889,81 @@ public class RandomWalkSegmentation {
     if (mask.getWidth() != ip.getWidth() || mask.getHeight() != ip.getHeight()) {
       throw new IllegalArgumentException("Mask must have size of processed image");
     }
-    ImageProcessor maskc = mask.duplicate(); // local copy of mask to not modify it
-    maskc.subtract(254); // if it is IJ binary it contains [0,255], scale to 0 - 1.0
-    // make mask copy for getting number of pixels in mask for each position of kernel
-    ImageProcessor numofpix = maskc.duplicate();
-
-    // generate 1-filled kernel of given size
-    float[] kernel = new float[localMeanMaskSize * localMeanMaskSize];
-    Arrays.fill(kernel, 1.0f);
-    // get number of mask pixesl for ach position of kernel
-    numofpix = maskc.convertToFloat(); // must convert here
-    numofpix.convolve(kernel, localMeanMaskSize, localMeanMaskSize);
-    numofpix.multiply(kernel.length); // convolution normalises kernel - revert it 1)
-    // cut to mask - mulitply by 1.0 mask - reject pixels that are not masked
-    numofpix = new ImageCalculator()
-            .run("mul create", new ImagePlus("", numofpix), new ImagePlus("", maskc))
-            .getProcessor();
-
-    // get sum of intensities within the kernel for segmented image
-    // cut image to input mask - set all other pixels to 0. Must be done here to not count nonmasked
-    // pixels
-    ImageProcessor cutImage = new ImageCalculator()
-            .run("mul create float", new ImagePlus("", ip), new ImagePlus("", maskc))
-            .getProcessor();
-    // convolve cut image
-    cutImage.setCalibrationTable(null);
-    cutImage.convolve(kernel, localMeanMaskSize, localMeanMaskSize);
-    cutImage.multiply(kernel.length); // denormalise result
-    // deal with edges of image after convolution - remove them
-    cutImage = new ImageCalculator()
-            .run("mul create float", new ImagePlus("", cutImage), new ImagePlus("", maskc))
-            .getProcessor();
-    // rounding floats to integer values - convolution works for float images only
-    float[] cutImageRaw = (float[]) cutImage.getPixels();
-    for (int i = 0; i < cutImage.getPixelCount(); i++) {
-      cutImageRaw[i] = Math.round(cutImageRaw[i]);
-    }
-    float[] numofpixRaw = (float[]) numofpix.getPixels();
-    for (int i = 0; i < numofpix.getPixelCount(); i++) {
-      numofpixRaw[i] = Math.round(numofpixRaw[i]);
-    }
-    // proper mean - use only pixels inside mask. we use cutImageRaw that contains sums of
-    // intensities for each location of kernel and numofpixRaw that contains number of masked pixels
-    RealMatrix meanseedFg = new Array2DRowRealMatrix(cutImage.getHeight(), cutImage.getWidth());
-    int count = 0;
-    for (int r = 0; r < cutImage.getHeight(); r++) {
-      for (int c = 0; c < cutImage.getWidth(); c++) {
-        if (numofpix.getPixelValue(c, r) != 0) { // skip 0 pixels to not divide by 0
-          meanseedFg.setEntry(r, c, ((double) cutImageRaw[count] / numofpixRaw[count]));
-        } else {
-          meanseedFg.setEntry(r, c, 0.0); // if no pixels in mask for current r,c - set mean to 0
+    final int rows = ip.getHeight();
+    final int cols = ip.getWidth();
+    final int half = localMeanMaskSize / 2;
+    // summed-area tables of masked intensities and of mask for image extended by half of kernel
+    // on each side. Tables have additional first row and column of 0s. Sums are integers if image
+    // is integer so they are exact in double
+    final int tcols = cols + 2 * half + 1;
+    final int trows = rows + 2 * half + 1;
+    double[] sumInt = new double[trows * tcols];
+    double[] sumNum = new double[trows * tcols];
+    for (int r = 1; r < trows; r++) {
+      int y = Math.min(Math.max(r - 1 - half, 0), rows - 1);
+      double rowInt = 0;
+      double rowNum = 0;
+      for (int c = 1; c < tcols; c++) {
+        int x = Math.min(Math.max(c - 1 - half, 0), cols - 1);
+        if (mask.get(x, y) != 0) {
+          rowInt += ip.getf(x, y);
+          rowNum++;
         }
-        count++;
+        sumInt[r * tcols + c] = sumInt[(r - 1) * tcols + c] + rowInt;
+        sumNum[r * tcols + c] = sumNum[(r - 1) * tcols + c] + rowNum;
       }
     }
+    // proper mean - use only pixels inside mask. Window centered at (r,c) of image covers rows
+    // r..r+localMeanMaskSize-1 and columns c..c+localMeanMaskSize-1 of extended image
+    double[][] meanseedFg = new double[rows][cols];
+    final int k = localMeanMaskSize;
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        if (mask.get(c, r) == 0) {
+          continue; // not masked - mean is 0.0
+        }
+        int br = (r + k) * tcols + c + k; // bottom right corner of window
+        int tr = r * tcols + c + k;
+        int bl = (r + k) * tcols + c;
+        int tl = r * tcols + c;
+        // at least pixel (r,c) is masked so number of pixels is not 0
+        double num = sumNum[br] - sumNum[tr] - sumNum[bl] + sumNum[tl];
+        double sum = Math.round(sumInt[br] - sumInt[tr] - sumInt[bl] + sumInt[tl]);
+        meanseedFg[r][c] = sum / num;
+      }
+    }
+
+    RealMatrix ret = new Array2DRowRealMatrix(meanseedFg, false);
 
     if (QuimP.SUPER_DEBUG) { // save intermediate results
       LOGGER.debug("Saving intermediate results");
       String tmpdir = System.getProperty("java.io.tmpdir") + File.separator;
-      IJ.saveAsTiff(new ImagePlus("", numofpix), tmpdir + "maskc_QuimP.tif");
-      IJ.saveAsTiff(new ImagePlus("", cutImage), tmpdir + "imagecc_QuimP.tif");
-      IJ.saveAsTiff(new ImagePlus("", QuimPArrayUtils.realMatrix2ImageProcessor(meanseedFg)),
+      IJ.saveAsTiff(new ImagePlus("", QuimPArrayUtils.realMatrix2ImageProcessor(ret)),
               tmpdir + "meanseedFg_QuimP.tif");
-      LOGGER.trace("meanseedFg M[183;289] " + meanseedFg.getEntry(183 - 1, 289 - 1));
-      LOGGER.trace("meanseedFg M[242;392] " + meanseedFg.getEntry(242 - 1, 392 - 1));
-      LOGGER.trace("cutImage M[192;279] " + cutImage.getPixelValue(279 - 1, 192 - 1));
+      LOGGER.trace("meanseedFg M[183;289] " + ret.getEntry(183 - 1, 289 - 1));
+      LOGGER.trace("meanseedFg M[242;392] " + ret.getEntry(242 - 1, 392 - 1));
     }
-    return meanseedFg;
+    return ret;
+  }
+
+  /**
+   * Return local mean intensity computed by {@link #getMeanSeedLocal(ImageProcessor, int)}.
+   * 
+   * <p>Local mean depends only on image and mask, so it is the same for all objects and sweeps of
+   * one frame. It is computed once and kept in this object until mask or size of kernel change.
+   * 
+   * @param mask Binary mask of segmented image
+   * @param localMeanMaskSize Odd size of kernel
+   * @return Averaged image, shared between calls, must not be modified
+   */
+  RealMatrix getMeanSeedLocalCached(ImageProcessor mask, int localMeanMaskSize) {
+    if (localMean == null || localMeanMaskSize != localMeanSize
+            || !Objects.deepEquals(mask.getPixels(), localMeanMask)) {
+      localMean = getMeanSeedLocal(mask, localMeanMaskSize);
+      localMeanSize = localMeanMaskSize;
+      localMeanMask = mask.duplicate().getPixels();
+    }
+    return localMean;
   }
 
   /*
@@ -984,105 +1049,422 @@ public class RandomWalkSegmentation {
    * <p>Note 2:number of iterations for BG object is limited to maximum number of iterations that
    * occurred for FG objects.
    * 
+   * <p>Note 3: objects can be solved concurrently, see {@link RandomWalkOptions#numThreads}. In
+   * this mode all foreground objects are solved first and then background objects. Order of maps
+   * in returned structure is always the same as order of seeds.
+   * 
    * @param seeds seed array returned from {@link SeedProcessor}
    * @param gradients pre-computed gradients returned from {@link #precomputeGradients()}
    * @return Computed probabilities for background and foreground. Returned structure can be also
    *         empty if there are not FG seeds provided on input (no FG map in {@link Seeds}) or may
    *         not contain BG map.
+   * @throws RandomWalkException if solving of any object failed
    */
-  protected ProbabilityMaps solver(Seeds seeds, RealMatrix[] gradients) {
-    ImageStack debugPm = null;
-    RealMatrix diffIfg = null; // normalised squared differences to mean seed intensities for FG
-    // store number of iterations performed for each object. These numbers are used for stopping
-    // iterations earlier for background object
-    ArrayList<Integer> iterations = new ArrayList<>();
-
+  protected ProbabilityMaps solver(Seeds seeds, RealMatrix[] gradients)
+          throws RandomWalkException {
     ProbabilityMaps ret = new ProbabilityMaps(); // keep output probab map for each object
 
     if (seeds.get(SeedTypes.FOREGROUNDS) == null) { // if no FG maps (e.g. all disappeared)
       return ret;
     }
-    // seed images as list of points
-    List<List<Point>> seedsPointsFg = seeds.convertToList(SeedTypes.FOREGROUNDS);
+    // seed images as linear indexes of pixels
+    List<int[]> seedsPointsFg = seeds.convertToIndexes(SeedTypes.FOREGROUNDS);
+    // number of foreground objects, all objects from this index are user background
+    final int numFg = seedsPointsFg.size();
     // user selected background (it is solved like other objects but e.g. local mean does not apply
     // for it so we need to know what was selected by user as background). There is possible
     // that there will be no BCK key, if input is given as GraySclale image
-    List<List<Point>> userBckPoints = seeds.convertToList(SeedTypes.BACKGROUND);
+    List<int[]> userBckPoints = seeds.convertToIndexes(SeedTypes.BACKGROUND);
     // add background at the end - it will be solved as regular object
     seedsPointsFg.addAll(userBckPoints);
+    // local mean is the same for all FG objects, compute it once before solving them
+    final RealMatrix localMeanFg;
+    if (params.useLocalMean && seeds.get(SeedTypes.ROUGHMASK) != null) {
+      localMeanFg = getMeanSeedLocalCached(seeds.get(SeedTypes.ROUGHMASK, 1),
+              params.localMeanMaskSize);
+    } else {
+      localMeanFg = null;
+    }
+    // region of image where object is solved, null for whole image (always for background)
+    final Rectangle[] crops = new Rectangle[seedsPointsFg.size()];
+    if (params.cropPadding >= 0) {
+      ImageProcessor mask =
+              seeds.get(SeedTypes.ROUGHMASK) != null ? seeds.get(SeedTypes.ROUGHMASK, 1) : null;
+      for (int cell = 0; cell < numFg; cell++) {
+        crops[cell] = getCropBox(seedsPointsFg.get(cell), mask, params.cropPadding);
+      }
+    }
+    // maps of foreground and background objects, planes are assigned to objects with non-empty
+    // seeds in order of objects
+    int[] planes = new int[seedsPointsFg.size()];
+    int numFgPlanes = 0;
+    int numBgPlanes = 0;
+    for (int cell = 0; cell < seedsPointsFg.size(); cell++) {
+      if (seedsPointsFg.get(cell).length == 0) {
+        planes[cell] = -1;
+      } else if (cell < numFg) {
+        planes[cell] = numFgPlanes++;
+      } else {
+        planes[cell] = numBgPlanes++;
+      }
+    }
+    final int rows = image.getRowDimension();
+    final int cols = image.getColumnDimension();
+    FloatPlanes fgMaps = new FloatPlanes(numFgPlanes, rows, cols);
+    FloatPlanes bgMaps = new FloatPlanes(numBgPlanes, rows, cols);
+    // solution for each object, null for empty seeds
+    ObjectSolution[] solutions = new ObjectSolution[seedsPointsFg.size()];
+    ForkJoinPool pool = params.numThreads > 1 ? new ForkJoinPool(params.numThreads) : null;
+    try {
+      // solve problem for each label in FOREGROUNDS, other labels (if any) are merged with
+      // BACKGROUND
+      List<Callable<ObjectSolution>> tasks = new ArrayList<>();
+      int iter = params.iter / (currentSweep + 1); // Second sweep uses 0.5*user
+      for (int cell = 0; cell < numFg; cell++) {
+        tasks.add(getObjectTask(cell, seedsPointsFg, false, localMeanFg, gradients, iter,
+                crops[cell], fgMaps, planes[cell]));
+      }
+      execute(pool, tasks, solutions, 0);
+      // use less iterations when diffuse background. Background needs much more iterations to
+      // reach specified relError and after weighting it dominates leaving only original object seed
+      // as segmented object. Here we stop segmenting background after certain number of iterations
+      // but not relErr. This is how we have it solved in MAtlab
+      // FIXME This can be disabled, then BCK will need more iterations but sometimes results are
+      // better
+      // potential pitfall is if user mark BG far from cell, then small number of iters is not
+      // enough to flood whole background (but it will work because during comparison bck is on 0
+      // and FG segmentation rather does not leave object
+      OptionalInt fgIter = Arrays.stream(solutions, 0, numFg)
+              .filter(o -> o != null && o.stoppedBy == StoppedBy.RELERR)
+              .mapToInt(o -> o.iterations).max();
+      if (fgIter.isPresent() && params.solverEngine != SolverEngine.CG) { // max of iters for BCK
+        iter = fgIter.getAsInt() / (currentSweep + 1);
+      }
+      tasks.clear();
+      for (int cell = numFg; cell < seedsPointsFg.size(); cell++) {
+        tasks.add(getObjectTask(cell, seedsPointsFg, true, localMeanFg, gradients, iter,
+                crops[cell], bgMaps, planes[cell]));
+      }
+      execute(pool, tasks, solutions, numFg);
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
+    }
+    // store maps, background under separate key - needed for comparison
+    if (numFgPlanes > 0) {
+      ret.put(SeedTypes.FOREGROUNDS, fgMaps);
+    }
+    if (numBgPlanes > 0) {
+      ret.put(SeedTypes.BACKGROUND, bgMaps);
+    }
+    return ret;
+  }
+
+  /**
+   * Create task solving one object.
+   * 
+   * @param cell index of object in seedsPointsFg
+   * @param seedsPointsFg seeds of all objects
+   * @param isBackground true if object is user background
+   * @param localMeanFg local mean or null if global mean is used
+   * @param gradients pre-computed gradients returned from {@link #precomputeGradients()}
+   * @param iter maximal number of iterations
+   * @param crop region of image where object is solved, null for whole image
+   * @param maps output maps
+   * @param plane index of plane in maps where solution is stored
+   * @return task returning solution or null if seeds for object are empty
+   * @see #solveObject(int, List, boolean, RealMatrix, RealMatrix[], int, Rectangle, FloatPlanes,
+   *      int)
+   */
+  private Callable<ObjectSolution> getObjectTask(int cell, List<int[]> seedsPointsFg,
+          boolean isBackground, RealMatrix localMeanFg, RealMatrix[] gradients, int iter,
+          Rectangle crop, FloatPlanes maps, int plane) {
+    return () -> solveObject(cell, seedsPointsFg, isBackground, localMeanFg, gradients, iter,
+            crop, maps, plane);
+  }
+
+  /**
+   * Find region of image where object can be solved.
+   * 
+   * <p>Region is bounding box of object seeds and these parts of rough mask that are connected to
+   * seeds, enlarged by <tt>padding</tt> and limited to image size.
+   * 
+   * @param seeds linear indexes of seeds of object
+   * @param mask rough mask, can be null
+   * @param padding number of pixels added to each side of bounding box
+   * @return region of image or null if it covers whole image
+   * @see RandomWalkOptions#cropPadding
+   */
+  Rectangle getCropBox(int[] seeds, ImageProcessor mask, int padding) {
+    int rows = image.getRowDimension();
+    int cols = image.getColumnDimension();
+    if (seeds.length == 0) {
+      return null;
+    }
+    int minr = rows;
+    int maxr = -1;
+    int minc = cols;
+    int maxc = -1;
+    // flood fill rough mask starting from seeds
+    boolean[] visited = new boolean[rows * cols];
+    ArrayDeque<Point> queue = new ArrayDeque<>();
+    for (int s : seeds) {
+      Point p = new Point(s % cols, s / cols);
+      minr = Math.min(minr, p.row);
+      maxr = Math.max(maxr, p.row);
+      minc = Math.min(minc, p.col);
+      maxc = Math.max(maxc, p.col);
+      if (mask != null && mask.get(p.col, p.row) != 0 && !visited[s]) {
+        visited[s] = true;
+        queue.add(p);
+      }
+    }
+    while (!queue.isEmpty()) {
+      Point p = queue.poll();
+      minr = Math.min(minr, p.row);
+      maxr = Math.max(maxr, p.row);
+      minc = Math.min(minc, p.col);
+      maxc = Math.max(maxc, p.col);
+      int[][] nb = { { p.row + 1, p.col }, { p.row - 1, p.col }, { p.row, p.col + 1 },
+          { p.row, p.col - 1 } };
+      for (int[] n : nb) {
+        if (n[0] >= 0 && n[0] < rows && n[1] >= 0 && n[1] < cols
+                && !visited[n[0] * cols + n[1]] && mask.get(n[1], n[0]) != 0) {
+          visited[n[0] * cols + n[1]] = true;
+          queue.add(new Point(n[1], n[0]));
+        }
+      }
+    }
+    minr = Math.max(0, minr - padding);
+    maxr = Math.min(rows - 1, maxr + padding);
+    minc = Math.max(0, minc - padding);
+    maxc = Math.min(cols - 1, maxc + padding);
+    if (minr == 0 && minc == 0 && maxr == rows - 1 && maxc == cols - 1) {
+      return null;
+    }
+    return new Rectangle(minc, minr, maxc - minc + 1, maxr - minr + 1);
+  }
+
+  /**
+   * Cut region from matrix.
+   * 
+   * @param in matrix representing whole image
+   * @param crop region to cut
+   * @return copy of region
+   */
+  private RealMatrix crop(RealMatrix in, Rectangle crop) {
+    return in.getSubMatrix(crop.y, crop.y + crop.height - 1, crop.x, crop.x + crop.width - 1);
+  }
+
+  /**
+   * Move points to coordinates of region and remove points outside it.
+   * 
+   * @param in linear indexes of points in image
+   * @param crop region
+   * @return linear indexes of points in region, order is preserved
+   */
+  private int[] crop(int[] in, Rectangle crop) {
+    int cols = image.getColumnDimension();
+    int[] ret = new int[in.length];
+    int l = 0;
+    for (int i : in) {
+      int r = i / cols - crop.y;
+      int c = i % cols - crop.x;
+      if (r >= 0 && r < crop.height && c >= 0 && c < crop.width) {
+        ret[l++] = r * crop.width + c;
+      }
+    }
+    return Arrays.copyOf(ret, l);
+  }
+
+  /**
+   * Join arrays of linear indexes.
+   * 
+   * @param in arrays to join
+   * @return one array with all indexes
+   */
+  private static int[] concat(List<int[]> in) {
+    int[] ret = new int[in.stream().mapToInt(p -> p.length).sum()];
+    int l = 0;
+    for (int[] p : in) {
+      System.arraycopy(p, 0, ret, l, p.length);
+      l += p.length;
+    }
+    return ret;
+  }
+
+  /**
+   * Run tasks and store their results in array.
+   * 
+   * @param pool pool to use or null for running tasks in current thread
+   * @param tasks tasks to run
+   * @param solutions output array
+   * @param offset index in solutions where result of first task is stored
+   * @throws RandomWalkException on any exception thrown by task
+   */
+  private void execute(ForkJoinPool pool, List<Callable<ObjectSolution>> tasks,
+          ObjectSolution[] solutions, int offset) throws RandomWalkException {
+    try {
+      if (pool == null) {
+        for (int t = 0; t < tasks.size(); t++) {
+          solutions[offset + t] = tasks.get(t).call();
+        }
+      } else {
+        List<Future<ObjectSolution>> results = pool.invokeAll(tasks);
+        for (int t = 0; t < results.size(); t++) {
+          solutions[offset + t] = results.get(t).get();
+        }
+      }
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new RandomWalkException("Solver failed: " + e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RandomWalkException("Solver interrupted", e);
+    } catch (RuntimeException e) {
+      throw e;
+    } catch (Exception e) {
+      throw new RandomWalkException("Solver failed: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Solve diffusion for one object.
+   * 
+   * <p>All other objects are treated as background. Method does not modify state of this object,
+   * therefore it can be called concurrently for different objects.
+   * 
+   * @param cell index of object in seedsPointsFg
+   * @param seedsPointsFg seeds of all objects (foregrounds followed by user backgrounds)
+   * @param isBackground true if object is user background
+   * @param localMeanFg local mean or null if global mean is used
+   * @param gradients pre-computed gradients returned from {@link #precomputeGradients()}
+   * @param iter maximal number of iterations
+   * @param crop region of image where object is solved, null for whole image. Probability outside
+   *        region is 0.
+   * @param maps output maps, different objects are stored concurrently in different planes
+   * @param plane index of plane in maps where solution is stored
+   * @return solution or null if seeds for object are empty
+   */
+  private ObjectSolution solveObject(int cell, List<int[]> seedsPointsFg, boolean isBackground,
+          RealMatrix localMeanFg, RealMatrix[] gradients, int iter, Rectangle crop,
+          FloatPlanes maps, int plane) {
+    ImageStack debugPm = null;
+    RealMatrix diffIfg = null; // normalised squared differences to mean seed intensities for FG
+    // some maps for FOREGROUNDS key can be empty, so lists will be too. Note that decodeSeeds
+    // throw exception when all maps for specified key are empty. Other situations are allowed.
+    if (seedsPointsFg.get(cell).length == 0) {
+      return null;
+    }
     // background points used in conjunction with current foreground. Background points are all
     // other points which are not current foreground (e.g. other cells + user background, or all
     // cells if we solve for user background)
-    List<List<Point>> seedsPointsBg = new ArrayList<>();
-
-    // solve problem for each label in FOREGROUNDS, other labels (if any) are merged with BACKGROUND
-    for (int cell = 0; cell < seedsPointsFg.size(); cell++) { // over each seed label
-      // some maps for FOREGROUNDS key can be empty, so lists will be too. Note that decodeSeeds
-      // throw exception when all maps for specified key are empty. Other situations are allowed.
-      if (seedsPointsFg.get(cell).isEmpty()) {
-        continue;
+    List<int[]> seedsPointsBg = new ArrayList<>(seedsPointsFg);
+    seedsPointsBg.remove(cell); // remove current object seed
+    int[] seedsPointsObj = seedsPointsFg.get(cell);
+    // image data used for solving, cut to region if given
+    RealMatrix imageObj = image;
+    RealMatrix[] gradientsObj = gradients;
+    RealMatrix localMeanObj = localMeanFg;
+    if (crop != null) {
+      imageObj = crop(image, crop);
+      gradientsObj = new RealMatrix[gradients.length];
+      for (int g = 0; g < gradients.length; g++) {
+        gradientsObj[g] = crop(gradients[g], crop);
       }
-      // make copy of objects seeds - need of removing current one and integrate remaining with bck
-      ArrayList<List<Point>> tmpSeedsPointsFg = new ArrayList<List<Point>>(seedsPointsFg);
-      tmpSeedsPointsFg.remove(cell); // remove current object seed
-      // clear Bg, it always contains all objects except current (seedsPointsFg[cell])
-      seedsPointsBg.clear();
-      seedsPointsBg.addAll(tmpSeedsPointsFg); // add all remaining foregrounds to current bck
-
-      // decide whether to use local mean or global mean. Local mean is computed within square mask
-      // of configurable size whereas the global mean is a mean intensity of all seeded pixels.
-      // Local mean evaluated only for FG objects.
-      if (params.useLocalMean && seeds.get(SeedTypes.ROUGHMASK) != null
-              && !userBckPoints.contains(seedsPointsFg.get(cell))) { // skip BG object
-        RealMatrix localMeanFg =
-                getMeanSeedLocal(seeds.get(SeedTypes.ROUGHMASK, 1), params.localMeanMaskSize);
-        diffIfg = image.subtract(localMeanFg);
-      } else { // global for whole seeds
-        // compute intensity means for image points labelled by seeds
-        double meanseed = getMeanSeedGlobal(seedsPointsFg.get(cell));
-        LOGGER.debug("meanseed_fg=" + meanseed);
-        // compute normalised squared differences to mean seed intensities (Image-meanseed).^2
-        diffIfg = image.scalarAdd(-meanseed);
+      if (localMeanFg != null) {
+        localMeanObj = crop(localMeanFg, crop);
       }
-      // normalize (Image-meanseed).^2 to maximal (theoretical) value which is 255^2 for 8-bit
-      // images. Have it as private field as we support 16 images as well
-      diffIfg.walkInOptimizedOrder(new MatrixElementPowerDiv(maxTheoreticalIntSqr));
-      LOGGER.trace("fseeds size: " + seedsPointsFg.get(cell).size());
-      LOGGER.trace("bseeds size: " + seedsPointsBg.stream().mapToInt(p -> p.size()).sum());
-
-      // compute weights for diffusion in all four directions, dependent on local gradients and
-      // differences to mean intensities of seeds, for FG maps
-      Array2DRowRealMatrix wrfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradients[0]);
-      Array2DRowRealMatrix wlfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradients[2]);
-      Array2DRowRealMatrix wtfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradients[1]);
-      Array2DRowRealMatrix wbfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradients[3]);
-
-      // compute averaged weights, left/right and top/bottom used when computing second spatial
-      // derivative from first one, avgwx_fg = 0.5*(wl_fg+wr_fg) - for FG
-      RealMatrix avgwxfg = wlfg.add(wrfg); // wl_fg+wr_fg - (left+right)
-      avgwxfg.walkInOptimizedOrder(new MatrixElementMultiply(0.5)); // 0.5*(wl_fg+wr_fg)
-      RealMatrix avgwyfg = wtfg.add(wbfg); // wt_fg+wb_fg - (top+bottom)
-      avgwyfg.walkInOptimizedOrder(new MatrixElementMultiply(0.5)); // 0.5*(wt_fg+wb_fg)
-
-      // Compute diffusion coefficient that will obey stability criterion
-      double diffusion = getDiffusionConst(wrfg, wlfg, wtfg, wbfg, avgwxfg, avgwyfg);
-      LOGGER.debug("D=" + diffusion);
-
-      // get average "distance" between weights multiplying w = w.*avgw, this is only for
-      // optimisation purposes.
-      // does not apply for FG if we use local mean, applied for BG always (better results)
-      if (params.useLocalMean == false || userBckPoints.contains(seedsPointsFg.get(cell))) {
-        wrfg.walkInOptimizedOrder(new MatrixDotProduct(avgwxfg));
-        wlfg.walkInOptimizedOrder(new MatrixDotProduct(avgwxfg));
-        wtfg.walkInOptimizedOrder(new MatrixDotProduct(avgwyfg));
-        wbfg.walkInOptimizedOrder(new MatrixDotProduct(avgwyfg));
+      seedsPointsObj = crop(seedsPointsObj, crop);
+      for (int b = 0; b < seedsPointsBg.size(); b++) {
+        seedsPointsBg.set(b, crop(seedsPointsBg.get(b), crop));
       }
-
+      LOGGER.debug("Object " + cell + " solved in " + crop);
+    }
+
+    // decide whether to use local mean or global mean. Local mean is computed within square mask
+    // of configurable size whereas the global mean is a mean intensity of all seeded pixels.
+    // Local mean evaluated only for FG objects.
+    if (localMeanObj != null && !isBackground) { // skip BG object
+      diffIfg = imageObj.subtract(localMeanObj);
+    } else { // global for whole seeds
+      // compute intensity means for image points labelled by seeds
+      double meanseed = getMeanSeedGlobal(seedsPointsFg.get(cell));
+      LOGGER.debug("meanseed_fg=" + meanseed);
+      // compute normalised squared differences to mean seed intensities (Image-meanseed).^2
+      diffIfg = imageObj.scalarAdd(-meanseed);
+    }
+    // normalize (Image-meanseed).^2 to maximal (theoretical) value which is 255^2 for 8-bit
+    // images. Have it as private field as we support 16 images as well
+    diffIfg.walkInOptimizedOrder(new MatrixElementPowerDiv(maxTheoreticalIntSqr));
+    LOGGER.trace("fseeds size: " + seedsPointsObj.length);
+    LOGGER.trace("bseeds size: " + seedsPointsBg.stream().mapToInt(p -> p.length).sum());
+
+    // compute weights for diffusion in all four directions, dependent on local gradients and
+    // differences to mean intensities of seeds, for FG maps
+    Array2DRowRealMatrix wrfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradientsObj[0]);
+    Array2DRowRealMatrix wlfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradientsObj[2]);
+    Array2DRowRealMatrix wtfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradientsObj[1]);
+    Array2DRowRealMatrix wbfg = (Array2DRowRealMatrix) computeweights(diffIfg, gradientsObj[3]);
+
+    // compute averaged weights, left/right and top/bottom used when computing second spatial
+    // derivative from first one, avgwx_fg = 0.5*(wl_fg+wr_fg) - for FG
+    RealMatrix avgwxfg = wlfg.add(wrfg); // wl_fg+wr_fg - (left+right)
+    avgwxfg.walkInOptimizedOrder(new MatrixElementMultiply(0.5)); // 0.5*(wl_fg+wr_fg)
+    RealMatrix avgwyfg = wtfg.add(wbfg); // wt_fg+wb_fg - (top+bottom)
+    avgwyfg.walkInOptimizedOrder(new MatrixElementMultiply(0.5)); // 0.5*(wt_fg+wb_fg)
+
+    // Compute diffusion coefficient that will obey stability criterion
+    double diffusion = getDiffusionConst(wrfg, wlfg, wtfg, wbfg, avgwxfg, avgwyfg);
+    LOGGER.debug("D=" + diffusion);
+
+    // get average "distance" between weights multiplying w = w.*avgw, this is only for
+    // optimisation purposes.
+    // does not apply for FG if we use local mean, applied for BG always (better results)
+    if (params.useLocalMean == false || isBackground) {
+      wrfg.walkInOptimizedOrder(new MatrixDotProduct(avgwxfg));
+      wlfg.walkInOptimizedOrder(new MatrixDotProduct(avgwxfg));
+      wtfg.walkInOptimizedOrder(new MatrixDotProduct(avgwyfg));
+      wbfg.walkInOptimizedOrder(new MatrixDotProduct(avgwyfg));
+    }
+
+    StoppedBy stoppedReason = StoppedBy.ITERATIONS; // default assumption
+    int i; // iteration counter
+    Array2DRowRealMatrix fg; // FG probability map, output from this routine
+    if (params.solverEngine == SolverEngine.CG) {
+      SparseLaplacianSolver engine = new SparseLaplacianSolver(wrfg.getDataRef(),
+              wlfg.getDataRef(), wtfg.getDataRef(), wbfg.getDataRef());
+      engine.setSeeds(seedsPointsObj, concat(seedsPointsBg));
+      stoppedReason = engine.solve(iter, params.cgTolerance);
+      i = engine.getIterations();
+      fg = engine.getSolution();
+      LOGGER.debug("Residual for object " + cell + " = " + engine.getResidual());
+    } else if (params.solverEngine == SolverEngine.FLAT) {
+      FlatDiffusionSolver engine = new FlatDiffusionSolver(wrfg.getDataRef(), wlfg.getDataRef(),
+              wtfg.getDataRef(), wbfg.getDataRef(), diffusion, params.dt);
+      engine.setSeeds(seedsPointsObj, concat(seedsPointsBg));
+      engine.setActivityThreshold(params.activityThreshold);
+      stoppedReason = engine.solve(params.multigridLevels, iter, relErrStep,
+              params.relim[currentSweep]);
+      i = engine.getIterations();
+      fg = engine.getSolution();
+      LOGGER.debug("Mean fraction of updated tiles for object " + cell + " = "
+              + engine.getActiveFraction());
+      // report coarse levels, full resolution is reported below
+      for (int l = engine.getLevelIterations().length - 1; l > 0; l--) {
+        LOGGER.info("Sweep " + currentSweep + " for object " + cell + " on level " + l
+                + " (scale 1/" + (1 << l) + ") stopped by " + engine.getLevelStoppedBy()[l]
+                + " after " + engine.getLevelIterations()[l] + " iteration from " + iter);
+      }
+    } else {
       // initialize FG probability maps, they are outputs from this routine
-      Array2DRowRealMatrix fg =
-              new Array2DRowRealMatrix(image.getRowDimension(), image.getColumnDimension());
+      fg = new Array2DRowRealMatrix(imageObj.getRowDimension(), imageObj.getColumnDimension());
       // this temporary array will keep solution from n-1 iteration used for computing rel error
-      double[][] tmpFglast2d = new double[image.getRowDimension()][image.getColumnDimension()];
+      double[][] tmpFglast2d =
+              new double[imageObj.getRowDimension()][imageObj.getColumnDimension()];
 
       // dereferencing arrays, all computations are done on underlying [][] arrays but not on
       // RelaMatrix objects, optimisation again
@@ -1092,27 +1474,8 @@ public class RandomWalkSegmentation {
       double[][] wbfg2d = wbfg.getDataRef(); // weight to bottom for FG
 
       double[][] fg2d = fg.getDataRef(); // reference to FG probabilities
-
-      StoppedBy stoppedReason = StoppedBy.ITERATIONS; // default assumption
-      int i; // iteration counter
-      // compute correct number of iterations. Second sweep uses 0.5*user
-      int iter;
-      // use less iterations when diffuse background. Background needs much more iterations to reach
-      // specified relError and after weighting it dominates leaving only original object seed as
-      // segmented object. Here we stop segmenting background after certain number of iterations but
-      // not relErr. This is how we have it solved in MAtlab
-      if (true && (userBckPoints.contains(seedsPointsFg.get(cell)) && iterations.size() > 0)) {
-        // just use average of iters for BCK
-        iter = iterations.stream().mapToInt(Integer::intValue).max().getAsInt();
-        // FIXME This can be disabled, then BCK will need more iterations but sometimes results are
-        // better
-        // potential pitfall is if user mark BG far from cell, then small number of iters is not
-        // enough to flood whole background (but it will work because during comparison bck is on 0
-        // and FG segmentation rather does not leave object
-        iter /= (currentSweep + 1);
-      } else { // object - use specified number of iters
-        iter = params.iter / (currentSweep + 1);
-      }
+      final int nrows = fg.getRowDimension();
+      final int ncols = fg.getColumnDimension();
       // main loop here we simulate diffusion process in time
       outerloop: for (i = 0; i < iter; i++) {
         if (i % relErrStep == 0) {
@@ -1121,18 +1484,18 @@ public class RandomWalkSegmentation {
           LOGGER.trace("Iter: " + i);
         }
         // fill seed pixels explicitly with probability 1 for FG and BG
-        ArrayRealVector tmp = new ArrayRealVector(1); // filled with 0, setValues() needs that input
-        double[] tmpref = tmp.getDataRef(); // just get reference to underlying array
         // set probability to 0 of being FG for BG seeds and vice versa
-        for (List<Point> b : seedsPointsBg) {
-          setValues(fg, b, tmp); // set 0 all seed pixel currently considered as BG
+        for (int[] b : seedsPointsBg) {
+          for (int s : b) {
+            fg2d[s / ncols][s % ncols] = 0; // set 0 all seed pixel currently considered as BG
+          }
         }
         // set probability to 1 for of being FG for FG seeds and vice versa
-        tmpref[0] = 1;
-        setValues(fg, seedsPointsFg.get(cell), tmp); // set 1
-        tmp = null;
+        for (int s : seedsPointsObj) {
+          fg2d[s / ncols][s % ncols] = 1;
+        }
 
-        // ------------------- Computation of FG map ----------------------------------------------
+        // ------------------- Computation of FG map --------------------------------------------
         // groups for long term for FG. Get all four neighbours to current pixel
         Array2DRowRealMatrix fgcircright = (Array2DRowRealMatrix) circshift(fg, RIGHT);
         Array2DRowRealMatrix fgcircleft = (Array2DRowRealMatrix) circshift(fg, LEFT);
@@ -1140,21 +1503,19 @@ public class RandomWalkSegmentation {
         Array2DRowRealMatrix fgcircbottom = (Array2DRowRealMatrix) circshift(fg, BOTTOM);
 
         // extract required references from RealMatrix objects.
-        double[][] fgcircright2d = fgcircright.getDataRef(); // reference to FG prob shifted right
-        double[][] fgcircleft2d = fgcircleft.getDataRef(); // reference to FG probab. shifted left
-        double[][] fgcirctop2d = fgcirctop.getDataRef(); // reference to FG probab. shifted top
-        double[][] fgcircbottom2d = fgcircbottom.getDataRef(); // reference to FG prob. shifted bot
+        double[][] fgcircright2d = fgcircright.getDataRef(); // FG prob shifted right
+        double[][] fgcircleft2d = fgcircleft.getDataRef(); // FG probab. shifted left
+        double[][] fgcirctop2d = fgcirctop.getDataRef(); // FG probab. shifted top
+        double[][] fgcircbottom2d = fgcircbottom.getDataRef(); // FG prob. shifted bot
 
         AtomicInteger at = new AtomicInteger(stoppedReason.getValue());
-        // Traverse all pixels in FG map and update them according to diffusion from 4 neighbours of
-        // each pixel
-        int nrows = fg.getRowDimension();
-        int ncols = fg.getColumnDimension();
+        // Traverse all pixels in FG map and update them according to diffusion from 4 neighbours
+        // of each pixel
         IntStream.range(0, nrows * ncols).parallel().forEach(ii -> {
           int c = ii % ncols;
           int r = ii / ncols;
-          fg2d[r][c] += params.dt * (diffusion * (((fgcircright2d[r][c] - fg2d[r][c]) / wrfg2d[r][c]
-                  - (fg2d[r][c] - fgcircleft2d[r][c]) / wlfg2d[r][c])
+          fg2d[r][c] += params.dt * (diffusion * (((fgcircright2d[r][c] - fg2d[r][c])
+                  / wrfg2d[r][c] - (fg2d[r][c] - fgcircleft2d[r][c]) / wlfg2d[r][c])
                   + ((fgcirctop2d[r][c] - fg2d[r][c]) / wtfg2d[r][c]
                           - (fg2d[r][c] - fgcircbottom2d[r][c]) / wbfg2d[r][c])));
           // - params.gamma[currentSweep] * fg2d[r][c] * bg2d[r][c] - disabled
@@ -1179,18 +1540,14 @@ public class RandomWalkSegmentation {
           LOGGER.info("Relative error for object " + cell + " = " + rele);
           if (rele < params.relim[currentSweep]) {
             stoppedReason = StoppedBy.RELERR;
-            // store number of iters for object, required for limiting iterations for BCK
-            if (!userBckPoints.contains(seedsPointsFg.get(cell))) {
-              iterations.add(i);
-            }
             break outerloop;
           }
         }
         // store probabilities over iterations
         if (QuimP.SUPER_DEBUG) {
-          debugPm =
-                  (debugPm == null) ? new ImageStack(fg.getColumnDimension(), fg.getRowDimension())
-                          : debugPm;
+          debugPm = (debugPm == null)
+                  ? new ImageStack(fg.getColumnDimension(), fg.getRowDimension())
+                  : debugPm;
           if (i > 1000) {
             if (i % 50 == 0) {
               debugPm.addSlice(QuimPArrayUtils.realMatrix2ImageProcessor(fg));
@@ -1199,28 +1556,28 @@ public class RandomWalkSegmentation {
             debugPm.addSlice(QuimPArrayUtils.realMatrix2ImageProcessor(fg));
           }
         }
-        // remember FG map for this iteration to use it to compute relative error in next iteration
+        // remember FG map for this iteration to use it to compute relative error in next iter
         QuimPArrayUtils.copy2darray(fg2d, tmpFglast2d);
       } // iter
-      LOGGER.info("Sweep " + currentSweep + " for object " + cell + " stopped by " + stoppedReason
-              + " after " + i + " iteration from " + iter);
-      if (userBckPoints.contains(seedsPointsFg.get(cell))) { // we processed background seeds
-        ret.put(SeedTypes.BACKGROUND, fg); // store it in separate key - needed for proper compar.
-      } else {
-        ret.put(SeedTypes.FOREGROUNDS, fg);
-      }
-      // save stack of probability maps (over iterations) for each processed object separately
-      if (QuimP.SUPER_DEBUG) {
-        if (debugPm != null) {
-          ImagePlus debugIm = new ImagePlus("debug", debugPm);
-          String tmp = System.getProperty("java.io.tmpdir");
-          Path p = Paths.get(tmp, "Rw_ProbMap-cell_" + cell);
-          IJ.saveAsTiff(debugIm, p.toString());
-          debugPm = null; // next object
-        }
+    }
+    LOGGER.info("Sweep " + currentSweep + " for object " + cell + " stopped by " + stoppedReason
+            + " after " + i + " iteration from " + iter);
+    // save stack of probability maps (over iterations) for each processed object separately
+    if (QuimP.SUPER_DEBUG) {
+      if (debugPm != null) {
+        ImagePlus debugIm = new ImagePlus("debug", debugPm);
+        String tmp = System.getProperty("java.io.tmpdir");
+        Path p = Paths.get(tmp, "Rw_ProbMap-cell_" + cell);
+        IJ.saveAsTiff(debugIm, p.toString());
+        debugPm = null; // next object
       }
-    } // cell
-    return ret;
+    }
+    if (crop != null) { // paste into whole image
+      maps.setBlock(plane, fg.getDataRef(), crop.y, crop.x);
+    } else {
+      maps.setBlock(plane, fg.getDataRef(), 0, 0);
+    }
+    return new ObjectSolution(stoppedReason, i);
   }
 
   /**
@@ -1399,6 +1756,37 @@ public class RandomWalkSegmentation {
     }
   }
 
+  /**
+   * Result of diffusion for one object.
+   * 
+   * <p>Probability map is stored in {@link FloatPlanes} given to solver.
+   * 
+   * @author p.baniukiewicz
+   * @see RandomWalkSegmentation#solveObject(int, List, boolean, RealMatrix, RealMatrix[], int,
+   *      Rectangle, FloatPlanes, int)
+   */
+  static class ObjectSolution {
+    /**
+     * Reason of stopping diffusion.
+     */
+    final StoppedBy stoppedBy;
+    /**
+     * Number of iterations performed.
+     */
+    final int iterations;
+
+    /**
+     * Create solution.
+     * 
+     * @param stoppedBy reason of stopping diffusion
+     * @param iterations number of iterations performed
+     */
+    ObjectSolution(StoppedBy stoppedBy, int iterations) {
+      this.stoppedBy = stoppedBy;
+      this.iterations = iterations;
+    }
+  }
+
   /**
    * Return probability maps for each object (foreground is last). Valid after running the plugin.
    * 
@@ -6,12 +6,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowFocusListener;
+import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingWorker;
@@ -841,7 +846,8 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
     ImageStack ret; // all images treated as stacks
     ImageStack is = null;
     Seeds seeds;
-    PropagateSeeds propagateSeeds;
+    PropagateSeeds propagateSeeds = null;
+    ExecutorService executor = null; // used only if frames are processed concurrently
     isRun = true; // segmentation started
     // if preview selected - prepare image
     if (model.showPreview) {
@@ -872,14 +878,9 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
         throw new RandomWalkException("Seed stack and image stack must have the same z dimension");
       }
       // create seeding object with or without storing the history of configured type
-      propagateSeeds = PropagateSeeds.getPropagator(model.selectedShrinkMethod, model.showSeeds,
-              thresholdBackground);
-      if (propagateSeeds instanceof PropagateSeeds.Contour) {
-        ((PropagateSeeds.Contour) propagateSeeds).scaleMagn = model.scaleMagn;
-        ((PropagateSeeds.Contour) propagateSeeds).scaleSigma = model.scaleSigma;
-        ((PropagateSeeds.Contour) propagateSeeds).averageNormalsDist = model.scaleEqNormalsDist;
-        ((PropagateSeeds.Contour) propagateSeeds).averageCurvDist = model.scaleCurvDistDist;
-        ((PropagateSeeds.Contour) propagateSeeds).useFiltering = model.interFrameFilter;
+      propagateSeeds = getPropagator(model.showSeeds, thresholdBackground);
+      if (model.numFrameThreads > 1 && oneSlice == false && is.getSize() > 1) {
+        executor = Executors.newFixedThreadPool(useSeedStack ? model.numFrameThreads : 1);
       }
 
       ret = new ImageStack(image.getWidth(), image.getHeight()); // output stack
@@ -933,17 +934,18 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
           // get seeds split to FG and BG
           // this is mask (bigger) so produce seeds, overwrite seeds
           // do no scale here as seedImage is 16bit and it would remove some colors. Assume clipping
-          seeds = propagateSeeds.propagateSeed(
+          seeds = getSeedsFromMask(propagateSeeds,
                   seedImage.getStack().getProcessor(startSlice).duplicate().convertToByte(false),
-                  is.getProcessor(startSlice), model.shrinkPower, model.expandPower);
-          // mask to local mean
-          seeds.put(SeedTypes.ROUGHMASK,
-                  seedImage.getStack().getProcessor(startSlice).duplicate().convertToByte(false));
-          seeds.get(SeedTypes.ROUGHMASK, 1).threshold(0); // to have BW map in case
+                  is.getProcessor(startSlice));
           break;
         default:
           throw new IllegalArgumentException("Unsupported seed source");
       }
+      // gradients of next frame are computed while current frame is segmented
+      Future<RandomWalkSegmentation> nextObj = null;
+      if (executor != null && useSeedStack == false) {
+        nextObj = prepareFrame(executor, is.getProcessor(2));
+      }
       // segment first slice (or image if it is not stack)
       ImageProcessor retIp = obj.run(seeds);
       if (retIp == null) { // segmentation failed, return empty image
@@ -952,7 +954,11 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
       }
       model.algOptions.useLocalMean = localMeanUserStatus; // restore status after 1st frame
       if (model.hatFilter) {
-        retIp = applyHatSnakeFilter(retIp, is.getProcessor(startSlice));
+        try {
+          retIp = applyHatSnakeFilter(retIp, is.getProcessor(startSlice));
+        } catch (BoaException e) { // keep unfiltered frame
+          reportHatFilterError(e);
+        }
       }
       ret.addSlice(retIp.convertToByte(true)); // store output in new stack
       if (model.showPreview) { // display first slice
@@ -961,11 +967,24 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
         prev.show();
         prev.updateAndDraw();
       }
+      if (executor != null && useSeedStack == true
+              && (model.getSelectedSeedSource() == SeedSource.QconfFile
+                      || model.getSelectedSeedSource() == SeedSource.MaskImage)) {
+        // frames are independent - segment them in parallel
+        obj = segmentSeedStack(executor, is, seedImage.getStack(), ret, prev, propagateSeeds,
+                thresholdBackground, obj);
+      }
       // iterate over all slices after first (may not run for one image and for current image seg)
-      for (int s = 2; s <= is.getSize() && isCanceled == false && oneSlice == false; s++) {
+      for (int s = ret.getSize() + 1; s <= is.getSize() && isCanceled == false
+              && oneSlice == false; s++) {
         LOGGER.info("----- Slice " + s + " -----");
         Seeds nextseed = new Seeds(); // just to remove null warning
-        obj = new RandomWalkSegmentation(is.getProcessor(s), model.algOptions);
+        if (nextObj != null) { // already prepared
+          obj = getFrame(nextObj);
+          nextObj = s < is.getSize() ? prepareFrame(executor, is.getProcessor(s + 1)) : null;
+        } else {
+          obj = new RandomWalkSegmentation(is.getProcessor(s), model.algOptions);
+        }
         // get seeds from previous result
         if (useSeedStack) { // true - use slices
           switch (model.getSelectedSeedSource()) {
@@ -979,12 +998,9 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
             case MaskImage:
               // do no scale here as seedImage is 16bit and it would remove some colors. Assume
               // clipping
-              nextseed = propagateSeeds.propagateSeed(
+              nextseed = getSeedsFromMask(propagateSeeds,
                       seedImage.getStack().getProcessor(s).duplicate().convertToByte(false),
-                      is.getProcessor(s), model.shrinkPower, model.expandPower);
-              nextseed.put(SeedTypes.ROUGHMASK,
-                      seedImage.getStack().getProcessor(s).duplicate().convertToByte(false));
-              nextseed.get(SeedTypes.ROUGHMASK, 1).threshold(0); // to have BW map in case
+                      is.getProcessor(s));
               break;
             default:
           }
@@ -998,21 +1014,11 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
           nextseed.get(SeedTypes.ROUGHMASK, 1).threshold(0); // to have BW map in case
         }
         // segmentation and results stored for next seeding
-        retIp = obj.run(nextseed);
-        if (retIp == null) { // segmentation failed, return empty image
-          LOGGER.error("Segmentation failed - no Foreground maps provided"); // not very important
-          retIp = new ByteProcessor(image.getWidth(), image.getHeight());
-        }
-        if (model.hatFilter) {
-          retIp = applyHatSnakeFilter(retIp, is.getProcessor(s));
-        }
+        FrameResult fr = segmentFrame(obj, nextseed, is.getProcessor(s));
+        reportHatFilterError(fr.hatError);
+        retIp = fr.retIp;
         ret.addSlice(retIp); // add next slice
-        if (model.showPreview) { // show preview remaining slices
-          prev.setProcessor(retIp);
-          prev.setTitle("Previev - frame: " + s);
-          prev.setActivated();
-          prev.updateAndDraw();
-        }
+        showFrame(prev, retIp, s);
         IJ.showProgress(s - 1, is.getSize());
       }
       // convert to ImagePlus and show
@@ -1071,14 +1077,242 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
               e.getClass().getSimpleName() + ": " + e.getMessage());
     } finally {
       isRun = false; // segmentation stopped
+      if (executor != null) {
+        executor.shutdownNow(); // stop remaining frames if cancelled or failed
+      }
       IJ.showProgress(2, 1); // erase progress bar
       if (prev != null) {
         prev.close();
       }
+      if (propagateSeeds != null) {
+        try {
+          propagateSeeds.close(); // composite of seeds, if shown, is already built
+        } catch (IOException e) {
+          LOGGER.debug("Seed history can not be removed: " + e.getMessage(), e);
+        }
+      }
       model.algOptions.useLocalMean = localMeanUserStatus; // restore status
     }
   }
 
+  /**
+   * Segment remaining frames of stack using seeds given as stack.
+   * 
+   * <p>Frames are segmented in parallel on <tt>executor</tt>, at most
+   * 2*{@link RandomWalkModel#numFrameThreads} at time. Results are added to output stack in frame
+   * order. Each frame uses its own propagator, seeds are stored in history of
+   * <tt>propagateSeeds</tt> in frame order as well.
+   * 
+   * @param executor executor to run frames on
+   * @param is stack to segment
+   * @param seedStack stack with masks of objects
+   * @param ret output stack, first frame should be already added
+   * @param prev preview window or null
+   * @param propagateSeeds propagator that collects seed history
+   * @param thresholdBackground method of estimating background, can be null
+   * @param obj segmentation object of last frame
+   * @return segmentation object of last frame
+   * @throws QuimpPluginException on error in segmentation
+   */
+  private RandomWalkSegmentation segmentSeedStack(ExecutorService executor, ImageStack is,
+          ImageStack seedStack, ImageStack ret, ImagePlus prev, PropagateSeeds propagateSeeds,
+          AutoThresholder.Method thresholdBackground, RandomWalkSegmentation obj)
+          throws QuimpPluginException {
+    RandomWalkModel model = (RandomWalkModel) options;
+    ArrayDeque<Future<FrameResult>> queue = new ArrayDeque<>();
+    int next = ret.getSize() + 1; // next frame to submit
+    for (int s = next; s <= is.getSize() && isCanceled == false; s++) {
+      while (next <= is.getSize() && queue.size() < 2 * model.numFrameThreads) {
+        // stacks are accessed here as virtual stacks are not thread safe
+        final ImageProcessor ip = is.getProcessor(next);
+        final ImageProcessor seedIp = seedStack.getProcessor(next).duplicate().convertToByte(false);
+        queue.add(executor.submit(() -> {
+          // propagators keep history thus use new one for each frame
+          Seeds seeds = getSeedsFromMask(getPropagator(false, thresholdBackground), seedIp, ip);
+          RandomWalkSegmentation frameObj = new RandomWalkSegmentation(ip, model.algOptions);
+          return segmentFrame(frameObj, seeds, ip);
+        }));
+        next++;
+      }
+      LOGGER.info("----- Slice " + s + " -----");
+      FrameResult fr = getFrame(queue.poll());
+      reportHatFilterError(fr.hatError); // on this thread, not on executor
+      propagateSeeds.addToHistory(fr.seeds);
+      obj = fr.obj;
+      ret.addSlice(fr.retIp);
+      showFrame(prev, fr.retIp, s);
+      IJ.showProgress(s - 1, is.getSize());
+    }
+    return obj;
+  }
+
+  /**
+   * Create segmentation object for frame and compute its gradients in background.
+   * 
+   * @param executor executor to run computations on
+   * @param ip frame to segment
+   * @return segmentation object with precomputed gradients
+   * @see RandomWalkSegmentation#precompute()
+   */
+  private Future<RandomWalkSegmentation> prepareFrame(ExecutorService executor,
+          ImageProcessor ip) {
+    RandomWalkModel model = (RandomWalkModel) options;
+    return executor.submit(() -> new RandomWalkSegmentation(ip, model.algOptions).precompute());
+  }
+
+  /**
+   * Wait for result of frame processed in background.
+   * 
+   * @param future result to wait for
+   * @return result of computations
+   * @throws QuimpPluginException if computations failed or were interrupted
+   */
+  private <T> T getFrame(Future<T> future) throws QuimpPluginException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof QuimpPluginException) {
+        throw (QuimpPluginException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new RandomWalkException("Segmentation of frame failed: " + cause.getMessage(), cause);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RandomWalkException("Segmentation interrupted", e);
+    }
+  }
+
+  /**
+   * Segment one frame and apply HatSnake filter if selected.
+   * 
+   * <p>Can run on executor thread, thus failure of HatSnake filter is not reported here but
+   * returned in {@link FrameResult#hatError}, see {@link #reportHatFilterError(BoaException)}.
+   * 
+   * @param obj segmentation object created for frame
+   * @param seeds seeds for frame
+   * @param orIp original image of frame
+   * @return segmented frame, empty if segmentation failed
+   * @throws QuimpPluginException on error in segmentation
+   */
+  private FrameResult segmentFrame(RandomWalkSegmentation obj, Seeds seeds, ImageProcessor orIp)
+          throws QuimpPluginException {
+    RandomWalkModel model = (RandomWalkModel) options;
+    ImageProcessor retIp = obj.run(seeds);
+    if (retIp == null) { // segmentation failed, return empty image
+      LOGGER.error("Segmentation failed - no Foreground maps provided"); // not very important
+      retIp = new ByteProcessor(orIp.getWidth(), orIp.getHeight());
+    }
+    BoaException hatError = null;
+    if (model.hatFilter) {
+      try {
+        retIp = applyHatSnakeFilter(retIp, orIp);
+      } catch (BoaException e) { // keep unfiltered frame
+        hatError = e;
+      }
+    }
+    return new FrameResult(obj, retIp, seeds, hatError);
+  }
+
+  /**
+   * Show error of HatSnake filter.
+   * 
+   * <p>Should be called from thread that runs plugin.
+   * 
+   * @param e exception thrown by {@link #applyHatSnakeFilter(ImageProcessor, ImageProcessor)},
+   *        nothing is reported if null
+   */
+  private void reportHatFilterError(BoaException e) {
+    if (e != null) {
+      e.setMessageSinkType(MessageSinkTypes.IJERROR);
+      e.handleException(null, "HatSnake Filter failed");
+    }
+  }
+
+  /**
+   * Update preview window.
+   * 
+   * @param prev preview window, do nothing if null
+   * @param retIp segmented frame
+   * @param s frame number
+   */
+  private void showFrame(ImagePlus prev, ImageProcessor retIp, int s) {
+    if (prev != null) { // show preview remaining slices
+      prev.setProcessor(retIp);
+      prev.setTitle("Previev - frame: " + s);
+      prev.setActivated();
+      prev.updateAndDraw();
+    }
+  }
+
+  /**
+   * Produce seeds from mask of objects.
+   * 
+   * @param propagateSeeds propagator to use
+   * @param seedIp 8-bit mask of objects, also used as {@link SeedTypes#ROUGHMASK}
+   * @param ip image seeds are computed for
+   * @return seeds with {@link SeedTypes#ROUGHMASK}
+   */
+  private Seeds getSeedsFromMask(PropagateSeeds propagateSeeds, ImageProcessor seedIp,
+          ImageProcessor ip) {
+    RandomWalkModel model = (RandomWalkModel) options;
+    Seeds seeds = propagateSeeds.propagateSeed(seedIp, ip, model.shrinkPower, model.expandPower);
+    // mask to local mean
+    seeds.put(SeedTypes.ROUGHMASK, seedIp.duplicate());
+    seeds.get(SeedTypes.ROUGHMASK, 1).threshold(0); // to have BW map in case
+    return seeds;
+  }
+
+  /**
+   * Create seed propagator configured according to {@link RandomWalkModel}.
+   * 
+   * @param storeSeeds true to store seed history
+   * @param thresholdBackground method of estimating background, can be null
+   * @return propagator
+   * @see PropagateSeeds#getPropagator(PropagateSeeds.Propagators, boolean,
+   *      AutoThresholder.Method)
+   */
+  private PropagateSeeds getPropagator(boolean storeSeeds,
+          AutoThresholder.Method thresholdBackground) {
+    RandomWalkModel model = (RandomWalkModel) options;
+    PropagateSeeds propagateSeeds = PropagateSeeds.getPropagator(model.selectedShrinkMethod,
+            storeSeeds, thresholdBackground);
+    if (propagateSeeds instanceof PropagateSeeds.Contour) {
+      ((PropagateSeeds.Contour) propagateSeeds).scaleMagn = model.scaleMagn;
+      ((PropagateSeeds.Contour) propagateSeeds).scaleSigma = model.scaleSigma;
+      ((PropagateSeeds.Contour) propagateSeeds).averageNormalsDist = model.scaleEqNormalsDist;
+      ((PropagateSeeds.Contour) propagateSeeds).averageCurvDist = model.scaleCurvDistDist;
+      ((PropagateSeeds.Contour) propagateSeeds).useFiltering = model.interFrameFilter;
+    }
+    return propagateSeeds;
+  }
+
+  /**
+   * Result of segmentation of one frame.
+   * 
+   * @author p.baniukiewicz
+   *
+   */
+  private static class FrameResult {
+    final RandomWalkSegmentation obj;
+    final ImageProcessor retIp;
+    final Seeds seeds;
+    /**
+     * Failure of HatSnake filter, null if filter was not used or succeeded.
+     */
+    final BoaException hatError;
+
+    FrameResult(RandomWalkSegmentation obj, ImageProcessor retIp, Seeds seeds,
+            BoaException hatError) {
+      this.obj = obj;
+      this.retIp = retIp;
+      this.seeds = seeds;
+      this.hatError = hatError;
+    }
+  }
+
   /**
    * Retrieve result of segmentation.
    * 
@@ -1097,9 +1331,10 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
    * @param orIp original image
    * @return Filtered processor
    * @throws QuimpPluginException on problem with HatSnakeFilter
+   * @throws BoaException if filtered outline has less than 3 points, not reported here
    */
   private ImageProcessor applyHatSnakeFilter(ImageProcessor retIp, ImageProcessor orIp)
-          throws QuimpPluginException {
+          throws QuimpPluginException, BoaException {
     RandomWalkModel model = (RandomWalkModel) options;
     BinarySegmentation obj = new BinarySegmentation(new ImagePlus("", retIp));
     obj.trackObjects(); // run tracking
@@ -1114,14 +1349,7 @@ public class RandomWalkSegmentationPlugin_ extends AbstractPluginTemplate {
     hsf.setMode(HatSnakeFilter.CAVITIES);
     // dont use interpolation - provide list of points as they are on image
     List<Point2d> retf = hsf.runPlugin(ssR.getOutlineasRawPoints(), orIp);
-    Roi ssRF;
-    try {
-      ssRF = new QuimpDataConverter(retf).getSnake(0).asFloatRoi();
-    } catch (BoaException e) { // lesss than 3 points
-      e.setMessageSinkType(MessageSinkTypes.IJERROR);
-      e.handleException(null, "HatSnake Filter failed");
-      return retIp;
-    }
+    Roi ssRF = new QuimpDataConverter(retf).getSnake(0).asFloatRoi(); // throws if < 3 points
     ImageProcessor retIptmp = new ByteProcessor(orIp.getWidth(), orIp.getHeight());
     retIptmp.setColor(Color.WHITE);
     retIptmp.fill(ssRF);
@@ -0,0 +1,377 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+import com.github.celldynamics.quimp.utils.IJTools;
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * History of seeds used for visualisation in {@link PropagateSeeds#getCompositeSeed(ij.ImagePlus,
+ * int)}.
+ *
+ * <p>Only flattened foreground and background masks of each frame are stored. Last
+ * <tt>maxInMemory</tt> frames are kept on heap, older frames are compressed and appended to
+ * temporary file. Frames are read from this file on demand, file is not memory-mapped, so it is
+ * not locked after reading and can be removed by {@link #close()} or on exit of JVM.
+ *
+ * @author p.baniukiewicz
+ * @see PropagateSeeds#addToHistory(Seeds)
+ */
+public class SeedHistory implements Closeable {
+
+  /** The Constant LOGGER. */
+  static final Logger LOGGER = LoggerFactory.getLogger(SeedHistory.class.getName());
+
+  /**
+   * Default number of frames kept on heap.
+   */
+  public static final int DEFAULT_IN_MEMORY = 10;
+
+  /**
+   * Maximal number of frames kept on heap.
+   */
+  private final int maxInMemory;
+  /**
+   * Width of stored masks, set by first frame with seeds.
+   */
+  private int width = 0;
+  /**
+   * Height of stored masks, set by first frame with seeds.
+   */
+  private int height = 0;
+  /**
+   * Last frames, each is array of foreground and background mask or null if frame did not contain
+   * seeds.
+   */
+  private final List<byte[][]> memory = new ArrayList<>();
+  /**
+   * Position and length of each frame written to {@link #file}. Length -1 stands for frame
+   * without seeds.
+   */
+  private final List<long[]> spilled = new ArrayList<>();
+  /**
+   * Temporary file with older frames, null if not created yet.
+   */
+  private Path file = null;
+  /**
+   * Channel for writing and reading {@link #file}.
+   */
+  private FileChannel channel = null;
+
+  /**
+   * Create history with {@link #DEFAULT_IN_MEMORY} frames kept on heap.
+   */
+  public SeedHistory() {
+    this(DEFAULT_IN_MEMORY);
+  }
+
+  /**
+   * Create history.
+   *
+   * @param maxInMemory maximal number of frames kept on heap, older are moved to file
+   */
+  public SeedHistory(int maxInMemory) {
+    this.maxInMemory = Math.max(maxInMemory, 0);
+  }
+
+  /**
+   * Add seeds of next frame.
+   *
+   * <p>Foreground maps are flattened to one mask. Both masks contain 255 for seeded pixels.
+   *
+   * @param seed seeds to add
+   * @throws IOException if frame could not be written to temporary file
+   */
+  public synchronized void add(Seeds seed) throws IOException {
+    byte[][] frame = null;
+    ImageProcessor fgmap = SeedProcessor.flatten(seed, SeedTypes.FOREGROUNDS, 1);
+    ImageProcessor bgmap = seed.get(SeedTypes.BACKGROUND, 1);
+    if (fgmap != null && bgmap != null) {
+      ImageProcessor fg = fgmap.convertToByte(true);
+      fg.threshold(0); // need 255 not real value of map
+      ImageProcessor bg = bgmap.duplicate().convertToByte(true);
+      bg.threshold(0);
+      if (width == 0) {
+        width = fg.getWidth();
+        height = fg.getHeight();
+      }
+      frame = new byte[][] { (byte[]) fg.getPixels(), (byte[]) bg.getPixels() };
+    }
+    memory.add(frame);
+    if (memory.size() > maxInMemory) {
+      spill(memory.remove(0));
+    }
+  }
+
+  /**
+   * Number of stored frames.
+   *
+   * @return number of frames
+   */
+  public synchronized int size() {
+    return spilled.size() + memory.size();
+  }
+
+  /**
+   * Number of frames stored in temporary file.
+   *
+   * @return number of frames not kept on heap
+   */
+  public synchronized int getSpilled() {
+    return spilled.size();
+  }
+
+  /**
+   * Width of stored masks.
+   *
+   * @return width of first frame with seeds
+   */
+  public int getWidth() {
+    return width;
+  }
+
+  /**
+   * Height of stored masks.
+   *
+   * @return height of first frame with seeds
+   */
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Get masks of frame.
+   *
+   * @param index index of frame, 0-based
+   * @return foreground and background mask or null if frame did not contain seeds
+   * @throws IOException if frame could not be read from temporary file
+   */
+  public synchronized ByteProcessor[] get(int index) throws IOException {
+    byte[][] frame;
+    if (index < spilled.size()) {
+      frame = read(spilled.get(index));
+    } else {
+      frame = memory.get(index - spilled.size());
+      if (frame != null) {
+        frame = new byte[][] { frame[0].clone(), frame[1].clone() };
+      }
+    }
+    if (frame == null) {
+      return null;
+    }
+    return new ByteProcessor[] { new ByteProcessor(width, height, frame[0]),
+        new ByteProcessor(width, height, frame[1]) };
+  }
+
+  /**
+   * Check if all frames contain seeds.
+   *
+   * @return true if all frames contain foreground and background mask
+   */
+  public synchronized boolean isComplete() {
+    return !memory.contains(null) && spilled.stream().allMatch(s -> s[1] >= 0);
+  }
+
+  /**
+   * Get stack that reads one kind of mask from this history on demand.
+   *
+   * <p>Each slice is scaled by <tt>scaling</tt> and has grey LUT.
+   *
+   * @param type {@link SeedTypes#FOREGROUNDS} or {@link SeedTypes#BACKGROUND}
+   * @param scaling multiplier of mask values
+   * @return virtual stack of masks of frames stored so far, valid until this history is closed
+   */
+  public ImageStack getStack(SeedTypes type, double scaling) {
+    return new MaskStack(type == SeedTypes.FOREGROUNDS ? 0 : 1, scaling);
+  }
+
+  /**
+   * Remove temporary file.
+   *
+   * @see java.io.Closeable#close()
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+    if (file != null) {
+      Files.deleteIfExists(file);
+      file = null;
+    }
+    spilled.clear();
+    memory.clear();
+  }
+
+  /**
+   * Compress frame and append it to temporary file.
+   *
+   * @param frame frame to write, can be null
+   * @throws IOException on write error
+   */
+  private void spill(byte[][] frame) throws IOException {
+    if (channel == null) {
+      file = Files.createTempFile("QuimP-seeds", ".tmp");
+      file.toFile().deleteOnExit();
+      channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      LOGGER.debug("Seed history stored in " + file.toString());
+    }
+    long pos = channel.size();
+    if (frame == null) {
+      spilled.add(new long[] { pos, -1 });
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+      out.write(frame[0]);
+      out.write(frame[1]);
+    } finally {
+      deflater.end();
+    }
+    ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+    while (buf.hasRemaining()) {
+      channel.write(buf, pos + buf.position());
+    }
+    spilled.add(new long[] { pos, bytes.size() });
+  }
+
+  /**
+   * Read and decompress frame from temporary file.
+   *
+   * @param loc position and length of frame in file
+   * @return frame or null if frame did not contain seeds
+   * @throws IOException on read error
+   */
+  private byte[][] read(long[] loc) throws IOException {
+    if (loc[1] < 0) {
+      return null;
+    }
+    byte[] compressed = new byte[(int) loc[1]];
+    ByteBuffer buf = ByteBuffer.wrap(compressed);
+    while (buf.hasRemaining()) {
+      if (channel.read(buf, loc[0] + buf.position()) < 0) {
+        throw new IOException("Corrupted seed history");
+      }
+    }
+    byte[][] frame = new byte[2][width * height];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      for (byte[] plane : frame) {
+        int n = 0;
+        while (n < plane.length) {
+          int r = inflater.inflate(plane, n, plane.length - n);
+          if (r == 0 && (inflater.finished() || inflater.needsInput())) {
+            throw new IOException("Corrupted seed history");
+          }
+          n += r;
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+    return frame;
+  }
+
+  /**
+   * Stack of foreground or background masks read from history when requested.
+   *
+   * @author p.baniukiewicz
+   *
+   */
+  private class MaskStack extends VirtualStack {
+
+    /**
+     * 0 for foreground, 1 for background.
+     */
+    private final int mask;
+    /**
+     * Multiplier of mask values.
+     */
+    private final double scaling;
+    /**
+     * Indexes of frames in history for slices of this stack. Deleting slice does not modify
+     * history, e.g. when slices are consumed by {@link ij.plugin.RGBStackMerge}.
+     */
+    private final List<Integer> frames = new ArrayList<>();
+
+    /**
+     * Create stack.
+     *
+     * @param mask 0 for foreground, 1 for background
+     * @param scaling multiplier of mask values
+     */
+    MaskStack(int mask, double scaling) {
+      super(width, height);
+      this.mask = mask;
+      this.scaling = scaling;
+      for (int i = 0; i < SeedHistory.this.size(); i++) {
+        frames.add(i);
+      }
+    }
+
+    @Override
+    public ImageProcessor getProcessor(int n) {
+      ByteProcessor[] frame;
+      try {
+        frame = SeedHistory.this.get(frames.get(n - 1));
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      ImageProcessor ret = frame[mask];
+      ret.multiply(scaling); // make colors transparent
+      ret.setLut(IJTools.getGrayLut());
+      return ret;
+    }
+
+    @Override
+    public Object getPixels(int n) {
+      return getProcessor(n).getPixels();
+    }
+
+    @Override
+    public void deleteSlice(int n) {
+      frames.remove(n - 1);
+    }
+
+    @Override
+    public int getSize() {
+      return frames.size();
+    }
+
+    @Override
+    public String getSliceLabel(int n) {
+      return null;
+    }
+
+    @Override
+    public int getBitDepth() {
+      return 8;
+    }
+  }
+}
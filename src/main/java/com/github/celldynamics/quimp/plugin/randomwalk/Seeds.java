@@ -2,6 +2,7 @@ package com.github.celldynamics.quimp.plugin.randomwalk;
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.commons.math3.linear.RealMatrix;
@@ -113,6 +114,38 @@ public class Seeds extends ListMap<ImageProcessor> {
     return out;
   }
 
+  /**
+   * Convert seeds to arrays of linear indexes of seed pixels.
+   * 
+   * <p>Compact alternative to {@link #convertToList(SeedTypes)}. Index of pixel (x,y) is
+   * <tt>y*width+x</tt>, which is <tt>row*cols+col</tt> for image converted to matrix.
+   * 
+   * @param key which map to convert
+   * @return sorted array of linear indexes for each label within specified key. If seed map is
+   *         empty (black) array is empty, if key does not exist an empty list is returned.
+   * @see #convertToList(SeedTypes)
+   */
+  public List<int[]> convertToIndexes(SeedTypes key) {
+    List<ImageProcessor> seeds = get(key);
+    List<int[]> out = new ArrayList<>();
+    // Can be empty if points not found
+    if (seeds == null || seeds.isEmpty()) {
+      return out;
+    }
+    for (ImageProcessor slice : seeds) {
+      int n = slice.getWidth() * slice.getHeight();
+      int[] ind = new int[n];
+      int l = 0;
+      for (int i = 0; i < n; i++) {
+        if (slice.get(i) > 0) {
+          ind[l++] = i;
+        }
+      }
+      out.add(Arrays.copyOf(ind, l));
+    }
+    return out;
+  }
+
   /**
    * Convert seeds to ImageStack.
    * 
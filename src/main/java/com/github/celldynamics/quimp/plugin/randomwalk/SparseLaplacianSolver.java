@@ -0,0 +1,323 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.StoppedBy;
+
+/**
+ * Direct solver of random walk problem used by {@link RandomWalkSegmentation} for
+ * {@link SolverEngine#CG}.
+ *
+ * <p>Instead of simulating diffusion until relative error is small, this class solves the
+ * Dirichlet problem for the steady state of diffusion. Pixels are nodes of graph connected with
+ * their four neighbours (circular boundary conditions, like in
+ * {@link RandomWalkSegmentation#circshift(RealMatrix, int)}). Weights are treated as resistances
+ * of both halves of edge connected in series, e.g. conductance is <tt>2/(wr[i] + wl[j])</tt> for
+ * pixel <tt>j</tt> on the right of pixel <tt>i</tt>, so the graph Laplacian is symmetric and high
+ * weight on any side of edge blocks diffusion. Seeded pixels
+ * are fixed to 1 (foreground) or 0 (background), the system for remaining pixels
+ * <tt>L_uu*x = -L_us*x_s</tt> is stored in compressed sparse row format and solved by conjugate
+ * gradient method with Jacobi preconditioner.
+ *
+ * @author p.baniukiewicz
+ * @see RandomWalkSegmentation#solver(Seeds, RealMatrix[])
+ * @see RandomWalkOptions#cgTolerance
+ */
+class SparseLaplacianSolver {
+
+  /**
+   * Number of unknowns processed by one task in parallel loops.
+   */
+  private static final int CHUNK = 4096;
+
+  /**
+   * Number of rows of processed image.
+   */
+  final int rows;
+  /**
+   * Number of columns of processed image.
+   */
+  final int cols;
+  /**
+   * Conductance of edge between pixel and its neighbour in RIGHT direction (next row).
+   */
+  private final double[] cr;
+  /**
+   * Conductance of edge between pixel and its neighbour in TOP direction (next column).
+   */
+  private final double[] ct;
+  /**
+   * Solution, probability of each pixel.
+   */
+  private final double[] x;
+  /**
+   * Number of iterations performed by last {@link #solve(int, double)}.
+   */
+  private int iterations = 0;
+  /**
+   * Relative residual reached by last {@link #solve(int, double)}.
+   */
+  private double residual = 0;
+  /**
+   * Linear indexes of pixels with probability 1.
+   */
+  private int[] fgSeeds = new int[0];
+  /**
+   * Linear indexes of pixels with probability 0.
+   */
+  private int[] bgSeeds = new int[0];
+
+  /**
+   * Build graph for given weights.
+   *
+   * @param wr weights for diffusion in right direction
+   * @param wl weights for diffusion in left direction
+   * @param wt weights for diffusion in top direction
+   * @param wb weights for diffusion in bottom direction
+   */
+  SparseLaplacianSolver(double[][] wr, double[][] wl, double[][] wt, double[][] wb) {
+    rows = wr.length;
+    cols = wr[0].length;
+    cr = new double[rows * cols];
+    ct = new double[rows * cols];
+    for (int r = 0; r < rows; r++) {
+      int rr = r + 1 == rows ? 0 : r + 1;
+      for (int c = 0; c < cols; c++) {
+        int cc = c + 1 == cols ? 0 : c + 1;
+        cr[r * cols + c] = 2 / (wr[r][c] + wl[rr][c]);
+        ct[r * cols + c] = 2 / (wt[r][c] + wb[r][cc]);
+      }
+    }
+    x = new double[rows * cols];
+  }
+
+  /**
+   * Set seeds.
+   *
+   * <p>Foreground wins if seeds overlap.
+   *
+   * @param fgSeeds linear indexes of pixels with probability 1
+   * @param bgSeeds linear indexes of pixels with probability 0
+   * @see Seeds#convertToIndexes(RandomWalkSegmentation.SeedTypes)
+   */
+  void setSeeds(int[] fgSeeds, int[] bgSeeds) {
+    this.fgSeeds = fgSeeds;
+    this.bgSeeds = bgSeeds;
+  }
+
+  /**
+   * Solve the system.
+   *
+   * @param maxIter maximal number of iterations of conjugate gradient
+   * @param tol tolerance of relative residual <tt>|b-Ax|/|b|</tt>
+   * @return {@link StoppedBy#RELERR} if tolerance was reached, {@link StoppedBy#ITERATIONS} if
+   *         maximal number of iterations was reached, {@link StoppedBy#NANS} or
+   *         {@link StoppedBy#INFS} on numerical problems
+   */
+  StoppedBy solve(int maxIter, double tol) {
+    final int n = rows * cols;
+    // -1 for seeds, index of unknown for other pixels
+    int[] unknown = new int[n];
+    Arrays.fill(x, 0);
+    for (int s : bgSeeds) {
+      unknown[s] = -1;
+      x[s] = 0;
+    }
+    for (int s : fgSeeds) {
+      unknown[s] = -1;
+      x[s] = 1;
+    }
+    int nu = 0;
+    for (int i = 0; i < n; i++) {
+      if (unknown[i] == 0) {
+        unknown[i] = nu++;
+      } else {
+        unknown[i] = -1;
+      }
+    }
+    int[] pixel = new int[nu]; // pixel of unknown
+    for (int i = 0; i < n; i++) {
+      if (unknown[i] >= 0) {
+        pixel[unknown[i]] = i;
+      }
+    }
+    // build L_uu in CSR format, diagonal stored separately, and b = -L_us*x_s
+    int[] rowPtr = new int[nu + 1];
+    int[] colIdx = new int[4 * nu];
+    double[] val = new double[4 * nu];
+    double[] diag = new double[nu];
+    double[] b = new double[nu];
+    int nnz = 0;
+    int[] nb = new int[4];
+    double[] cond = new double[4];
+    for (int u = 0; u < nu; u++) {
+      int i = pixel[u];
+      int r = i / cols;
+      int c = i % cols;
+      nb[0] = (r + 1 == rows ? 0 : r + 1) * cols + c; // RIGHT
+      nb[1] = (r == 0 ? rows - 1 : r - 1) * cols + c; // LEFT
+      nb[2] = r * cols + (c + 1 == cols ? 0 : c + 1); // TOP
+      nb[3] = r * cols + (c == 0 ? cols - 1 : c - 1); // BOTTOM
+      cond[0] = cr[i];
+      cond[1] = cr[nb[1]];
+      cond[2] = ct[i];
+      cond[3] = ct[nb[3]];
+      for (int k = 0; k < 4; k++) {
+        diag[u] += cond[k];
+        if (unknown[nb[k]] >= 0) {
+          colIdx[nnz] = unknown[nb[k]];
+          val[nnz++] = -cond[k];
+        } else {
+          b[u] += cond[k] * x[nb[k]];
+        }
+      }
+      rowPtr[u + 1] = nnz;
+    }
+    // preconditioned conjugate gradient, initial guess 0
+    double[] xu = new double[nu];
+    double[] res = b.clone();
+    double[] z = new double[nu];
+    double[] p = new double[nu];
+    double[] ap = new double[nu];
+    // partial sums of dot products for each chunk, summed in fixed order to be repeatable
+    int chunks = (nu + CHUNK - 1) / CHUNK;
+    double[] part1 = new double[chunks];
+    double[] part2 = new double[chunks];
+    double normb = Math.sqrt(dot(b, b));
+    if (normb == 0) {
+      normb = 1; // solution is 0
+    }
+    for (int u = 0; u < nu; u++) {
+      z[u] = res[u] / diag[u];
+    }
+    System.arraycopy(z, 0, p, 0, nu);
+    double rz = dot(res, z);
+    StoppedBy stoppedReason = StoppedBy.ITERATIONS;
+    residual = Math.sqrt(dot(res, res)) / normb;
+    int it = 0;
+    while (residual >= tol && it < maxIter) {
+      // ap = A*p and p.ap
+      IntStream.range(0, chunks).parallel().forEach(k -> {
+        double pap = 0;
+        for (int u = k * CHUNK; u < Math.min((k + 1) * CHUNK, ap.length); u++) {
+          double sum = diag[u] * p[u];
+          for (int l = rowPtr[u]; l < rowPtr[u + 1]; l++) {
+            sum += val[l] * p[colIdx[l]];
+          }
+          ap[u] = sum;
+          pap += p[u] * sum;
+        }
+        part1[k] = pap;
+      });
+      final double alpha = rz / sum(part1);
+      // update solution, residual and preconditioned residual, get r.z and r.r
+      IntStream.range(0, chunks).parallel().forEach(k -> {
+        double rzl = 0;
+        double rrl = 0;
+        for (int u = k * CHUNK; u < Math.min((k + 1) * CHUNK, ap.length); u++) {
+          xu[u] += alpha * p[u];
+          res[u] -= alpha * ap[u];
+          z[u] = res[u] / diag[u];
+          rzl += res[u] * z[u];
+          rrl += res[u] * res[u];
+        }
+        part1[k] = rzl;
+        part2[k] = rrl;
+      });
+      double rznew = sum(part1);
+      final double beta = rznew / rz;
+      rz = rznew;
+      IntStream.range(0, chunks).parallel().forEach(k -> {
+        for (int u = k * CHUNK; u < Math.min((k + 1) * CHUNK, ap.length); u++) {
+          p[u] = z[u] + beta * p[u];
+        }
+      });
+      residual = Math.sqrt(sum(part2)) / normb;
+      it++;
+      if ((it % 20) == 0) {
+        RandomWalkSegmentation.LOGGER.trace("Iter: " + it + " residual = " + residual);
+      }
+      if (Double.isNaN(residual)) {
+        stoppedReason = StoppedBy.NANS;
+        break;
+      }
+      if (Double.isInfinite(residual)) {
+        stoppedReason = StoppedBy.INFS;
+        break;
+      }
+    }
+    if (residual < tol) {
+      stoppedReason = StoppedBy.RELERR;
+    }
+    iterations = it;
+    for (int u = 0; u < nu; u++) {
+      x[pixel[u]] = xu[u];
+    }
+    return stoppedReason;
+  }
+
+  /**
+   * Sum elements of array in order.
+   *
+   * @param a array
+   * @return sum of elements
+   */
+  private static double sum(double[] a) {
+    double s = 0;
+    for (double v : a) {
+      s += v;
+    }
+    return s;
+  }
+
+  /**
+   * Dot product.
+   *
+   * @param a vector
+   * @param b vector
+   * @return a.b
+   */
+  private static double dot(double[] a, double[] b) {
+    double s = 0;
+    for (int i = 0; i < a.length; i++) {
+      s += a[i] * b[i];
+    }
+    return s;
+  }
+
+  /**
+   * Get number of iterations performed by last call of {@link #solve(int, double)}.
+   *
+   * @return number of iterations
+   */
+  int getIterations() {
+    return iterations;
+  }
+
+  /**
+   * Get relative residual reached by last call of {@link #solve(int, double)}.
+   *
+   * @return relative residual
+   */
+  double getResidual() {
+    return residual;
+  }
+
+  /**
+   * Return copy of solution.
+   *
+   * @return probability map
+   */
+  Array2DRowRealMatrix getSolution() {
+    double[][] out = new double[rows][cols];
+    for (int r = 0; r < rows; r++) {
+      System.arraycopy(x, r * cols, out[r], 0, cols);
+    }
+    return new Array2DRowRealMatrix(out, false);
+  }
+}
@@ -0,0 +1,166 @@
+package com.github.celldynamics.quimp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.BOAState.SegParam;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+
+/**
+ * Test of per frame snapshots of {@link BOAState}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class BOAStateSnapshotTest {
+
+  /**
+   * Number of frames.
+   */
+  private static final int FRAMES = 100;
+  /**
+   * Tested object.
+   */
+  private BOAState state;
+  /**
+   * Default value of {@link SegParam#f_image}.
+   */
+  private double defaultImage;
+
+  /**
+   * Create state for stack of {@value #FRAMES} frames.
+   *
+   * @throws Exception on error
+   */
+  @Before
+  public void setUp() throws Exception {
+    ImageStack stack = new ImageStack(10, 10);
+    for (int f = 0; f < FRAMES; f++) {
+      stack.addSlice(new ByteProcessor(10, 10));
+    }
+    state = new BOAState(new ImagePlus("test", stack));
+    defaultImage = state.segParam.f_image;
+  }
+
+  /**
+   * Store all frames changing parameters on frame 50.
+   */
+  private void storeAll() {
+    for (int f = 1; f <= FRAMES; f++) {
+      if (f == 50) {
+        state.segParam.f_image = 0.5;
+      }
+      state.store(f);
+    }
+  }
+
+  /**
+   * Save state to JSON and load it back.
+   *
+   * @param json state in JSON
+   * @return loaded state
+   * @throws Exception on error
+   */
+  private BOAState load(String json) throws Exception {
+    Serializer<BOAState> s = new Serializer<>(BOAState.class, new QuimpVersion());
+    s.doAfterSerialize = false;
+    BOAState loaded = s.fromString(json).obj;
+    loaded.snakePluginList = new SnakePluginList(BOA_.NUM_SNAKE_PLUGINS, null, null);
+    loaded.afterSerialize();
+    return loaded;
+  }
+
+  /**
+   * Snapshots are shared between frames until parameters change.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testStore() throws Exception {
+    storeAll();
+    state.restore(10);
+    SegParam p10 = state.segParam;
+    state.restore(20);
+    assertThat(state.segParam, is(p10));
+    assertThat(state.segParam, is(not(sameInstance(p10)))); // copied on restore
+    state.restore(60);
+    assertThat(state.segParam.f_image, is(0.5));
+    assertThat(state.segParam, is(not(p10)));
+
+    // plugin list of restored frame is not shared with other frames
+    state.restore(30);
+    assertThat(state.snakePluginListSnapshots.get(29),
+            is(sameInstance(state.snakePluginList)));
+    assertThat(state.snakePluginListSnapshots.get(28),
+            is(not(sameInstance(state.snakePluginList))));
+    assertThat(state.snakePluginListSnapshots.get(30),
+            is(not(sameInstance(state.snakePluginList))));
+  }
+
+  /**
+   * Snapshots are saved as runs and expanded on load.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSerialize() throws Exception {
+    storeAll();
+    String json = new Serializer<>(state, new QuimpVersion()).toString();
+    JsonObject obj = new JsonParser().parse(json).getAsJsonObject().getAsJsonObject("obj");
+    assertThat(obj.has("segParamSnapshots"), is(false));
+    assertThat(obj.getAsJsonArray("segParamRuns").size(), is(2));
+    assertThat(obj.getAsJsonArray("snakePluginListRuns").size(), is(1));
+
+    BOAState loaded = load(json);
+    for (int f = 1; f <= FRAMES; f++) {
+      loaded.restore(f);
+      assertThat(loaded.segParam.f_image, is(f < 50 ? defaultImage : 0.5));
+    }
+  }
+
+  /**
+   * Files with snapshot for every frame are loaded.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testLoadOldFormat() throws Exception {
+    storeAll();
+    String json = new Serializer<>(state, new QuimpVersion()).toString();
+    JsonObject root = new JsonParser().parse(json).getAsJsonObject();
+    JsonObject obj = root.getAsJsonObject("obj");
+    JsonArray segParams = new JsonArray();
+    JsonArray pluginLists = new JsonArray();
+    for (int f = 1; f <= FRAMES; f++) {
+      int run = f < 50 ? 0 : 1;
+      segParams.add(obj.getAsJsonArray("segParamRuns").get(run).getAsJsonObject().get("value"));
+      pluginLists.add(
+              obj.getAsJsonArray("snakePluginListRuns").get(0).getAsJsonObject().get("value"));
+    }
+    obj.remove("segParamRuns");
+    obj.remove("snakePluginListRuns");
+    obj.add("segParamSnapshots", segParams);
+    obj.add("snakePluginListSnapshots", pluginLists);
+
+    BOAState loaded = load(root.toString());
+    assertThat(loaded.snakePluginListSnapshots.size(), is(FRAMES));
+    loaded.restore(70);
+    assertThat(loaded.segParam.f_image, is(0.5));
+    loaded.restore(1);
+    assertThat(loaded.segParam.f_image, is(defaultImage));
+    // equal snapshots are shared after load
+    assertThat(loaded.snakePluginListSnapshots.get(80),
+            is(sameInstance(loaded.snakePluginListSnapshots.get(90))));
+  }
+}
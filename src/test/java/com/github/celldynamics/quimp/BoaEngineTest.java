@@ -0,0 +1,160 @@
+package com.github.celldynamics.quimp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+
+/**
+ * Test of {@link BoaEngine}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class BoaEngineTest {
+
+  /**
+   * Create stack with bright disc of radius 20 moving right by 2 pixels each frame.
+   *
+   * @param frames number of frames
+   * @return image
+   */
+  private ImagePlus getImage(int frames) {
+    ImageStack stack = new ImageStack(100, 100);
+    for (int f = 0; f < frames; f++) {
+      ByteProcessor bp = new ByteProcessor(100, 100);
+      bp.setColor(200);
+      bp.fill(new OvalRoi(30 + 2 * f, 30, 40, 40));
+      stack.addSlice(bp);
+    }
+    return new ImagePlus("disc", stack);
+  }
+
+  /**
+   * Segment one disc and check outline on each frame.
+   *
+   * @param image image from {@link #getImage(int)}
+   * @return engine after segmentation
+   * @throws Exception on error
+   */
+  private BoaEngine segment(ImagePlus image) throws Exception {
+    return segment(image, false);
+  }
+
+  /**
+   * Segment one disc.
+   *
+   * @param image image from {@link #getImage(int)}
+   * @param adaptive value of {@link BOAState.BOAp#isAdaptiveStep}
+   * @return engine after segmentation
+   * @throws Exception on error
+   */
+  private BoaEngine segment(ImagePlus image, boolean adaptive) throws Exception {
+    BOAState state = new BOAState(image);
+    state.boap.isAdaptiveStep = adaptive;
+    BoaEngine engine = new BoaEngine(state, new Nest(), image);
+    engine.addCell(new OvalRoi(20, 20, 60, 60), 1);
+    engine.segment();
+    return engine;
+  }
+
+  /**
+   * Check that stored snakes follow disc.
+   *
+   * @param engine engine after segmentation
+   * @param frames number of frames
+   */
+  private void verify(BoaEngine engine, int frames) {
+    SnakeHandler sh = engine.getNest().getHandler(0);
+    for (int f = 1; f <= frames; f++) {
+      Snake snake = sh.getStoredSnake(f);
+      Rectangle bounds = snake.getBounds();
+      assertThat(snake.getCentroid().getX(), is(closeTo(50 + 2 * (f - 1), 2)));
+      assertThat(snake.getCentroid().getY(), is(closeTo(50, 2)));
+      assertThat((double) bounds.width, is(closeTo(40, 6)));
+      assertThat((double) bounds.height, is(closeTo(40, 6)));
+    }
+  }
+
+  /**
+   * Segment stack with one object.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSegment() throws Exception {
+    BoaEngine engine = segment(getImage(3));
+    assertThat(engine.getNest().size(), is(1));
+    assertThat(engine.getState().boap.frame, is(3));
+    verify(engine, 3);
+  }
+
+  /**
+   * Segment stack with adaptive time step. Iterations are counted for each frame and adaptive
+   * segmentation stops earlier.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSegmentAdaptive() throws Exception {
+    BoaEngine classic = segment(getImage(3), false);
+    BoaEngine adaptive = segment(getImage(3), true);
+    verify(adaptive, 3);
+    int classicSum = 0;
+    int adaptiveSum = 0;
+    for (int f = 1; f <= 3; f++) {
+      assertThat(classic.getState().getIterations(f) > 0, is(true));
+      assertThat(adaptive.getState().getIterations(f) > 0, is(true));
+      classicSum += classic.getState().getIterations(f);
+      adaptiveSum += adaptive.getState().getIterations(f);
+    }
+    assertThat(adaptiveSum < classicSum, is(true));
+  }
+
+  /**
+   * Segment several stacks concurrently without global state.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSegmentConcurrent() throws Exception {
+    BOAState global = BOA_.qState;
+    BOA_.qState = null; // engine must not use it
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<BoaEngine>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(executor.submit(() -> segment(getImage(3))));
+      }
+      for (Future<BoaEngine> r : results) {
+        verify(r.get(), 3);
+      }
+    } finally {
+      executor.shutdown();
+      BOA_.qState = global;
+    }
+  }
+
+  /**
+   * State must match image.
+   *
+   * @throws Exception on error
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void testWrongState() throws Exception {
+    new BoaEngine(new BOAState(getImage(2)), new Nest(), getImage(3));
+  }
+}
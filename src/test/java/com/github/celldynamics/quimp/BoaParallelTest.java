@@ -0,0 +1,248 @@
+package com.github.celldynamics.quimp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+import com.github.celldynamics.quimp.plugin.ParamList;
+import com.github.celldynamics.quimp.plugin.QuimpPluginException;
+import com.github.celldynamics.quimp.plugin.engine.PluginFactory;
+import com.github.celldynamics.quimp.plugin.snakes.IQuimpBOASnakeFilter;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+
+/**
+ * Test of concurrent tightening of snakes in {@link BOA_#runBoa(int, int)}.
+ *
+ * <p>Display of BOA is mocked, snakes are filtered by plugin that shifts them.
+ *
+ * @author p.baniukiewicz
+ */
+public class BoaParallelTest {
+
+  /**
+   * Number of frames.
+   */
+  private static final int FRAMES = 3;
+  /**
+   * Number of calls of plugin.
+   */
+  private AtomicInteger calls;
+  /**
+   * Set if plugin was entered by two threads at the same time.
+   */
+  private AtomicBoolean overlapped;
+
+  /**
+   * Restore default state of BOA.
+   *
+   * @throws Exception on error
+   */
+  @After
+  public void tearDown() throws Exception {
+    BOA_.qState = new BOAState(null);
+  }
+
+  /**
+   * Create stack with three discs.
+   *
+   * @return image
+   */
+  private ImagePlus getImage() {
+    ImageStack stack = new ImageStack(200, 100);
+    for (int f = 0; f < FRAMES; f++) {
+      ByteProcessor bp = new ByteProcessor(200, 100);
+      bp.setColor(200);
+      bp.fill(new OvalRoi(15 + f, 30, 40, 40));
+      bp.fill(new OvalRoi(80, 25 + f, 40, 45));
+      bp.fill(new OvalRoi(145 - f, 35, 35, 35));
+      stack.addSlice(bp);
+    }
+    return new ImagePlus("discs", stack);
+  }
+
+  /**
+   * Create plugin that shifts snake by one pixel and records its calls.
+   *
+   * @return plugin
+   */
+  private IQuimpBOASnakeFilter getPlugin() {
+    return new IQuimpBOASnakeFilter() {
+      private Snake data;
+
+      @Override
+      public void attachData(Snake data) {
+        this.data = data;
+      }
+
+      @Override
+      public Snake runPlugin() throws QuimpPluginException {
+        if (!inUse.compareAndSet(false, true)) {
+          overlapped.set(true);
+        }
+        try {
+          Thread.sleep(5); // give other threads chance to enter
+        } catch (InterruptedException e) {
+          throw new QuimpPluginException(e);
+        }
+        Snake ret = new Snake(data);
+        Node n = ret.getHead();
+        do {
+          n.setX(n.getX() + 1);
+          n = n.getNext();
+        } while (!n.isHead());
+        calls.incrementAndGet();
+        inUse.set(false);
+        return ret;
+      }
+
+      private final AtomicBoolean inUse = new AtomicBoolean(false);
+
+      @Override
+      public int setup() {
+        return DOES_SNAKES;
+      }
+
+      @Override
+      public void setPluginConfig(ParamList par) throws QuimpPluginException {
+      }
+
+      @Override
+      public ParamList getPluginConfig() {
+        return null;
+      }
+
+      @Override
+      public int showUi(boolean val) {
+        return 0;
+      }
+
+      @Override
+      public String getVersion() {
+        return "1.0.0";
+      }
+
+      @Override
+      public String about() {
+        return "Shift";
+      }
+    };
+  }
+
+  /**
+   * Set private field.
+   *
+   * @param clazz class declaring field
+   * @param obj object
+   * @param name name of field
+   * @param value value to set
+   * @throws Exception on error
+   */
+  private void setField(Class<?> clazz, Object obj, String name, Object value) throws Exception {
+    Field field = clazz.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(obj, value);
+  }
+
+  /**
+   * Segment image by BOA with mocked display.
+   *
+   * @param parallel value of {@link BOAState.BOAp#isParallelSegmentation}
+   * @return final and backup (before plugin) snakes of all handlers for each frame
+   * @throws Exception on error
+   */
+  private List<Snake> segment(boolean parallel) throws Exception {
+    calls = new AtomicInteger();
+    overlapped = new AtomicBoolean(false);
+    ImagePlus image = getImage();
+    BOA_ boa = new BOA_();
+    BOA_.qState = new BOAState(image);
+    BOA_.qState.boap.isParallelSegmentation = parallel;
+    PluginFactory pf = Mockito.mock(PluginFactory.class);
+    Mockito.when(pf.getInstance("Shift")).thenReturn(getPlugin());
+    BOA_.qState.snakePluginList = new SnakePluginList(BOA_.NUM_SNAKE_PLUGINS, pf, null);
+    BOA_.qState.snakePluginList.setInstance(0, "Shift", true);
+
+    // drawing is mocked, final methods of ImageGroup need its images
+    ImageGroup imageGroup = Mockito.mock(ImageGroup.class);
+    Mockito.when(imageGroup.getOrgIp())
+            .thenAnswer(i -> image.getStack().getProcessor(BOA_.qState.boap.frame));
+    ImagePlus paths = image.duplicate();
+    setField(ImageGroup.class, imageGroup, "orgIpl", image);
+    setField(ImageGroup.class, imageGroup, "orgStack", image.getStack());
+    setField(ImageGroup.class, imageGroup, "pathsIpl", paths);
+    setField(ImageGroup.class, imageGroup, "pathsStack", paths.getStack());
+    boa.imageGroup = imageGroup;
+    setField(BOA_.class, boa, "constrictor", new Constrictor());
+
+    BOA_.qState.nest.addHandler(new OvalRoi(5, 20, 60, 60), 1, BOA_.qState);
+    BOA_.qState.nest.addHandler(new OvalRoi(70, 15, 60, 65), 1, BOA_.qState);
+    BOA_.qState.nest.addHandler(new OvalRoi(135, 25, 55, 55), 1, BOA_.qState);
+    boa.runBoa(1, FRAMES);
+
+    List<Snake> ret = new ArrayList<>();
+    for (int f = 1; f <= FRAMES; f++) {
+      for (int s = 0; s < BOA_.qState.nest.size(); s++) {
+        ret.add(BOA_.qState.nest.getHandler(s).getStoredSnake(f));
+        ret.add(BOA_.qState.nest.getHandler(s).getBackupSnake(f));
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Recalculate centroid of snake.
+   *
+   * @param snake snake
+   * @return centroid
+   */
+  private ExtendedVector2d centroid(Snake snake) {
+    snake.calcCentroid(); // cached value is not updated after moving nodes
+    return snake.getCentroid();
+  }
+
+  /**
+   * Snakes tightened and filtered concurrently are the same as processed in sequence.
+   *
+   * <p>Tightening is not deterministic (random head and direction of correction of distances
+   * between nodes), two sequential runs differ by up to few pixels in later frames. Snakes are
+   * compared by centroid with tolerance much smaller than distance between discs.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testRunBoaWithPlugin() throws Exception {
+    List<Snake> ref = segment(false);
+    assertThat(calls.get(), is(3 * FRAMES));
+    List<Snake> test = segment(true);
+    assertThat(calls.get(), is(3 * FRAMES));
+    assertThat(overlapped.get(), is(false)); // plugin is locked
+
+    assertThat(test.size(), is(ref.size()));
+    for (int i = 0; i < ref.size(); i += 2) {
+      ExtendedVector2d stored = centroid(test.get(i));
+      ExtendedVector2d backup = centroid(test.get(i + 1));
+      // plugin result is stored, segmented snake is kept as backup
+      assertThat(stored.getX() - backup.getX(), closeTo(1, 1e-6));
+      assertThat(stored.getY(), closeTo(backup.getY(), 1e-6));
+      // the same as sequential
+      ExtendedVector2d exp = centroid(ref.get(i));
+      assertThat(stored.getX(), closeTo(exp.getX(), 5));
+      assertThat(stored.getY(), closeTo(exp.getY(), 5));
+    }
+  }
+}
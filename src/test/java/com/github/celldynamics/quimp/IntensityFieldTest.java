@@ -0,0 +1,68 @@
+package com.github.celldynamics.quimp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * Test of {@link IntensityField}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class IntensityFieldTest {
+
+  /**
+   * Fill image with random values.
+   *
+   * @param ip image
+   * @return the same image
+   */
+  private ImageProcessor fill(ImageProcessor ip) {
+    Random rnd = new Random(0);
+    for (int y = 0; y < ip.getHeight(); y++) {
+      for (int x = 0; x < ip.getWidth(); x++) {
+        ip.putPixel(x, y, rnd.nextInt(250));
+      }
+    }
+    return ip;
+  }
+
+  /**
+   * Compare field with image inside and outside image.
+   *
+   * @param ip image
+   */
+  private void compare(ImageProcessor ip) {
+    IntensityField field = new IntensityField(ip);
+    assertThat(field.getWidth(), is(ip.getWidth()));
+    assertThat(field.getHeight(), is(ip.getHeight()));
+    for (double y = -2.5; y < ip.getHeight() + 2; y += 0.75) {
+      for (double x = -2.5; x < ip.getWidth() + 2; x += 0.75) {
+        assertThat(field.get(x, y), is(ip.getPixel((int) x, (int) y)));
+      }
+    }
+  }
+
+  /**
+   * Values are the same as returned by {@link ImageProcessor#getPixel(int, int)}.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testGet() throws Exception {
+    compare(fill(new ByteProcessor(13, 7)));
+    compare(fill(new ShortProcessor(13, 7)));
+    compare(fill(new FloatProcessor(13, 7)));
+    compare(fill(new ColorProcessor(13, 7)));
+  }
+}
@@ -0,0 +1,109 @@
+package com.github.celldynamics.quimp;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.gui.OvalRoi;
+import ij.process.ByteProcessor;
+
+/**
+ * Test of {@link PackedSnake} and
+ * {@link Constrictor#constrict(PackedSnake, ij.process.ImageProcessor)}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class PackedSnakeTest {
+
+  /**
+   * Image with two ellipses.
+   */
+  private ByteProcessor ip;
+  /**
+   * State for {@link #ip}.
+   */
+  private BOAState state;
+
+  /**
+   * Create image.
+   *
+   * @throws Exception on error
+   */
+  @Before
+  public void setUp() throws Exception {
+    ip = new ByteProcessor(200, 200);
+    ip.setColor(200);
+    ip.fill(new OvalRoi(60, 70, 80, 60));
+    ip.setColor(120);
+    ip.fill(new OvalRoi(90, 90, 30, 30));
+    state = new BOAState(new ImagePlus("", ip));
+  }
+
+  /**
+   * Compare all nodes of two snakes.
+   *
+   * @param s1 snake
+   * @param s2 snake
+   */
+  private void assertSame(Snake s1, Snake s2) {
+    assertThat(s2.getNumPoints(), is(s1.getNumPoints()));
+    Node n1 = s1.getHead();
+    Node n2 = s2.getHead();
+    do {
+      assertThat(n2.getPoint(), is(n1.getPoint()));
+      assertThat(n2.getNormal(), is(n1.getNormal()));
+      assertThat(n2.getTangent(), is(n1.getTangent()));
+      assertThat(n2.getVel(), is(n1.getVel()));
+      assertThat(n2.getF_total(), is(n1.getF_total()));
+      assertThat(n2.isFrozen(), is(n1.isFrozen()));
+      n1 = n1.getNext();
+      n2 = n2.getNext();
+    } while (!n1.isHead());
+    assertThat(s2.isFrozen(), is(s1.isFrozen()));
+  }
+
+  /**
+   * Packed constrict gives the same snake as constrict on nodes.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testConstrict() throws Exception {
+    Snake s1 = new Snake(new OvalRoi(40, 40, 130, 130), 1, false, state.segParam);
+    Snake s2 = new Snake(s1);
+    Constrictor constrictor = new Constrictor(state);
+    PackedSnake packed = new PackedSnake(s2);
+    for (int i = 0; i < 150; i++) {
+      boolean f1 = constrictor.constrict(s1, ip);
+      boolean f2 = constrictor.constrict(packed, ip);
+      assertThat(f2, is(f1));
+    }
+    packed.store();
+    assertSame(s1, s2);
+  }
+
+  /**
+   * Snake can be loaded again after change of nodes number.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testLoadStore() throws Exception {
+    Snake s1 = new Snake(new OvalRoi(40, 40, 130, 130), 1, false, state.segParam);
+    Snake s2 = new Snake(s1);
+    PackedSnake packed = new PackedSnake(s2);
+    packed.store();
+    assertSame(s1, s2);
+    s2.removeNode(s2.getHead().getNext());
+    packed.load(s2);
+    assertThat(packed.size(), is(s1.getNumPoints() - 1));
+    packed.freeze(0);
+    packed.store();
+    assertThat(s2.getHead().isFrozen(), is(true));
+    assertThat(packed.isFrozen(), is(false));
+  }
+}
@@ -0,0 +1,83 @@
+package com.github.celldynamics.quimp.geom;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link SegmentGrid}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class SegmentGridTest {
+
+  /**
+   * Query returns close segments in ascending order.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testQuery() throws Exception {
+    double[] x0 = { 0, 10, 50, 12 };
+    double[] y0 = { 0, 0, 50, 2 };
+    double[] x1 = { 10, 10, 60, 12 };
+    double[] y1 = { 0, 10, 50, 2 };
+    SegmentGrid grid = new SegmentGrid(2);
+    grid.build(x0, y0, x1, y1, 4, 1);
+    int found = grid.query(10.5, 0.5, 10.5, 0.5);
+    assertThat(Arrays.copyOf(grid.getCandidates(), found), is(new int[] { 0, 1 }));
+    found = grid.query(11, 2.5, 11, 2.5);
+    assertThat(Arrays.copyOf(grid.getCandidates(), found), is(new int[] { 1, 3 }));
+    found = grid.query(30, 30, 30, 30);
+    assertThat(found, is(0));
+    found = grid.query(-5, -5, 100, 100);
+    assertThat(Arrays.copyOf(grid.getCandidates(), found), is(new int[] { 0, 1, 2, 3 }));
+  }
+
+  /**
+   * All segments closer than margin are returned, also after rebuilding grid.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testQueryRandom() throws Exception {
+    Random rnd = new Random(0);
+    SegmentGrid grid = new SegmentGrid(3);
+    double margin = 2;
+    for (int build = 0; build < 3; build++) {
+      int n = 100 + 100 * build;
+      double[] x0 = new double[n];
+      double[] y0 = new double[n];
+      double[] x1 = new double[n];
+      double[] y1 = new double[n];
+      for (int i = 0; i < n; i++) {
+        x0[i] = rnd.nextDouble() * 100;
+        y0[i] = rnd.nextDouble() * 100;
+        x1[i] = x0[i] + rnd.nextDouble() * 10 - 5;
+        y1[i] = y0[i] + rnd.nextDouble() * 10 - 5;
+      }
+      grid.build(x0, y0, x1, y1, n, margin);
+      for (int q = 0; q < 500; q++) {
+        ExtendedVector2d p = new ExtendedVector2d(rnd.nextDouble() * 110 - 5,
+                rnd.nextDouble() * 110 - 5);
+        int found = grid.query(p.getX(), p.getY(), p.getX(), p.getY());
+        int[] candidates = Arrays.copyOf(grid.getCandidates(), found);
+        int[] sorted = candidates.clone();
+        Arrays.sort(sorted);
+        assertThat(candidates, is(sorted));
+        for (int i = 0; i < n; i++) {
+          double d = ExtendedVector2d.distPointToSegment(p, new ExtendedVector2d(x0[i], y0[i]),
+                  new ExtendedVector2d(x1[i], y1[i]));
+          if (d < margin) {
+            assertThat(Arrays.binarySearch(candidates, i) >= 0, is(true));
+          }
+        }
+      }
+    }
+  }
+}
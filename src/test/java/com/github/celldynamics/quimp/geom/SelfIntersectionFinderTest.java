@@ -0,0 +1,76 @@
+package com.github.celldynamics.quimp.geom;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+/**
+ * Test of {@link SelfIntersectionFinder}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class SelfIntersectionFinderTest {
+
+  /**
+   * Square 10x10 with small loop on right edge: (10,4)-(12,6)-(12,4)-(10,6).
+   */
+  private static final double[] X = { 0, 10, 10, 12, 12, 10, 10, 0 };
+  /**
+   * Square 10x10 with small loop on right edge.
+   */
+  private static final double[] Y = { 0, 0, 4, 6, 4, 6, 10, 10 };
+
+  /**
+   * Closest intersecting edge is found and loop is cut.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testFindFirstCut() throws Exception {
+    SelfIntersectionFinder finder = new SelfIntersectionFinder();
+    finder.build(X, Y, X.length);
+    double[] intersect = new double[2];
+    assertThat(finder.findFirst(0, 2, 4, intersect), is(-1));
+    assertThat(finder.findFirst(1, 2, 4, intersect), is(-1));
+    // edge 2 (10,4)-(12,6) crosses edge 4 (12,4)-(10,6)
+    assertThat(finder.findFirst(2, 2, 4, intersect), is(2));
+    assertThat(intersect[0], is(closeTo(11, 1e-6)));
+    assertThat(intersect[1], is(closeTo(5, 1e-6)));
+    // out of range
+    assertThat(finder.findFirst(2, 3, 4, intersect), is(-1));
+
+    int slot = finder.cut(2, 2, intersect[0], intersect[1]);
+    assertThat(slot, is(3));
+    assertThat(finder.size(), is(7));
+    assertThat(finder.next(2), is(3));
+    assertThat(finder.next(3), is(5));
+    assertThat(finder.ahead(3, 5), is(1));
+    for (int a = 0; a < X.length; a = finder.next(a)) {
+      assertThat(finder.findFirst(a, 2, finder.size() - 1, intersect), is(-1));
+      if (finder.next(a) == 0) {
+        break;
+      }
+    }
+  }
+
+  /**
+   * Edges far along polygon are found when wrapping over the first vertex.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testFindFirstWrap() throws Exception {
+    // loop over first vertex: edge 6 (1,5)-(-1,-1) crosses edge 1 (1,-1)-(-1,3)
+    double[] x = { 0, 1, -1, -1, 5, 5, 1, -1 };
+    double[] y = { -2, -1, 3, 10, 10, 5, 5, -1 };
+    SelfIntersectionFinder finder = new SelfIntersectionFinder();
+    finder.build(x, y, x.length);
+    double[] intersect = new double[2];
+    assertThat(finder.findFirst(6, 2, 4, intersect), is(3));
+    assertThat(finder.ahead(6, 3), is(1));
+    assertThat(finder.findFirst(6, 2, 3, intersect), is(-1));
+  }
+}
@@ -0,0 +1,137 @@
+package com.github.celldynamics.quimp.plugin.ecmm;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.closeTo;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.github.celldynamics.quimp.Outline;
+import com.github.celldynamics.quimp.OutlineHandler;
+import com.github.celldynamics.quimp.QParams;
+import com.github.celldynamics.quimp.filesystem.OutlinesCollection;
+
+/**
+ * Test of {@link ECMM_Mapping#runBatch(OutlinesCollection, QParams)}.
+ *
+ * @author p.baniukiewicz
+ */
+public class EcmmBatchTest {
+
+  /**
+   * Number of frames.
+   */
+  private static final int FRAMES = 4;
+
+  /**
+   * Create outlines of cell changing its shape.
+   *
+   * @param cx x coordinate of centre
+   * @param cy y coordinate of centre
+   * @param r radius
+   * @param waves number of waves on outline
+   * @return outlines of cell
+   */
+  private OutlineHandler cell(double cx, double cy, double r, int waves) {
+    OutlineHandler oh = new OutlineHandler(1, FRAMES);
+    int n = 60;
+    for (int f = 1; f <= FRAMES; f++) {
+      double[] x = new double[n];
+      double[] y = new double[n];
+      for (int i = 0; i < n; i++) {
+        double a = 2 * Math.PI * i / n;
+        double rr = r + f + 3 * Math.sin(waves * a + 0.4 * f);
+        x[i] = cx + f + rr * Math.cos(a);
+        y[i] = cy + rr * Math.sin(a);
+      }
+      oh.setOutline(f, new Outline(x, y));
+    }
+    return oh;
+  }
+
+  /**
+   * Create cells.
+   *
+   * @return outlines of three cells
+   */
+  private OutlinesCollection cells() {
+    OutlinesCollection cells = new OutlinesCollection(3);
+    cells.oHs.add(cell(60, 60, 30, 3));
+    cells.oHs.add(cell(200, 70, 40, 5));
+    cells.oHs.add(cell(120, 200, 25, 4));
+    return cells;
+  }
+
+  /**
+   * Create parameters of experiment.
+   *
+   * @return parameters
+   */
+  private QParams params() {
+    QParams qp = Mockito.mock(QParams.class);
+    Mockito.when(qp.getSnakeQP()).thenReturn(new File("test.snQP"));
+    Mockito.when(qp.getImageScale()).thenReturn(1.0);
+    Mockito.when(qp.getFrameInterval()).thenReturn(1.0);
+    Mockito.when(qp.getStartFrame()).thenReturn(1);
+    Mockito.when(qp.getEndFrame()).thenReturn(FRAMES);
+    return qp;
+  }
+
+  /**
+   * Cells mapped concurrently are the same as mapped one after another.
+   *
+   * <p>Outlines are not compared exactly, because head of outline is selected randomly when
+   * density of vertices is corrected. Each cell has own parameters, statistics of shared ones
+   * would sum all cells.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testRunBatch() throws Exception {
+    ECMM_Mapping ecmm = new ECMM_Mapping();
+    ((EcmmOptions) ecmm.getOptions()).plot = false;
+    OutlinesCollection cells = cells();
+    List<ECMp> params = new ArrayList<>();
+    for (int c = 0; c < cells.oHs.size(); c++) {
+      params.add(ecmm.createParams(params(), cells.oHs.get(c), c, false));
+    }
+    OutlinesCollection res = ecmm.runBatch(cells, params);
+    assertThat(res.oHs.size(), is(cells.oHs.size()));
+    for (int c = 0; c < cells.oHs.size(); c++) {
+      ECMp cellParams = params.get(c);
+      assertThat(cellParams.cell, is(c));
+      assertThat(cellParams.parallelMigration, is(false)); // cells are already concurrent
+      for (int o = 0; o < c; o++) {
+        assertThat(cellParams != params.get(o), is(true));
+      }
+
+      OutlinesCollection one = new OutlinesCollection(1);
+      one.oHs.add(cells().oHs.get(c));
+      ECMp oneParams = ecmm.createParams(params(), one.oHs.get(0), c, true);
+      assertThat(oneParams.parallelMigration, is(true));
+      OutlineHandler exp = ecmm.runBatch(one, Collections.singletonList(oneParams)).oHs.get(0);
+      assertThat((double) cellParams.its.get(),
+              closeTo(oneParams.its.get(), 0.1 * oneParams.its.get()));
+
+      OutlineHandler oh = res.oHs.get(c);
+      assertThat(oh.getStartFrame(), is(exp.getStartFrame()));
+      assertThat(oh.getEndFrame(), is(exp.getEndFrame()));
+      for (int f = 1; f <= FRAMES; f++) {
+        Outline o = oh.getStoredOutline(f);
+        Outline e = exp.getStoredOutline(f);
+        o.calcCentroid();
+        e.calcCentroid();
+        assertThat(o.getCentroid().getX(), closeTo(e.getCentroid().getX(), 0.5));
+        assertThat(o.getCentroid().getY(), closeTo(e.getCentroid().getY(), 0.5));
+        assertThat(o.getLength(), closeTo(e.getLength(), 0.02 * e.getLength()));
+        assertThat((double) o.getNumPoints(), closeTo(e.getNumPoints(), 3));
+      }
+    }
+  }
+}
@@ -0,0 +1,172 @@
+package com.github.celldynamics.quimp.plugin.ecmm;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.greaterThan;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.Outline;
+import com.github.celldynamics.quimp.Vert;
+import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+
+/**
+ * Test of {@link FieldTree}.
+ *
+ * <p>Field of tree is compared with field summed over all charges as in {@link ODEsolver}.
+ *
+ * @author p.baniukiewicz
+ */
+public class FieldTreeTest {
+
+  /**
+   * Number of charges.
+   */
+  private static final int N = 500;
+  /**
+   * Charges, wavy arc ended with intersection point.
+   */
+  private Outline charges;
+  /**
+   * Parameters of ECMM.
+   */
+  private ECMp params;
+
+  /**
+   * Create charges.
+   *
+   * @throws Exception on error
+   */
+  @Before
+  public void setUp() throws Exception {
+    params = new ECMp();
+    params.setParams(100);
+    double[] x = new double[N];
+    double[] y = new double[N];
+    for (int i = 0; i < N; i++) {
+      double a = Math.PI * i / N;
+      double r = 50 + 3 * Math.sin(20 * a);
+      x[i] = 100 + r * Math.cos(a);
+      y[i] = 100 + r * Math.sin(a);
+    }
+    charges = new Outline(x, y);
+    Vert v = charges.getHead();
+    for (int i = 0; i < N - 1; i++) {
+      v = v.getNext();
+    }
+    v.setIntPoint(true, 1);
+  }
+
+  /**
+   * Sum field of line charges as in {@link ODEsolver}.
+   *
+   * @param p point
+   * @return field
+   */
+  private double[] exactLines(ExtendedVector2d p) {
+    double[] f = new double[2];
+    Vert v = charges.getHead();
+    do {
+      ExtendedVector2d s1 = v.getPoint();
+      ExtendedVector2d s2 = v.getNext().getPoint();
+      double l = ExtendedVector2d.lengthP2P(s1, s2);
+      double r = ExtendedVector2d.lengthP2P(s2, p);
+      double rp = ExtendedVector2d.lengthP2P(s1, p);
+      double d = (((rp + r) * (rp + r)) - (l * l)) / (2 * l);
+      ExtendedVector2d u = ExtendedVector2d.unitVector(s1, p);
+      u.addVec(ExtendedVector2d.unitVector(s2, p));
+      f[0] += u.getX() * params.k * params.migQ / d;
+      f[1] += u.getY() * params.k * params.migQ / d;
+      v = v.getNext();
+    } while (!v.isIntPoint() || v.isHead());
+    return f;
+  }
+
+  /**
+   * Sum field of point charges as in {@link ODEsolver}.
+   *
+   * @param p point
+   * @return field
+   */
+  private double[] exactPoints(ExtendedVector2d p) {
+    double[] f = new double[2];
+    Vert v = charges.getHead();
+    do {
+      double r = Math.pow(ExtendedVector2d.lengthP2P(v.getPoint(), p), params.migPower);
+      ExtendedVector2d u = ExtendedVector2d.unitVector(v.getPoint(), p);
+      f[0] += u.getX() * params.k * params.migQ / r;
+      f[1] += u.getY() * params.k * params.migQ / r;
+      v = v.getNext();
+    } while (!v.getPrev().isIntPoint() || v.getPrev().isHead());
+    return f;
+  }
+
+  /**
+   * Compute field of tree.
+   *
+   * @param tree tree
+   * @param p point
+   * @return field
+   */
+  private double[] field(FieldTree tree, ExtendedVector2d p) {
+    double[] f = new double[2];
+    tree.addField(p.getX(), p.getY(), f);
+    return f;
+  }
+
+  /**
+   * Check field of tree in points around charges.
+   *
+   * @param tree tree
+   * @param lines true if tree is of line charges
+   * @param maxError allowed relative error of field
+   */
+  private void check(FieldTree tree, boolean lines, double maxError) {
+    for (int i = 0; i < 100; i++) {
+      double a = 2 * Math.PI * i / 100;
+      double r = 20 + i % 5 * 15; // inside and outside arc
+      ExtendedVector2d p = new ExtendedVector2d(100 + r * Math.cos(a), 100 + r * Math.sin(a));
+      double[] exp = lines ? exactLines(p) : exactPoints(p);
+      double[] res = field(tree, p);
+      double norm = Math.hypot(exp[0], exp[1]);
+      double err = Math.hypot(res[0] - exp[0], res[1] - exp[1]) / norm;
+      assertThat(err, closeTo(0, maxError));
+      assertThat(norm, greaterThan(0.0));
+    }
+  }
+
+  /**
+   * Zero opening angle gives exact field of lines.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testExactLines() throws Exception {
+    params.fieldAccuracy = 0;
+    check(FieldTree.ofLines(charges, params.migQ, params), true, 1e-9);
+  }
+
+  /**
+   * Zero opening angle gives exact field of points.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testExactPoints() throws Exception {
+    params.fieldAccuracy = 0;
+    check(FieldTree.ofPoints(charges, params.migQ, params.migPower, params), false, 1e-9);
+  }
+
+  /**
+   * Approximated field is close to exact.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testApproximated() throws Exception {
+    params.fieldAccuracy = 0.5;
+    check(FieldTree.ofLines(charges, params.migQ, params), true, 0.05);
+    check(FieldTree.ofPoints(charges, params.migQ, params.migPower, params), false, 0.05);
+  }
+}
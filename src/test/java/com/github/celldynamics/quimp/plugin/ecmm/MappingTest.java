@@ -0,0 +1,285 @@
+package com.github.celldynamics.quimp.plugin.ecmm;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.Outline;
+import com.github.celldynamics.quimp.Vert;
+import com.github.celldynamics.quimp.geom.ExtendedVector2d;
+
+import ij.process.FloatProcessor;
+
+/**
+ * Test of {@link Mapping}.
+ *
+ * @author p.baniukiewicz
+ */
+public class MappingTest {
+
+  /**
+   * Create wavy circle.
+   *
+   * @param n number of vertices
+   * @param r radius
+   * @param amp amplitude of waves
+   * @param waves number of waves
+   * @param phase phase of waves
+   * @return outline
+   */
+  private Outline wavy(int n, double r, double amp, int waves, double phase) {
+    double[] x = new double[n];
+    double[] y = new double[n];
+    for (int i = 0; i < n; i++) {
+      double a = 2 * Math.PI * i / n;
+      double rr = r + amp * Math.sin(waves * a + phase);
+      x[i] = 100 + rr * Math.cos(a);
+      y[i] = 100 + rr * Math.sin(a);
+    }
+    return new Outline(x, y);
+  }
+
+  /**
+   * Reference implementation testing all pairs of edges.
+   *
+   * @param o1 first outline
+   * @param o2 second outline
+   * @return number of intersect points
+   */
+  private int bruteForce(Outline o1, Outline o2) {
+    int ints = 0;
+    double[] intersect = new double[2];
+    Vert na = o1.getHead();
+    do {
+      Vert nb = o2.getHead();
+      do {
+        int state = ExtendedVector2d.segmentIntersection(na.getX(), na.getY(),
+                na.getNext().getX(), na.getNext().getY(), nb.getX(), nb.getY(),
+                nb.getNext().getX(), nb.getNext().getY(), intersect);
+        if (state == 1) {
+          ints++;
+          Vert temp = o1.insertVert(na);
+          temp.setX(intersect[0]);
+          temp.setY(intersect[1]);
+          temp.setIntPoint(true, ints);
+          na = na.getNext();
+          temp = o2.insertVert(nb);
+          temp.setX(intersect[0]);
+          temp.setY(intersect[1]);
+          temp.setIntPoint(true, ints);
+          nb = nb.getNext();
+        }
+        nb = nb.getNext();
+      } while (!nb.isHead());
+      na = na.getNext();
+    } while (!na.isHead());
+    return ints;
+  }
+
+  /**
+   * Compare vertices of outlines.
+   *
+   * @param exp expected outline
+   * @param res tested outline
+   */
+  private void compare(Outline exp, Outline res) {
+    assertThat(res.getNumPoints(), is(exp.getNumPoints()));
+    Vert ve = exp.getHead();
+    Vert vr = res.getHead();
+    do {
+      assertThat(vr.getX(), is(ve.getX()));
+      assertThat(vr.getY(), is(ve.getY()));
+      assertThat(vr.isIntPoint(), is(ve.isIntPoint()));
+      assertThat(vr.intsectID, is(ve.intsectID));
+      ve = ve.getNext();
+      vr = vr.getNext();
+    } while (!ve.isHead());
+  }
+
+  /**
+   * Intersect points are the same as found by testing all pairs of edges.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testCalcIntersects() throws Exception {
+    int[][] shapes = { { 200, 150, 7 }, { 60, 400, 13 }, { 500, 500, 31 } };
+    for (int[] s : shapes) {
+      Outline o1 = wavy(s[0], 50, 5, s[2], 0);
+      Outline o2 = wavy(s[1], 50, 6, s[2] + 2, 1);
+      Outline e1 = new Outline(o1);
+      Outline e2 = new Outline(o2);
+      int exp = bruteForce(e1, e2);
+      int res = Mapping.calcIntersects(o1, o2);
+      assertThat(exp > 0, is(true));
+      assertThat(res, is(exp));
+      compare(e1, o1);
+      compare(e2, o2);
+    }
+  }
+
+  /**
+   * Disjoint outlines have no intersect points.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testCalcIntersectsDisjoint() throws Exception {
+    Outline o1 = wavy(100, 20, 2, 5, 0);
+    Outline o2 = wavy(100, 50, 2, 5, 0);
+    assertThat(Mapping.calcIntersects(o1, o2), is(0));
+    assertThat(o1.getNumPoints(), is(100));
+    assertThat(o2.getNumPoints(), is(100));
+  }
+
+  /**
+   * Create mapping between outlines with given solver.
+   *
+   * @param o1 migrating outline
+   * @param o2 target outline
+   * @param adaptive true for adaptive solver
+   * @return mapping before migration
+   */
+  private Mapping mapping(Outline o1, Outline o2, boolean adaptive) {
+    return new Mapping(o1, o2, params(adaptive));
+  }
+
+  /**
+   * Create default parameters with given solver.
+   *
+   * @param adaptive true for adaptive solver
+   * @return parameters
+   */
+  private ECMp params(boolean adaptive) {
+    ECMp params = new ECMp();
+    params.setParams(300);
+    params.plot = false;
+    params.scale = 1;
+    params.frameInterval = 1;
+    params.adaptiveStep = adaptive;
+    return params;
+  }
+
+  /**
+   * Migrate nodes between outlines with given solver.
+   *
+   * @param adaptive true for adaptive solver
+   * @return mapping after migration
+   */
+  private Mapping migrate(boolean adaptive) {
+    // nodes travel above 120 pixels, Euler limit
+    Mapping mapping = mapping(wavy(50, 150, 15, 5, 0), wavy(50, 20, 2, 5, 1), adaptive);
+    mapping.migrate();
+    return mapping;
+  }
+
+  /**
+   * Adaptive solver maps nodes that travel too far for Euler solver.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testMigrateAdaptive() throws Exception {
+    Mapping euler = migrate(false);
+    Mapping adaptive = migrate(true);
+    assertThat(euler.failures > 0, is(true));
+    assertThat(adaptive.failures, is(0));
+    assertThat(adaptive.fieldEvals < euler.fieldEvals, is(true));
+  }
+
+  /**
+   * Vertices of outline with their distances, ordered by coordinates.
+   *
+   * <p>Head of outline can be selected randomly when vertices are removed.
+   *
+   * @param o outline
+   * @return coordinates and distance of each vertex
+   */
+  private List<String> sorted(Outline o) {
+    List<String> ret = new ArrayList<>();
+    Vert v = o.getHead();
+    do {
+      ret.add(v.getX() + " " + v.getY() + " " + v.distance);
+      v = v.getNext();
+    } while (!v.isHead());
+    Collections.sort(ret);
+    return ret;
+  }
+
+  /**
+   * Vertices migrated concurrently give the same outline as migrated in one thread.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testMigrateParallel() throws Exception {
+    for (boolean adaptive : new boolean[] { false, true }) {
+      Mapping seq = mapping(wavy(80, 50, 5, 5, 0), wavy(80, 45, 4, 6, 1), adaptive);
+      ForkJoinPool pool = new ForkJoinPool(1); // parallel stream runs in this pool
+      Outline exp;
+      try {
+        exp = pool.submit(() -> seq.migrate()).get();
+      } finally {
+        pool.shutdown();
+      }
+      Mapping par = mapping(wavy(80, 50, 5, 5, 0), wavy(80, 45, 4, 6, 1), adaptive);
+      Outline res = par.migrate();
+
+      assertThat(seq.steps > 0, is(true));
+      assertThat(par.steps, is(seq.steps));
+      assertThat(par.fieldEvals, is(seq.fieldEvals));
+      assertThat(par.failures, is(seq.failures));
+      assertThat(sorted(res), is(sorted(exp)));
+    }
+  }
+
+  /**
+   * Adaptive solver needs less evaluations of field than Euler solver for wavy outlines and does
+   * not fail more often.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testMigrateAdaptiveWavy() throws Exception {
+    Mapping euler = mapping(wavy(120, 50, 15, 9, 0), wavy(120, 45, 15, 10, 0.3), false);
+    euler.migrate();
+    Mapping adaptive = mapping(wavy(120, 50, 15, 9, 0), wavy(120, 45, 15, 10, 0.3), true);
+    adaptive.migrate();
+    assertThat(adaptive.failures <= euler.failures, is(true));
+    assertThat(adaptive.fieldEvals < euler.fieldEvals, is(true));
+  }
+
+  /**
+   * Adaptive solver with parameters of ANA terminates and is not worse than Euler solver.
+   *
+   * @throws Exception on error
+   * @see ECMM_Mapping#runByANA(com.github.celldynamics.quimp.OutlineHandler,
+   *      ij.process.ImageProcessor, double)
+   */
+  @Test(timeout = 60000)
+  public void testMigrateAdaptiveAna() throws Exception {
+    Mapping[] mappings = new Mapping[2];
+    for (int i = 0; i < mappings.length; i++) {
+      ECMp params = params(i == 1);
+      params.image = new FloatProcessor(200, 200);
+      params.ANA = true;
+      params.anaMigDist = 20;
+      params.migQ = 1.5E-5;
+      params.tarQ = -1.5E-5;
+      params.h = 0.9;
+      params.chargeDensity = 4;
+      params.d = 0.4;
+      params.maxVertF = 0.7;
+      mappings[i] = new Mapping(wavy(120, 50, 8, 11, 0), wavy(120, 48, 8, 12, 0.3), params);
+      mappings[i].migrate();
+    }
+    assertThat(mappings[1].failures <= mappings[0].failures, is(true));
+    assertThat(mappings[1].fieldEvals <= mappings[0].fieldEvals, is(true));
+  }
+}
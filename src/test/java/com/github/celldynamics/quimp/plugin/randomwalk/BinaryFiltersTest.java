@@ -1,6 +1,10 @@
 package com.github.celldynamics.quimp.plugin.randomwalk;
 
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
 import java.io.File;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -100,4 +104,34 @@ public class BinaryFiltersTest {
     IJ.saveAsTiff(new ImagePlus("", rete), tmpdir + "testIterateMorphologicalDILATE5_QuimP.tif");
   }
 
+  /**
+   * Test {@link BinaryFilters#squaredDistanceTransform(boolean[], int, int)} against brute force.
+   * 
+   * @throws Exception on error
+   */
+  @Test
+  public void testSquaredDistanceTransform() throws Exception {
+    int rows = 23;
+    int cols = 31;
+    Random rnd = new Random(0);
+    boolean[] source = new boolean[rows * cols];
+    for (int i = 0; i < source.length; i++) {
+      source[i] = rnd.nextDouble() < 0.02;
+    }
+    double[] ret = BinaryFilters.squaredDistanceTransform(source, rows, cols);
+    for (int r = 0; r < rows; r++) {
+      for (int c = 0; c < cols; c++) {
+        double min = Double.MAX_VALUE;
+        for (int i = 0; i < source.length; i++) {
+          if (source[i]) {
+            double dr = r - i / cols;
+            double dc = c - i % cols;
+            min = Math.min(min, dr * dr + dc * dc);
+          }
+        }
+        assertThat(ret[r * cols + c], is(min));
+      }
+    }
+  }
+
 }
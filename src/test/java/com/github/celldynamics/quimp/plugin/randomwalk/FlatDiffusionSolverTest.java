@@ -0,0 +1,408 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.StoppedBy;
+
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Compare {@link SolverEngine#FLAT} against reference {@link SolverEngine#MATRIX}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class FlatDiffusionSolverTest {
+
+  /**
+   * Generate image with two bright discs on noisy background.
+   *
+   * @return 8-bit image
+   */
+  static ImageProcessor getTestImage() {
+    Random rnd = new Random(0L);
+    ByteProcessor ret = new ByteProcessor(80, 64);
+    for (int x = 0; x < ret.getWidth(); x++) {
+      for (int y = 0; y < ret.getHeight(); y++) {
+        int val = 30 + rnd.nextInt(20);
+        if (Math.hypot(x - 25, y - 30) < 12 || Math.hypot(x - 58, y - 34) < 10) {
+          val += 150;
+        }
+        ret.set(x, y, val);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Generate seeds for {@link #getTestImage()}.
+   *
+   * @return two foreground seeds, background and rough mask
+   */
+  static Seeds getTestSeeds() {
+    Seeds seeds = new Seeds();
+    ByteProcessor fg1 = new ByteProcessor(80, 64);
+    fg1.setValue(255);
+    fg1.fillOval(22, 27, 6, 6);
+    ByteProcessor fg2 = new ByteProcessor(80, 64);
+    fg2.setValue(255);
+    fg2.fillOval(56, 32, 4, 4);
+    ByteProcessor bg = new ByteProcessor(80, 64);
+    bg.setValue(255);
+    bg.fillRect(0, 0, 80, 3);
+    bg.fillRect(0, 60, 80, 4);
+    ByteProcessor mask = new ByteProcessor(80, 64);
+    mask.setValue(255);
+    mask.fillOval(10, 15, 30, 30);
+    mask.fillOval(45, 21, 26, 26);
+    seeds.put(SeedTypes.FOREGROUNDS, fg1);
+    seeds.put(SeedTypes.FOREGROUNDS, fg2);
+    seeds.put(SeedTypes.BACKGROUND, bg);
+    seeds.put(SeedTypes.ROUGHMASK, mask);
+    return seeds;
+  }
+
+  /**
+   * Run segmentation with given engine.
+   *
+   * @param engine engine to use
+   * @param localMean local mean switch
+   * @return probability maps
+   * @throws Exception on error
+   */
+  private ProbabilityMaps run(SolverEngine engine, boolean localMean) throws Exception {
+    return run(engine, localMean, 1);
+  }
+
+  /**
+   * Run segmentation with given engine and number of threads.
+   *
+   * @param engine engine to use
+   * @param localMean local mean switch
+   * @param numThreads number of threads for solving objects
+   * @return probability maps
+   * @throws Exception on error
+   */
+  private ProbabilityMaps run(SolverEngine engine, boolean localMean, int numThreads)
+          throws Exception {
+    RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 300, 0.1,
+            new Double[] { 8e-3, 1e-3 }, localMean, 9);
+    params.intermediateFilter = new BinaryFilters.EmptyMorpho();
+    params.solverEngine = engine;
+    params.numThreads = numThreads;
+    RandomWalkSegmentation obj = new RandomWalkSegmentation(getTestImage(), params);
+    obj.run(getTestSeeds());
+    return obj.getProbabilityMaps();
+  }
+
+  /**
+   * Compare maps stored under key.
+   *
+   * @param ref reference maps
+   * @param test tested maps
+   * @param key key
+   */
+  private void compareMaps(ProbabilityMaps ref, ProbabilityMaps test, SeedTypes key) {
+    List<RealMatrix> r = ref.get(key);
+    List<RealMatrix> t = test.get(key);
+    assertThat(t.size(), is(r.size()));
+    for (int i = 0; i < r.size(); i++) {
+      assertThat(Arrays.deepEquals(t.get(i).getData(), r.get(i).getData()), is(true));
+    }
+  }
+
+  /**
+   * Both engines must return exactly the same maps for global mean.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverGlobalMean() throws Exception {
+    ProbabilityMaps ref = run(SolverEngine.MATRIX, false);
+    ProbabilityMaps test = run(SolverEngine.FLAT, false);
+    compareMaps(ref, test, SeedTypes.FOREGROUNDS);
+    compareMaps(ref, test, SeedTypes.BACKGROUND);
+  }
+
+  /**
+   * Both engines must return exactly the same maps for local mean.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverLocalMean() throws Exception {
+    ProbabilityMaps ref = run(SolverEngine.MATRIX, true);
+    ProbabilityMaps test = run(SolverEngine.FLAT, true);
+    compareMaps(ref, test, SeedTypes.FOREGROUNDS);
+    compareMaps(ref, test, SeedTypes.BACKGROUND);
+  }
+
+  /**
+   * Concurrent solving of objects must return the same maps in the same order.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverConcurrent() throws Exception {
+    ProbabilityMaps ref = run(SolverEngine.FLAT, false, 1);
+    ProbabilityMaps test = run(SolverEngine.FLAT, false, 4);
+    compareMaps(ref, test, SeedTypes.FOREGROUNDS);
+    compareMaps(ref, test, SeedTypes.BACKGROUND);
+    ref = run(SolverEngine.MATRIX, true, 1);
+    test = run(SolverEngine.MATRIX, true, 3);
+    compareMaps(ref, test, SeedTypes.FOREGROUNDS);
+    compareMaps(ref, test, SeedTypes.BACKGROUND);
+  }
+
+  /**
+   * Coarse-to-fine initialisation should give similar segmentation.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverMultigrid() throws Exception {
+    for (boolean localMean : new boolean[] { false, true }) {
+      RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 10000, 0.1,
+              new Double[] { 8e-3, 1e-3 }, localMean, 9);
+      RandomWalkSegmentation obj = new RandomWalkSegmentation(getTestImage(), params);
+      byte[] ref = (byte[]) obj.run(getTestSeeds()).getPixels();
+      params.multigridLevels = 2;
+      obj = new RandomWalkSegmentation(getTestImage(), params);
+      byte[] test = (byte[]) obj.run(getTestSeeds()).getPixels();
+      int diff = 0;
+      for (int i = 0; i < ref.length; i++) {
+        diff += ref[i] != test[i] ? 1 : 0;
+      }
+      assertThat(diff < ref.length / 100, is(true)); // less than 1% of pixels differ
+    }
+  }
+
+  /**
+   * Coarse levels reduce number of iterations at full resolution.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolveLevels() throws Exception {
+    double[][] w = new double[64][96];
+    for (double[] r : w) {
+      Arrays.fill(r, 1.0);
+    }
+    FlatDiffusionSolver ref = new FlatDiffusionSolver(w, w, w, w, 0.25, 0.1);
+    ref.setSeeds(new int[] { 10 * 96 + 10 }, new int[] { 50 * 96 + 80 });
+    assertThat(ref.solve(0, 20000, 20, 1e-4), is(StoppedBy.RELERR));
+    assertThat(ref.getLevelIterations().length, is(1));
+
+    FlatDiffusionSolver test = new FlatDiffusionSolver(w, w, w, w, 0.25, 0.1);
+    test.setSeeds(new int[] { 10 * 96 + 10 }, new int[] { 50 * 96 + 80 });
+    assertThat(test.solve(5, 20000, 20, 1e-4), is(StoppedBy.RELERR));
+    // 64x96 -> 32x48 -> 16x24 -> 8x12, no more levels
+    assertThat(test.getLevelIterations().length, is(4));
+    assertThat(test.getLevelStoppedBy().length, is(4));
+    assertThat(test.getIterations(), is(test.getLevelIterations()[0]));
+    assertThat(test.getLevelIterations()[0] < ref.getIterations() / 2, is(true));
+  }
+
+  /**
+   * Weights are averaged and seeds mapped to coarse grid.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testCoarsen() throws Exception {
+    double[][] w = new double[][] { { 1, 2, 3 }, { 3, 4, 5 }, { 5, 6, 7 } };
+    FlatDiffusionSolver obj = new FlatDiffusionSolver(w, w, w, w, 1, 1);
+    FlatDiffusionSolver coarse = obj.coarsen();
+    assertThat(coarse.rows, is(2));
+    assertThat(coarse.cols, is(2));
+    // index 8 is the last pixel, 0,1,3,4 are in the first block
+    assertThat(obj.coarsen(new int[] { 8, 0, 1, 3, 4, 2 }), is(new int[] { 3, 0, 1 }));
+    coarse.setSeeds(new int[] { 0 }, new int[0]);
+    coarse.solve(1, 1, 1.0); // one iteration to fill buffer
+    obj.setInitial(coarse);
+    Array2DRowRealMatrix s = obj.getSolution();
+    assertThat(s.getEntry(0, 1), is(s.getEntry(1, 0)));
+    assertThat(s.getEntry(2, 2), is(coarse.getSolution().getEntry(1, 1)));
+    assertThat(s.getEntry(2, 0), is(coarse.getSolution().getEntry(1, 0)));
+  }
+
+  /**
+   * Bounding box covers seeds and connected part of rough mask.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testGetCropBox() throws Exception {
+    Seeds seeds = getTestSeeds();
+    RandomWalkSegmentation obj =
+            new RandomWalkSegmentation(getTestImage(), new RandomWalkOptions());
+    List<int[]> fg = seeds.convertToIndexes(SeedTypes.FOREGROUNDS);
+    ImageProcessor mask = seeds.get(SeedTypes.ROUGHMASK, 1);
+    assertThat(obj.getCropBox(fg.get(0), mask, 2), is(new Rectangle(8, 13, 34, 34)));
+    assertThat(obj.getCropBox(fg.get(1), mask, 0), is(new Rectangle(45, 21, 26, 26)));
+    assertThat(obj.getCropBox(fg.get(1), null, 1), is(new Rectangle(55, 31, 6, 6)));
+    assertThat(obj.getCropBox(fg.get(0), mask, 100), is((Rectangle) null));
+  }
+
+  /**
+   * Solving objects in regions should give similar segmentation.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverCrop() throws Exception {
+    for (SolverEngine engine : SolverEngine.values()) {
+      RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 10000, 0.1,
+              new Double[] { 8e-3, 1e-3 }, true, 9);
+      params.solverEngine = engine;
+      params.maskLimit = true;
+      RandomWalkSegmentation obj = new RandomWalkSegmentation(getTestImage(), params);
+      byte[] ref = (byte[]) obj.run(getTestSeeds()).getPixels();
+      params.cropPadding = 3;
+      obj = new RandomWalkSegmentation(getTestImage(), params);
+      byte[] test = (byte[]) obj.run(getTestSeeds()).getPixels();
+      int diff = 0;
+      for (int i = 0; i < ref.length; i++) {
+        diff += ref[i] != test[i] ? 1 : 0;
+      }
+      assertThat(diff < ref.length / 100, is(true)); // less than 1% of pixels differ
+    }
+  }
+
+  /**
+   * Without {@link RandomWalkOptions#maskLimit} cropped solution only approximates full one.
+   *
+   * <p>Background seeds outside crop are lost and diffusion is limited by borders of crop, so
+   * probabilities differ near borders of crop. Difference decreases with padding. Image with two
+   * objects has lowered contrast to make segmentation less certain.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverCropNoMaskLimit() throws Exception {
+    ImageProcessor image = getTestImage();
+    image.multiply(0.3);
+    for (SolverEngine engine : SolverEngine.values()) {
+      RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 10000, 0.1,
+              new Double[] { 8e-3, 1e-3 }, true, 9);
+      params.solverEngine = engine;
+      params.maskLimit = false;
+      RandomWalkSegmentation obj = new RandomWalkSegmentation(image, params);
+      byte[] ref = (byte[]) obj.run(getTestSeeds()).getPixels();
+      List<RealMatrix> refMaps = obj.getProbabilityMaps().get(SeedTypes.FOREGROUNDS);
+      double prevDiff = Double.MAX_VALUE;
+      for (int padding : new int[] { 0, 3, 10 }) {
+        params.cropPadding = padding;
+        obj = new RandomWalkSegmentation(image, params);
+        byte[] test = (byte[]) obj.run(getTestSeeds()).getPixels();
+        List<RealMatrix> testMaps = obj.getProbabilityMaps().get(SeedTypes.FOREGROUNDS);
+        int diff = 0;
+        int area = 0;
+        for (int i = 0; i < ref.length; i++) {
+          diff += ref[i] != test[i] ? 1 : 0;
+          area += ref[i] != 0 ? 1 : 0;
+        }
+        assertThat(diff < area / 50, is(true)); // less than 2% of segmented area differs
+        double maxDiff = 0;
+        for (int m = 0; m < refMaps.size(); m++) {
+          double[][] r = refMaps.get(m).getData();
+          double[][] t = testMaps.get(m).getData();
+          for (int i = 0; i < r.length; i++) {
+            for (int j = 0; j < r[i].length; j++) {
+              maxDiff = Math.max(maxDiff, Math.abs(r[i][j] - t[i][j]));
+            }
+          }
+        }
+        assertThat(maxDiff < 0.15, is(true));
+        assertThat(maxDiff <= prevDiff + 1e-9, is(true));
+        prevDiff = maxDiff;
+      }
+    }
+  }
+
+  /**
+   * Updating only active tiles should give similar solution with less work.
+   *
+   * <p>Columns 40 and 319 do not conduct, so the region between them stays 0 and its tiles should
+   * be frozen.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolveActive() throws Exception {
+    double[][] w = new double[128][320];
+    for (double[] r : w) {
+      Arrays.fill(r, 1.0);
+      r[40] = Double.POSITIVE_INFINITY;
+      r[319] = Double.POSITIVE_INFINITY;
+    }
+    int[] fg = new int[] { 10 * 320 + 10 };
+    int[] bg = new int[] { 100 * 320 + 20, 100 * 320 + 140 };
+    FlatDiffusionSolver ref = new FlatDiffusionSolver(w, w, w, w, 0.25, 0.1);
+    ref.setSeeds(fg, bg);
+    assertThat(ref.solve(0, 20000, 20, 1e-3), is(StoppedBy.RELERR));
+    assertThat(ref.getActiveFraction(), is(1.0));
+
+    FlatDiffusionSolver test = new FlatDiffusionSolver(w, w, w, w, 0.25, 0.1);
+    test.setSeeds(fg, bg);
+    test.setActivityThreshold(1e-4);
+    assertThat(test.solve(0, 20000, 20, 1e-3), is(StoppedBy.RELERR));
+    assertThat(test.getActiveFraction() < 0.5, is(true));
+    double[][] r = ref.getSolution().getDataRef();
+    double[][] t = test.getSolution().getDataRef();
+    double maxDiff = 0;
+    for (int i = 0; i < r.length; i++) {
+      for (int j = 0; j < r[i].length; j++) {
+        maxDiff = Math.max(maxDiff, Math.abs(r[i][j] - t[i][j]));
+      }
+    }
+    assertThat(maxDiff < 1e-2, is(true));
+  }
+
+  /**
+   * Tracking of active tiles should give similar segmentation.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverActive() throws Exception {
+    RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 10000, 0.1,
+            new Double[] { 8e-3, 1e-3 }, false, 9);
+    RandomWalkSegmentation obj = new RandomWalkSegmentation(getTestImage(), params);
+    byte[] ref = (byte[]) obj.run(getTestSeeds()).getPixels();
+    params.activityThreshold = 1e-4;
+    obj = new RandomWalkSegmentation(getTestImage(), params);
+    byte[] test = (byte[]) obj.run(getTestSeeds()).getPixels();
+    int diff = 0;
+    for (int i = 0; i < ref.length; i++) {
+      diff += ref[i] != test[i] ? 1 : 0;
+    }
+    assertThat(diff < ref.length / 100, is(true)); // less than 1% of pixels differ
+  }
+
+  /**
+   * Relative error computed on flat arrays.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testComputeRelErr() throws Exception {
+    double[] fglast = new double[] { 0, 1, 2, 0 };
+    double[] fg = new double[] { 0, 3, 2, 1 };
+    // (0 + 2*2/4 + 0 + 2*1/1)/4
+    assertThat(FlatDiffusionSolver.computeRelErr(fglast, fg), is(0.75));
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.commons.math3.linear.RealMatrix;
+import org.junit.Test;
+
+/**
+ * FloatPlanesTest.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class FloatPlanesTest {
+
+  /**
+   * Test of {@link FloatPlanes#setBlock(int, double[][], int, int)}.
+   *
+   * <p>Block is copied to specified plane and position, other planes are not modified.
+   *
+   * @throws Exception Exception
+   */
+  @Test
+  public void testSetBlock() throws Exception {
+    FloatPlanes obj = new FloatPlanes(2, 3, 4);
+    obj.setBlock(1, new double[][] { { 1, 2 }, { 3, 4 } }, 1, 2);
+    assertThat(obj.get(1, 1, 2), is(1.0f));
+    assertThat(obj.get(1, 2, 3), is(4.0f));
+    assertThat(obj.get(1, 0, 2), is(0.0f));
+    assertThat(obj.getDataRef()[12 + 4 + 3], is(2.0f));
+    for (int i = 0; i < 12; i++) {
+      assertThat(obj.getDataRef()[i], is(0.0f));
+    }
+  }
+
+  /**
+   * Test of {@link FloatPlanes#argMax()} and {@link FloatPlanes#max()}.
+   *
+   * <p>First plane wins on equal values.
+   *
+   * @throws Exception Exception
+   */
+  @Test
+  public void testArgMax() throws Exception {
+    FloatPlanes obj = new FloatPlanes(3, 1, 3);
+    obj.setBlock(0, new double[][] { { 1, 5, 2 } }, 0, 0);
+    obj.setBlock(1, new double[][] { { 3, 5, 0 } }, 0, 0);
+    obj.setBlock(2, new double[][] { { 2, 6, 2 } }, 0, 0);
+    assertThat(obj.argMax(), is(new int[] { 1, 2, 0 }));
+    assertThat(obj.max(), is(new float[] { 3, 6, 2 }));
+  }
+
+  /**
+   * Test of {@link FloatPlanes#getPlane(int)}.
+   *
+   * <p>Plane is view of buffer.
+   *
+   * @throws Exception Exception
+   */
+  @Test
+  public void testGetPlane() throws Exception {
+    FloatPlanes obj = new FloatPlanes(2, 2, 3);
+    RealMatrix plane = obj.getPlane(1);
+    assertThat(plane.getRowDimension(), is(2));
+    assertThat(plane.getColumnDimension(), is(3));
+    plane.setEntry(1, 0, 0.5);
+    assertThat(obj.get(1, 1, 0), is(0.5f));
+    obj.set(1, 0, 2, 7);
+    assertThat(plane.getEntry(0, 2), is(7.0));
+    assertThat(plane.copy().getEntry(0, 2), is(7.0));
+  }
+}
@@ -135,4 +135,32 @@ public class ProbabilityMapsTest {
     obj.convertToImageStack(SeedTypes.FOREGROUNDS); // throws
   }
 
+  /**
+   * Test of {@link ProbabilityMaps#getPlanes(Object)}.
+   * 
+   * <p>Planes stored by {@link ProbabilityMaps#put(SeedTypes, FloatPlanes)} are not copied, other
+   * maps are.
+   *
+   * @throws Exception Exception
+   */
+  @Test
+  public void testGetPlanes() throws Exception {
+    FloatPlanes planes = new FloatPlanes(2, 2, 3);
+    planes.set(1, 1, 2, 12);
+    ProbabilityMaps obj = new ProbabilityMaps();
+    obj.put(SeedTypes.FOREGROUNDS, planes);
+    assertThat(obj.get(SeedTypes.FOREGROUNDS).size(), is(2));
+    assertThat(obj.get(SeedTypes.FOREGROUNDS).get(1).getEntry(1, 2), is(12.0));
+    assertThat(obj.getPlanes(SeedTypes.FOREGROUNDS) == planes, is(true));
+    assertThat(obj.getPlanes(SeedTypes.BACKGROUND), is(nullValue()));
+
+    double[][] m1d = { { 1, 2, 3 }, { 4, 5, 6 } }; // [2][3]
+    obj.put(SeedTypes.FOREGROUNDS, new Array2DRowRealMatrix(m1d));
+    FloatPlanes ret = obj.getPlanes(SeedTypes.FOREGROUNDS);
+    assertThat(ret == planes, is(false));
+    assertThat(ret.getDepth(), is(3));
+    assertThat(ret.get(1, 1, 2), is(12.0f));
+    assertThat(ret.get(2, 1, 0), is(4.0f));
+  }
+
 }
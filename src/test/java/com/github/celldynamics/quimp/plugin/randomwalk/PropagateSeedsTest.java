@@ -31,7 +31,9 @@ import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.gui.Roi;
 import ij.process.AutoThresholder;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 
 /**
@@ -333,6 +335,61 @@ public class PropagateSeedsTest {
     IJ.saveAsTiff(new ImagePlus("", is), tmpdir + "testGetCompositeSeed_Morphological_F_QuimP.tif");
   }
 
+  /**
+   * Test of {@link PropagateSeeds.Distance#propagateSeed(ImageProcessor, ImageProcessor, double,
+   * double)}.
+   * 
+   * <p>Two touching squares labelled 1 and 3 and one square labelled 1 separately. Level 2 is not
+   * used so two foreground maps are expected.
+   * 
+   * @throws Exception on error
+   */
+  @Test
+  public void testPropagateSeedDistance() throws Exception {
+    ByteProcessor mask = new ByteProcessor(60, 40);
+    mask.setValue(1);
+    mask.fill(new Roi(5, 5, 20, 20));
+    mask.fill(new Roi(40, 10, 10, 10));
+    mask.setValue(3);
+    mask.fill(new Roi(25, 5, 10, 20));
+    PropagateSeeds.Distance cc = new PropagateSeeds.Distance(true, null);
+    Seeds s = cc.propagateSeed(mask, mask, 3, 4);
+
+    assertThat(s.get(SeedTypes.FOREGROUNDS), hasSize(2));
+    assertThat(s.get(SeedTypes.BACKGROUND), hasSize(1));
+    ImageProcessor fg1 = s.get(SeedTypes.FOREGROUNDS, 1);
+    ImageProcessor fg3 = s.get(SeedTypes.FOREGROUNDS, 2);
+    ImageProcessor bg = s.get(SeedTypes.BACKGROUND, 1);
+    // shrunk by 3 pixels from background
+    assertThat(fg1.get(7, 15), is(0));
+    assertThat(fg1.get(8, 15), is(255));
+    assertThat(fg1.get(43, 15), is(255));
+    assertThat(fg1.get(42, 15), is(0));
+    // shrunk from border between objects (last pixel of label 1 is 24, first of label 3 is 25)
+    assertThat(fg1.get(21, 15), is(0));
+    assertThat(fg1.get(20, 15), is(255));
+    assertThat(fg3.get(28, 15), is(0));
+    assertThat(fg3.get(29, 15), is(255));
+    assertThat(fg3.get(20, 15), is(0));
+    // background further than 4 pixels from objects
+    assertThat(bg.get(0, 15), is(255));
+    assertThat(bg.get(1, 15), is(0));
+    assertThat(bg.get(37, 15), is(0)); // between objects
+    assertThat(bg.get(53, 15), is(0));
+    assertThat(bg.get(54, 15), is(255));
+    assertThat(bg.get(15, 15), is(0));
+    // zero powers keep objects except borders between them
+    s = new PropagateSeeds.Distance().propagateSeed(mask, mask, 0, 0);
+    assertThat(s.get(SeedTypes.FOREGROUNDS, 1).get(5, 5), is(255));
+    assertThat(s.get(SeedTypes.FOREGROUNDS, 1).get(24, 15), is(0));
+    assertThat(s.get(SeedTypes.FOREGROUNDS, 1).get(23, 15), is(255));
+    assertThat(s.get(SeedTypes.BACKGROUND, 1).get(4, 15), is(255));
+    assertThat(s.get(SeedTypes.BACKGROUND, 1).get(5, 15), is(0));
+    // empty mask gives no seeds
+    s = cc.propagateSeed(new ByteProcessor(60, 40), mask, 3, 4);
+    assertThat(s.get(SeedTypes.FOREGROUNDS) == null, is(true));
+  }
+
   /**
    * Test of getTrueBackground().
    * 
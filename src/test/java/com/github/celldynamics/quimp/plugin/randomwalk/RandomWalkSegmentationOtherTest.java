@@ -22,6 +22,7 @@ import com.github.celldynamics.quimp.utils.QuimPArrayUtils;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.process.ByteProcessor;
 import ij.process.ImageProcessor;
 
 /**
@@ -366,4 +367,70 @@ public class RandomWalkSegmentationOtherTest {
     assertThat(ret.hashCode(), is(1549840221)); // checked manually
   }
 
+  /**
+   * Test getMeanSeedLocal against direct computation of mean within window. Edge pixels are
+   * repeated outside image.
+   * 
+   * @throws Exception on error
+   */
+  @Test
+  public void testGetMeanSeedLocalEdges() throws Exception {
+    int[][] im = { { 1, 2, 3, 4, 5 }, { 6, 7, 8, 9, 10 }, { 11, 12, 13, 14, 15 },
+        { 16, 17, 18, 19, 20 } };
+    int[][] ma = { { 255, 0, 255, 0, 0 }, { 0, 255, 255, 0, 255 }, { 0, 0, 0, 0, 255 },
+        { 255, 255, 0, 0, 0 } };
+    ByteProcessor ip = new ByteProcessor(5, 4);
+    ByteProcessor mask = new ByteProcessor(5, 4);
+    for (int r = 0; r < 4; r++) {
+      for (int c = 0; c < 5; c++) {
+        ip.set(c, r, im[r][c]);
+        mask.set(c, r, ma[r][c]);
+      }
+    }
+    RandomWalkSegmentation obj = new RandomWalkSegmentation(ip, params);
+    RealMatrix ret = obj.getMeanSeedLocal(mask, 3);
+    for (int r = 0; r < 4; r++) {
+      for (int c = 0; c < 5; c++) {
+        double sum = 0;
+        int num = 0;
+        for (int y = r - 1; y <= r + 1; y++) {
+          for (int x = c - 1; x <= c + 1; x++) {
+            int yy = Math.min(Math.max(y, 0), 3);
+            int xx = Math.min(Math.max(x, 0), 4);
+            if (ma[yy][xx] != 0) {
+              sum += im[yy][xx];
+              num++;
+            }
+          }
+        }
+        double expected = ma[r][c] != 0 ? sum / num : 0.0;
+        assertThat(ret.getEntry(r, c), is(expected));
+      }
+    }
+  }
+
+  /**
+   * Local mean is computed once for the same mask and recomputed when mask changes.
+   * 
+   * @throws Exception on error
+   */
+  @Test
+  public void testGetMeanSeedLocalCached() throws Exception {
+    ByteProcessor ip = new ByteProcessor(10, 8);
+    ByteProcessor mask = new ByteProcessor(10, 8);
+    for (int i = 0; i < 80; i++) {
+      ip.set(i, i);
+      mask.set(i, i % 3 == 0 ? 255 : 0);
+    }
+    RandomWalkSegmentation obj = new RandomWalkSegmentation(ip, params);
+    RealMatrix ret = obj.getMeanSeedLocalCached(mask, 3);
+    assertThat(ret, is(obj.getMeanSeedLocal(mask, 3)));
+    assertThat(obj.getMeanSeedLocalCached(mask, 3) == ret, is(true));
+    assertThat(obj.getMeanSeedLocalCached(mask, 5) == ret, is(false));
+    ret = obj.getMeanSeedLocalCached(mask, 5);
+    mask.set(1, 255);
+    assertThat(obj.getMeanSeedLocalCached(mask, 5) == ret, is(false));
+    assertThat(obj.getMeanSeedLocalCached(mask, 5), is(obj.getMeanSeedLocal(mask, 5)));
+  }
+
 }
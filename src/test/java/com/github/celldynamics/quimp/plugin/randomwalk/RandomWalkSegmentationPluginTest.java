@@ -15,13 +15,17 @@ import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.github.celldynamics.quimp.plugin.randomwalk.PropagateSeeds.Propagators;
 import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkModel.SeedSource;
 import com.github.celldynamics.quimp.utils.IJTools;
 
 import ij.IJ;
 import ij.ImageJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.io.Opener;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
 
 /**
  * Example of high level API and tests of RandomWalkSegmentationPlugin.
@@ -161,6 +165,62 @@ public class RandomWalkSegmentationPluginTest {
     assertThat(res.getHeight(), is(512));
   }
 
+  /**
+   * Segment synthetic stack with given number of concurrent frames.
+   * 
+   * @param seedStack true to use stack of masks as seeds, false to propagate seeds from first
+   *        frame
+   * @param numFrameThreads number of concurrent frames
+   * @return segmented stack
+   */
+  private ImagePlus segmentStack(boolean seedStack, int numFrameThreads) {
+    ImageStack is = new ImageStack(80, 64);
+    ImageStack ss = new ImageStack(80, 64);
+    for (int s = 0; s < 4; s++) {
+      ImageProcessor ip = FlatDiffusionSolverTest.getTestImage();
+      ip.translate(s, 0);
+      is.addSlice(ip);
+      if (seedStack || s == 0) { // otherwise seeds are propagated from first frame
+        ImageProcessor mask = new ByteProcessor(80, 64);
+        mask.setValue(1);
+        mask.fillOval(13 + s, 18, 24, 24);
+        mask.setValue(2);
+        mask.fillOval(48 + s, 24, 20, 20);
+        ss.addSlice(mask);
+      }
+    }
+    RandomWalkModel opts = new RandomWalkModel();
+    opts.setOriginalImage(new ImagePlus("image", is));
+    opts.setSeedImage(new ImagePlus("seeds", ss));
+    opts.setSelectedSeedSource(SeedSource.MaskImage);
+    opts.setselectedShrinkMethod(Propagators.MORPHOLOGICAL);
+    opts.shrinkPower = 3;
+    opts.expandPower = 5;
+    opts.algOptions.useLocalMean = true;
+    opts.numFrameThreads = numFrameThreads;
+    RandomWalkSegmentationPlugin_ obj = new RandomWalkSegmentationPlugin_(opts);
+    obj.runPlugin();
+    return obj.getResult();
+  }
+
+  /**
+   * Pipelined segmentation of stack must return the same frames in the same order.
+   * 
+   * @throws Exception on error
+   */
+  @Test
+  public void testSegmentStackConcurrent() throws Exception {
+    for (boolean seedStack : new boolean[] { true, false }) {
+      ImagePlus ref = segmentStack(seedStack, 1);
+      ImagePlus test = segmentStack(seedStack, 3);
+      assertThat(test.getStackSize(), is(ref.getStackSize()));
+      for (int s = 1; s <= ref.getStackSize(); s++) {
+        assertThat(test.getStack().getProcessor(s).getPixels(),
+                is(ref.getStack().getProcessor(s).getPixels()));
+      }
+    }
+  }
+
   /**
    * Test method for
    * {@link RandomWalkSegmentationPlugin_#writeUI()}.
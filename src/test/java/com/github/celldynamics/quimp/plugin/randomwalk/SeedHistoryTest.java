@@ -0,0 +1,164 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SeedTypes;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * Test of {@link SeedHistory}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class SeedHistoryTest {
+
+  /**
+   * Create seeds with two foreground objects and background.
+   *
+   * @param frame frame number, shifts objects
+   * @return seeds
+   */
+  private Seeds getSeeds(int frame) {
+    Seeds ret = new Seeds(2);
+    ByteProcessor fg1 = new ByteProcessor(20, 10);
+    fg1.set(frame, 1, 255);
+    ByteProcessor fg2 = new ByteProcessor(20, 10);
+    fg2.set(frame, 5, 255);
+    ByteProcessor bg = new ByteProcessor(20, 10);
+    bg.set(19 - frame, 9, 255);
+    ret.put(SeedTypes.FOREGROUNDS, fg1);
+    ret.put(SeedTypes.FOREGROUNDS, fg2);
+    ret.put(SeedTypes.BACKGROUND, bg);
+    return ret;
+  }
+
+  /**
+   * Frames moved to file are the same as kept on heap.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testAddGet() throws Exception {
+    try (SeedHistory history = new SeedHistory(2)) {
+      for (int f = 0; f < 5; f++) {
+        history.add(getSeeds(f));
+      }
+      assertThat(history.size(), is(5));
+      assertThat(history.getSpilled(), is(3));
+      assertThat(history.isComplete(), is(true));
+      for (int f = 0; f < 5; f++) {
+        ImageProcessor[] frame = history.get(f);
+        assertThat(frame[0].get(f, 1), is(255));
+        assertThat(frame[0].get(f, 5), is(255));
+        assertThat(frame[1].get(19 - f, 9), is(255));
+        assertThat(frame[0].getStatistics().histogram[255], is(2));
+        assertThat(frame[1].getStatistics().histogram[255], is(1));
+      }
+    }
+  }
+
+  /**
+   * Frame without background makes history incomplete.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testIsComplete() throws Exception {
+    try (SeedHistory history = new SeedHistory(1)) {
+      Seeds seeds = getSeeds(0);
+      seeds.remove(SeedTypes.BACKGROUND);
+      history.add(seeds);
+      history.add(getSeeds(1));
+      assertThat(history.getSpilled(), is(1));
+      assertThat(history.isComplete(), is(false));
+      assertThat(history.get(0) == null, is(true));
+    }
+  }
+
+  /**
+   * Stack reads scaled masks and slices can be consumed.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testGetStack() throws Exception {
+    try (SeedHistory history = new SeedHistory(1)) {
+      for (int f = 0; f < 3; f++) {
+        history.add(getSeeds(f));
+      }
+      ImageStack stack = history.getStack(SeedTypes.BACKGROUND, 0.5);
+      assertThat(stack.getSize(), is(3));
+      assertThat(stack.getProcessor(2).get(18, 9), is(128));
+      stack.deleteSlice(1);
+      assertThat(stack.getSize(), is(2));
+      assertThat(stack.getProcessor(1).get(18, 9), is(128));
+      assertThat(history.size(), is(3));
+    }
+  }
+
+  /**
+   * Closing history removes temporary file also after frames were read from it.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testCloseAfterRead() throws Exception {
+    SeedHistory history = new SeedHistory(1);
+    for (int f = 0; f < 4; f++) {
+      history.add(getSeeds(f));
+    }
+    for (int f = 0; f < history.getSpilled(); f++) {
+      assertThat(history.get(f)[1].get(19 - f, 9), is(255));
+    }
+    Field field = SeedHistory.class.getDeclaredField("file");
+    field.setAccessible(true);
+    Path file = (Path) field.get(history);
+    assertThat(Files.exists(file), is(true));
+
+    history.close();
+    assertThat(Files.exists(file), is(false));
+    assertThat(history.size(), is(0));
+  }
+
+  /**
+   * Closing propagator removes temporary file of its history, composite of seeds built before is
+   * still valid.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testCloseByPropagator() throws Exception {
+    int frames = SeedHistory.DEFAULT_IN_MEMORY + 2; // some frames go to file
+    PropagateSeeds propagator = new PropagateSeeds.Morphological(true, null);
+    ImageStack org = new ImageStack(20, 10);
+    for (int f = 0; f < frames; f++) {
+      propagator.addToHistory(getSeeds(f % 10));
+      org.addSlice(new ByteProcessor(20, 10));
+    }
+    Field field = SeedHistory.class.getDeclaredField("file");
+    field.setAccessible(true);
+    Path file = (Path) field.get(propagator.seeds);
+    assertThat(Files.exists(file), is(true));
+    ImagePlus composite = propagator.getCompositeSeed(new ImagePlus("", org), 0);
+
+    propagator.close();
+    assertThat(Files.exists(file), is(false));
+    assertThat(field.get(propagator.seeds), is(nullValue()));
+    assertThat(composite.getStackSize(), is(3 * frames)); // seeds and image in channels
+    // background of first frame (stored in file), channel 2 of composite
+    assertThat(composite.getStack().getProcessor(2).get(19, 9) > 0, is(true));
+  }
+}
@@ -5,6 +5,7 @@ import static org.hamcrest.CoreMatchers.nullValue;
 import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -126,6 +127,35 @@ public class SeedsTest {
     assertThat(list.isEmpty(), is(true));
   }
 
+  /**
+   * Test of {@link Seeds#convertToIndexes(SeedTypes)}.
+   * 
+   * <p>Indexes are sorted and the same as points from {@link Seeds#convertToList(SeedTypes)}.
+   * 
+   * @throws Exception Exception
+   */
+  @Test
+  public void testConvertToIndexes() throws Exception {
+    ImageProcessor fg = new ByteProcessor(256, 128);
+    fg.putPixel(172, 97, 255);
+    fg.putPixel(70, 70, 255);
+    fg.putPixel(71, 70, 255);
+    fg.putPixel(100, 20, 255);
+    Seeds ret = new Seeds();
+    ret.put(SeedTypes.FOREGROUNDS, fg);
+    ret.put(SeedTypes.FOREGROUNDS, new ByteProcessor(256, 128));
+
+    List<int[]> list = ret.convertToIndexes(SeedTypes.FOREGROUNDS);
+    assertThat(list.size(), is(2));
+    assertThat(list.get(0),
+            is(new int[] { 20 * 256 + 100, 70 * 256 + 70, 70 * 256 + 71, 97 * 256 + 172 }));
+    assertThat(list.get(1), is(new int[0]));
+    for (Point p : ret.convertToList(SeedTypes.FOREGROUNDS).get(0)) {
+      assertThat(Arrays.binarySearch(list.get(0), p.row * 256 + p.col) >= 0, is(true));
+    }
+    assertThat(ret.convertToIndexes(SeedTypes.BACKGROUND).isEmpty(), is(true));
+  }
+
   /**
    * Test of {@link Seeds#convertToStack(SeedTypes)}.
    * 
@@ -0,0 +1,88 @@
+package com.github.celldynamics.quimp.plugin.randomwalk;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.apache.commons.math3.linear.Array2DRowRealMatrix;
+import org.junit.Test;
+
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.SolverEngine;
+import com.github.celldynamics.quimp.plugin.randomwalk.RandomWalkSegmentation.StoppedBy;
+
+/**
+ * Test of {@link SparseLaplacianSolver}.
+ *
+ * @author p.baniukiewicz
+ *
+ */
+public class SparseLaplacianSolverTest {
+
+  /**
+   * Uniform weights give linear profile between seeds.
+   *
+   * <p>FG seed in row 0, BG seed in row 5, circular boundary conditions.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolveLinear() throws Exception {
+    double[][] w = new double[10][4];
+    for (double[] r : w) {
+      Arrays.fill(r, 2.0);
+    }
+    SparseLaplacianSolver obj = new SparseLaplacianSolver(w, w, w, w);
+    obj.setSeeds(new int[] { 0, 1, 2, 3 }, new int[] { 20, 21, 22, 23 });
+    assertThat(obj.solve(1000, 1e-10), is(StoppedBy.RELERR));
+    Array2DRowRealMatrix ret = obj.getSolution();
+    for (int r = 0; r < 10; r++) {
+      double expected = r <= 5 ? 1 - r / 5.0 : (r - 5) / 5.0;
+      for (int c = 0; c < 4; c++) {
+        assertThat(Math.abs(ret.getEntry(r, c) - expected) < 1e-8, is(true));
+      }
+    }
+  }
+
+  /**
+   * Limit of iterations is reported.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolveIterations() throws Exception {
+    double[][] w = new double[32][32];
+    for (double[] r : w) {
+      Arrays.fill(r, 1.0);
+    }
+    SparseLaplacianSolver obj = new SparseLaplacianSolver(w, w, w, w);
+    obj.setSeeds(new int[] { 0 }, new int[] { 16 * 32 + 16 });
+    assertThat(obj.solve(3, 1e-10), is(StoppedBy.ITERATIONS));
+    assertThat(obj.getIterations(), is(3));
+    assertThat(obj.getResidual() > 1e-10, is(true));
+  }
+
+  /**
+   * Segmentation with CG engine should be close to diffusion.
+   *
+   * @throws Exception on error
+   */
+  @Test
+  public void testSolverCg() throws Exception {
+    for (boolean localMean : new boolean[] { false, true }) {
+      RandomWalkOptions params = new RandomWalkOptions(400.0, 50.0, 100.0, 300.0, 10000, 0.1,
+              new Double[] { 8e-3, 1e-3 }, localMean, 9);
+      RandomWalkSegmentation obj =
+              new RandomWalkSegmentation(FlatDiffusionSolverTest.getTestImage(), params);
+      byte[] ref = (byte[]) obj.run(FlatDiffusionSolverTest.getTestSeeds()).getPixels();
+      params.solverEngine = SolverEngine.CG;
+      obj = new RandomWalkSegmentation(FlatDiffusionSolverTest.getTestImage(), params);
+      byte[] test = (byte[]) obj.run(FlatDiffusionSolverTest.getTestSeeds()).getPixels();
+      int diff = 0;
+      for (int i = 0; i < ref.length; i++) {
+        diff += ref[i] != test[i] ? 1 : 0;
+      }
+      assertThat(diff < ref.length / 100, is(true)); // less than 1% of pixels differ
+    }
+  }
+}